@@ -0,0 +1,184 @@
+package org.plsomlib.benchmarks;
+
+import org.plsomlib.BdhSOM;
+import org.plsomlib.ConscienceSOM;
+import org.plsomlib.IEPLSOM2;
+import org.plsomlib.MapBase;
+import org.plsomlib.PLSOM;
+import org.plsomlib.PLSOM2;
+import org.plsomlib.SOM;
+import org.plsomlib.metrics.EuclideanMetric;
+import org.plsomlib.metrics.Metric;
+import org.plsomlib.metrics.SquaredEuclideanMetric;
+import org.plsomlib.recursive.MultilayerRecursivePLSOM2;
+import org.plsomlib.recursive.RecursivePLSOM2;
+
+/**
+ * The operations measured by MapBenchmark. This lets maps that do not
+ * implement MapBase, such as MultilayerRecursivePLSOM2, be measured the same
+ * way as those that do.
+ * 
+ * @author Erik Berglund
+ */
+public interface BenchmarkModel
+{
+	/**
+	 * Train the map with an input.
+	 * 
+	 * @param input
+	 *            the input vector.
+	 */
+	public void train(double[] input);
+
+	/**
+	 * Classify an input.
+	 * 
+	 * @param input
+	 *            the input vector.
+	 * @return the position of the winning node.
+	 */
+	public int[] classify(double[] input);
+
+	/**
+	 * Create a map with parameters that give it a reasonable amount of
+	 * neighbourhood work per training step.
+	 * 
+	 * @param type
+	 *            the simple class name of the map: SOM, PLSOM, PLSOM2, IEPLSOM2,
+	 *            ConscienceSOM, BdhSOM, RecursivePLSOM2 or
+	 *            MultilayerRecursivePLSOM2.
+	 * @param metric
+	 *            the input metric, "Euclidean" or "SquaredEuclidean". IEPLSOM2
+	 *            only works with its own weighted metric and
+	 *            MultilayerRecursivePLSOM2 has no metric setter, so these ignore
+	 *            it.
+	 * @param inputSize
+	 *            the input dimension.
+	 * @param dimensions
+	 *            the size of each output dimension.
+	 * @return the map.
+	 * @throws IllegalArgumentException
+	 *             if the type or the metric is unknown.
+	 */
+	public static BenchmarkModel create(String type, String metric, int inputSize, int... dimensions)
+	{
+		int maxDimension = 0;
+		for (int dimension : dimensions)
+		{
+			maxDimension = Math.max(maxDimension, dimension);
+		}
+		final MapBase map;
+		switch (type)
+		{
+			case "SOM":
+			{
+				SOM som = new SOM(inputSize, dimensions);
+				som.setLearningRate(0.8);
+				som.setNeighbourhoodSize(maxDimension);
+				map = som;
+				break;
+			}
+			case "PLSOM":
+			{
+				PLSOM plsom = new PLSOM(inputSize, dimensions);
+				plsom.setNeighbourhoodRange(maxDimension);
+				map = plsom;
+				break;
+			}
+			case "PLSOM2":
+			{
+				PLSOM2 plsom = new PLSOM2(inputSize, dimensions);
+				plsom.setNeighbourhoodRange(maxDimension);
+				map = plsom;
+				break;
+			}
+			case "IEPLSOM2":
+			{
+				IEPLSOM2 plsom = new IEPLSOM2(inputSize, dimensions);
+				plsom.setNeighbourhoodRange(maxDimension);
+				map = plsom;
+				break;
+			}
+			case "ConscienceSOM":
+			{
+				ConscienceSOM som = new ConscienceSOM(inputSize, dimensions);
+				som.setLearningRate(0.8);
+				som.setNeighbourhoodSize(maxDimension);
+				map = som;
+				break;
+			}
+			case "BdhSOM":
+			{
+				BdhSOM som = new BdhSOM(0.5, Math.min(inputSize, dimensions.length), 1, inputSize, dimensions);
+				som.setNeighbourhoodSize(maxDimension);
+				map = som;
+				break;
+			}
+			case "RecursivePLSOM2":
+				map = new RecursivePLSOM2(0.9, inputSize, maxDimension, dimensions);
+				break;
+			case "MultilayerRecursivePLSOM2":
+				return createMultilayer(inputSize, maxDimension, dimensions);
+			default:
+				throw new IllegalArgumentException("Unknown map type " + type + ".");
+		}
+		if (!(map instanceof IEPLSOM2))
+		{
+			map.setInputMetric(createMetric(metric));
+		}
+		return new BenchmarkModel()
+		{
+			public void train(double[] input)
+			{
+				map.train(input);
+			}
+
+			public int[] classify(double[] input)
+			{
+				return map.classify(input);
+			}
+		};
+	}
+
+	/**
+	 * @param metric
+	 *            the name of the metric.
+	 * @return a new metric.
+	 * @throws IllegalArgumentException
+	 *             if the metric is unknown.
+	 */
+	static Metric createMetric(String metric)
+	{
+		switch (metric)
+		{
+			case "Euclidean":
+				return new EuclideanMetric();
+			case "SquaredEuclidean":
+				return new SquaredEuclideanMetric();
+			default:
+				throw new IllegalArgumentException("Unknown metric " + metric + ".");
+		}
+	}
+
+	/**
+	 * MultilayerRecursivePLSOM2 can only classify its most recent training
+	 * input, so classify(...) measures the winner search for that input and
+	 * ignores its argument.
+	 */
+	static BenchmarkModel createMultilayer(int inputSize, int maxDimension, int... dimensions)
+	{
+		final MultilayerRecursivePLSOM2 map = new MultilayerRecursivePLSOM2(0.9, inputSize, maxDimension, dimensions);
+		return new BenchmarkModel()
+		{
+			public void train(double[] input)
+			{
+				map.train(input);
+			}
+
+			public int[] classify(double[] input)
+			{
+				return map.classify();
+			}
+		};
+	}
+}
@@ -0,0 +1,156 @@
+package org.plsomlib.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the throughput and latency of train(...) and classify(...) for
+ * each map type, parameterized by input dimension, grid shape and input
+ * metric.
+ * 
+ * Run main(...) to run the benchmarks with the GC profiler, which reports the
+ * allocation rate per operation. It accepts the usual JMH command line
+ * options, so a subset can be selected with for example
+ * "-p type=PLSOM2 -p grid=20x20x20". To use the SIMD distance kernel, build
+ * with -Pvector and add "-jvmArgsAppend --add-modules=jdk.incubator.vector".
+ * 
+ * @author Erik Berglund
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MapBenchmark
+{
+	/**
+	 * The number of precomputed inputs, which are used in turn.
+	 */
+	private static final int INPUT_COUNT = 1024;
+
+	/**
+	 * The number of training steps before measurement starts, so that
+	 * classify(...) is measured on a map that has some order.
+	 */
+	private static final int PRETRAINING_STEPS = 200;
+
+	@Param({ "SOM", "PLSOM", "PLSOM2", "IEPLSOM2", "ConscienceSOM", "BdhSOM", "RecursivePLSOM2",
+			"MultilayerRecursivePLSOM2" })
+	public String type;
+
+	@Param({ "3", "60" })
+	public int inputSize;
+
+	/**
+	 * The size of each output dimension, separated by 'x'.
+	 */
+	@Param({ "50x60", "20x20x20" })
+	public String grid;
+
+	@Param({ "Euclidean", "SquaredEuclidean" })
+	public String metric;
+
+	private BenchmarkModel model;
+	private double[][] inputs;
+	private int next;
+
+	/**
+	 * Create and pretrain the map, and generate the inputs. The same seed is
+	 * used for every run, so that runs before and after a change see the same
+	 * inputs.
+	 */
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		String[] sizes = grid.split("x");
+		int[] dimensions = new int[sizes.length];
+		for (int d = 0; d < sizes.length; d++)
+		{
+			dimensions[d] = Integer.parseInt(sizes[d]);
+		}
+		model = BenchmarkModel.create(type, metric, inputSize, dimensions);
+		Random r = new Random(1);
+		inputs = new double[INPUT_COUNT][inputSize];
+		for (double[] input : inputs)
+		{
+			for (int i = 0; i < input.length; i++)
+			{
+				input[i] = r.nextDouble() * 2 - 1;
+			}
+		}
+		for (int x = 0; x < PRETRAINING_STEPS; x++)
+		{
+			model.train(nextInput());
+		}
+	}
+
+	private double[] nextInput()
+	{
+		double[] res = inputs[next];
+		next = (next + 1) % INPUT_COUNT;
+		return res;
+	}
+
+	/**
+	 * Measure one training step.
+	 */
+	@Benchmark
+	public void train()
+	{
+		model.train(nextInput());
+	}
+
+	/**
+	 * Measure classifying one input.
+	 * 
+	 * @return the winner, so the work is not eliminated.
+	 */
+	@Benchmark
+	public int[] classify()
+	{
+		return model.classify(nextInput());
+	}
+
+	/**
+	 * Run the benchmarks with the GC profiler.
+	 * 
+	 * @param args
+	 *            JMH command line options.
+	 * @throws CommandLineOptionException
+	 *             if the options can not be parsed.
+	 * @throws RunnerException
+	 *             if the benchmarks fail.
+	 */
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException
+	{
+		CommandLineOptions options = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(options);
+		if (options.getIncludes().isEmpty())
+		{
+			builder.include(MapBenchmark.class.getSimpleName());
+		}
+		builder.addProfiler(GCProfiler.class);
+		new Runner(builder.build()).run();
+	}
+}
@@ -1,5 +1,6 @@
 package org.plsomlib;
 
+import java.io.IOException;
 
 /**
  * Implements the controlled magnification factor training algorithm by H.-U
@@ -57,6 +58,14 @@ public class BdhSOM extends SOM
 		timeCounters = new int[this.getWeights().getCount()];
 	}
 
+	/**
+	 * Class constructor. Used for reading from file.
+	 */
+	public BdhSOM(int inputSize, int... outputDimensions)
+	{
+		this(0, 0, 0, inputSize, outputDimensions);
+	}
+
     /**
      * Update all weights given the winner.
      * 
@@ -67,6 +76,7 @@ public class BdhSOM extends SOM
      */
     protected void updateWeights()
     {
+    	prepareNeighbourhoodScaling(getNeighbourhoodSize());
     	//get the winning node offset
     	int winnerOffset = getWeights().getOffset(getWinner());	
     	
@@ -78,7 +88,7 @@ public class BdhSOM extends SOM
     	this.timeCounters[winnerOffset]=0;
     	
     	//get the distance from the input to the winning node
-    	double diff = getInputMetric().getDistance(getInput(), getWeights().getValueFromOffset(winnerOffset));
+    	double diff = getNodeDistance(winnerOffset, getInput());
     	diff = 1.0/Math.pow(diff, d);
     	
     	double epsilon = this.epsilon0*Math.pow(timeScale*diff,m);
@@ -86,19 +96,14 @@ public class BdhSOM extends SOM
     	//Make sure epsilon is not larger than EPSILON_MAX.
     	epsilon = Math.min(epsilon, EPSILON_MAX);
     	
-        Object[] data = getWeights().toArray();
-        for (int x = 0; x < data.length; x++)
+        int count = getWeights().getCount();
+        int[] position = new int[getWeights().getDimensions().length];
+        for (int x = 0; x < count; x++)
         {
-            double anhc = epsilon * getNeighbourhoodScaling(getWeights().getPosition(x), getWinner(), getNeighbourhoodSize());
-            
-            // get the weight vector
-            double[] weight = (double[]) data[x];
+            double anhc = epsilon * getNeighbourhoodScaling(getWeights().getPosition(x, position), getWinner(), getNeighbourhoodSize());
             
             // update the weights
-            for (int wIndex = 0; wIndex < weight.length; wIndex++)
-            {
-                weight[wIndex] += anhc * (getInput()[wIndex] - weight[wIndex]);
-            }
+            adaptWeights(x, getInput(), anhc);
         }
     }
 
@@ -109,4 +114,36 @@ public class BdhSOM extends SOM
 			timeCounters[x] ++;
 		}
 	}
+
+	/**
+	 * @see org.plsomlib.SOM#writeBinaryHelper(org.plsomlib.BinaryModel.Output)
+	 */
+	@Override
+	protected void writeBinaryHelper(BinaryModel.Output out) throws IOException
+	{
+		super.writeBinaryHelper(out);
+		BinaryModel.Section section = new BinaryModel.Section(BdhSOM.class.getName());
+		section.putDouble(epsilon0);
+		section.putDouble(d);
+		section.putDouble(m);
+		section.putInts(timeCounters);
+		out.writeSection(section);
+	}
+
+	/**
+	 * @see org.plsomlib.SOM#readBinaryHelper(org.plsomlib.BinaryModel.Input)
+	 */
+	@Override
+	protected void readBinaryHelper(BinaryModel.Input in) throws IOException
+	{
+		super.readBinaryHelper(in);
+		BinaryModel.Section section = in.getSection(BdhSOM.class.getName());
+		if (section != null)
+		{
+			epsilon0 = section.getDouble();
+			d = section.getDouble();
+			m = section.getDouble();
+			timeCounters = section.getInts();
+		}
+	}
 }
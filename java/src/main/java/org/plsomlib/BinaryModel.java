@@ -0,0 +1,944 @@
+package org.plsomlib;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.plsomlib.util.AbstractWeightMatrix;
+import org.plsomlib.util.DiameterBuffer;
+import org.plsomlib.util.FloatWeightMatrix;
+import org.plsomlib.util.IterativeArray;
+import org.plsomlib.util.OffHeapWeightMatrix;
+import org.plsomlib.util.WeightMatrix;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Writes maps to a compact binary format, and reads them back. Unlike the XML
+ * written by MapBaseImpl.write(...) the weights are stored as raw numbers, and
+ * the training state of each class is kept, so a map read from a file trains
+ * on exactly as the map that was written would have.
+ *
+ * The file starts with the eight ASCII characters PLSOMBIN and the version of
+ * the format, followed by a list of sections. Each section holds:
+ * <ul>
+ * <li>its name, as an int byte count followed by the name in UTF-8,</li>
+ * <li>the compression of its contents, as a byte,</li>
+ * <li>the length of its contents as stored and after decompression, as
+ * ints,</li>
+ * <li>its contents.</li>
+ * </ul>
+ * A section with an empty name ends the file. All numbers are little-endian.
+ * The map section comes first and holds the class of the map and its
+ * dimensions. It is followed by the weights, split into as many weights
+ * sections as it takes to keep each section around a megabyte. Each holds the
+ * size of a weight, followed by the weights of whole nodes in order of offset,
+ * as doubles, or floats for a map with float weights. Since the weights are
+ * read one section at a time straight into the storage the map keeps them
+ * in, maps of any size can be written and read. Version 1 of the format is
+ * the case where all the weights are in one section. The metrics and the
+ * neighbourhood function
+ * are stored as the XML elements their getElement(...) methods create. Each
+ * class that keeps state of its own adds a section named after the class in
+ * writeBinaryHelper(...), and reads it back in readBinaryHelper(...).
+ * Sections a reader does not know are skipped, and sections it expects but
+ * does not find leave the state as the constructor set it.
+ *
+ * Each section is compressed on its own, and stored uncompressed if
+ * compression does not make it smaller.
+ *
+ * @author Erik Berglund
+ * @see MapBaseImpl#writeBinaryHelper(BinaryModel.Output)
+ * @see MapBaseImpl#readBinaryHelper(BinaryModel.Input)
+ */
+public class BinaryModel
+{
+	/**
+	 * The first bytes of every file.
+	 */
+	private static final byte[] MAGIC = "PLSOMBIN".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * The version of the format written by this class.
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * Store the sections uncompressed.
+	 */
+	public static final int NONE = 0;
+
+	/**
+	 * Compress the sections with a Deflater.
+	 */
+	public static final int DEFLATE = 1;
+
+	/**
+	 * Compress the sections in GZIP format.
+	 */
+	public static final int GZIP = 2;
+
+	private static final String MAP = "map";
+	private static final String WEIGHTS = "weights";
+	private static final String INPUT_METRIC = "inputmetric";
+	private static final String OUTPUT_METRIC = "outputmetric";
+	private static final String NEIGHBOURHOOD_FUNCTION = "neighbourhoodfunction";
+	private static final String NODES = "nodes";
+
+	/**
+	 * The kinds of weight storage, so that a map is read back with the
+	 * storage it was written with.
+	 */
+	private static final int ROWS = 0;
+	private static final int MATRIX = 1;
+	private static final int FLOAT = 2;
+	private static final int OFF_HEAP = 3;
+
+	/**
+	 * The size of the buffers used when compressing.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * The number of bytes of weights in each weights section, rounded down to
+	 * whole nodes.
+	 */
+	private static final int CHUNK_BYTES = 1 << 20;
+
+	private BinaryModel()
+	{
+	}
+
+	/**
+	 * Write a map without compression.
+	 *
+	 * @param map
+	 *            the map to write.
+	 * @param os
+	 *            the stream to write to, remains open.
+	 * @throws IOException
+	 *             if the map could not be written.
+	 * @see #write(MapBaseImpl, OutputStream, int)
+	 */
+	public static void write(MapBaseImpl map, OutputStream os) throws IOException
+	{
+		write(map, os, NONE);
+	}
+
+	/**
+	 * Write a map.
+	 *
+	 * @param map
+	 *            the map to write.
+	 * @param os
+	 *            the stream to write to, remains open.
+	 * @param compression
+	 *            NONE, DEFLATE or GZIP.
+	 * @throws IOException
+	 *             if the map could not be written.
+	 * @throws IllegalArgumentException
+	 *             if the compression is not known.
+	 */
+	public static void write(MapBaseImpl map, OutputStream os, int compression) throws IOException
+	{
+		if (compression != NONE && compression != DEFLATE && compression != GZIP)
+		{
+			throw new IllegalArgumentException("Unknown compression " + compression + ".");
+		}
+		DataOutputStream out = new DataOutputStream(os);
+		out.write(MAGIC);
+		out.writeInt(Integer.reverseBytes(VERSION));
+		Output output = new Output(out, compression);
+		IterativeArray<double[]> weights = map.getWeights();
+		int[] dimensions = weights.getDimensions();
+		Section section = new Section(MAP);
+		section.putString(map.getClass().getName());
+		section.putInt(map.getInputDimension());
+		section.putInts(dimensions);
+		section.putInt(map.isUseOffHeapWeights() ? OFF_HEAP : map.isUseFloatWeights() ? FLOAT : map.isUseWeightMatrix() ? MATRIX : ROWS);
+		output.writeSection(section);
+		writeWeights(map, output);
+		try
+		{
+			Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+			output.writeSection(getElementSection(INPUT_METRIC, map.getInputMetric().getElement(doc, INPUT_METRIC)));
+			output.writeSection(getElementSection(OUTPUT_METRIC, map.getOutputMetric().getElement(doc, OUTPUT_METRIC)));
+			output.writeSection(getElementSection(NEIGHBOURHOOD_FUNCTION, map.getNeighbourhoodFunction().getElement(doc)));
+		}
+		catch (ParserConfigurationException e)
+		{
+			throw new IOException("Could not store the metrics.", e);
+		}
+		map.writeBinaryHelper(output);
+		// the end of the file
+		out.writeInt(0);
+		out.flush();
+	}
+
+	/**
+	 * Read a map written by write(...).
+	 *
+	 * @param is
+	 *            the stream to read from, remains open.
+	 * @return the map.
+	 * @throws IOException
+	 *             if the map could not be read, or the stream does not hold a
+	 *             map in a supported version of the format.
+	 */
+	public static MapBaseImpl read(InputStream is) throws IOException
+	{
+		DataInputStream in = new DataInputStream(is);
+		byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		if (!Arrays.equals(magic, MAGIC))
+		{
+			throw new IOException("The stream does not hold a binary model.");
+		}
+		int version = Integer.reverseBytes(in.readInt());
+		if (version < 1 || version > VERSION)
+		{
+			throw new IOException("The model has version " + version + ", only versions up to " + VERSION + " are supported.");
+		}
+		Section section = readSection(in);
+		if (section == null || !MAP.equals(section.getName()))
+		{
+			throw new IOException("The model does not start with a " + MAP + " section.");
+		}
+		String mapClass = null;
+		MapBaseImpl res;
+		try
+		{
+			mapClass = section.getString();
+			int inputDimension = section.getInt();
+			int[] dimensions = section.getInts();
+			int storage = section.getInt();
+			IterativeArray<double[]> weights = readWeights(in, storage, inputDimension, dimensions);
+			Input input = new Input(in);
+			res = MapBaseImpl.create(ClassLoader.getSystemClassLoader().loadClass(mapClass), inputDimension, dimensions, weights);
+			res.setInputMetric(MapBaseImpl.readMetric(getElement(input.getRequiredSection(INPUT_METRIC))));
+			res.setOutputMetric(MapBaseImpl.readMetric(getElement(input.getRequiredSection(OUTPUT_METRIC))));
+			res.setNeighbourhoodFunction(MapBaseImpl.readNeighbourhoodFunction(getElement(input.getRequiredSection(NEIGHBOURHOOD_FUNCTION))));
+			res.readBinaryHelper(input);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			throw new IOException("Could not create the stored " + mapClass + ".", e);
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new IOException("A section of the model is too short.", e);
+		}
+		catch (IllegalStateException e)
+		{
+			throw new IOException("A section of the model is invalid.", e);
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new IOException("The stored " + mapClass + " is invalid.", e);
+		}
+		return res;
+	}
+
+	/**
+	 * Write the weights of some nodes and the state sections of a map, for
+	 * CheckpointLog.
+	 *
+	 * @param map
+	 *            the map.
+	 * @param offsets
+	 *            the offsets of the nodes to write.
+	 * @param out
+	 *            the stream to write to.
+	 */
+	static void writeDelta(MapBaseImpl map, int[] offsets, DataOutputStream out) throws IOException
+	{
+		Output output = new Output(out, NONE);
+		IterativeArray<double[]> weights = map.getWeights();
+		Section section = new Section(NODES);
+		section.putInts(offsets);
+		section.putInt(map.getInputDimension());
+		for (int x = 0; x < offsets.length; x++)
+		{
+			double[] row = weights.getValueFromOffset(offsets[x]);
+			if (row.length != map.getInputDimension())
+			{
+				throw new IOException("Node " + offsets[x] + " has " + row.length + " weights, expected " + map.getInputDimension() + ".");
+			}
+			section.putRaw(row, 0, row.length);
+		}
+		output.writeSection(section);
+		map.writeBinaryHelper(output);
+		out.writeInt(0);
+	}
+
+	/**
+	 * Apply a delta written by writeDelta(...) to a map.
+	 *
+	 * @param map
+	 *            the map, with the state of the previous delta or snapshot.
+	 * @param in
+	 *            the stream to read the delta from.
+	 */
+	static void readDelta(MapBaseImpl map, DataInputStream in) throws IOException
+	{
+		Input input = new Input(in);
+		Section section = input.getRequiredSection(NODES);
+		try
+		{
+			int[] offsets = section.getInts();
+			int rowLength = section.getInt();
+			IterativeArray<double[]> weights = map.getWeights();
+			if (rowLength != map.getInputDimension() || section.buffer.remaining() != (long) offsets.length * rowLength * Double.BYTES)
+			{
+				throw new IOException("The stored nodes do not match the map.");
+			}
+			for (int x = 0; x < offsets.length; x++)
+			{
+				double[] row = new double[rowLength];
+				section.getRaw(row);
+				weights.setValueAtOffset(row, offsets[x]);
+			}
+			map.readBinaryHelper(input);
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new IOException("A section of the delta is too short.", e);
+		}
+		catch (IllegalStateException e)
+		{
+			throw new IOException("A section of the delta is invalid.", e);
+		}
+	}
+
+	/**
+	 * Write the weights of a map in weights sections of whole nodes, in float
+	 * precision if the map stores them so, in double precision otherwise.
+	 */
+	private static void writeWeights(MapBaseImpl map, Output output) throws IOException
+	{
+		IterativeArray<double[]> weights = map.getWeights();
+		FloatWeightMatrix floats = map.getFloatWeightMatrix();
+		int inputDimension = map.getInputDimension();
+		int size = floats != null ? Float.BYTES : Double.BYTES;
+		int rowsPerChunk = (int) Math.max(1, CHUNK_BYTES / Math.max(1L, (long) inputDimension * size));
+		double[] row = new double[inputDimension];
+		for (int start = 0; start < weights.getCount(); start += rowsPerChunk)
+		{
+			int end = (int) Math.min(weights.getCount(), (long) start + rowsPerChunk);
+			Section section = new Section(WEIGHTS);
+			section.putInt(size);
+			if (floats != null)
+			{
+				section.putRaw(floats.getData(), start * inputDimension, (end - start) * inputDimension);
+			}
+			else
+			{
+				for (int x = start; x < end; x++)
+				{
+					double[] values;
+					if (weights instanceof AbstractWeightMatrix)
+					{
+						values = ((AbstractWeightMatrix) weights).getRow(x, row);
+					}
+					else
+					{
+						values = weights.getValueFromOffset(x);
+						if (values.length != inputDimension)
+						{
+							throw new IOException("Node " + x + " has " + values.length + " weights, expected " + inputDimension + ".");
+						}
+					}
+					section.putRaw(values, 0, inputDimension);
+				}
+			}
+			output.writeSection(section);
+		}
+	}
+
+	/**
+	 * Read the weights written by writeWeights(...), one section at a time,
+	 * into storage of the kind given in the map section.
+	 */
+	private static IterativeArray<double[]> readWeights(DataInputStream in, int storage, int inputDimension, int[] dimensions)
+			throws IOException
+	{
+		IterativeArray<double[]> res;
+		if (storage == ROWS)
+		{
+			res = new IterativeArray<double[]>(dimensions);
+		}
+		else if (storage == MATRIX)
+		{
+			res = new WeightMatrix(inputDimension, dimensions);
+		}
+		else if (storage == FLOAT)
+		{
+			res = new FloatWeightMatrix(inputDimension, dimensions);
+		}
+		else if (storage == OFF_HEAP)
+		{
+			res = new OffHeapWeightMatrix(inputDimension, dimensions);
+		}
+		else
+		{
+			throw new IOException("Unknown weight storage " + storage + ".");
+		}
+		// a matrix copies the values, so one array can hold every row
+		boolean copied = res instanceof AbstractWeightMatrix;
+		double[] row = new double[inputDimension];
+		float[] floatRow = new float[inputDimension];
+		int offset = 0;
+		while (offset < res.getCount())
+		{
+			Section section = readSection(in);
+			if (section == null || !WEIGHTS.equals(section.getName()))
+			{
+				throw new IOException("The model holds the weights of " + offset + " of its " + res.getCount() + " nodes.");
+			}
+			int size = section.getInt();
+			long rowBytes = (long) inputDimension * size;
+			int remaining = section.buffer.remaining();
+			int rows = rowBytes == 0 ? res.getCount() - offset : (int) (remaining / rowBytes);
+			if ((size != Float.BYTES && size != Double.BYTES) || (long) rows * rowBytes != remaining || rows > res.getCount() - offset)
+			{
+				throw new IOException("The stored weights do not match the dimensions of the map.");
+			}
+			for (int x = 0; x < rows; x++)
+			{
+				if (!copied)
+				{
+					row = new double[inputDimension];
+				}
+				if (size == Double.BYTES)
+				{
+					section.getRaw(row);
+				}
+				else
+				{
+					section.getRaw(floatRow);
+					for (int i = 0; i < inputDimension; i++)
+					{
+						row[i] = floatRow[i];
+					}
+				}
+				res.setValueAtOffset(row, offset++);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Store an element as XML text.
+	 */
+	private static Section getElementSection(String name, Element e) throws IOException
+	{
+		StringWriter writer = new StringWriter();
+		try
+		{
+			Transformer t = TransformerFactory.newInstance().newTransformer();
+			t.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+			t.transform(new DOMSource(e), new StreamResult(writer));
+		}
+		catch (TransformerException ex)
+		{
+			throw new IOException("Could not store " + name + ".", ex);
+		}
+		Section res = new Section(name);
+		res.putString(writer.toString());
+		return res;
+	}
+
+	/**
+	 * Parse an element stored by getElementSection(...).
+	 */
+	private static Element getElement(Section section) throws IOException
+	{
+		try
+		{
+			InputSource source = new InputSource(new StringReader(section.getString()));
+			return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(source).getDocumentElement();
+		}
+		catch (ParserConfigurationException e)
+		{
+			throw new IOException("Could not read " + section.getName() + ".", e);
+		}
+		catch (SAXException e)
+		{
+			throw new IOException("Could not read " + section.getName() + ".", e);
+		}
+	}
+
+	/**
+	 * Read the next section of a file.
+	 *
+	 * @return the section, or null at the end of the file.
+	 */
+	private static Section readSection(DataInputStream in) throws IOException
+	{
+		int nameLength = Integer.reverseBytes(in.readInt());
+		if (nameLength == 0)
+		{
+			return null;
+		}
+		if (nameLength < 0)
+		{
+			throw new IOException("Invalid section name length " + nameLength + ".");
+		}
+		byte[] name = new byte[nameLength];
+		in.readFully(name);
+		int method = in.readByte();
+		int storedLength = Integer.reverseBytes(in.readInt());
+		int length = Integer.reverseBytes(in.readInt());
+		if (storedLength < 0 || length < 0)
+		{
+			throw new IOException("Invalid section length.");
+		}
+		byte[] stored = new byte[storedLength];
+		in.readFully(stored);
+		byte[] data = Input.decompress(stored, length, method);
+		return new Section(new String(name, StandardCharsets.UTF_8), ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Writes the sections of a file.
+	 */
+	public static final class Output
+	{
+		private final DataOutputStream out;
+		private final int compression;
+
+		private Output(DataOutputStream out, int compression)
+		{
+			this.out = out;
+			this.compression = compression;
+		}
+
+		/**
+		 * Write a section. Each section is compressed on its own, with the
+		 * compression given to BinaryModel.write(...).
+		 *
+		 * @param section
+		 *            the section to write, must not be changed afterwards.
+		 * @throws IOException
+		 *             if the section could not be written.
+		 */
+		public void writeSection(Section section) throws IOException
+		{
+			byte[] name = section.getName().getBytes(StandardCharsets.UTF_8);
+			byte[] data = section.buffer.array();
+			int length = section.buffer.position();
+			int method = NONE;
+			byte[] stored = data;
+			int storedLength = length;
+			if (compression != NONE)
+			{
+				byte[] compressed = compress(data, length, compression);
+				if (compressed.length < length)
+				{
+					method = compression;
+					stored = compressed;
+					storedLength = compressed.length;
+				}
+			}
+			out.writeInt(Integer.reverseBytes(name.length));
+			out.write(name);
+			out.writeByte(method);
+			out.writeInt(Integer.reverseBytes(storedLength));
+			out.writeInt(Integer.reverseBytes(length));
+			out.write(stored, 0, storedLength);
+		}
+
+		private static byte[] compress(byte[] data, int length, int compression) throws IOException
+		{
+			ByteArrayOutputStream res = new ByteArrayOutputStream(length / 2 + 64);
+			if (compression == GZIP)
+			{
+				GZIPOutputStream out = new GZIPOutputStream(res, BUFFER_SIZE);
+				out.write(data, 0, length);
+				out.close();
+				return res.toByteArray();
+			}
+			Deflater deflater = new Deflater();
+			try
+			{
+				DeflaterOutputStream out = new DeflaterOutputStream(res, deflater, BUFFER_SIZE);
+				out.write(data, 0, length);
+				out.close();
+			}
+			finally
+			{
+				deflater.end();
+			}
+			return res.toByteArray();
+		}
+	}
+
+	/**
+	 * Holds the sections of a file being read.
+	 */
+	public static final class Input
+	{
+		private final Map<String, Section> sections = new HashMap<String, Section>();
+
+		/**
+		 * Read all sections up to the end of the file.
+		 */
+		private Input(DataInputStream in) throws IOException
+		{
+			Section section;
+			while ((section = readSection(in)) != null)
+			{
+				sections.put(section.getName(), section);
+			}
+		}
+
+		/**
+		 * Get a section.
+		 *
+		 * @param name
+		 *            the name of the section.
+		 * @return the section, or null if the file has no section with the
+		 *         name.
+		 */
+		public Section getSection(String name)
+		{
+			return sections.get(name);
+		}
+
+		private Section getRequiredSection(String name) throws IOException
+		{
+			Section res = getSection(name);
+			if (res == null)
+			{
+				throw new IOException("The model has no " + name + " section.");
+			}
+			return res;
+		}
+
+		private static byte[] decompress(byte[] stored, int length, int method) throws IOException
+		{
+			if (method == NONE)
+			{
+				if (stored.length != length)
+				{
+					throw new IOException("Invalid section length.");
+				}
+				return stored;
+			}
+			byte[] res = new byte[length];
+			if (method == GZIP)
+			{
+				DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(stored), BUFFER_SIZE));
+				in.readFully(res);
+				in.close();
+				return res;
+			}
+			if (method != DEFLATE)
+			{
+				throw new IOException("Unknown compression " + method + ".");
+			}
+			Inflater inflater = new Inflater();
+			try
+			{
+				DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(stored), inflater, BUFFER_SIZE));
+				in.readFully(res);
+				in.close();
+			}
+			finally
+			{
+				inflater.end();
+			}
+			return res;
+		}
+	}
+
+	/**
+	 * A named section of a file. A new section grows as values are put into
+	 * it, a section that has been read returns the values in the order they
+	 * were put. Arrays may be null.
+	 */
+	public static final class Section
+	{
+		private final String name;
+		private ByteBuffer buffer;
+
+		/**
+		 * Create an empty section to write.
+		 *
+		 * @param name
+		 *            the name of the section, not empty. Classes name their
+		 *            sections after themselves.
+		 */
+		public Section(String name)
+		{
+			if (name.isEmpty())
+			{
+				throw new IllegalArgumentException("The name of a section can not be empty.");
+			}
+			this.name = name;
+			this.buffer = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		private Section(String name, ByteBuffer data)
+		{
+			this.name = name;
+			this.buffer = data.order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/**
+		 * @return the name of the section.
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		public void putInt(int value)
+		{
+			ensureCapacity(Integer.BYTES);
+			buffer.putInt(value);
+		}
+
+		public int getInt()
+		{
+			return buffer.getInt();
+		}
+
+		public void putDouble(double value)
+		{
+			ensureCapacity(Double.BYTES);
+			buffer.putDouble(value);
+		}
+
+		public double getDouble()
+		{
+			return buffer.getDouble();
+		}
+
+		public void putBoolean(boolean value)
+		{
+			ensureCapacity(1);
+			buffer.put((byte) (value ? 1 : 0));
+		}
+
+		public boolean getBoolean()
+		{
+			return buffer.get() != 0;
+		}
+
+		public void putString(String value)
+		{
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+			ensureCapacity(bytes.length);
+			buffer.put(bytes);
+		}
+
+		public String getString()
+		{
+			byte[] bytes = new byte[getLength(1)];
+			buffer.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		public void putInts(int[] values)
+		{
+			if (values == null)
+			{
+				putInt(-1);
+				return;
+			}
+			putInt(values.length);
+			ensureCapacity(values.length * Integer.BYTES);
+			buffer.asIntBuffer().put(values);
+			buffer.position(buffer.position() + values.length * Integer.BYTES);
+		}
+
+		public int[] getInts()
+		{
+			int length = getLength(Integer.BYTES);
+			if (length < 0)
+			{
+				return null;
+			}
+			int[] res = new int[length];
+			buffer.asIntBuffer().get(res);
+			buffer.position(buffer.position() + length * Integer.BYTES);
+			return res;
+		}
+
+		public void putDoubles(double[] values)
+		{
+			if (values == null)
+			{
+				putInt(-1);
+				return;
+			}
+			putInt(values.length);
+			putRaw(values, 0, values.length);
+		}
+
+		public double[] getDoubles()
+		{
+			int length = getLength(Double.BYTES);
+			if (length < 0)
+			{
+				return null;
+			}
+			double[] res = new double[length];
+			getRaw(res);
+			return res;
+		}
+
+		/**
+		 * Put the dimensions and the values of an array of vectors.
+		 */
+		public void putRows(IterativeArray<double[]> rows)
+		{
+			if (rows == null)
+			{
+				putInts(null);
+				return;
+			}
+			putInts(rows.getDimensions());
+			for (int x = 0; x < rows.getCount(); x++)
+			{
+				putDoubles(rows.getValueFromOffset(x));
+			}
+		}
+
+		/**
+		 * @return a new array of vectors with the stored dimensions and
+		 *         values.
+		 */
+		public IterativeArray<double[]> getRows()
+		{
+			int[] dimensions = getInts();
+			if (dimensions == null)
+			{
+				return null;
+			}
+			IterativeArray<double[]> res = new IterativeArray<double[]>(dimensions);
+			for (int x = 0; x < res.getCount(); x++)
+			{
+				res.setValueAtOffset(getDoubles(), x);
+			}
+			return res;
+		}
+
+		/**
+		 * Put the samples and the diameter of a buffer.
+		 */
+		public void putDiameterBuffer(DiameterBuffer value)
+		{
+			double[][] samples = value.getSamples();
+			putDouble(value.getMaxDiameter());
+			putInt(samples.length);
+			for (double[] sample : samples)
+			{
+				putDoubles(sample);
+			}
+		}
+
+		/**
+		 * Replace the samples and the diameter of a buffer with the stored
+		 * ones.
+		 */
+		public void getDiameterBuffer(DiameterBuffer value)
+		{
+			double maxDiameter = getDouble();
+			double[][] samples = new double[getLength(Integer.BYTES)][];
+			for (int x = 0; x < samples.length; x++)
+			{
+				samples[x] = getDoubles();
+			}
+			value.setSamples(samples, maxDiameter);
+		}
+
+		private void putRaw(double[] values, int offset, int length)
+		{
+			ensureCapacity((long) length * Double.BYTES);
+			buffer.asDoubleBuffer().put(values, offset, length);
+			buffer.position(buffer.position() + length * Double.BYTES);
+		}
+
+		private void putRaw(float[] values, int offset, int length)
+		{
+			ensureCapacity((long) length * Float.BYTES);
+			buffer.asFloatBuffer().put(values, offset, length);
+			buffer.position(buffer.position() + length * Float.BYTES);
+		}
+
+		private void getRaw(double[] values)
+		{
+			buffer.asDoubleBuffer().get(values);
+			buffer.position(buffer.position() + values.length * Double.BYTES);
+		}
+
+		private void getRaw(float[] values)
+		{
+			buffer.asFloatBuffer().get(values);
+			buffer.position(buffer.position() + values.length * Float.BYTES);
+		}
+
+		/**
+		 * Read the length of an array, -1 for null, and make sure the section
+		 * holds at least that many elements of the given size.
+		 */
+		private int getLength(int size)
+		{
+			int length = buffer.getInt();
+			if (length < -1 || (long) length * size > buffer.remaining())
+			{
+				throw new IllegalStateException("Invalid length " + length + " in section " + name + ".");
+			}
+			return length;
+		}
+
+		private void ensureCapacity(long bytes)
+		{
+			if (buffer.remaining() < bytes)
+			{
+				long capacity = Math.max(2L * buffer.capacity(), buffer.position() + bytes);
+				if (capacity > Integer.MAX_VALUE - 8)
+				{
+					throw new IllegalStateException("Section " + name + " is too large.");
+				}
+				ByteBuffer grown = ByteBuffer.allocate((int) capacity).order(ByteOrder.LITTLE_ENDIAN);
+				buffer.flip();
+				grown.put(buffer);
+				buffer = grown;
+			}
+		}
+	}
+}
@@ -0,0 +1,465 @@
+package org.plsomlib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.plsomlib.util.DirtySet;
+
+/**
+ * Checkpoints a map during a long training run by writing only what changed.
+ * The log keeps a full snapshot of the map, written by BinaryModel, and an
+ * append-only file of deltas. The map marks each node whose weights change,
+ * and each checkpoint appends the weights of the marked nodes together with
+ * the state sections the classes of the map write for BinaryModel, such as
+ * rho and the diameter buffer of a PLSOM2. Every few checkpoints, or when
+ * most nodes have changed, the deltas are compacted into a new snapshot.
+ * recover(...) reads the snapshot and replays the deltas, and gives a map
+ * with the same state vector as the map had at the last checkpoint.
+ *
+ * Deltas only pay off if few nodes change between checkpoints. Without a
+ * neighbourhood cutoff the weight update adapts every node of the map at
+ * every step, so after a single step all nodes are marked, and since most
+ * nodes have changed every checkpoint writes a full snapshot instead of a
+ * delta. Set a cutoff with MapBaseImpl.setNeighbourhoodCutoff(...), for
+ * instance 1e-3, so that each step only changes the nodes near the winner.
+ * The cutoff is not part of the snapshot, set it again on a recovered map.
+ *
+ * The snapshot and the delta file carry a generation number. A new snapshot
+ * is written to a temporary file and moved into place before a delta file of
+ * the same generation is started, so deltas of an older generation are
+ * ignored, and a crash at any point leaves a snapshot and deltas that belong
+ * together. Each delta is followed by a checksum. Recovery stops at a delta
+ * that was only partly written, so if appending a delta fails, the file of
+ * deltas is cut back to the end of the last complete delta, or if that fails
+ * too the next checkpoint writes a new snapshot, so that no later delta is
+ * written after the broken one and lost.
+ *
+ * Weight changes are tracked by adaptWeights(...), setWeights(...) and
+ * initWeights(), and by the weight updates of the classes that change
+ * weights directly. Changing the arrays returned by getWeights(...) is not
+ * tracked.
+ *
+ * @author Erik Berglund
+ * @see BinaryModel
+ * @see MapBaseImpl#setNeighbourhoodCutoff(double)
+ */
+public class CheckpointLog implements Closeable
+{
+	/**
+	 * The name of the snapshot in the directory of the log.
+	 */
+	public static final String SNAPSHOT = "snapshot.bin";
+
+	/**
+	 * The name of the file of deltas in the directory of the log.
+	 */
+	public static final String DELTAS = "deltas.log";
+
+	private static final String TEMPORARY = "snapshot.tmp";
+
+	/**
+	 * The largest number of bytes of weights in a delta. A delta is held in
+	 * memory and its length stored as an int, larger changes are written as
+	 * a snapshot instead.
+	 */
+	private static final long MAX_DELTA_BYTES = 1 << 30;
+
+	private static final byte[] SNAPSHOT_MAGIC = "PLSOMSNP".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] DELTA_MAGIC = "PLSOMDLT".getBytes(StandardCharsets.US_ASCII);
+
+	private final MapBaseImpl map;
+	private final File directory;
+
+	/**
+	 * The number of checkpoints between snapshots.
+	 */
+	private int compactionInterval = 100;
+
+	private long generation;
+	private int deltaCount;
+	private FileOutputStream deltas;
+	private boolean closed;
+
+	/**
+	 * True if a delta could not be appended and the file of deltas could not
+	 * be cut back to the end of the last complete delta.
+	 */
+	private boolean torn;
+
+	/**
+	 * The nodes that changed since the last checkpoint.
+	 */
+	private final DirtySet dirty;
+
+	/**
+	 * Start checkpointing a map. A snapshot of the map is written at once,
+	 * replacing any snapshot and deltas in the directory, and the map marks
+	 * changed nodes from now on.
+	 *
+	 * @param map
+	 *            the map to checkpoint.
+	 * @param directory
+	 *            the directory to keep the snapshot and the deltas in,
+	 *            created if it does not exist.
+	 * @throws IOException
+	 *             if the snapshot could not be written.
+	 * @throws IllegalStateException
+	 *             if the map is already checkpointed by another log.
+	 */
+	public CheckpointLog(MapBaseImpl map, File directory) throws IOException
+	{
+		if (map.getCheckpointLog() != null)
+		{
+			throw new IllegalStateException("The map is already checkpointed.");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs())
+		{
+			throw new IOException("Could not create " + directory + ".");
+		}
+		this.map = map;
+		this.directory = directory;
+		this.dirty = new DirtySet(map.getWeights().getCount());
+		this.generation = Math.max(0, readGeneration(new File(directory, SNAPSHOT), SNAPSHOT_MAGIC));
+		compact();
+		map.setCheckpointLog(this);
+	}
+
+	/**
+	 * Set the number of checkpoints after which the deltas are compacted into
+	 * a new snapshot. Recovery replays at most this many deltas.
+	 *
+	 * @param compactionInterval
+	 *            the number of checkpoints between snapshots, at least 1.
+	 */
+	public void setCompactionInterval(int compactionInterval)
+	{
+		if (compactionInterval < 1)
+		{
+			throw new IllegalArgumentException("The compaction interval must be positive.");
+		}
+		this.compactionInterval = compactionInterval;
+	}
+
+	/**
+	 * @return the number of checkpoints between snapshots.
+	 * @see #setCompactionInterval(int)
+	 */
+	public int getCompactionInterval()
+	{
+		return compactionInterval;
+	}
+
+	/**
+	 * @return the number of deltas written since the last snapshot.
+	 */
+	public int getDeltaCount()
+	{
+		return deltaCount;
+	}
+
+	/**
+	 * @return the number of nodes that changed since the last checkpoint.
+	 */
+	public int getDirtyCount()
+	{
+		return dirty.getCount();
+	}
+
+	/**
+	 * Mark a node as changed, from several threads under the rules of
+	 * DirtySet.
+	 *
+	 * @param offset
+	 *            the offset of the node.
+	 */
+	public void markDirty(int offset)
+	{
+		dirty.mark(offset);
+	}
+
+	/**
+	 * Mark all nodes as changed, for instance when all weights are replaced.
+	 */
+	public void markAllDirty()
+	{
+		dirty.markAll();
+	}
+
+	/**
+	 * Write a checkpoint: append the weights of the nodes that changed since
+	 * the last checkpoint and the state of the map to the deltas, or write a
+	 * new snapshot if the compaction interval has passed, most nodes have
+	 * changed, the changed weights are too many for a delta or the last delta
+	 * could not be written. If the delta can not be
+	 * written, the nodes stay marked and the deltas written before it are
+	 * kept. Must not be called while the map is trained.
+	 *
+	 * @throws IOException
+	 *             if the checkpoint could not be written.
+	 */
+	public void checkpoint() throws IOException
+	{
+		checkOpen();
+		int count = dirty.getCount();
+		// without a file of deltas the last snapshot failed, write it again
+		if (torn || deltas == null || deltaCount + 1 >= compactionInterval || count > dirty.getCapacity() / 2
+				|| (long) count * map.getInputDimension() * Double.BYTES > MAX_DELTA_BYTES)
+		{
+			compact();
+			return;
+		}
+		// sort the nodes so that the delta is read in order of offset
+		int[] offsets = dirty.toSortedArray();
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bos);
+		BinaryModel.writeDelta(map, offsets, out);
+		out.flush();
+		byte[] payload = bos.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+		FileChannel channel = deltas.getChannel();
+		long end = channel.position();
+		try
+		{
+			DataOutputStream record = new DataOutputStream(new BufferedOutputStream(deltas, payload.length + 16));
+			record.writeInt(Integer.reverseBytes(payload.length));
+			record.write(payload);
+			record.writeLong(Long.reverseBytes(crc.getValue()));
+			record.flush();
+			deltas.getFD().sync();
+		}
+		catch (IOException e)
+		{
+			// cut off the broken delta, recovery would stop at it
+			try
+			{
+				channel.truncate(end);
+				channel.position(end);
+				deltas.getFD().sync();
+			}
+			catch (IOException ex)
+			{
+				torn = true;
+			}
+			throw e;
+		}
+		deltaCount++;
+		dirty.clear();
+	}
+
+	/**
+	 * Write a new snapshot of the map and start a new, empty file of deltas.
+	 * Must not be called while the map is trained.
+	 *
+	 * @throws IOException
+	 *             if the snapshot could not be written.
+	 */
+	public void compact() throws IOException
+	{
+		checkOpen();
+		if (deltas != null)
+		{
+			deltas.close();
+			deltas = null;
+		}
+		generation++;
+		File temporary = new File(directory, TEMPORARY);
+		FileOutputStream snapshot = new FileOutputStream(temporary);
+		try
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(snapshot, 1 << 16));
+			out.write(SNAPSHOT_MAGIC);
+			out.writeLong(Long.reverseBytes(generation));
+			BinaryModel.write(map, out);
+			out.flush();
+			snapshot.getFD().sync();
+		}
+		finally
+		{
+			snapshot.close();
+		}
+		Files.move(temporary.toPath(), new File(directory, SNAPSHOT).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		// deltas of the previous generation no longer apply
+		deltas = new FileOutputStream(new File(directory, DELTAS));
+		DataOutputStream out = new DataOutputStream(deltas);
+		out.write(DELTA_MAGIC);
+		out.writeLong(Long.reverseBytes(generation));
+		out.flush();
+		deltas.getFD().sync();
+		deltaCount = 0;
+		torn = false;
+		dirty.clear();
+	}
+
+	/**
+	 * Stop checkpointing. The map no longer marks changed nodes, and changes
+	 * since the last checkpoint are not written.
+	 *
+	 * @throws IOException
+	 *             if the deltas could not be closed.
+	 */
+	public void close() throws IOException
+	{
+		closed = true;
+		if (map.getCheckpointLog() == this)
+		{
+			map.setCheckpointLog(null);
+		}
+		if (deltas != null)
+		{
+			deltas.close();
+			deltas = null;
+		}
+	}
+
+	/**
+	 * Read the map stored in a directory as it was at the last complete
+	 * checkpoint: the snapshot with the deltas of the same generation
+	 * replayed in order.
+	 *
+	 * @param directory
+	 *            the directory of a log.
+	 * @return the map.
+	 * @throws IOException
+	 *             if the snapshot could not be read.
+	 */
+	public static MapBaseImpl recover(File directory) throws IOException
+	{
+		File snapshotFile = new File(directory, SNAPSHOT);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile), 1 << 16));
+		MapBaseImpl res;
+		long generation;
+		try
+		{
+			generation = readHeader(in, SNAPSHOT_MAGIC);
+			if (generation < 0)
+			{
+				throw new IOException(snapshotFile + " is not a snapshot.");
+			}
+			res = BinaryModel.read(in);
+		}
+		finally
+		{
+			in.close();
+		}
+		File deltaFile = new File(directory, DELTAS);
+		if (!deltaFile.exists())
+		{
+			return res;
+		}
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(deltaFile), 1 << 16));
+		try
+		{
+			if (readHeader(in, DELTA_MAGIC) != generation)
+			{
+				// the deltas belong to an older snapshot
+				return res;
+			}
+			byte[] payload;
+			while ((payload = readRecord(in)) != null)
+			{
+				BinaryModel.readDelta(res, new DataInputStream(new ByteArrayInputStream(payload)));
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return res;
+	}
+
+	/**
+	 * Read a delta and check its checksum.
+	 *
+	 * @return the delta, or null at the end of the file or at a delta that
+	 *         was only partly written.
+	 */
+	private static byte[] readRecord(DataInputStream in) throws IOException
+	{
+		try
+		{
+			int length = Integer.reverseBytes(in.readInt());
+			if (length < 0)
+			{
+				return null;
+			}
+			byte[] payload = new byte[length];
+			in.readFully(payload);
+			long checksum = Long.reverseBytes(in.readLong());
+			CRC32 crc = new CRC32();
+			crc.update(payload, 0, payload.length);
+			return crc.getValue() == checksum ? payload : null;
+		}
+		catch (EOFException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @return the generation in the header of a stream, or -1 if the stream
+	 *         does not start with the magic bytes.
+	 */
+	private static long readHeader(DataInputStream in, byte[] magic) throws IOException
+	{
+		byte[] bytes = new byte[magic.length];
+		try
+		{
+			in.readFully(bytes);
+			if (!Arrays.equals(bytes, magic))
+			{
+				return -1;
+			}
+			return Long.reverseBytes(in.readLong());
+		}
+		catch (EOFException e)
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the generation of a file, or -1 if it does not exist or is not
+	 *         valid.
+	 */
+	private static long readGeneration(File file, byte[] magic) throws IOException
+	{
+		if (!file.exists())
+		{
+			return -1;
+		}
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try
+		{
+			return readHeader(in, magic);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private void checkOpen()
+	{
+		if (closed)
+		{
+			throw new IllegalStateException("The log is closed.");
+		}
+	}
+}
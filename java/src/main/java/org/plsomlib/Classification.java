@@ -0,0 +1,72 @@
+package org.plsomlib;
+
+/**
+ * Holds the result of classifying an input with
+ * MapBaseImpl.classify(double[], Classification): the position and offset of
+ * the winning node and the distance from the input to its weights.
+ * 
+ * A Classification is filled in by the map and can be reused for any number
+ * of classifications, so a thread that classifies many inputs does not need
+ * to allocate memory for each. Each thread must use its own Classification.
+ * 
+ * @author Erik Berglund
+ */
+public class Classification
+{
+	private final int[] position;
+	private int offset;
+	private double distance;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param dimensions
+	 *            the number of output dimensions of the map.
+	 */
+	public Classification(int dimensions)
+	{
+		this.position = new int[dimensions];
+	}
+
+	/**
+	 * @return the position of the winning node. The array belongs to this
+	 *         object and is overwritten by the next classification.
+	 */
+	public int[] getPosition()
+	{
+		return position;
+	}
+
+	/**
+	 * @return the offset of the winning node.
+	 */
+	public int getOffset()
+	{
+		return offset;
+	}
+
+	/**
+	 * @return the distance from the input to the weights of the winning node.
+	 */
+	public double getDistance()
+	{
+		return distance;
+	}
+
+	/**
+	 * Store a result.
+	 * 
+	 * @param offset
+	 *            the offset of the winning node.
+	 * @param position
+	 *            the position of the winning node, which is copied.
+	 * @param distance
+	 *            the distance to the winning node.
+	 */
+	void set(int offset, int[] position, double distance)
+	{
+		this.offset = offset;
+		System.arraycopy(position, 0, this.position, 0, this.position.length);
+		this.distance = distance;
+	}
+}
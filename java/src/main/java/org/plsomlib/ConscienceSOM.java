@@ -1,5 +1,7 @@
 package org.plsomlib;
 
+import java.io.IOException;
+
 import org.plsomlib.util.IterativeArray;
 
 /**
@@ -79,18 +81,15 @@ public class ConscienceSOM extends SOM
 	@Override
 	protected void updateWeights()
 	{
-		Object[] data = this.getWeights().toArray();
-		for (int x = 0; x < data.length; x++)
+		prepareNeighbourhoodScaling(getNeighbourhoodSize());
+		int count = this.getWeights().getCount();
+		int[] position = new int[getWeights().getDimensions().length];
+		for (int x = 0; x < count; x++)
 		{
 			// calculate the neighbourhood scaling, multiply by learning rate
-			double anhc = getLearningRate() * getNeighbourhoodScaling(getWeights().getPosition(x), getWinner(), getNeighbourhoodSize());
-			// get the weight vector
-			double[] weight = (double[]) data[x];
+			double anhc = getLearningRate() * getNeighbourhoodScaling(getWeights().getPosition(x, position), getWinner(), getNeighbourhoodSize());
 			// update the weights
-			for (int wIndex = 0; wIndex < weight.length; wIndex++)
-			{
-				weight[wIndex] += anhc * (getInput()[wIndex] - weight[wIndex]);
-			}
+			adaptWeights(x, getInput(), anhc);
 		}
 	}
 
@@ -113,12 +112,12 @@ public class ConscienceSOM extends SOM
 	protected double findMinDist(int[] res)
 	{
 		double minDist = Double.POSITIVE_INFINITY;
-		Object[] data = getWeights().toArray();
+		int count = getWeights().getCount();
 		int winner = 0;
-		for (int x = 0; x < data.length; x++)
+		for (int x = 0; x < count; x++)
 		{
 			//modified from the ordinary SOM, the distance is biased by the conscience
-			double distance = getInputMetric().getDistance((double[]) data[x], getInput());
+			double distance = getNodeDistance(x, getInput());
 			distance -= getConscienceBias(probToWin.getValueFromOffset(x));
 			if (distance < minDist)
 			{
@@ -131,4 +130,55 @@ public class ConscienceSOM extends SOM
 		return minDist;
 	}
 
+	/**
+	 * findMinDist(...) biases the distances by how often each node has won,
+	 * and updates those frequencies, so classifying changes the state of the
+	 * map.
+	 * 
+	 * @see org.plsomlib.MapBaseImpl#canClassifyReentrantly()
+	 */
+	@Override
+	protected boolean canClassifyReentrantly()
+	{
+		return false;
+	}
+
+	/**
+	 * @see org.plsomlib.SOM#writeBinaryHelper(org.plsomlib.BinaryModel.Output)
+	 */
+	@Override
+	protected void writeBinaryHelper(BinaryModel.Output out) throws IOException
+	{
+		super.writeBinaryHelper(out);
+		BinaryModel.Section section = new BinaryModel.Section(ConscienceSOM.class.getName());
+		section.putDouble(B);
+		section.putDouble(C);
+		double[] probabilities = new double[probToWin.getCount()];
+		for (int x = 0; x < probabilities.length; x++)
+		{
+			probabilities[x] = probToWin.getValueFromOffset(x);
+		}
+		section.putDoubles(probabilities);
+		out.writeSection(section);
+	}
+
+	/**
+	 * @see org.plsomlib.SOM#readBinaryHelper(org.plsomlib.BinaryModel.Input)
+	 */
+	@Override
+	protected void readBinaryHelper(BinaryModel.Input in) throws IOException
+	{
+		super.readBinaryHelper(in);
+		BinaryModel.Section section = in.getSection(ConscienceSOM.class.getName());
+		if (section != null)
+		{
+			B = section.getDouble();
+			C = section.getDouble();
+			double[] probabilities = section.getDoubles();
+			for (int x = 0; x < probabilities.length; x++)
+			{
+				probToWin.setValueAtOffset(probabilities[x], x);
+			}
+		}
+	}
 }
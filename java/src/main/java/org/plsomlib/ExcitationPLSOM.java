@@ -1,7 +1,10 @@
 package org.plsomlib;
 
+import java.io.IOException;
+
 import org.plsomlib.metrics.Metric;
 import org.plsomlib.neighbourhood.NeighbourhoodFunction;
+import org.plsomlib.util.ParallelWinnerSearch;
 
 /**
  * A PLSOM that keeps track of the individual excitations of the nodes in the Map.
@@ -16,6 +19,12 @@ public class ExcitationPLSOM extends PLSOM
 {
 	private static final long serialVersionUID = 3048919531656666763L;
 	private double[] excitations;
+
+	/**
+	 * Calculates the distance to a node and stores its excitation, created
+	 * when first needed.
+	 */
+	private transient ParallelWinnerSearch.Evaluator excitationEvaluator;
 	
 	/**
 	 * @param inputMetric
@@ -39,27 +48,33 @@ public class ExcitationPLSOM extends PLSOM
 	}
 
     /**
-     * Helper function for classify. Recursively compares all weight vectors to
-     * the input.
+     * Helper function for classify. Compares all weight vectors to the input
+     * and stores the excitation of each node. The nodes are searched in
+     * parallel if parallel search is enabled.
+     * 
+     * @see org.plsomlib.MapBaseImpl#setParallelSearch(boolean)
      */
 	@Override
     protected double findMinDist( int[] res)
     {
-        double minDist = Double.POSITIVE_INFINITY;
-        Object [] weights = getWeights().toArray();
-        int winner = 0;
-        for(int x = 0;x<weights.length;x++)
+        if (excitationEvaluator == null)
         {
-        	double dist  = getInputMetric().getDistance((double[])weights[x], getInput());
-            if (dist < minDist)
+            excitationEvaluator = new ParallelWinnerSearch.Evaluator()
             {
-                minDist = dist;
-                winner = x;
-            }
-            getExcitations()[x]=1-dist;
+                public double evaluate(int offset, double bound)
+                {
+                    double dist = getNodeDistance(offset, getInput());
+                    getExcitations()[offset] = 1 - dist;
+                    offerTopK(offset, dist);
+                    return dist;
+                }
+            };
         }
+        int count = getWeights().getCount();
+        ParallelWinnerSearch search = getWinnerSearch();
+        int winner = search.findMin(count, excitationEvaluator, useParallelSearch(count));
         System.arraycopy(getWeights().getPosition(winner),0,res,0,res.length);
-        return minDist;
+        return search.getMin();
     }	
 
 	/**
@@ -69,7 +84,7 @@ public class ExcitationPLSOM extends PLSOM
 	public void initWeights()
 	{
 		super.initWeights();
-		int nodeCount = this.getWeights().toArray().length;
+		int nodeCount = this.getWeights().getCount();
 		this.setExcitations(new double[nodeCount]);
 	}
 
@@ -109,4 +124,54 @@ public class ExcitationPLSOM extends PLSOM
 		System.arraycopy(excitations, 0, res, tmp.length, excitations.length);
 		return res;		
 	}
+
+	/**
+	 * findMinDist(...) stores the excitation of each node, so classifying changes
+	 * the state of the map.
+	 * 
+	 * @see org.plsomlib.MapBaseImpl#canClassifyReentrantly()
+	 */
+	@Override
+	protected boolean canClassifyReentrantly()
+	{
+		return false;
+	}
+
+	/**
+	 * findMinDist(...) reports the distance of each node, as do the
+	 * findMinDist(...) of the subclasses.
+	 * 
+	 * @see org.plsomlib.MapBaseImpl#canClassifyTopK()
+	 */
+	@Override
+	protected boolean canClassifyTopK()
+	{
+		return true;
+	}
+
+	/**
+	 * @see org.plsomlib.PLSOM#writeBinaryHelper(org.plsomlib.BinaryModel.Output)
+	 */
+	@Override
+	protected void writeBinaryHelper(BinaryModel.Output out) throws IOException
+	{
+		super.writeBinaryHelper(out);
+		BinaryModel.Section section = new BinaryModel.Section(ExcitationPLSOM.class.getName());
+		section.putDoubles(excitations);
+		out.writeSection(section);
+	}
+
+	/**
+	 * @see org.plsomlib.PLSOM#readBinaryHelper(org.plsomlib.BinaryModel.Input)
+	 */
+	@Override
+	protected void readBinaryHelper(BinaryModel.Input in) throws IOException
+	{
+		super.readBinaryHelper(in);
+		BinaryModel.Section section = in.getSection(ExcitationPLSOM.class.getName());
+		if (section != null)
+		{
+			excitations = section.getDoubles();
+		}
+	}
 }
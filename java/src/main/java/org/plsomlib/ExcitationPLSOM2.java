@@ -1,5 +1,7 @@
 package org.plsomlib;
 
+import java.io.IOException;
+
 import org.plsomlib.metrics.Metric;
 import org.plsomlib.neighbourhood.NeighbourhoodFunction;
 
@@ -37,11 +39,12 @@ public class ExcitationPLSOM2 extends PLSOM2
     protected double findMinDist( int[] res)
     {
         double minDist = Double.POSITIVE_INFINITY;
-        Object [] weights = getWeights().toArray();
+        int count = getWeights().getCount();
         int winner = 0;
-        for(int x = 0;x<weights.length;x++)
+        for(int x = 0;x<count;x++)
         {
-        	double dist  = getInputMetric().getDistance((double[])weights[x], getInput());
+        	double dist  = getNodeDistance(x, getInput());
+        	offerTopK(x, dist);
             if (dist < minDist)
             {
                 minDist = dist;
@@ -60,7 +63,7 @@ public class ExcitationPLSOM2 extends PLSOM2
 	public void initWeights()
 	{
 		super.initWeights();
-		int nodeCount = this.getWeights().toArray().length;
+		int nodeCount = this.getWeights().getCount();
 		this.setExcitations(new double[nodeCount]);
 	}
 
@@ -82,4 +85,54 @@ public class ExcitationPLSOM2 extends PLSOM2
 	{
 		this.excitations = excitations;
 	}
+
+	/**
+	 * findMinDist(...) stores the excitation of each node, so classifying changes
+	 * the state of the map.
+	 * 
+	 * @see org.plsomlib.MapBaseImpl#canClassifyReentrantly()
+	 */
+	@Override
+	protected boolean canClassifyReentrantly()
+	{
+		return false;
+	}
+
+	/**
+	 * findMinDist(...) reports the distance of each node, as does the
+	 * findMinDist(...) of SoftmaxPLSOM2.
+	 * 
+	 * @see org.plsomlib.MapBaseImpl#canClassifyTopK()
+	 */
+	@Override
+	protected boolean canClassifyTopK()
+	{
+		return true;
+	}
+
+	/**
+	 * @see org.plsomlib.PLSOM2#writeBinaryHelper(org.plsomlib.BinaryModel.Output)
+	 */
+	@Override
+	protected void writeBinaryHelper(BinaryModel.Output out) throws IOException
+	{
+		super.writeBinaryHelper(out);
+		BinaryModel.Section section = new BinaryModel.Section(ExcitationPLSOM2.class.getName());
+		section.putDoubles(excitations);
+		out.writeSection(section);
+	}
+
+	/**
+	 * @see org.plsomlib.PLSOM2#readBinaryHelper(org.plsomlib.BinaryModel.Input)
+	 */
+	@Override
+	protected void readBinaryHelper(BinaryModel.Input in) throws IOException
+	{
+		super.readBinaryHelper(in);
+		BinaryModel.Section section = in.getSection(ExcitationPLSOM2.class.getName());
+		if (section != null)
+		{
+			excitations = section.getDoubles();
+		}
+	}
 }
@@ -3,11 +3,15 @@
  */
 package org.plsomlib;
 
+import java.io.IOException;
+
 import org.plsomlib.metrics.EuclideanMetric;
 import org.plsomlib.metrics.Metric;
 import org.plsomlib.metrics.WeightedEuclideanMetric;
 import org.plsomlib.neighbourhood.GaussianNeighbourhoodFunction;
+import org.plsomlib.util.AbstractWeightMatrix;
 import org.plsomlib.util.IterativeArray;
+import org.plsomlib.util.WeightMatrix;
 
 /**
  * The ImportanceEstimating PLSOM2. Input dimensions that correspond poorly with
@@ -24,6 +28,17 @@ public class IEPLSOM2 extends PLSOM2
 	private double[] min;
 	private double[] max;
 
+	/**
+	 * The input elements ordered by decreasing range, used when abandoning
+	 * nodes early.
+	 */
+	private transient int[] searchOrder;
+
+	/**
+	 * True when the ranges have changed since searchOrder was sorted.
+	 */
+	private transient boolean rangeChanged = true;
+
 	private final static double TIME_INTEGRATION_CONSTANT = 0.05;
 
 	public IEPLSOM2(int inputSize, int... outputDimensions)
@@ -61,9 +76,16 @@ public class IEPLSOM2 extends PLSOM2
 		// calculate the range of the input
 		for (int x = 0; x < input.length; x++)
 		{
-			max[x] = input[x] > max[x] ? input[x] : max[x];
-			min[x] = input[x] < min[x] ? input[x] : min[x];
-
+			if (input[x] > max[x])
+			{
+				max[x] = input[x];
+				rangeChanged = true;
+			}
+			if (input[x] < min[x])
+			{
+				min[x] = input[x];
+				rangeChanged = true;
+			}
 		}
 		super.setInput(input);
 	}
@@ -74,21 +96,77 @@ public class IEPLSOM2 extends PLSOM2
 	@Override
 	protected double findMinDist(int[] res)
 	{
+		WeightedEuclideanMetric metric = (WeightedEuclideanMetric) getInputMetric();
+		final boolean earlyAbandon = isEarlyAbandon();
+		final int[] order = earlyAbandon ? getSearchOrder() : null;
 		double minDist = Double.POSITIVE_INFINITY;
 		int winner = 0;
 		for (int x = 0; x < getWeights().getCount(); x++)
 		{
 			// give the importance weights to the input metric
-			((WeightedEuclideanMetric) getInputMetric()).setWeights(importanceScale.getValueFromOffset(x));
-			// continue with ordinary weight difference calculation method
-			if (getInputMetric().getDistance(getWeights().getValueFromOffset(x), getInput()) < minDist)
+			metric.setWeights(importanceScale.getValueFromOffset(x));
+			// continue with ordinary weight difference calculation method,
+			// comparing squared distances
+			double dist = earlyAbandon ? getNodeBoundedDistance(x, getInput(), order, minDist) : getNodeComparableDistance(x, getInput());
+			if (dist < minDist)
 			{
-				minDist = getInputMetric().getDistance(getWeights().getValueFromOffset(x), getInput());
+				minDist = dist;
 				winner = x;
 			}
 		}
 		System.arraycopy(getWeights().getPosition(winner), 0, res, 0, res.length);
-		return minDist;
+		return metric.toDistance(minDist);
+	}
+
+	/**
+	 * Orders the input elements by decreasing range, as observed in the
+	 * inputs so far. Elements with a wide range are likely to contribute more
+	 * to the distance, so visiting them first lets the search reject nodes
+	 * sooner. The order is only sorted again when the ranges change, and
+	 * then by insertion sort starting from the previous order, which is
+	 * nearly sorted.
+	 * 
+	 * @see org.plsomlib.MapBaseImpl#getSearchOrder()
+	 */
+	@Override
+	protected int[] getSearchOrder()
+	{
+		if (searchOrder == null || searchOrder.length != min.length)
+		{
+			searchOrder = new int[min.length];
+			for (int x = 0; x < searchOrder.length; x++)
+			{
+				searchOrder[x] = x;
+			}
+			rangeChanged = true;
+		}
+		if (rangeChanged)
+		{
+			for (int x = 1; x < searchOrder.length; x++)
+			{
+				int index = searchOrder[x];
+				double range = getRange(index);
+				int y = x - 1;
+				while (y >= 0 && getRange(searchOrder[y]) < range)
+				{
+					searchOrder[y + 1] = searchOrder[y];
+					y--;
+				}
+				searchOrder[y + 1] = index;
+			}
+			rangeChanged = false;
+		}
+		return searchOrder;
+	}
+
+	/**
+	 * @return the observed range of an input element, or 0 if no range has
+	 *         been observed yet.
+	 */
+	private double getRange(int index)
+	{
+		double range = max[index] - min[index];
+		return range > 0 ? range : 0;
 	}
 
 	/**
@@ -102,23 +180,48 @@ public class IEPLSOM2 extends PLSOM2
 	@Override
 	protected void updateWeights()
 	{
+		prepareNeighbourhoodScaling(getNeighbourhoodSize());
+		WeightMatrix matrix = getWeightMatrix();
+		// float and off-heap weights are updated in a copy that is stored back
+		AbstractWeightMatrix copied = null;
+		double[] row = null;
+		if (matrix == null && getWeights() instanceof AbstractWeightMatrix)
+		{
+			copied = (AbstractWeightMatrix) getWeights();
+			row = new double[copied.getRowLength()];
+		}
+		int[] position = new int[getWeights().getDimensions().length];
 		for (int x = 0; x < getWeights().getCount(); x++)
 		{
 			// calculate the neighbourhood scaling, multiply by epsilon
-			double nhScale = getNeighbourhoodScaling(getWeights().getPosition(x), getWinner(), getNeighbourhoodSize());
+			double nhScale = getNeighbourhoodScaling(getWeights().getPosition(x, position), getWinner(), getNeighbourhoodSize());
 			double scaledNh = TIME_INTEGRATION_CONSTANT * nhScale;
 			double anhc = getEpsilon() * nhScale;
-			// get the weight vector
-			double[] weight = getWeights().getValueFromOffset(x);
+			// get the weight vector, or its location in the weight matrix
+			double[] weight;
+			int start = 0;
+			if (matrix != null)
+			{
+				weight = matrix.getData();
+				start = matrix.getRowOffset(x);
+			}
+			else if (copied != null)
+			{
+				weight = copied.getRow(x, row);
+			}
+			else
+			{
+				weight = getWeights().getValueFromOffset(x);
+			}
 			// get the scaling vectors
 			double[] scaling = this.importanceScale.getValueFromOffset(x);
 			// update the weights
-			for (int wIndex = 0; wIndex < weight.length; wIndex++)
+			for (int wIndex = 0; wIndex < scaling.length; wIndex++)
 			{
 				// get the difference between the input and the weight
-				double diff = getInput()[wIndex] - weight[wIndex];
+				double diff = getInput()[wIndex] - weight[start + wIndex];
 				// update the weight, taking the scaling into account
-				weight[wIndex] += anhc * diff * scaling[wIndex];
+				weight[start + wIndex] += anhc * diff * scaling[wIndex];
 
 				// update the importance:
 				// Normalise the difference relative to the input range
@@ -134,6 +237,11 @@ public class IEPLSOM2 extends PLSOM2
 					scaling[wIndex] += scaledNh * corr;
 				}
 			}
+			if (copied != null)
+			{
+				copied.setValueAtOffset(weight, x);
+			}
+			markDirty(x);
 		}
 	}
 
@@ -154,6 +262,18 @@ public class IEPLSOM2 extends PLSOM2
 		return a>b?a:b;
 	}
 
+	/**
+	 * The importance scalings are copied into the shared input metric for
+	 * each node, so the nodes cannot be evaluated in parallel.
+	 * 
+	 * @see org.plsomlib.MapBaseImpl#canSearchInParallel()
+	 */
+	@Override
+	protected boolean canSearchInParallel()
+	{
+		return false;
+	}
+
 	/**
 	 * @see org.plsomlib.MapBaseImpl#setInputMetric(org.plsomlib.metrics.Metric)
 	 */
@@ -167,4 +287,46 @@ public class IEPLSOM2 extends PLSOM2
 		super.setInputMetric(inputMetric);
 	}
 
+	/**
+	 * The importance scalings are copied into the shared input metric for
+	 * each node, so classifying changes the state of the map.
+	 * 
+	 * @see org.plsomlib.MapBaseImpl#canClassifyReentrantly()
+	 */
+	@Override
+	protected boolean canClassifyReentrantly()
+	{
+		return false;
+	}
+
+	/**
+	 * @see org.plsomlib.PLSOM2#writeBinaryHelper(org.plsomlib.BinaryModel.Output)
+	 */
+	@Override
+	protected void writeBinaryHelper(BinaryModel.Output out) throws IOException
+	{
+		super.writeBinaryHelper(out);
+		BinaryModel.Section section = new BinaryModel.Section(IEPLSOM2.class.getName());
+		section.putRows(importanceScale);
+		section.putDoubles(min);
+		section.putDoubles(max);
+		out.writeSection(section);
+	}
+
+	/**
+	 * @see org.plsomlib.PLSOM2#readBinaryHelper(org.plsomlib.BinaryModel.Input)
+	 */
+	@Override
+	protected void readBinaryHelper(BinaryModel.Input in) throws IOException
+	{
+		super.readBinaryHelper(in);
+		BinaryModel.Section section = in.getSection(IEPLSOM2.class.getName());
+		if (section != null)
+		{
+			importanceScale = section.getRows();
+			min = section.getDoubles();
+			max = section.getDoubles();
+			rangeChanged = true;
+		}
+	}
 }
@@ -17,7 +17,9 @@ public interface MapBase
      * @param location an array indicating the position of the desired node along each of the 
      * SOM's dimensions.
      * @return the weight vector of the node at the given location, any changes will to the returned
-     * object will be reflected in the node.
+     * object will be reflected in the node. Implementations that do not keep the weights of each
+     * node in an array of their own return a copy instead, and changes to it are not reflected
+     * in the node.
      */
     public double [] getWeights(int... location);
 
@@ -2,30 +2,47 @@ package org.plsomlib;
 
 import org.plsomlib.metrics.*;
 import org.plsomlib.neighbourhood.*;
+import org.plsomlib.util.AbstractWeightMatrix;
+import org.plsomlib.util.BatchWinnerSearch;
+import org.plsomlib.util.CoarseToFineSearch;
+import org.plsomlib.util.FloatWeightMatrix;
 import org.plsomlib.util.IterativeArray;
+import org.plsomlib.util.LocalWinnerSearch;
+import org.plsomlib.util.OffHeapWeightMatrix;
+import org.plsomlib.util.ParallelNodeLoop;
+import org.plsomlib.util.ParallelWinnerSearch;
+import org.plsomlib.util.ProjectionHashIndex;
+import org.plsomlib.util.TopKCollector;
+import org.plsomlib.util.VantagePointTree;
+import org.plsomlib.util.WeightMatrix;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.lang.reflect.*;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.TransformerFactoryConfigurationError;
-import javax.xml.transform.dom.DOMResult;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 import org.w3c.dom.Text;
 
 /**
@@ -72,6 +89,233 @@ public abstract class MapBaseImpl implements MapBase, Serializable
      */
     private NeighbourhoodFunction nhFunction;
 
+    /**
+     * If true, the winner search abandons a node as soon as its partial
+     * distance exceeds the best distance found so far.
+     */
+    private boolean earlyAbandon;
+
+    /**
+     * If true, the winner search is split across a ForkJoinPool for maps with
+     * at least parallelThreshold nodes.
+     */
+    private boolean parallelSearch;
+
+    /**
+     * If true, the weight update is split across a ForkJoinPool for maps with
+     * at least parallelThreshold nodes.
+     */
+    private boolean parallelUpdate;
+
+    /**
+     * The number of nodes below which the winner search and the weight update
+     * stay sequential.
+     */
+    private int parallelThreshold = ParallelWinnerSearch.DEFAULT_THRESHOLD;
+
+    /**
+     * The number of threads in the pool of this map, or 0 to use the common
+     * ForkJoinPool.
+     */
+    private int parallelism;
+
+    /**
+     * The pool of this map when parallelism is greater than 0, created when
+     * first needed.
+     */
+    private transient ForkJoinPool pool;
+
+    /**
+     * The helper that runs winner searches, created when first needed.
+     */
+    private transient ParallelWinnerSearch winnerSearch;
+
+    /**
+     * The helper that runs weight updates, created when first needed.
+     */
+    private transient ParallelNodeLoop nodeLoop;
+
+    /**
+     * The weights that create(...) hands to the constructor of the map it
+     * creates, so that the map is built around them instead of building
+     * default weights that are thrown away at once.
+     */
+    private static final ThreadLocal<IterativeArray<double[]>> createdWeights = new ThreadLocal<IterativeArray<double[]>>();
+
+    /**
+     * True while the constructor initialises a map whose weights were handed
+     * over by create(...), which initWeights() keeps.
+     */
+    private transient boolean keepWeights;
+
+    /**
+     * The neighbourhood scaling below which nodes are skipped in the weight
+     * update, or 0 to update all nodes.
+     */
+    private double neighbourhoodCutoff;
+
+    /**
+     * Applies the weight update to the nodes inside the window around the
+     * winner, created when first needed.
+     */
+    private transient WindowAction windowAction;
+
+    /**
+     * If true, neighbourhood scalings are looked up in a NeighbourhoodTable.
+     */
+    private boolean useNeighbourhoodTable;
+
+    /**
+     * If true, neighbourhood scalings are calculated as products of the
+     * factors in a SeparableNeighbourhood.
+     */
+    private boolean useSeparableNeighbourhood;
+
+    /**
+     * The cached neighbourhood scalings, created when first needed.
+     */
+    private transient NeighbourhoodCache neighbourhoodCache;
+
+    /**
+     * The evaluator used by parallel searches in findMinDist, created when
+     * first needed.
+     */
+    private transient NodeDistanceEvaluator distanceEvaluator;
+
+    /**
+     * Receives the result of sequential searches in findMinDist, created when
+     * first needed.
+     */
+    private transient Classification searchResult;
+
+    /**
+     * If true, findMinDist searches locally around the previous winner.
+     */
+    private boolean localSearch;
+
+    /**
+     * Every fullScanInterval-th search is a full scan, 0 for no periodic
+     * full scans.
+     */
+    private int fullScanInterval = 100;
+
+    /**
+     * A local search result is rejected in favour of a full scan if its
+     * distance is more than this many times the previous distance, 0 to never
+     * reject.
+     */
+    private double errorJumpRatio = 2;
+
+    private transient int stepsSinceFullScan;
+    private transient double lastSearchDistance;
+
+    /**
+     * The distance between the nodes of the shadow grid of coarse-to-fine
+     * searches, 0 to not search coarse-to-fine.
+     */
+    private int coarseSearchStride;
+
+    /**
+     * How far beyond one stride the fine pass of coarse-to-fine searches
+     * reaches.
+     */
+    private int coarseSearchMargin = 1;
+
+    /**
+     * If true, findMinDist only compares the nodes found by hashing the
+     * input.
+     */
+    private boolean approximateSearch;
+
+    private int hashTables = 8;
+    private int hashBucketSize = 16;
+
+    /**
+     * Every approximateCheckInterval-th approximate search is checked against
+     * a full scan, 0 to never check.
+     */
+    private int approximateCheckInterval;
+
+    /**
+     * The index for approximate searches, built when first needed.
+     */
+    private transient volatile ProjectionHashIndex hashIndex;
+
+    private transient int approximateSearches;
+    private transient long approximateChecks;
+    private transient long approximateAgreements;
+
+    /**
+     * The winner search selected by the search settings, created when first
+     * needed.
+     */
+    private transient WinnerSearchMode searchMode;
+
+    /**
+     * The exhaustive winner search, used whatever the settings while the map
+     * is frozen, created when first needed.
+     */
+    private transient WinnerSearchMode fullSearchMode;
+
+    /**
+     * If true, the squared norm of each node is kept up to date and the winner
+     * search uses dot products.
+     */
+    private boolean useNodeNorms;
+
+    /**
+     * The squared norm of the weights of each node, or null if they are not
+     * kept. Calculated when the norms are switched on or the weights are
+     * replaced, and updated with the weights, so the winner search only reads
+     * them.
+     */
+    private transient volatile double[] nodeNorms;
+
+    /**
+     * The index used to find the winner while the map is frozen, or null.
+     */
+    private transient volatile VantagePointTree nodeIndex;
+
+    /**
+     * Receives the value of each node evaluated by findMinDist while
+     * classifyTopK(...) runs on a map that can not classify reentrantly, null
+     * otherwise.
+     */
+    private transient TopKCollector topKCollector;
+
+    /**
+     * The number of training steps between snapshots, 0 to not publish
+     * snapshots by step count.
+     */
+    private int snapshotInterval;
+
+    /**
+     * The number of milliseconds between snapshots, 0 to not publish
+     * snapshots by time.
+     */
+    private long snapshotPeriod;
+
+    /**
+     * The latest published snapshot, or null.
+     */
+    private transient volatile WeightSnapshot snapshot;
+
+    /**
+     * The snapshot that was replaced by the latest one, which is reused by
+     * the next publication if no reader holds it.
+     */
+    private transient WeightSnapshot spareSnapshot;
+
+    private transient int stepsSinceSnapshot;
+    private transient long lastSnapshotTime;
+    private transient long snapshotCount;
+
+    /**
+     * The log that checkpoints this map, which is told about the nodes whose
+     * weights change, or null.
+     */
+    private transient volatile CheckpointLog checkpointLog;
+
     /**
      * Class constructor.
      * 
@@ -93,11 +337,106 @@ public abstract class MapBaseImpl implements MapBase, Serializable
         this.setOutputMetric(outputMetric);
         this.setNeighbourhoodFunction(nhFunction);
         this.inputDimension = inputSize;
-        this.weights = new IterativeArray<double[]>(outputDimensions);
         this.random = new Random();
+        IterativeArray<double[]> storage = createdWeights.get();
+        if (storage != null)
+        {
+            // only this map takes the weights, not the maps its subclass
+            // constructor may create
+            createdWeights.remove();
+            checkWeights(storage, outputDimensions);
+            this.weights = storage;
+            this.keepWeights = true;
+        }
+        else
+        {
+            this.weights = new IterativeArray<double[]>(outputDimensions);
+        }
         this.initWeights();
     }
 
+    /**
+     * Create a map with weights that already exist. The map is created with
+     * its (int, int...) constructor, as by read(...), but is given the weights
+     * before its state is initialised, so that no default weights are built.
+     * 
+     * @param mapClass
+     *            the class of the map.
+     * @param inputSize
+     *            the number of inputs to the map.
+     * @param outputDimensions
+     *            the number of and size of output dimensions.
+     * @param weights
+     *            the weights of the map, must have the given dimensions.
+     * @return the new map.
+     * @throws ReflectiveOperationException
+     *             if the map could not be created.
+     * @throws IllegalArgumentException
+     *             if the weights do not fit a map of the given size.
+     */
+    static MapBaseImpl create(Class<?> mapClass, int inputSize, int[] outputDimensions, IterativeArray<double[]> weights)
+            throws ReflectiveOperationException
+    {
+        Constructor<?> con = mapClass.getConstructor(Integer.TYPE, outputDimensions.getClass());
+        createdWeights.set(weights);
+        try
+        {
+            return (MapBaseImpl) con.newInstance(inputSize, outputDimensions);
+        }
+        catch (InvocationTargetException e)
+        {
+            // weights that do not fit the map are reported as such
+            if (e.getCause() instanceof IllegalArgumentException)
+            {
+                throw (IllegalArgumentException) e.getCause();
+            }
+            throw e;
+        }
+        finally
+        {
+            createdWeights.remove();
+        }
+    }
+
+    /**
+     * Make sure that weights created elsewhere fit this map.
+     * 
+     * @param storage
+     *            the weights.
+     * @param outputDimensions
+     *            the output dimensions of this map.
+     * @throws IllegalArgumentException
+     *             if the dimensions of the weights differ from those of the
+     *             map, or a node does not have one weight per input.
+     */
+    private void checkWeights(IterativeArray<double[]> storage, int[] outputDimensions)
+    {
+        if (!Arrays.equals(storage.getDimensions(), outputDimensions))
+        {
+            throw new IllegalArgumentException("The weights have the dimensions " + Arrays.toString(storage.getDimensions())
+                    + ", the map has " + Arrays.toString(outputDimensions) + ".");
+        }
+        if (storage instanceof AbstractWeightMatrix)
+        {
+            if (((AbstractWeightMatrix) storage).getRowLength() != this.inputDimension)
+            {
+                throw new IllegalArgumentException("The weights have " + ((AbstractWeightMatrix) storage).getRowLength()
+                        + " inputs, the map has " + this.inputDimension + ".");
+            }
+        }
+        else
+        {
+            for (int x = 0; x < storage.getCount(); x++)
+            {
+                double[] row = storage.getValueFromOffset(x);
+                if (row == null || row.length != this.inputDimension)
+                {
+                    throw new IllegalArgumentException("Node " + x + " does not have " + this.inputDimension + " weights.");
+                }
+            }
+        }
+    }
+
     /**
      * Class constructor. Automatically crates two EuclideanMetric objects to
      * measure disances in the input and output spaces. Automatically creates a
@@ -140,110 +479,2340 @@ public abstract class MapBaseImpl implements MapBase, Serializable
     }
 
     /**
-     * Create the weights. All weights are initially set to random values
-     * between -1 and 1.
+     * Select how the weights are stored. By default each node has its own
+     * weight array. If useWeightMatrix is true, the weights of all nodes are
+     * kept in one contiguous WeightMatrix instead, which lets the winner search
+     * and the weight update scan the weights linearly. The current weights
+     * are preserved.
+     * 
+     * Note that the nodes then have no weight arrays of their own, so
+     * getWeights(int...) returns a copy of the weights of the node, and writes
+     * to it are not reflected in the node. The same holds for float and
+     * off-heap weights.
+     * 
+     * @param useWeightMatrix
+     *            true to store the weights in a WeightMatrix, false to store
+     *            one array per node.
+     */
+    public void setUseWeightMatrix(boolean useWeightMatrix)
+    {
+        if (useWeightMatrix && !isUseWeightMatrix())
+        {
+            setWeightStorage(new WeightMatrix(this.inputDimension, this.weights));
+        }
+        else if (!useWeightMatrix && isUseWeightMatrix())
+        {
+            setWeightStorage(getWeightMatrix().toRows());
+        }
+        else if (!useWeightMatrix && isUseFloatWeights())
+        {
+            setWeightStorage(getFloatWeightMatrix().toRows());
+        }
+        else if (!useWeightMatrix && isUseOffHeapWeights())
+        {
+            setWeightStorage(getOffHeapWeightMatrix().toRows());
+        }
+    }
+
+    /**
+     * Replace the weights with a copy in another kind of storage. The caches
+     * derived from the weights are discarded. The memory of off-heap weights
+     * that are replaced is not freed here, since another thread may still be
+     * reading them, it is left to the garbage collector.
+     * 
+     * @param storage
+     *            the new weight storage.
+     */
+    private void setWeightStorage(IterativeArray<double[]> storage)
+    {
+        this.weights = storage;
+        this.nodeIndex = null;
+        this.hashIndex = null;
+        computeNodeNorms();
+    }
+
+    /**
+     * @return true if the weights are stored in a WeightMatrix.
+     * @see #setUseWeightMatrix(boolean)
+     */
+    public boolean isUseWeightMatrix()
+    {
+        return this.weights instanceof WeightMatrix;
+    }
+
+    /**
+     * Access the weight storage as a WeightMatrix.
+     * 
+     * @return the weights, or null if the weights are not stored in a
+     *         WeightMatrix.
+     * @see #setUseWeightMatrix(boolean)
+     */
+    public WeightMatrix getWeightMatrix()
+    {
+        if (this.weights instanceof WeightMatrix)
+        {
+            return (WeightMatrix) this.weights;
+        }
+        return null;
+    }
+
+    /**
+     * Select whether the weights are stored in float precision. If
+     * useFloatWeights is true, the weights of all nodes are kept in one
+     * contiguous FloatWeightMatrix, which takes half the memory of a
+     * WeightMatrix and halves the memory traffic of the winner search. The
+     * inputs and the distance calculations stay in double precision, each
+     * weight is widened as it is read, and the weight updates are rounded to
+     * float precision as they are stored. Winners can therefore differ from
+     * those of a map with double weights when an input is almost equally close
+     * to two nodes. If useFloatWeights is false the weights are moved to a
+     * WeightMatrix. The current weights are preserved, rounded to float
+     * precision when switching to float.
+     * 
+     * Searches that need a WeightMatrix, i.e. node norms, batch
+     * classification and freeze(), are not sped up in float mode: the norms
+     * are not used, and the other two copy the weights to a WeightMatrix
+     * first.
+     * 
+     * @param useFloatWeights
+     *            true to store the weights in a FloatWeightMatrix.
+     * @see #setUseWeightMatrix(boolean)
+     */
+    public void setUseFloatWeights(boolean useFloatWeights)
+    {
+        if (useFloatWeights && !isUseFloatWeights())
+        {
+            setWeightStorage(new FloatWeightMatrix(this.inputDimension, this.weights));
+        }
+        else if (!useFloatWeights && isUseFloatWeights())
+        {
+            setWeightStorage(new WeightMatrix(this.inputDimension, this.weights));
+        }
+    }
+
+    /**
+     * @return true if the weights are stored in a FloatWeightMatrix.
+     * @see #setUseFloatWeights(boolean)
+     */
+    public boolean isUseFloatWeights()
+    {
+        return this.weights instanceof FloatWeightMatrix;
+    }
+
+    /**
+     * Access the weight storage as a FloatWeightMatrix.
+     * 
+     * @return the weights, or null if the weights are not stored in a
+     *         FloatWeightMatrix.
+     * @see #setUseFloatWeights(boolean)
+     */
+    public FloatWeightMatrix getFloatWeightMatrix()
+    {
+        if (this.weights instanceof FloatWeightMatrix)
+        {
+            return (FloatWeightMatrix) this.weights;
+        }
+        return null;
+    }
+
+    /**
+     * Select whether the weights are stored outside the Java heap. If
+     * useOffHeapWeights is true, the weights of all nodes are kept in an
+     * OffHeapWeightMatrix, in direct buffers that the garbage collector
+     * neither scans nor copies, and the input metric reads them in place. This
+     * suits maps with millions of nodes, where the weights would otherwise
+     * dominate the heap. If useOffHeapWeights is false the weights are moved
+     * to a WeightMatrix. The current weights are preserved.
+     * 
+     * Off-heap weights that are replaced, by this method or by moving the
+     * weights to any other storage, are released when they are garbage
+     * collected, so a thread that still classifies with them is not left
+     * reading freed memory. Call releaseWeights() to free the memory at once
+     * instead.
+     * 
+     * Searches that need a WeightMatrix, i.e. node norms, batch
+     * classification and freeze(), are not sped up with off-heap weights: the
+     * norms are not used, and the other two copy the weights to a WeightMatrix
+     * on the heap first. getStateVector() still returns a copy on the heap.
+     * 
+     * @param useOffHeapWeights
+     *            true to store the weights in an OffHeapWeightMatrix.
+     * @see #setUseWeightMatrix(boolean)
+     * @see #releaseWeights()
+     */
+    public void setUseOffHeapWeights(boolean useOffHeapWeights)
+    {
+        if (useOffHeapWeights && !isUseOffHeapWeights())
+        {
+            setWeightStorage(new OffHeapWeightMatrix(this.inputDimension, this.weights));
+        }
+        else if (!useOffHeapWeights && isUseOffHeapWeights())
+        {
+            setWeightStorage(new WeightMatrix(this.inputDimension, this.weights));
+        }
+    }
+
+    /**
+     * @return true if the weights are stored in an OffHeapWeightMatrix.
+     * @see #setUseOffHeapWeights(boolean)
+     */
+    public boolean isUseOffHeapWeights()
+    {
+        return this.weights instanceof OffHeapWeightMatrix;
+    }
+
+    /**
+     * Access the weight storage as an OffHeapWeightMatrix.
+     * 
+     * @return the weights, or null if the weights are not stored in an
+     *         OffHeapWeightMatrix.
+     * @see #setUseOffHeapWeights(boolean)
+     */
+    public OffHeapWeightMatrix getOffHeapWeightMatrix()
+    {
+        if (this.weights instanceof OffHeapWeightMatrix)
+        {
+            return (OffHeapWeightMatrix) this.weights;
+        }
+        return null;
+    }
+
+    /**
+     * Release the memory of off-heap weights at once, instead of when the map
+     * is garbage collected. The map can not be used afterwards, and no other
+     * thread may be using it when this method is called, since the memory is
+     * freed under it. This is the only method that frees off-heap memory
+     * explicitly. Has no effect if the weights are stored on the heap.
+     * 
+     * @see #setUseOffHeapWeights(boolean)
+     */
+    public void releaseWeights()
+    {
+        OffHeapWeightMatrix offHeap = getOffHeapWeightMatrix();
+        if (offHeap != null)
+        {
+            this.nodeNorms = null;
+            this.nodeIndex = null;
+            this.hashIndex = null;
+            offHeap.close();
+        }
+    }
+
+    /**
+     * Select whether the winner search abandons the distance calculation for
+     * a node as soon as its partial distance exceeds the best distance found
+     * so far. This pays off for high-dimensional inputs where most nodes can be
+     * rejected after a fraction of the elements. It only has an effect with
+     * input metrics that implement Metric.getBoundedDistance(...), such as the
+     * Euclidean metrics. The winner is the same as with the full search,
+     * except that the elements may be summed in a different order, which can
+     * change the outcome of exact ties.
+     * 
+     * @param earlyAbandon
+     *            true to enable early abandoning, false to compute every
+     *            distance in full.
+     * @see #getSearchOrder()
+     */
+    public void setEarlyAbandon(boolean earlyAbandon)
+    {
+        this.earlyAbandon = earlyAbandon;
+    }
+
+    /**
+     * @return true if the winner search abandons nodes early.
+     * @see #setEarlyAbandon(boolean)
+     */
+    public boolean isEarlyAbandon()
+    {
+        return earlyAbandon;
+    }
+
+    /**
+     * Get the order in which the input elements are visited when abandoning
+     * nodes early. Visiting the elements that contribute most to the distance
+     * first lets the search reject nodes sooner. Subclasses that know more
+     * about the input can override this.
+     * 
+     * @return the indexes of the input elements in the order they should be
+     *         visited, or null to visit them in their natural order, which is
+     *         what this implementation returns.
+     * @see #setEarlyAbandon(boolean)
+     */
+    protected int[] getSearchOrder()
+    {
+        return null;
+    }
+
+    /**
+     * Select whether the winner search is split across the threads of a
+     * ForkJoinPool. The search stays sequential for maps with fewer nodes than
+     * the parallel threshold, where the overhead of the threads outweighs the
+     * gain. The parallel search finds the same winner as the sequential
+     * search, ties are resolved to the node with the lowest offset.
+     * 
+     * @param parallelSearch
+     *            true to search in parallel, false to always search
+     *            sequentially.
+     * @see #setParallelThreshold(int)
+     */
+    public void setParallelSearch(boolean parallelSearch)
+    {
+        this.parallelSearch = parallelSearch;
+    }
+
+    /**
+     * @return true if the winner search is split across several threads.
+     * @see #setParallelSearch(boolean)
+     */
+    public boolean isParallelSearch()
+    {
+        return parallelSearch;
+    }
+
+    /**
+     * Select whether the weight update is split across the threads of a
+     * ForkJoinPool. The weights of each node are updated independently, so the
+     * result is the same as with the sequential update. The update stays
+     * sequential for maps with fewer nodes than the parallel threshold.
+     * Subclasses that override updateWeights() may ignore this setting.
+     * 
+     * @param parallelUpdate
+     *            true to update in parallel, false to always update
+     *            sequentially.
+     * @see #setParallelThreshold(int)
+     * @see #setParallelism(int)
+     */
+    public void setParallelUpdate(boolean parallelUpdate)
+    {
+        this.parallelUpdate = parallelUpdate;
+    }
+
+    /**
+     * @return true if the weight update is split across several threads.
+     * @see #setParallelUpdate(boolean)
+     */
+    public boolean isParallelUpdate()
+    {
+        return parallelUpdate;
+    }
+
+    /**
+     * @param parallelThreshold
+     *            the number of nodes below which the winner search and the
+     *            weight update stay sequential even when they are set to run
+     *            in parallel.
+     * @see #setParallelSearch(boolean)
+     * @see #setParallelUpdate(boolean)
+     */
+    public void setParallelThreshold(int parallelThreshold)
+    {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * @return the number of nodes below which the winner search and the
+     *         weight update stay sequential.
+     * @see #setParallelSearch(boolean)
+     * @see #setParallelUpdate(boolean)
+     */
+    public int getParallelThreshold()
+    {
+        return parallelThreshold;
+    }
+
+    /**
+     * Set the number of threads used by the parallel winner search and weight
+     * update. A value greater than 0 gives this map its own ForkJoinPool with
+     * that many threads, which is kept for the life of the map. The default, 0,
+     * uses the common ForkJoinPool.
+     * 
+     * @param parallelism
+     *            the number of threads, or 0 to use the common pool.
+     * @see #setParallelSearch(boolean)
+     * @see #setParallelUpdate(boolean)
+     */
+    public void setParallelism(int parallelism)
+    {
+        if (parallelism < 0)
+        {
+            throw new IllegalArgumentException("Parallelism must not be negative, was " + parallelism + ".");
+        }
+        if (parallelism != this.parallelism)
+        {
+            this.parallelism = parallelism;
+            if (this.pool != null)
+            {
+                // the threads of the old pool finish their work and exit
+                this.pool.shutdown();
+                this.pool = null;
+            }
+            this.winnerSearch = null;
+            this.nodeLoop = null;
+        }
+    }
+
+    /**
+     * @return the number of threads in the pool of this map, or 0 if the
+     *         common ForkJoinPool is used.
+     * @see #setParallelism(int)
+     */
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * Get the pool that parallel work runs in.
+     * 
+     * @return the pool of this map, or the common ForkJoinPool if the
+     *         parallelism is 0.
+     * @see #setParallelism(int)
+     */
+    protected ForkJoinPool getPool()
+    {
+        if (parallelism == 0)
+        {
+            return ForkJoinPool.commonPool();
+        }
+        if (pool == null)
+        {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    /**
+     * Decide whether a winner search over a given number of nodes should run
+     * in parallel.
+     * 
+     * @param count
+     *            the number of nodes to search.
+     * @return true if parallel search is enabled, the search is large enough
+     *         and the map supports it, and classifyTopK(...) is not collecting
+     *         the values of the nodes.
+     */
+    protected boolean useParallelSearch(int count)
+    {
+        return parallelSearch && count >= parallelThreshold && canSearchInParallel() && topKCollector == null;
+    }
+
+    /**
+     * Decide whether a weight update over a given number of nodes should run
+     * in parallel.
+     * 
+     * @param count
+     *            the number of nodes to update.
+     * @return true if parallel update is enabled and the update is large
+     *         enough.
+     */
+    protected boolean useParallelUpdate(int count)
+    {
+        return parallelUpdate && count >= parallelThreshold;
+    }
+
+    /**
+     * Set the neighbourhood scaling below which nodes are skipped in the
+     * weight update. When this is greater than 0, the weight update only
+     * visits the nodes inside a box around the winner in the output space,
+     * outside of which the neighbourhood scaling is known to be smaller than
+     * the cutoff. This makes the update proportional to the size of the
+     * neighbourhood instead of the size of the map, at the cost of ignoring
+     * updates smaller than the cutoff times the learning rate.
+     * 
+     * The box can only be found if the neighbourhood function implements
+     * NeighbourhoodFunction.getCutoffDistance(...) and the output metric
+     * implements Metric.getCoordinateBound(...), otherwise all nodes are
+     * updated.
+     * 
+     * A CheckpointLog needs a cutoff to write deltas instead of snapshots,
+     * since without one every node changes at every step.
+     * 
+     * @param neighbourhoodCutoff
+     *            the cutoff, for example 1e-6, or 0 to update all nodes.
+     * @throws IllegalArgumentException
+     *             if the cutoff is not at least 0 and less than 1.
+     */
+    public void setNeighbourhoodCutoff(double neighbourhoodCutoff)
+    {
+        if (!(neighbourhoodCutoff >= 0 && neighbourhoodCutoff < 1))
+        {
+            throw new IllegalArgumentException("The neighbourhood cutoff must be in the range [0,1), was " + neighbourhoodCutoff + ".");
+        }
+        this.neighbourhoodCutoff = neighbourhoodCutoff;
+    }
+
+    /**
+     * @return the neighbourhood scaling below which nodes are skipped in the
+     *         weight update, or 0 if all nodes are updated.
+     * @see #setNeighbourhoodCutoff(double)
+     */
+    public double getNeighbourhoodCutoff()
+    {
+        return neighbourhoodCutoff;
+    }
+
+    /**
+     * Select whether neighbourhood scalings are looked up in a table instead
+     * of being calculated for each node. The table holds the scaling for each
+     * squared grid distance and is only filled again when the neighbourhood
+     * size changes, so the neighbourhood function is evaluated once per
+     * distinct distance instead of once per node. The scalings are the same
+     * as without the table. The table is only used with the EuclideanMetric
+     * and SquaredEuclideanMetric output metrics.
+     * 
+     * @param useNeighbourhoodTable
+     *            true to look up scalings in a table.
+     * @see NeighbourhoodTable
+     */
+    public void setUseNeighbourhoodTable(boolean useNeighbourhoodTable)
+    {
+        this.useNeighbourhoodTable = useNeighbourhoodTable;
+        this.neighbourhoodCache = null;
+    }
+
+    /**
+     * @return true if neighbourhood scalings are looked up in a table.
+     * @see #setUseNeighbourhoodTable(boolean)
+     */
+    public boolean isUseNeighbourhoodTable()
+    {
+        return useNeighbourhoodTable;
+    }
+
+    /**
+     * Select whether neighbourhood scalings of separable neighbourhood
+     * functions, such as the GaussianNeighbourhoodFunction, are calculated as
+     * the product of one factor per output dimension. The factors are
+     * calculated once per neighbourhood size, so no transcendental functions
+     * are evaluated per node. The scalings may differ from those calculated
+     * directly in the last few bits. This is only used with the
+     * EuclideanMetric output metric, and takes precedence over the
+     * neighbourhood table.
+     * 
+     * @param useSeparableNeighbourhood
+     *            true to calculate scalings as products of factors.
+     * @see SeparableNeighbourhood
+     * @see #setUseNeighbourhoodTable(boolean)
+     */
+    public void setUseSeparableNeighbourhood(boolean useSeparableNeighbourhood)
+    {
+        this.useSeparableNeighbourhood = useSeparableNeighbourhood;
+        this.neighbourhoodCache = null;
+    }
+
+    /**
+     * @return true if neighbourhood scalings of separable functions are
+     *         calculated as products of factors.
+     * @see #setUseSeparableNeighbourhood(boolean)
+     */
+    public boolean isUseSeparableNeighbourhood()
+    {
+        return useSeparableNeighbourhood;
+    }
+
+    /**
+     * Prepare the separable neighbourhood or the neighbourhood table, if one
+     * is used, for a neighbourhood size. Weight updates call this before
+     * calculating scalings with getNeighbourhoodScaling(...), which otherwise
+     * calculates them directly.
+     * 
+     * @param nhSize
+     *            the neighbourhood size of the coming update.
+     * @param maxSquaredDistance
+     *            the largest squared grid distance from the winner that will
+     *            be looked up.
+     * @see #setUseSeparableNeighbourhood(boolean)
+     * @see #setUseNeighbourhoodTable(boolean)
+     */
+    protected void prepareNeighbourhoodScaling(double nhSize, int maxSquaredDistance)
+    {
+        if (neighbourhoodCache == null)
+        {
+            if (useSeparableNeighbourhood && SeparableNeighbourhood.isSupported(nhFunction, outputMetric))
+            {
+                neighbourhoodCache = new SeparableNeighbourhood(nhFunction, outputMetric, getWeights().getDimensions());
+            }
+            else if (useNeighbourhoodTable && NeighbourhoodTable.isSupported(outputMetric, getWeights().getDimensions()))
+            {
+                neighbourhoodCache = new NeighbourhoodTable(nhFunction, outputMetric, getWeights().getDimensions());
+            }
+            else
+            {
+                return;
+            }
+        }
+        neighbourhoodCache.prepare(nhSize, maxSquaredDistance);
+    }
+
+    /**
+     * Prepare the neighbourhood table, if it is used, for a neighbourhood
+     * size and all distances on the map.
+     * 
+     * @param nhSize
+     *            the neighbourhood size of the coming update.
+     * @see #prepareNeighbourhoodScaling(double, int)
+     */
+    protected void prepareNeighbourhoodScaling(double nhSize)
+    {
+        prepareNeighbourhoodScaling(nhSize, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Apply a weight update action to the nodes that the update can affect.
+     * If a neighbourhood cutoff is set, only the nodes in the box around the
+     * winner are visited, otherwise all nodes are. The nodes are processed in
+     * parallel if parallel update is enabled.
+     * 
+     * @param action
+     *            the update of a single node.
+     * @param nhSize
+     *            the current neighbourhood size.
+     * @see #setNeighbourhoodCutoff(double)
+     * @see #setParallelUpdate(boolean)
+     */
+    protected void updateNodes(ParallelNodeLoop.NodeAction action, double nhSize)
+    {
+        int count = getWeights().getCount();
+        if (neighbourhoodCutoff > 0)
+        {
+            if (windowAction == null)
+            {
+                windowAction = new WindowAction(getWeights().getDimensions());
+            }
+            int windowCount = windowAction.setWindow(getWinner(), nhSize);
+            if (windowCount < count)
+            {
+                prepareNeighbourhoodScaling(nhSize, windowAction.maxSquaredDistance);
+                windowAction.target = action;
+                try
+                {
+                    getNodeLoop().run(windowCount, windowAction, useParallelUpdate(windowCount));
+                }
+                finally
+                {
+                    windowAction.target = null;
+                }
+                return;
+            }
+        }
+        prepareNeighbourhoodScaling(nhSize);
+        getNodeLoop().run(count, action, useParallelUpdate(count));
+    }
+
+    /**
+     * Maps the nodes of a box in the output space to their offsets and
+     * applies another action to them.
+     */
+    private class WindowAction implements ParallelNodeLoop.NodeAction
+    {
+        private final int[] dimensions;
+        private final int[] factors;
+        private final int[] from;
+        private final int[] size;
+        private ParallelNodeLoop.NodeAction target;
+
+        /**
+         * The largest squared grid distance from the winner to a node in the
+         * box.
+         */
+        private int maxSquaredDistance;
+
+        WindowAction(int[] dimensions)
+        {
+            this.dimensions = dimensions;
+            this.factors = new int[dimensions.length];
+            this.from = new int[dimensions.length];
+            this.size = new int[dimensions.length];
+            int factor = 1;
+            for (int d = 0; d < dimensions.length; d++)
+            {
+                factors[d] = factor;
+                factor *= dimensions[d];
+            }
+        }
+
+        /**
+         * Place the box around the winner.
+         * 
+         * @return the number of nodes in the box.
+         */
+        int setWindow(int[] winner, double nhSize)
+        {
+            double radius = getOutputMetric().getCoordinateBound(nhFunction.getCutoffDistance(neighbourhoodCutoff, nhSize));
+            if (radius < 0)
+            {
+                // no node is close enough
+                return 0;
+            }
+            long windowCount = 1;
+            maxSquaredDistance = 0;
+            for (int d = 0; d < dimensions.length; d++)
+            {
+                // nodes differing by more than radius in any coordinate are
+                // further away than the cutoff distance, if radius is
+                // infinite or NaN the box covers the whole dimension
+                int reach = radius < dimensions[d] ? (int) Math.floor(radius) : dimensions[d];
+                from[d] = Math.max(0, winner[d] - reach);
+                int to = Math.min(dimensions[d] - 1, winner[d] + reach);
+                size[d] = to - from[d] + 1;
+                windowCount *= size[d];
+                int extent = Math.max(winner[d] - from[d], to - winner[d]);
+                maxSquaredDistance += extent * extent;
+            }
+            return (int) windowCount;
+        }
+
+        public void apply(int index, int[] position)
+        {
+            int offset = 0;
+            for (int d = 0; d < size.length; d++)
+            {
+                offset += (from[d] + index % size[d]) * factors[d];
+                index /= size[d];
+            }
+            target.apply(offset, position);
+        }
+    }
+
+    /**
+     * Subclasses whose distance calculations change state shared between
+     * nodes, such as the weights of a WeightedEuclideanMetric, must override
+     * this to return false.
+     * 
+     * @return true if the nodes can be evaluated from several threads at once,
+     *         which this implementation does.
+     */
+    protected boolean canSearchInParallel()
+    {
+        return true;
+    }
+
+    /**
+     * Get the helper that runs winner searches, sequentially or in the pool of
+     * this map.
+     * 
+     * @return the winner search helper of this map.
+     * @see #getPool()
+     */
+    protected ParallelWinnerSearch getWinnerSearch()
+    {
+        if (winnerSearch == null)
+        {
+            winnerSearch = new ParallelWinnerSearch(getPool());
+        }
+        return winnerSearch;
+    }
+
+    /**
+     * Get the helper that applies an action to every node, sequentially or in
+     * the pool of this map. Used for the weight update.
+     * 
+     * @return the node loop helper of this map.
+     * @see #getPool()
+     */
+    protected ParallelNodeLoop getNodeLoop()
+    {
+        if (nodeLoop == null)
+        {
+            nodeLoop = new ParallelNodeLoop(getPool(), getWeights().getDimensions().length);
+        }
+        return nodeLoop;
+    }
+
+    /**
+     * Create the weights. All weights are initially set to random values
+     * between -1 and 1. A map created by create(...) keeps the weights it was
+     * given the first time this is called, by its constructor.
+     */
+    public void initWeights()
+    {
+        this.nodeIndex = null;
+        this.hashIndex = null;
+        final CheckpointLog log = this.checkpointLog;
+        if (log != null)
+        {
+            log.markAllDirty();
+        }
+        if (keepWeights)
+        {
+            keepWeights = false;
+            computeNodeNorms();
+            return;
+        }
+        for (int x = 0; x < this.weights.getCount(); x++)
+        {
+            double[] tmpArray = new double[this.inputDimension];
+            // initialize weight to random values
+            if (random != null)
+            {
+                for (int t = 0; t < this.inputDimension; t++)
+                {
+                    tmpArray[t] = 0.1*(random.nextDouble() * 2 - 1);
+                }
+            }
+            this.weights.setValueAtOffset(tmpArray, x);
+        }
+        computeNodeNorms();
+    }
+
+    /**
+     * Method for retreiving the weight vector associated with a given node.
+     * 
+     * @param location
+     *            an array indicating the position of the desired node along
+     *            each of the SOM's dimensions.
+     * @return the weight vector of the node at the given location, any changes
+     *         will to the returned object will be reflected in the node. If
+     *         the weights are stored in a WeightMatrix, a FloatWeightMatrix or
+     *         an OffHeapWeightMatrix the node has no array of its own, and a
+     *         copy is returned instead. Writes to the copy are not reflected
+     *         in the node, use setWeights(...) to change it.
+     * @see #copyWeights(int...)
+     */
+    public double[] getWeights(int... location)
+    {
+        return weights.getValue(location);
+    }
+
+    /**
+     * Method for copying the weight vector associated with a given node. This
+     * works however the weights are stored.
+     * 
+     * @param location
+     *            an array indicating the position of the desired node along
+     *            each of the SOM's dimensions.
+     * @return a copy of the weight vector of the node at the given location.
+     * @see #setWeights(double[], int...)
+     */
+    public double[] copyWeights(int... location)
+    {
+        if (weights instanceof AbstractWeightMatrix)
+        {
+            return weights.getValue(location);
+        }
+        return weights.getValue(location).clone();
+    }
+
+    /**
+     * Method for changing the weight vector associated with a given node.
+     * 
+     * @param location
+     *            an array indicating the position of the desired node along
+     *            each of the SOM's dimensions.
+     * @param newWeights
+     *            the new weights.
+     */
+    public void setWeights(double[] newWeights,int... location)
+    {
+        weights.setValue(newWeights, location);
+        this.nodeIndex = null;
+        final ProjectionHashIndex hash = this.hashIndex;
+        if (hash != null)
+        {
+            hash.markDirty(weights.getOffset(location));
+        }
+        markDirty(weights.getOffset(location));
+        final double[] norms = this.nodeNorms;
+        if (norms != null)
+        {
+            norms[weights.getOffset(location)] = DistanceKernel.getInstance().dotProduct(newWeights, 0, newWeights, 0, newWeights.length);
+        }
+    }
+
+    /**
+     * Set the input of this SOM. The input can be classified or used for
+     * training.
+     * 
+     * @param input
+     *            the input vector, also called data vector.
+     * @see #classify()
+     * @see #train()
+     */
+    public void setInput(double[] input)
+    {
+        this.input = input;
+    }
+
+    /**
+     * Classify the most recently applied input according to this SOM.
+     * 
+     * @see #setInput(double [] input)
+     */
+    public int[] classify()
+    {
+        int[] res = new int[this.weights.getDimensions().length];
+        findMinDist(res);
+        return res;
+    }
+
+    /**
+     * Classify the supplied input according to this SOM. This is a convenience
+     * method, used where one wants to be sure that no other thread modifies the
+     * input value before it is classified.
+     */
+    public int[] classify(double[] input)
+    {
+        setInput(input);
+        return classify();
+    }
+
+    /**
+     * Classify an input without changing the state of this map. Unlike
+     * classify(double[]), this does not store the input, the winner or the
+     * distance in the map, so any number of threads can classify inputs at
+     * the same time without locking, each with its own result holder. The
+     * search is always sequential. The weights must not be changed by
+     * training while this runs.
+     * 
+     * @param input
+     *            the input vector.
+     * @param result
+     *            receives the winning node and its distance to the input.
+     * @return result.
+     * @throws UnsupportedOperationException
+     *             if the map finds its winner in a way that changes its state.
+     * @see #canClassifyReentrantly()
+     */
+    public Classification classify(double[] input, Classification result)
+    {
+        if (!canClassifyReentrantly())
+        {
+            throw new UnsupportedOperationException(getClass().getName() + " can not classify without changing its state.");
+        }
+        scanMinDist(input, earlyAbandon ? getSearchOrder() : null, result);
+        return result;
+    }
+
+    /**
+     * Find the k nodes closest to an input, for instance to calculate the
+     * topographic error or soft assignments. The nodes are kept in a bounded
+     * heap while the distances are calculated, so this costs about the same as
+     * classifying the input. The results are sorted with the winner first,
+     * and nodes at equal distances are sorted by offset.
+     * 
+     * Maps that can classify reentrantly scan their nodes without changing
+     * their state, like classify(double[], Classification). Other maps
+     * classify the input as classify(double[]) does, changing their state in
+     * the same way, and collect the values their own winner search
+     * calculates for each node. For most maps this is the distance to the
+     * input, but for instance for RecursivePLSOM it is one minus the
+     * excitation of the node. The search is then sequential.
+     * 
+     * @param input
+     *            the input vector.
+     * @param k
+     *            the number of nodes to find.
+     * @param offsets
+     *            receives the offsets of the nodes, must have at least k
+     *            elements.
+     * @param distances
+     *            receives the distances of the nodes, or the values minimised
+     *            by the winner search of the map, must have at least k
+     *            elements.
+     * @return the number of nodes found, which is k unless the map has fewer
+     *         nodes.
+     * @throws UnsupportedOperationException
+     *             if the winner search of the map does not report the values
+     *             of the nodes.
+     * @see #canClassifyTopK()
+     */
+    public int classifyTopK(double[] input, int k, int[] offsets, double[] distances)
+    {
+        if (!canClassifyTopK())
+        {
+            throw new UnsupportedOperationException(getClass().getName() + " can not find the k best nodes.");
+        }
+        TopKCollector collector = new TopKCollector();
+        collector.reset(k, offsets, distances);
+        if (!canClassifyReentrantly())
+        {
+            this.topKCollector = collector;
+            try
+            {
+                classify(input);
+            }
+            finally
+            {
+                this.topKCollector = null;
+            }
+            return collector.finish();
+        }
+        final Metric metric = getInputMetric();
+        final int[] order = earlyAbandon ? getSearchOrder() : null;
+        int count = getWeights().getCount();
+        for (int x = 0; x < count; x++)
+        {
+            collector.offer(x, earlyAbandon ? getNodeBoundedDistance(x, input, order, collector.getBound()) : getNodeComparableDistance(x, input));
+        }
+        int found = collector.finish();
+        for (int x = 0; x < found; x++)
+        {
+            distances[x] = metric.toDistance(distances[x]);
+        }
+        return found;
+    }
+
+    /**
+     * Subclasses that can not classify reentrantly, but whose findMinDist
+     * reports the value of every node with offerTopK(...), override this to
+     * return true.
+     * 
+     * @return true if classifyTopK(...) is supported, which this
+     *         implementation only is if the map can classify reentrantly.
+     * @see #classifyTopK(double[], int, int[], double[])
+     */
+    protected boolean canClassifyTopK()
+    {
+        return canClassifyReentrantly();
+    }
+
+    /**
+     * Report the value of a node from findMinDist to classifyTopK(...). Does
+     * nothing unless classifyTopK(...) is running.
+     * 
+     * @param offset
+     *            the offset of the node.
+     * @param value
+     *            the value the winner search minimises for the node.
+     * @see #canClassifyTopK()
+     */
+    protected void offerTopK(int offset, double value)
+    {
+        final TopKCollector collector = this.topKCollector;
+        if (collector != null)
+        {
+            collector.offer(offset, value);
+        }
+    }
+
+    /**
+     * Classify a block of inputs without changing the state of this map. With
+     * the EuclideanMetric or SquaredEuclideanMetric input metric, the inputs
+     * are compared with tiles of nodes using dot products, see
+     * BatchWinnerSearch, which is much faster than classifying the inputs one
+     * by one. Inputs that are almost equally close to two nodes may then get a
+     * different winner than from classify(...). If the weights are not stored
+     * in a WeightMatrix they are copied into one for each call. Other maps
+     * classify each input in turn.
+     * 
+     * @param inputs
+     *            the inputs, stored one after the other with
+     *            getInputDimension() elements each.
+     * @param count
+     *            the number of inputs.
+     * @param winners
+     *            receives the offset of the winning node of each input.
+     * @param distances
+     *            receives the distance from each input to its winner, or
+     *            null.
+     * @throws UnsupportedOperationException
+     *             if the map finds its winner in a way that changes its state.
+     * @see #classify(double[], Classification)
+     */
+    public void classifyBatch(double[] inputs, int count, int[] winners, double[] distances)
+    {
+        if (!canClassifyReentrantly())
+        {
+            throw new UnsupportedOperationException(getClass().getName() + " can not classify without changing its state.");
+        }
+        WeightMatrix matrix = getBatchMatrix();
+        classifyBlock(inputs, count, winners, distances, 0, matrix, matrix == null ? null : getBatchNorms(matrix));
+    }
+
+    /**
+     * Classify many inputs without changing the state of this map. The inputs
+     * are copied into blocks and classified with classifyBatch(double[],
+     * int, int[], double[]).
+     * 
+     * @param inputs
+     *            the inputs.
+     * @param winners
+     *            receives the offset of the winning node of each input.
+     * @param distances
+     *            receives the distance from each input to its winner, or
+     *            null.
+     * @throws UnsupportedOperationException
+     *             if the map finds its winner in a way that changes its state.
+     */
+    public void classifyBatch(double[][] inputs, int[] winners, double[] distances)
+    {
+        if (!canClassifyReentrantly())
+        {
+            throw new UnsupportedOperationException(getClass().getName() + " can not classify without changing its state.");
+        }
+        final WeightMatrix matrix = getBatchMatrix();
+        final double[] norms = matrix == null ? null : getBatchNorms(matrix);
+        final int blockSize = BatchWinnerSearch.INPUT_TILE * 32;
+        final double[] block = new double[Math.min(inputs.length, blockSize) * inputDimension];
+        for (int first = 0; first < inputs.length; first += blockSize)
+        {
+            int count = Math.min(blockSize, inputs.length - first);
+            for (int x = 0; x < count; x++)
+            {
+                System.arraycopy(inputs[first + x], 0, block, x * inputDimension, inputDimension);
+            }
+            classifyBlock(block, count, winners, distances, first, matrix, norms);
+        }
+    }
+
+    /**
+     * @return the weights as a WeightMatrix if the winners can be found by dot
+     *         products, null otherwise.
+     */
+    private WeightMatrix getBatchMatrix()
+    {
+        if (!BatchWinnerSearch.isSupported(getInputMetric()))
+        {
+            return null;
+        }
+        WeightMatrix matrix = getWeightMatrix();
+        if (matrix == null)
+        {
+            matrix = new WeightMatrix(inputDimension, getWeights());
+        }
+        return matrix;
+    }
+
+    /**
+     * @param matrix
+     *            the weights.
+     * @return the squared norm of each node.
+     */
+    private double[] getBatchNorms(WeightMatrix matrix)
+    {
+        if (matrix == getWeightMatrix())
+        {
+            double[] norms = getNodeNorms();
+            if (norms != null)
+            {
+                return norms;
+            }
+        }
+        return BatchWinnerSearch.computeNorms(matrix, new double[matrix.getCount()]);
+    }
+
+    /**
+     * Select whether the squared norm of the weights of each node is kept,
+     * so that the winner search can use dot products. With Euclidean
+     * distances the winner is the node with the smallest ||w||^2 - 2w.x,
+     * which saves a subtraction per element. The norms of all nodes are
+     * calculated when this is switched on or the weights are replaced, and
+     * updated as the weights are adapted during training, so with a
+     * neighbourhood cutoff only the norms of the nodes near the winner are
+     * recalculated. This is only used with weights stored in a WeightMatrix, the EuclideanMetric or
+     * SquaredEuclideanMetric input metric, maps that can classify reentrantly,
+     * and sequential searches. The weights must then only be changed through
+     * the methods of this class. Inputs that are almost equally close to two
+     * nodes may get a different winner than without the norms, since the
+     * expansion rounds differently.
+     * 
+     * @param useNodeNorms
+     *            true to keep the node norms.
+     * @see #setUseWeightMatrix(boolean)
+     * @see BatchWinnerSearch
+     */
+    public void setUseNodeNorms(boolean useNodeNorms)
+    {
+        this.useNodeNorms = useNodeNorms;
+        computeNodeNorms();
+    }
+
+    /**
+     * @return true if the squared norm of each node is kept.
+     * @see #setUseNodeNorms(boolean)
+     */
+    public boolean isUseNodeNorms()
+    {
+        return useNodeNorms;
+    }
+
+    /**
+     * Select whether findMinDist searches locally around the previous winner.
+     * When the inputs change gradually the winner is usually close to the
+     * previous winner on the grid, and the local search climbs from there to
+     * the best node in its neighbourhood, which typically evaluates a few
+     * dozen nodes instead of all of them. The result may be a local minimum
+     * rather than the true winner, so a full scan is done every
+     * getFullScanInterval() searches and whenever the distance found by the
+     * local search jumps by more than getErrorJumpRatio(). This only affects
+     * maps that use the findMinDist of this class, and not
+     * classify(double[], Classification). Local search can not be combined
+     * with coarse-to-fine or approximate search.
+     * 
+     * @param localSearch
+     *            true to search locally.
+     * @throws IllegalStateException
+     *             if localSearch is true and coarse-to-fine or approximate
+     *             search is enabled.
+     * @see LocalWinnerSearch
+     * @see #setFullScanInterval(int)
+     * @see #setErrorJumpRatio(double)
+     */
+    public void setLocalSearch(boolean localSearch)
+    {
+        if (localSearch)
+        {
+            checkNoSearchMode(false, true, true);
+        }
+        this.localSearch = localSearch;
+        this.searchMode = null;
+        this.stepsSinceFullScan = 0;
+    }
+
+    /**
+     * @return true if findMinDist searches locally around the previous winner.
+     * @see #setLocalSearch(boolean)
+     */
+    public boolean isLocalSearch()
+    {
+        return localSearch;
+    }
+
+    /**
+     * Select whether findMinDist searches coarse-to-fine. The input is first
+     * compared to a shadow grid of every stride-th node along each dimension,
+     * and then to all nodes within one stride plus getCoarseSearchMargin()
+     * of the best shadow node. Once the map is topologically ordered the
+     * winner is almost always found, after evaluating roughly 1/stride^D of
+     * the nodes of a D-dimensional map. Like local search, a full scan is
+     * done every getFullScanInterval() searches and whenever the distance
+     * found jumps by more than getErrorJumpRatio(). If the periodic full scan
+     * finds a closer node than the coarse-to-fine search would have, the miss
+     * is counted and the fine pass reaches one node further from then on, up
+     * to one stride further than the margin. The widening is not stored with
+     * the map, and is undone by setting the stride or the margin. This only
+     * affects maps that use the findMinDist of this class, and not
+     * classify(double[], Classification). Coarse-to-fine search can not be
+     * combined with local or approximate search.
+     * 
+     * @param coarseSearchStride
+     *            the distance between the nodes of the shadow grid, 0 to
+     *            compare all nodes.
+     * @throws IllegalStateException
+     *             if the stride is positive and local or approximate search
+     *             is enabled.
+     * @see CoarseToFineSearch
+     * @see #setFullScanInterval(int)
+     * @see #setErrorJumpRatio(double)
+     */
+    public void setCoarseSearchStride(int coarseSearchStride)
+    {
+        if (coarseSearchStride < 0)
+        {
+            throw new IllegalArgumentException("The stride must be non-negative.");
+        }
+        if (coarseSearchStride > 0)
+        {
+            checkNoSearchMode(true, false, true);
+        }
+        this.coarseSearchStride = coarseSearchStride;
+        this.searchMode = null;
+        this.stepsSinceFullScan = 0;
+    }
+
+    /**
+     * @return the distance between the nodes of the shadow grid, 0 if
+     *         coarse-to-fine search is not used.
+     * @see #setCoarseSearchStride(int)
+     */
+    public int getCoarseSearchStride()
+    {
+        return coarseSearchStride;
+    }
+
+    /**
+     * Set how far beyond one stride of the best shadow node the fine pass of
+     * coarse-to-fine search reaches. The default is 1.
+     * 
+     * @param coarseSearchMargin
+     *            the number of nodes.
+     * @see #setCoarseSearchStride(int)
+     */
+    public void setCoarseSearchMargin(int coarseSearchMargin)
+    {
+        if (coarseSearchMargin < 0)
+        {
+            throw new IllegalArgumentException("The margin must be non-negative.");
+        }
+        this.coarseSearchMargin = coarseSearchMargin;
+        if (this.searchMode instanceof CoarseSearchMode)
+        {
+            this.searchMode = null;
+        }
+    }
+
+    /**
+     * @return how far beyond one stride the fine pass reaches, as set, without
+     *         the widening after misses.
+     * @see #setCoarseSearchMargin(int)
+     */
+    public int getCoarseSearchMargin()
+    {
+        return coarseSearchMargin;
+    }
+
+    /**
+     * @return the number of periodic full scans that found a closer node than
+     *         the coarse-to-fine search, since the stride or the margin was
+     *         last set.
+     * @see #setCoarseSearchStride(int)
+     */
+    public long getCoarseSearchMisses()
+    {
+        WinnerSearchMode mode = this.searchMode;
+        return mode instanceof CoarseSearchMode ? ((CoarseSearchMode) mode).misses : 0;
+    }
+
+    /**
+     * Set how often local and coarse-to-fine search fall back to a full scan.
+     * The default is 100, so every 100th search is a full scan.
+     * 
+     * @param fullScanInterval
+     *            the number of searches per full scan, 1 to always scan the
+     *            whole map, 0 for no periodic full scans.
+     * @see #setLocalSearch(boolean)
+     * @see #setCoarseSearchStride(int)
+     */
+    public void setFullScanInterval(int fullScanInterval)
+    {
+        if (fullScanInterval < 0)
+        {
+            throw new IllegalArgumentException("The full scan interval must be non-negative.");
+        }
+        this.fullScanInterval = fullScanInterval;
+    }
+
+    /**
+     * @return the number of searches per full scan.
+     * @see #setFullScanInterval(int)
+     */
+    public int getFullScanInterval()
+    {
+        return fullScanInterval;
+    }
+
+    /**
+     * Set when a local or coarse-to-fine search result is replaced by a full
+     * scan. If the distance from the input to the node found by the search is
+     * more than errorJumpRatio times the distance of the previous search, the
+     * input has probably moved to another part of the map and a full scan is
+     * done instead. The default is 2.
+     * 
+     * @param errorJumpRatio
+     *            the ratio, 0 to always accept the search results.
+     * @see #setLocalSearch(boolean)
+     * @see #setCoarseSearchStride(int)
+     */
+    public void setErrorJumpRatio(double errorJumpRatio)
+    {
+        if (errorJumpRatio < 0)
+        {
+            throw new IllegalArgumentException("The error jump ratio must be non-negative.");
+        }
+        this.errorJumpRatio = errorJumpRatio;
+    }
+
+    /**
+     * @return the ratio of distances above which a local search result is
+     *         replaced by a full scan.
+     * @see #setErrorJumpRatio(double)
+     */
+    public double getErrorJumpRatio()
+    {
+        return errorJumpRatio;
+    }
+
+    /**
+     * Select whether findMinDist finds the winner approximately, by
+     * locality-sensitive hashing. The input is only compared to the nodes
+     * that share a hash key with it in one of getHashTables() tables, see
+     * ProjectionHashIndex. The hash is designed for Euclidean distances. If no
+     * node shares a key with the input, all nodes are compared. The index is
+     * built once the first ProjectionHashIndex.CALIBRATION_SAMPLES searches,
+     * which compare all nodes, have shown how far inputs typically are from
+     * their winners. Nodes whose weights are adapted by training are then
+     * rehashed before the next search.
+     * 
+     * Setting this rebuilds the index, which also estimates the bucket width
+     * again, so it is worth doing when the weights have spread out during
+     * training. It also resets the agreement statistics. This only affects
+     * maps that use the findMinDist of this class, and not
+     * classify(double[], Classification). If the map is frozen, the exact
+     * index is used instead. Approximate search can not be combined with local
+     * or coarse-to-fine search.
+     * 
+     * @param approximateSearch
+     *            true to search approximately.
+     * @throws IllegalStateException
+     *             if approximateSearch is true and local or coarse-to-fine
+     *             search is enabled.
+     * @see #setHashTables(int)
+     * @see #setHashBucketSize(int)
+     * @see #setApproximateCheckInterval(int)
+     */
+    public void setApproximateSearch(boolean approximateSearch)
+    {
+        if (approximateSearch)
+        {
+            checkNoSearchMode(true, true, false);
+        }
+        this.approximateSearch = approximateSearch;
+        this.searchMode = null;
+        this.hashIndex = null;
+        this.approximateSearches = 0;
+        this.approximateChecks = 0;
+        this.approximateAgreements = 0;
+    }
+
+    /**
+     * Make sure that no other search mode is enabled before one is.
+     * 
+     * @param local
+     *            true to check local search.
+     * @param coarse
+     *            true to check coarse-to-fine search.
+     * @param approximate
+     *            true to check approximate search.
+     * @throws IllegalStateException
+     *             if one of the checked modes is enabled.
+     */
+    private void checkNoSearchMode(boolean local, boolean coarse, boolean approximate)
+    {
+        if (local && localSearch)
+        {
+            throw new IllegalStateException("Local search is enabled, only one search mode can be used at a time.");
+        }
+        if (coarse && coarseSearchStride > 0)
+        {
+            throw new IllegalStateException("Coarse-to-fine search is enabled, only one search mode can be used at a time.");
+        }
+        if (approximate && approximateSearch)
+        {
+            throw new IllegalStateException("Approximate search is enabled, only one search mode can be used at a time.");
+        }
+    }
+
+    /**
+     * @return true if findMinDist finds the winner by hashing.
+     * @see #setApproximateSearch(boolean)
+     */
+    public boolean isApproximateSearch()
+    {
+        return approximateSearch;
+    }
+
+    /**
+     * Set the number of hash tables used by approximate search. More tables
+     * find the true winner more often, at the cost of more candidates. The
+     * default is 8.
+     * 
+     * @param hashTables
+     *            the number of tables.
+     * @see #setApproximateSearch(boolean)
+     */
+    public void setHashTables(int hashTables)
+    {
+        if (hashTables < 1)
+        {
+            throw new IllegalArgumentException("The number of hash tables must be positive.");
+        }
+        this.hashTables = hashTables;
+        this.hashIndex = null;
+    }
+
+    /**
+     * @return the number of hash tables used by approximate search.
+     * @see #setHashTables(int)
+     */
+    public int getHashTables()
+    {
+        return hashTables;
+    }
+
+    /**
+     * Set the average number of nodes per hash bucket that the bucket width
+     * of approximate search is chosen for. Larger buckets find the true winner
+     * more often, at the cost of more candidates. The default is 16.
+     * 
+     * @param hashBucketSize
+     *            the number of nodes.
+     * @see #setApproximateSearch(boolean)
+     */
+    public void setHashBucketSize(int hashBucketSize)
+    {
+        if (hashBucketSize < 1)
+        {
+            throw new IllegalArgumentException("The hash bucket size must be positive.");
+        }
+        this.hashBucketSize = hashBucketSize;
+        this.hashIndex = null;
+    }
+
+    /**
+     * @return the average number of nodes per hash bucket.
+     * @see #setHashBucketSize(int)
+     */
+    public int getHashBucketSize()
+    {
+        return hashBucketSize;
+    }
+
+    /**
+     * Set how often approximate search is checked against a full scan. The
+     * winner of a checked search is the one found by the full scan, and the
+     * fraction of checked searches where the two agree is given by
+     * getApproximateAgreement(). The default is 0.
+     * 
+     * @param approximateCheckInterval
+     *            the number of approximate searches per check, 0 to never
+     *            check.
+     * @see #getApproximateAgreement()
+     */
+    public void setApproximateCheckInterval(int approximateCheckInterval)
+    {
+        if (approximateCheckInterval < 0)
+        {
+            throw new IllegalArgumentException("The check interval must be non-negative.");
+        }
+        this.approximateCheckInterval = approximateCheckInterval;
+    }
+
+    /**
+     * @return the number of approximate searches per check.
+     * @see #setApproximateCheckInterval(int)
+     */
+    public int getApproximateCheckInterval()
+    {
+        return approximateCheckInterval;
+    }
+
+    /**
+     * @return the fraction of checked approximate searches that found the
+     *         same winner as a full scan, or NaN if no search has been
+     *         checked.
+     * @see #setApproximateCheckInterval(int)
+     */
+    public double getApproximateAgreement()
+    {
+        return approximateChecks == 0 ? Double.NaN : (double) approximateAgreements / approximateChecks;
+    }
+
+    /**
+     * @return the number of approximate searches that have been checked
+     *         against a full scan.
+     * @see #setApproximateCheckInterval(int)
+     */
+    public long getApproximateChecks()
+    {
+        return approximateChecks;
+    }
+
+    /**
+     * Freeze the map for classification. This builds a VantagePointTree over
+     * the current weights, which findMinDist and
+     * classify(double[], Classification) then use to find the same winner as
+     * a scan of all nodes, usually after comparing the input to only a small
+     * fraction of them. If the map is already frozen the index is rebuilt.
+     * 
+     * The map stays frozen until the weights are changed through the methods
+     * of this class, for instance by training, or the input metric is
+     * replaced, which discards the index. Weights changed in any other way,
+     * such as through the arrays returned by getWeights(int...), are not
+     * seen by the index. The index is not serialized, so a loaded map must be
+     * frozen again.
+     * 
+     * @throws UnsupportedOperationException
+     *             if this map has its own winner search, or its input metric
+     *             does not obey the triangle inequality.
+     * @see Metric#obeysTriangleInequality()
+     * @see #unfreeze()
+     */
+    public void freeze()
+    {
+        if (!canClassifyReentrantly())
+        {
+            throw new UnsupportedOperationException(getClass().getName() + " can not classify without changing its state.");
+        }
+        if (!VantagePointTree.isSupported(getInputMetric()))
+        {
+            throw new UnsupportedOperationException(getInputMetric().getClass().getName() + " does not obey the triangle inequality.");
+        }
+        WeightMatrix matrix = getWeightMatrix();
+        if (matrix == null)
+        {
+            matrix = new WeightMatrix(inputDimension, getWeights());
+        }
+        this.nodeIndex = new VantagePointTree(matrix, getInputMetric());
+    }
+
+    /**
+     * Discard the index built by freeze(), so that the winner is found by
+     * scanning the nodes again.
+     * 
+     * @see #freeze()
+     */
+    public void unfreeze()
+    {
+        this.nodeIndex = null;
+    }
+
+    /**
+     * @return true if the map is frozen and the winner is found with an index.
+     * @see #freeze()
+     */
+    public boolean isFrozen()
+    {
+        return nodeIndex != null;
+    }
+
+    /**
+     * Get the squared norm of the weights of each node, for the winner search.
+     * The norms are only read here, they are calculated by computeNodeNorms().
+     * 
+     * @return the norms, or null if they are not used.
+     * @see #setUseNodeNorms(boolean)
+     */
+    protected double[] getNodeNorms()
+    {
+        if (!canClassifyReentrantly() || !BatchWinnerSearch.isSupported(getInputMetric()))
+        {
+            return null;
+        }
+        return this.nodeNorms;
+    }
+
+    /**
+     * The norms are not serialised, calculate them again.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        computeNodeNorms();
+    }
+
+    /**
+     * Calculate the squared norm of the weights of each node if the norms are
+     * kept and the weights are stored in a WeightMatrix, or drop the norms
+     * otherwise. Called when the norms are switched on and whenever all the
+     * weights are replaced, the norms of single nodes are updated along with
+     * their weights.
+     */
+    private void computeNodeNorms()
+    {
+        WeightMatrix matrix = getWeightMatrix();
+        if (useNodeNorms && matrix != null)
+        {
+            this.nodeNorms = BatchWinnerSearch.computeNorms(matrix, new double[matrix.getCount()]);
+        }
+        else
+        {
+            this.nodeNorms = null;
+        }
+    }
+
+    /**
+     * Classify a block of inputs, by dot products if a matrix and norms are
+     * given and by scanning the nodes for each input otherwise.
+     */
+    private void classifyBlock(double[] inputs, int count, int[] winners, double[] distances, int resultOffset, WeightMatrix matrix,
+            double[] norms)
+    {
+        final Metric metric = getInputMetric();
+        if (matrix != null)
+        {
+            BatchWinnerSearch.findWinners(matrix, norms, inputs, 0, count, winners, resultOffset);
+            if (distances != null)
+            {
+                for (int x = 0; x < count; x++)
+                {
+                    int winner = winners[resultOffset + x];
+                    distances[resultOffset + x] = metric.toDistance(metric.getComparableDistance(matrix.getData(), matrix
+                            .getRowOffset(winner), inputs, x * inputDimension, inputDimension));
+                }
+            }
+            return;
+        }
+        final int[] order = earlyAbandon ? getSearchOrder() : null;
+        final Classification result = new Classification(getWeights().getDimensions().length);
+        final double[] input = new double[inputDimension];
+        for (int x = 0; x < count; x++)
+        {
+            System.arraycopy(inputs, x * inputDimension, input, 0, inputDimension);
+            scanMinDist(input, order, result);
+            winners[resultOffset + x] = result.getOffset();
+            if (distances != null)
+            {
+                distances[resultOffset + x] = result.getDistance();
+            }
+        }
+    }
+
+    /**
+     * Publish a snapshot of the weights every given number of training steps.
+     * Other threads can then classify against the latest snapshot with
+     * classifySnapshot(...) while this map is trained. A training step is a
+     * call to train(double[]).
+     * 
+     * @param snapshotInterval
+     *            the number of steps between snapshots, 0 to not publish
+     *            snapshots by step count.
+     * @see #setSnapshotPeriod(long)
+     * @see #publishSnapshot()
+     */
+    public void setSnapshotInterval(int snapshotInterval)
+    {
+        if (snapshotInterval < 0)
+        {
+            throw new IllegalArgumentException("The snapshot interval must be non-negative.");
+        }
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * @return the number of training steps between snapshots, 0 if snapshots
+     *         are not published by step count.
+     * @see #setSnapshotInterval(int)
+     */
+    public int getSnapshotInterval()
+    {
+        return snapshotInterval;
+    }
+
+    /**
+     * Publish a snapshot of the weights after the first training step that
+     * ends a given time after the previous snapshot. This can be combined with
+     * setSnapshotInterval(...), in which case a snapshot is published when
+     * either is due.
+     * 
+     * @param snapshotPeriod
+     *            the number of milliseconds between snapshots, 0 to not
+     *            publish snapshots by time.
+     * @see #setSnapshotInterval(int)
+     */
+    public void setSnapshotPeriod(long snapshotPeriod)
+    {
+        if (snapshotPeriod < 0)
+        {
+            throw new IllegalArgumentException("The snapshot period must be non-negative.");
+        }
+        this.snapshotPeriod = snapshotPeriod;
+    }
+
+    /**
+     * @return the number of milliseconds between snapshots, 0 if snapshots are
+     *         not published by time.
+     * @see #setSnapshotPeriod(long)
+     */
+    public long getSnapshotPeriod()
+    {
+        return snapshotPeriod;
+    }
+
+    /**
+     * Publish a snapshot if one is due. Training methods call this after each
+     * training step.
+     * 
+     * @see #setSnapshotInterval(int)
+     * @see #setSnapshotPeriod(long)
+     */
+    protected void trainingStepCompleted()
+    {
+        if (snapshotInterval == 0 && snapshotPeriod == 0)
+        {
+            return;
+        }
+        stepsSinceSnapshot++;
+        if ((snapshotInterval > 0 && stepsSinceSnapshot >= snapshotInterval)
+                || (snapshotPeriod > 0 && System.nanoTime() - lastSnapshotTime >= snapshotPeriod * 1000000))
+        {
+            publishSnapshot();
+        }
+    }
+
+    /**
+     * Copy the weights into a snapshot and publish it, so that later calls to
+     * acquireSnapshot() return it. The copy replaced by the previous
+     * publication is reused unless a reader still holds it, so publishing
+     * normally alternates between two copies. This must be called from the
+     * thread that trains the map.
+     * 
+     * @throws UnsupportedOperationException
+     *             if the map cannot classify without changing its state.
+     * @see #canClassifyReentrantly()
+     */
+    public void publishSnapshot()
+    {
+        if (!canClassifyReentrantly())
+        {
+            throw new UnsupportedOperationException(getClass().getName() + " can not classify against a snapshot.");
+        }
+        WeightSnapshot target = spareSnapshot;
+        spareSnapshot = null;
+        if (target == null || !target.isUnused() || !target.fits(inputDimension, getWeights().getCount()))
+        {
+            target = new WeightSnapshot(inputDimension, getWeights().getDimensions());
+        }
+        target.copyFrom(getWeights(), getInputMetric(), earlyAbandon, ++snapshotCount);
+        spareSnapshot = snapshot;
+        snapshot = target;
+        stepsSinceSnapshot = 0;
+        lastSnapshotTime = System.nanoTime();
+    }
+
+    /**
+     * Get the latest published snapshot and register the calling thread as a
+     * reader, so that the snapshot is not reused while it is in use. The
+     * snapshot must be released with WeightSnapshot.release() when the
+     * thread is done with it. This never blocks and can be called from any
+     * thread.
+     * 
+     * @return the latest snapshot, or null if none has been published.
+     */
+    public WeightSnapshot acquireSnapshot()
+    {
+        while (true)
+        {
+            WeightSnapshot current = snapshot;
+            if (current == null)
+            {
+                return null;
+            }
+            current.acquire();
+            // if the snapshot was replaced before it was acquired it may
+            // already be reused, so try again with the new one
+            if (current == snapshot)
+            {
+                return current;
+            }
+            current.release();
+        }
+    }
+
+    /**
+     * Classify an input against the latest published snapshot. Any number of
+     * threads can do this while another thread trains the map.
+     * 
+     * @param input
+     *            the input vector.
+     * @param result
+     *            receives the winning node and its distance to the input.
+     * @return result.
+     * @throws IllegalStateException
+     *             if no snapshot has been published.
+     * @see #acquireSnapshot()
+     */
+    public Classification classifySnapshot(double[] input, Classification result)
+    {
+        WeightSnapshot current = acquireSnapshot();
+        if (current == null)
+        {
+            throw new IllegalStateException("No snapshot has been published.");
+        }
+        try
+        {
+            return current.classify(input, result);
+        }
+        finally
+        {
+            current.release();
+        }
+    }
+
+    /**
+     * Subclasses that override findMinDist(...), or whose classification
+     * otherwise reads or changes state other than the weights and the input
+     * metric, must override this to return false.
+     * 
+     * @return true if classify(double[], Classification) gives the same winner
+     *         as classify(double[]) without changing any state, which this
+     *         implementation does.
+     */
+    protected boolean canClassifyReentrantly()
+    {
+        return true;
+    }
+
+    /**
+     * Helper function for classify. Compares all weight vectors to the input.
+     * Each node is measured once, using the comparable distance of the input
+     * metric, and only the distance of the winner is converted to a true
+     * distance. If early abandoning is enabled, the best comparable distance
+     * found so far is used as the bound for the next node. If local search is
+     * enabled, the search climbs from the previous winner instead, and if
+     * coarse-to-fine search is enabled it searches a shadow grid and then a
+     * box around the best shadow node. Both only compare all nodes when a full
+     * scan is due. If approximate search is enabled, only the nodes found by
+     * hashing the input are compared. If the map is frozen, the winner is
+     * found with its index.
+     * 
+     * @param res
+     *            receives the position of the winning node.
+     * @return the distance from the input to the weights of the winning node.
+     * @see Metric#getComparableDistance(double[], int, double[], int, int)
+     * @see #setEarlyAbandon(boolean)
+     * @see #setParallelSearch(boolean)
+     * @see #setLocalSearch(boolean)
+     * @see #setCoarseSearchStride(int)
+     * @see #setApproximateSearch(boolean)
+     * @see #freeze()
+     */
+    protected double findMinDist( int[] res)
+    {
+        final int[] order = earlyAbandon ? getSearchOrder() : null;
+        return getSearchMode().findMinDist(res, getInput(), order);
+    }
+
+    /**
+     * @return the winner search for the current settings, or the exhaustive
+     *         search if the map is frozen.
+     */
+    private WinnerSearchMode getSearchMode()
+    {
+        if (nodeIndex != null)
+        {
+            if (fullSearchMode == null)
+            {
+                fullSearchMode = new FullSearchMode();
+            }
+            return fullSearchMode;
+        }
+        WinnerSearchMode mode = this.searchMode;
+        if (mode == null)
+        {
+            // the setters allow only one of the modes to be enabled
+            if (approximateSearch)
+            {
+                mode = new ApproximateSearchMode();
+            }
+            else if (coarseSearchStride > 0)
+            {
+                mode = new CoarseSearchMode();
+            }
+            else if (localSearch)
+            {
+                mode = new LocalSearchMode();
+            }
+            else
+            {
+                mode = new FullSearchMode();
+            }
+            this.searchMode = mode;
+        }
+        return mode;
+    }
+
+    /**
+     * A way of finding the winner in findMinDist. One is selected by the
+     * search settings, and it keeps the state of its own searches.
+     */
+    private abstract class WinnerSearchMode
+    {
+        /**
+         * Find the node closest to the input.
+         * 
+         * @param res
+         *            receives the position of the winning node.
+         * @param input
+         *            the input vector.
+         * @param order
+         *            the order to visit the elements in when early abandoning
+         *            is enabled, or null.
+         * @return the distance from the input to the weights of the winning
+         *         node.
+         */
+        abstract double findMinDist(int[] res, double[] input, int[] order);
+    }
+
+    /**
+     * Compares the input to all nodes, or searches the index of a frozen map.
+     */
+    private class FullSearchMode extends WinnerSearchMode
+    {
+        @Override
+        double findMinDist(int[] res, double[] input, int[] order)
+        {
+            double distance = findMinDistFull(res, input, order);
+            stepsSinceFullScan = 0;
+            lastSearchDistance = distance;
+            return distance;
+        }
+    }
+
+    /**
+     * Climbs from the previous winner, or compares all nodes when a full scan
+     * is due or the distance found jumps.
+     */
+    private class LocalSearchMode extends FullSearchMode
+    {
+        private final LocalWinnerSearch search = new LocalWinnerSearch(getWeights());
+
+        @Override
+        double findMinDist(int[] res, double[] input, int[] order)
+        {
+            final int[] previous = getWinner();
+            if (previous != null && (fullScanInterval == 0 || stepsSinceFullScan + 1 < fullScanInterval))
+            {
+                int winner = search.findMin(getWeights().getOffset(previous), getDistanceEvaluator(input, order));
+                double distance = getInputMetric().toDistance(search.getMin());
+                if (errorJumpRatio == 0 || distance <= errorJumpRatio * lastSearchDistance)
+                {
+                    stepsSinceFullScan++;
+                    lastSearchDistance = distance;
+                    System.arraycopy(getWeights().getPosition(winner),0,res,0,res.length);
+                    return distance;
+                }
+            }
+            return super.findMinDist(res, input, order);
+        }
+    }
+
+    /**
+     * Searches coarse-to-fine, or compares all nodes when a full scan is due.
+     */
+    private class CoarseSearchMode extends WinnerSearchMode
+    {
+        private final CoarseToFineSearch search = new CoarseToFineSearch(getWeights(), coarseSearchStride);
+
+        /**
+         * How much further than coarseSearchMargin the fine pass reaches,
+         * after full scans found winners outside its box. At most one stride.
+         */
+        private int widening;
+
+        /**
+         * The number of full scans that found a winner outside the box of the
+         * fine pass.
+         */
+        private long misses;
+
+        @Override
+        double findMinDist(int[] res, double[] input, int[] order)
+        {
+            int winner = search.findMin(getDistanceEvaluator(input, order), coarseSearchMargin + widening);
+            double distance = getInputMetric().toDistance(search.getMin());
+            boolean fullScanDue = fullScanInterval > 0 && ++stepsSinceFullScan >= fullScanInterval;
+            if (!fullScanDue && (errorJumpRatio == 0 || distance <= errorJumpRatio * lastSearchDistance))
+            {
+                lastSearchDistance = distance;
+                System.arraycopy(getWeights().getPosition(winner),0,res,0,res.length);
+                return distance;
+            }
+            double fullDistance = findMinDistFull(res, input, order);
+            if (fullDistance < distance)
+            {
+                // the winner was outside the box, look further from now on
+                misses++;
+                if (widening < coarseSearchStride)
+                {
+                    widening++;
+                }
+            }
+            stepsSinceFullScan = 0;
+            lastSearchDistance = fullDistance;
+            return fullDistance;
+        }
+    }
+
+    /**
+     * Compares the input to the candidates found by the hash index, or to all
+     * nodes if there are none or the search is checked.
+     */
+    private class ApproximateSearchMode extends WinnerSearchMode
+    {
+        @Override
+        double findMinDist(int[] res, double[] input, int[] order)
+        {
+            ProjectionHashIndex index = hashIndex;
+            if (index == null)
+            {
+                index = new ProjectionHashIndex(getWeights(), inputDimension, hashTables, hashBucketSize, 0);
+                hashIndex = index;
+            }
+            if (!index.isBuilt())
+            {
+                // the winners of the first inputs set the bucket width
+                double distance = findMinDistFull(res, input, order);
+                index.addSample(input, getWeights().getOffset(res));
+                return distance;
+            }
+            int winner = index.findMin(input, getDistanceEvaluator(input, order));
+            if (approximateCheckInterval > 0 && ++approximateSearches >= approximateCheckInterval)
+            {
+                approximateSearches = 0;
+                double distance = findMinDistFull(res, input, order);
+                approximateChecks++;
+                if (winner == getWeights().getOffset(res))
+                {
+                    approximateAgreements++;
+                }
+                return distance;
+            }
+            if (winner < 0)
+            {
+                return findMinDistFull(res, input, order);
+            }
+            System.arraycopy(getWeights().getPosition(winner),0,res,0,res.length);
+            return getInputMetric().toDistance(index.getMin());
+        }
+    }
+
+    /**
+     * Compare all weight vectors to the input, in parallel if parallel search
+     * is enabled.
+     */
+    private double findMinDistFull(int[] res, double[] input, int[] order)
+    {
+        final Metric metric = getInputMetric();
+        if (useParallelSearch(getWeights().getCount()) && nodeIndex == null)
+        {
+            ParallelWinnerSearch search = getWinnerSearch();
+            int winner = search.findMin(getWeights().getCount(), getDistanceEvaluator(input, order), true);
+            System.arraycopy(getWeights().getPosition(winner),0,res,0,res.length);
+            return metric.toDistance(search.getMin());
+        }
+        if (searchResult == null)
+        {
+            searchResult = new Classification(res.length);
+        }
+        scanMinDist(input, order, searchResult);
+        System.arraycopy(searchResult.getPosition(),0,res,0,res.length);
+        return searchResult.getDistance();
+    }
+
+    /**
+     * Compare all weight vectors to the input in order, or search the index if
+     * the map is frozen, without changing any state of this map.
+     * 
+     * @param input
+     *            the input vector.
+     * @param order
+     *            the order to visit the elements in when early abandoning is
+     *            enabled, or null.
+     * @param result
+     *            receives the winning node and its distance to the input.
+     */
+    private void scanMinDist(final double[] input, final int[] order, final Classification result)
+    {
+        final Metric metric = getInputMetric();
+        final VantagePointTree index = this.nodeIndex;
+        if (index != null)
+        {
+            WeightMatrix matrix = index.getWeights();
+            int winner = index.findNearest(input, 0);
+            result.set(winner, matrix.getPosition(winner), metric.toDistance(matrix.getComparableDistance(metric, winner, input, 0)));
+            return;
+        }
+        WeightMatrix matrix = getWeightMatrix();
+        if (matrix != null)
+        {
+            double[] norms = getNodeNorms();
+            if (norms != null)
+            {
+                int winner = BatchWinnerSearch.findWinner(matrix, norms, input, 0);
+                result.set(winner, matrix.getPosition(winner), metric.toDistance(matrix.getComparableDistance(metric, winner, input, 0)));
+                return;
+            }
+        }
+        double minDist = Double.POSITIVE_INFINITY;
+        int winner = 0;
+        int count = getWeights().getCount();
+        for (int x = 0; x < count; x++)
+        {
+            double dist = earlyAbandon ? getNodeBoundedDistance(x, input, order, minDist) : getNodeComparableDistance(x, input);
+            if (dist < minDist)
+            {
+                minDist = dist;
+                winner = x;
+            }
+        }
+        result.set(winner, getWeights().getPosition(winner), metric.toDistance(minDist));
+    }
+
+    /**
+     * Compare all rows of a weight matrix to the input in order.
+     * 
+     * @param metric
+     *            the input metric.
+     * @param matrix
+     *            the weights.
+     * @param input
+     *            the input vector.
+     * @param order
+     *            the order to visit the elements in when early abandoning is
+     *            enabled, or null.
+     * @param earlyAbandon
+     *            true to abandon nodes as soon as they cannot win.
+     * @param result
+     *            receives the winning node and its distance to the input.
      */
-    public void initWeights()
+    static void scanMatrix(final Metric metric, final WeightMatrix matrix, final double[] input, final int[] order,
+            final boolean earlyAbandon, final Classification result)
     {
-        for (int x = 0; x < this.weights.toArray().length; x++)
+        double minDist = Double.POSITIVE_INFINITY;
+        int winner = 0;
+        double[] data = matrix.getData();
+        int rowLength = matrix.getRowLength();
+        for (int x = 0, row = 0; x < matrix.getCount(); x++, row += rowLength)
         {
-            double[] tmpArray = new double[this.inputDimension];
-            // initialize weight to random values
-            if (random != null)
+            double dist = earlyAbandon ? metric.getBoundedDistance(data, row, input, 0, rowLength, order, minDist) : metric
+                    .getComparableDistance(data, row, input, 0, rowLength);
+            if (dist < minDist)
             {
-                for (int t = 0; t < this.inputDimension; t++)
-                {
-                    tmpArray[t] = 0.1*(random.nextDouble() * 2 - 1);
-                }
+                minDist = dist;
+                winner = x;
             }
-            this.weights.toArray()[x]=tmpArray;
         }
+        result.set(winner, matrix.getPosition(winner), metric.toDistance(minDist));
     }
 
     /**
-     * Method for retreiving the weight vector associated with a given node.
-     * 
-     * @param location
-     *            an array indicating the position of the desired node along
-     *            each of the SOM's dimensions.
-     * @return the weight vector of the node at the given location, any changes
-     *         will to the returned object will be reflected in the node.
+     * Get the evaluator for the parallel and local searches in findMinDist,
+     * set up for an input.
      */
-    public double[] getWeights(int... location)
+    private NodeDistanceEvaluator getDistanceEvaluator(double[] input, int[] order)
     {
-        return weights.getValue(location);
+        if (distanceEvaluator == null)
+        {
+            distanceEvaluator = new NodeDistanceEvaluator();
+        }
+        distanceEvaluator.input = input;
+        distanceEvaluator.order = order;
+        return distanceEvaluator;
     }
 
     /**
-     * Method for changing the weight vector associated with a given node.
-     * 
-     * @param location
-     *            an array indicating the position of the desired node along
-     *            each of the SOM's dimensions.
-     * @param newWeights
-     *            the new weights.
+     * Evaluates the comparable distance from a node to the input, for the
+     * parallel and local searches in findMinDist.
      */
-    public void setWeights(double[] newWeights,int... location)
+    private class NodeDistanceEvaluator implements ParallelWinnerSearch.Evaluator
     {
-        weights.setValue(newWeights, location);
+        private double[] input;
+        private int[] order;
+
+        public double evaluate(int offset, double bound)
+        {
+            if (earlyAbandon)
+            {
+                return getNodeBoundedDistance(offset, input, order, bound);
+            }
+            return getNodeComparableDistance(offset, input);
+        }
     }
 
     /**
-     * Set the input of this SOM. The input can be classified or used for
-     * training.
+     * Calculate the distance from the weights of a node to a point in the
+     * input space, using the input metric. Works regardless of how the weights
+     * are stored.
      * 
-     * @param input
-     *            the input vector, also called data vector.
-     * @see #classify()
-     * @see #train()
+     * @param offset
+     *            the offset of the node.
+     * @param point
+     *            the point in the input space, typically the input.
+     * @return the distance from the weights of the node to the point.
      */
-    public void setInput(double[] input)
+    protected double getNodeDistance(int offset, double[] point)
     {
-        this.input = input;
+        if (this.weights instanceof AbstractWeightMatrix)
+        {
+            return ((AbstractWeightMatrix) this.weights).getDistance(getInputMetric(), offset, point, 0);
+        }
+        return getInputMetric().getDistance(this.weights.getValueFromOffset(offset), point);
     }
 
     /**
-     * Classify the most recently applied input according to this SOM.
+     * Calculate the comparable distance from the weights of a node to a point
+     * in the input space, using the input metric. Works regardless of how the
+     * weights are stored.
      * 
-     * @see #setInput(double [] input)
+     * @param offset
+     *            the offset of the node.
+     * @param point
+     *            the point in the input space, typically the input.
+     * @return the comparable distance from the weights of the node to the
+     *         point.
+     * @see Metric#getComparableDistance(double[], int, double[], int, int)
      */
-    public int[] classify()
+    protected double getNodeComparableDistance(int offset, double[] point)
     {
-        int[] res = new int[this.weights.getDimensions().length];
-        findMinDist(res);
-        return res;
+        if (this.weights instanceof AbstractWeightMatrix)
+        {
+            return ((AbstractWeightMatrix) this.weights).getComparableDistance(getInputMetric(), offset, point, 0);
+        }
+        double[] weight = this.weights.getValueFromOffset(offset);
+        return getInputMetric().getComparableDistance(weight, 0, point, 0, weight.length);
     }
 
     /**
-     * Classify the supplied input according to this SOM. This is a convenience
-     * method, used where one wants to be sure that no other thread modifies the
-     * input value before it is classified.
+     * Calculate the comparable distance from the weights of a node to a point
+     * in the input space, abandoning the calculation once it exceeds bound.
+     * Works regardless of how the weights are stored.
+     * 
+     * @param offset
+     *            the offset of the node.
+     * @param point
+     *            the point in the input space, typically the input.
+     * @param order
+     *            the order in which to visit the elements, or null.
+     * @param bound
+     *            the comparable distance above which the calculation may be
+     *            abandoned.
+     * @return the comparable distance from the weights of the node to the
+     *         point, or any value greater than bound.
+     * @see Metric#getBoundedDistance(double[], int, double[], int, int, int[],
+     *      double)
      */
-    public int[] classify(double[] input)
+    protected double getNodeBoundedDistance(int offset, double[] point, int[] order, double bound)
     {
-        setInput(input);
-        return classify();
+        if (this.weights instanceof AbstractWeightMatrix)
+        {
+            return ((AbstractWeightMatrix) this.weights).getBoundedDistance(getInputMetric(), offset, point, 0, order, bound);
+        }
+        double[] weight = this.weights.getValueFromOffset(offset);
+        return getInputMetric().getBoundedDistance(weight, 0, point, 0, weight.length, order, bound);
     }
 
     /**
-     * Helper function for classify. Recursively compares all weight vectors to
-     * the input.
+     * Move the weights of a node towards a target, so that each weight w
+     * becomes w + rate * (target - w). Works regardless of how the weights are
+     * stored.
+     * 
+     * @param offset
+     *            the offset of the node.
+     * @param target
+     *            the point in the input space to move towards, typically the
+     *            input.
+     * @param rate
+     *            the fraction of the distance to move.
      */
-    protected double findMinDist( int[] res)
+    protected void adaptWeights(int offset, double[] target, double rate)
     {
-        double minDist = Double.POSITIVE_INFINITY;
-        Object [] data = getWeights().toArray();
-        int winner = 0;
-        for(int x = 0;x<data.length;x++)
+        if (this.nodeIndex != null)
+        {
+            // the weights are changing, so the map is no longer frozen
+            this.nodeIndex = null;
+        }
+        final ProjectionHashIndex hash = this.hashIndex;
+        if (hash != null)
+        {
+            hash.markDirty(offset);
+        }
+        markDirty(offset);
+        if (this.weights instanceof AbstractWeightMatrix)
         {
-            if (getInputMetric().getDistance((double[])data[x], getInput()) < minDist)
+            // the matrix updates the norm of the node in the same pass
+            double norm = ((AbstractWeightMatrix) this.weights).adaptRow(offset, target, rate);
+            final double[] norms = this.nodeNorms;
+            if (norms != null)
             {
-                minDist = getInputMetric().getDistance((double[])data[x], getInput());
-                winner = x;
+                norms[offset] = norm;
             }
+            return;
+        }
+        double[] weight = this.weights.getValueFromOffset(offset);
+        for (int wIndex = 0; wIndex < weight.length; wIndex++)
+        {
+            weight[wIndex] += rate * (target[wIndex] - weight[wIndex]);
         }
-        System.arraycopy(getWeights().getPosition(winner),0,res,0,res.length);
-        return minDist;
     }
 
     /**
@@ -256,21 +2825,34 @@ public abstract class MapBaseImpl implements MapBase, Serializable
      *            the location of the winner.
      * @param nhSize
      *            the neighbourhood size.
+     * @see #setUseSeparableNeighbourhood(boolean)
+     * @see #setUseNeighbourhoodTable(boolean)
      */
     protected double getNeighbourhoodScaling(final int[] loc, final int[] winner, final double nhSize)
     {
+        final NeighbourhoodCache cache = this.neighbourhoodCache;
+        if (cache != null)
+        {
+            return cache.getScaling(loc, winner, nhSize);
+        }
         double dist = this.outputMetric.getDistance(loc, winner);
         return this.nhFunction.getScaling(dist, nhSize);
     }
 
     /**
-     * Creates a new object from the input stream.
+     * Creates a new object from the input stream. The stream is parsed as it
+     * is read, and the weights are stored node by node, so reading does not
+     * build a document holding all the weights. The other elements of the
+     * root, i.e. the metrics, the neighbourhood function and the elements
+     * written by createDocumentHelper(...), are collected in an Element that
+     * is passed to readHelper(...).
      * 
      * @param is
      *            the InputStream to read the object from.
      * @return A new instance created from the stream.
      * @throws TransformerFactoryConfigurationError
      * @throws TransformerException
+     *             if the stream does not hold a well-formed map.
      * @throws ClassNotFoundException
      * @throws NoSuchMethodException
      * @throws SecurityException
@@ -282,39 +2864,164 @@ public abstract class MapBaseImpl implements MapBase, Serializable
     public static MapBase read(InputStream is) throws TransformerFactoryConfigurationError, TransformerException, ClassNotFoundException, SecurityException,
             NoSuchMethodException, IllegalArgumentException, InstantiationException, IllegalAccessException, InvocationTargetException
     {
-        Transformer t = TransformerFactory.newInstance().newTransformer();
-        StreamSource ss = new StreamSource(is);
-        DOMResult dr = new DOMResult();
-        t.transform(ss, dr);
-        Element e = (Element) dr.getNode().getFirstChild();
-        // extract the number/sixe of input/output dimensions of the map.
-        Element dimensionsElement = (Element) e.getElementsByTagName("dimensions").item(0);
-        Element input = (Element) dimensionsElement.getElementsByTagName("input").item(0);
-        int inputDim = Integer.parseInt(input.getTextContent());
-        NodeList outputDimsList = dimensionsElement.getElementsByTagName("output");
-        int[] outputDims = new int[outputDimsList.getLength()];
-        for (int x = 0; x < outputDims.length; x++)
-        {
-            outputDims[x] = Integer.parseInt(outputDimsList.item(x).getTextContent());
-        }
-
-        // create a new object with the given constructor arguments
-        Class<?> somClass = ClassLoader.getSystemClassLoader().loadClass(e.getNodeName());
-        Constructor<?> con = somClass.getConstructor(Integer.TYPE, outputDims.getClass());
-        MapBase res = (MapBase) con.newInstance(inputDim, outputDims);
-        // set the weights
+        try
+        {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+            try
+            {
+                return read(reader);
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (XMLStreamException e)
+        {
+            throw new TransformerException(e);
+        }
+        catch (ParserConfigurationException e)
+        {
+            throw new TransformerException(e);
+        }
+    }
+
+    /**
+     * Read a map from the root element on.
+     */
+    private static MapBase read(XMLStreamReader reader) throws XMLStreamException, ParserConfigurationException, ClassNotFoundException,
+            NoSuchMethodException, InstantiationException, IllegalAccessException, InvocationTargetException
+    {
+        reader.nextTag();
+        // the elements of the root other than the dimensions and the nodes
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element e = doc.createElement(reader.getLocalName());
+        doc.appendChild(e);
+        for (int x = 0; x < reader.getAttributeCount(); x++)
+        {
+            e.setAttribute(reader.getAttributeLocalName(x), reader.getAttributeValue(x));
+        }
+        MapBase res = null;
+        int[] outputDims = null;
+        while (reader.next() != XMLStreamConstants.END_ELEMENT)
+        {
+            if (!reader.isStartElement())
+            {
+                continue;
+            }
+            if (reader.getLocalName().equals("dimensions"))
+            {
+                // extract the number/size of input/output dimensions of the map.
+                int inputDim = 0;
+                ArrayList<Integer> outputList = new ArrayList<Integer>();
+                while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+                {
+                    if (reader.getLocalName().equals("input"))
+                    {
+                        inputDim = Integer.parseInt(reader.getElementText().trim());
+                    }
+                    else
+                    {
+                        outputList.add(Integer.valueOf(reader.getElementText().trim()));
+                    }
+                }
+                outputDims = new int[outputList.size()];
+                for (int x = 0; x < outputDims.length; x++)
+                {
+                    outputDims[x] = outputList.get(x);
+                }
+                // create a new object with the given constructor arguments
+                Class<?> somClass = ClassLoader.getSystemClassLoader().loadClass(e.getNodeName());
+                Constructor<?> con = somClass.getConstructor(Integer.TYPE, outputDims.getClass());
+                res = (MapBase) con.newInstance(inputDim, outputDims);
+            }
+            else if (reader.getLocalName().equals("nodes"))
+            {
+                if (res == null)
+                {
+                    throw new XMLStreamException("The dimensions must precede the nodes.", reader.getLocation());
+                }
+                readNodes(reader, res, outputDims);
+            }
+            else
+            {
+                e.appendChild(readElement(reader, doc));
+            }
+        }
+        if (res == null)
+        {
+            throw new XMLStreamException("The map has no dimensions.", reader.getLocation());
+        }
+
+        // the metrics and the neighbourhood function
+        res.setInputMetric(readMetric((Element) e.getElementsByTagName("inputmetric").item(0)));
+        res.setOutputMetric(readMetric((Element) e.getElementsByTagName("outputmetric").item(0)));
+        res.setNeighbourhoodFunction(readNeighbourhoodFunction((Element) e.getElementsByTagName("neighbourhoodfunction").item(0)));
+
+        // implementation-specific read fuctions
+        res.readHelper(e);
+
+        return res;
+    }
+
+    /**
+     * Create a metric from an element written by Metric.getElement(...), by
+     * using reflection to call getMetric(...) on the actual MetricImpl
+     * subclass stored in the element.
+     */
+    static Metric readMetric(Element e) throws ClassNotFoundException, NoSuchMethodException, IllegalAccessException, InvocationTargetException
+    {
+        String className = e.getFirstChild().getTextContent();
+        // load the class and find the getMetric() method, then invoke it.
+        Class<?> metricClass = ClassLoader.getSystemClassLoader().loadClass(className);
+        Method m = metricClass.getMethod("getMetric", Element.class);
+        return (Metric) m.invoke(null, e);
+    }
+
+    /**
+     * Create a neighbourhood function from an element written by
+     * NeighbourhoodFunction.getElement(...), by using reflection to call
+     * getNeighbourhoodFunction(...) on the actual NeighbourhoodFunctionImpl
+     * subclass stored in the element.
+     */
+    static NeighbourhoodFunction readNeighbourhoodFunction(Element e) throws ClassNotFoundException, NoSuchMethodException, IllegalAccessException,
+            InvocationTargetException
+    {
+        String className = e.getFirstChild().getTextContent();
+        // load the class and find the getNeighbourhoodFunction() method, then
+        // invoke it.
+        Class<?> nhClass = ClassLoader.getSystemClassLoader().loadClass(className);
+        Method m = nhClass.getMethod("getNeighbourhoodFunction", Element.class);
+        return (NeighbourhoodFunction) m.invoke(null, e);
+    }
+
+    /**
+     * Read the weights of the nodes, one node at a time, in the order written
+     * by write(...).
+     */
+    private static void readNodes(XMLStreamReader reader, MapBase res, int[] outputDims) throws XMLStreamException
+    {
         int[] loc = new int[outputDims.length];
-        NodeList nodes = e.getElementsByTagName("node");
-        outerloop: for (int node = 0; node < nodes.getLength(); node++)
+        double[] w = new double[16];
+        boolean full = false;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
         {
             // get the weight array of the node
-            NodeList weights = ((Element) nodes.item(node)).getElementsByTagName("weight");
-            double[] w = new double[weights.getLength()];
-            for (int x = 0; x < w.length; x++)
+            int count = 0;
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+            {
+                if (count == w.length)
+                {
+                    w = Arrays.copyOf(w, 2 * count);
+                }
+                w[count++] = Double.parseDouble(reader.getElementText().trim());
+            }
+            if (full)
             {
-                w[x] = Double.parseDouble(weights.item(x).getTextContent());
+                // more nodes than the map has, ignore them
+                continue;
             }
-            res.setWeights(w,loc);
+            res.setWeights(Arrays.copyOf(w, count), loc);
             // select the next location
             for (int x = loc.length - 1; x >= 0; x--)
             {
@@ -324,7 +3031,7 @@ public abstract class MapBaseImpl implements MapBase, Serializable
                     loc[x] = 0;
                     if (x == 0)
                     {
-                        break outerloop;
+                        full = true;
                     }
                 }
                 else
@@ -333,46 +3040,37 @@ public abstract class MapBaseImpl implements MapBase, Serializable
                 }
             }
         }
+    }
 
-        /**
-         * Add the input metric by using reflection to call getInputMetric(...)
-         * on the actual MetricImpl subclass stored in the file.
-         */
-        Element inputMetricElement = (Element) e.getElementsByTagName("inputmetric").item(0);
-        String inputMetricClassName = inputMetricElement.getFirstChild().getTextContent();
-        // load the class and find the getInputMetric() method, then invoke it.
-        Class<?> metricClass = ClassLoader.getSystemClassLoader().loadClass(inputMetricClassName);
-        Method m = metricClass.getMethod("getMetric", Element.class);
-        res.setInputMetric((Metric) m.invoke(null, inputMetricElement));
-
-        /**
-         * Add the output metric by using reflection to call
-         * getOutputMetric(...) on the actual OutputMetricImpl subclass stored
-         * in the file.
-         */
-        Element outputMetricElement = (Element) e.getElementsByTagName("outputmetric").item(0);
-        String outputMetricClassName = outputMetricElement.getFirstChild().getTextContent();
-        // load the class and find the getOutputMetric() method, then invoke it.
-        metricClass = ClassLoader.getSystemClassLoader().loadClass(outputMetricClassName);
-        m = metricClass.getMethod("getMetric", Element.class);
-        res.setOutputMetric((Metric) m.invoke(null, outputMetricElement));
-
-        /**
-         * Add the neighbourhood function by using reflection to call
-         * getNeighbourhoodFunction(...) on the actual NeighbourhoodFunctionImpl
-         * subclass stored in the file.
-         */
-        Element nhElement = (Element) e.getElementsByTagName("neighbourhoodfunction").item(0);
-        String nhClassName = nhElement.getFirstChild().getTextContent();
-        // load the class and find the getOutputMetric() method, then invoke it.
-        Class<?> nhClass = ClassLoader.getSystemClassLoader().loadClass(nhClassName);
-        m = nhClass.getMethod("getNeighbourhoodFunction", Element.class);
-        res.setNeighbourhoodFunction((NeighbourhoodFunction) m.invoke(null, nhElement));
-
-        // implementation-specific read fuctions
-        res.readHelper(e);
-
-        return res;
+    /**
+     * Read the element the reader is at, with its attributes and contents,
+     * into an Element.
+     */
+    private static Element readElement(XMLStreamReader reader, Document doc) throws XMLStreamException
+    {
+        Element res = doc.createElement(reader.getLocalName());
+        for (int x = 0; x < reader.getAttributeCount(); x++)
+        {
+            res.setAttribute(reader.getAttributeLocalName(x), reader.getAttributeValue(x));
+        }
+        while (true)
+        {
+            switch (reader.next())
+            {
+            case XMLStreamConstants.START_ELEMENT:
+                res.appendChild(readElement(reader, doc));
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                res.appendChild(doc.createTextNode(reader.getText()));
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                return res;
+            default:
+                break;
+            }
+        }
     }
 
     /**
@@ -425,7 +3123,7 @@ public abstract class MapBaseImpl implements MapBase, Serializable
             {
                 loc[loc.length - 1] = x;
                 // process the node
-                double[] w = this.getWeights(loc);
+                double[] w = this.copyWeights(loc);
                 Element node = doc.createElement("node");
                 nodes.appendChild(node);
                 for (int windex = 0; windex < w.length; windex++)
@@ -477,10 +3175,46 @@ public abstract class MapBaseImpl implements MapBase, Serializable
      */
     protected abstract void createDocumentHelper(Element e, Document doc);
 
+    /**
+     * Helper function for BinaryModel.write(...). Subclasses that keep state
+     * of their own call this method on the superclass and then add a section
+     * holding their state. The weights, the metrics and the neighbourhood
+     * function are written by BinaryModel.
+     * 
+     * @param out
+     *            the file being written.
+     * @throws IOException
+     *             if a section could not be written.
+     * @see BinaryModel
+     */
+    protected void writeBinaryHelper(BinaryModel.Output out) throws IOException
+    {
+    }
+
+    /**
+     * Helper function for BinaryModel.read(...). Restores the state written
+     * by writeBinaryHelper(...). A section that is missing, for instance from
+     * a file written before the section was added, leaves the state as the
+     * constructor set it.
+     * 
+     * @param in
+     *            the file being read.
+     * @throws IOException
+     *             if a section could not be read.
+     * @see BinaryModel
+     */
+    protected void readBinaryHelper(BinaryModel.Input in) throws IOException
+    {
+    }
+
     /**
      * Write this SOM object to an OutputStream in a format that is
      * version-independent but flexible. The output format is the same that is
-     * readable by read(...). The output is in XML format.
+     * readable by read(...). The output is in XML format. The weights are
+     * written node by node as they are read, so writing does not build a
+     * document holding all the weights. The metrics, the neighbourhood
+     * function and the elements added by createDocumentHelper(...) are built
+     * as Elements and then written.
      * 
      * @param os
      *            the OutputStream to write to, must be open and writable, and
@@ -488,22 +3222,134 @@ public abstract class MapBaseImpl implements MapBase, Serializable
      * @throws ParserConfigurationException
      * @throws TransformerFactoryConfigurationError
      * @throws TransformerException
+     *             if the XML could not be written.
      * @throws IOException
      */
     public void write(OutputStream os) throws ParserConfigurationException, TransformerFactoryConfigurationError, TransformerException, IOException
     {
-        long start = System.currentTimeMillis();
-        Document doc = this.createDocument();
-        long elapsed = System.currentTimeMillis() - start;
-        System.out.println("Document created in " + (elapsed / 1000.0) + " seconds.");
-        // doc.normalize();
-        Transformer t = TransformerFactory.newInstance().newTransformer();
-        DOMSource ds = new DOMSource(doc);
-        StreamResult sr = new StreamResult(os);
-        t.transform(ds, sr);
+        try
+        {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(os, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement(getClass().getName());
+            writer.writeAttribute("version", getVersion());
+            // write the input and output dimensions
+            int[] dimensions = weights.getDimensions();
+            writer.writeStartElement("dimensions");
+            writer.writeStartElement("input");
+            writer.writeCharacters("" + this.inputDimension);
+            writer.writeEndElement();
+            for (int x = 0; x < dimensions.length; x++)
+            {
+                writer.writeStartElement("output");
+                writer.writeCharacters("" + dimensions[x]);
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+            // write the weights of the entire map, in the same order as
+            // createDocument()
+            writer.writeStartElement("nodes");
+            int[] loc = new int[dimensions.length];
+            outerloop: while (true)
+            {
+                for (int x = 0; x < dimensions[dimensions.length - 1]; x++)
+                {
+                    loc[loc.length - 1] = x;
+                    double[] w = this.copyWeights(loc);
+                    writer.writeStartElement("node");
+                    for (int windex = 0; windex < w.length; windex++)
+                    {
+                        writer.writeStartElement("weight");
+                        writer.writeCharacters("" + w[windex]);
+                        writer.writeEndElement();
+                    }
+                    writer.writeEndElement();
+                }
+                for (int x = loc.length - 2; x >= 0; x--)
+                {
+                    loc[x]++;
+                    if (loc[x] >= dimensions[x])
+                    {
+                        loc[x] = 0;
+                        if (x == 0)
+                        {
+                            break outerloop;
+                        }
+                    }
+                    else
+                    {
+                        break;
+                    }
+                }
+                if (loc.length == 1)
+                {
+                    break;
+                }
+            }
+            writer.writeEndElement();
+            // the remaining elements are small, build them as a document
+            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+            Element e = doc.createElement(getClass().getName());
+            doc.appendChild(e);
+            e.appendChild(this.inputMetric.getElement(doc, "inputmetric"));
+            e.appendChild(this.outputMetric.getElement(doc, "outputmetric"));
+            e.appendChild(this.nhFunction.getElement(doc));
+            createDocumentHelper(e, doc);
+            for (Node child = e.getFirstChild(); child != null; child = child.getNextSibling())
+            {
+                writeNode(writer, child);
+            }
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            // flushes the writer, but leaves the stream open
+            writer.close();
+        }
+        catch (XMLStreamException e)
+        {
+            throw new TransformerException(e);
+        }
         os.flush();
     }
 
+    /**
+     * Write a node of a document and its contents.
+     */
+    private static void writeNode(XMLStreamWriter writer, Node node) throws XMLStreamException
+    {
+        switch (node.getNodeType())
+        {
+        case Node.ELEMENT_NODE:
+            if (node.hasChildNodes())
+            {
+                writer.writeStartElement(node.getNodeName());
+            }
+            else
+            {
+                writer.writeEmptyElement(node.getNodeName());
+            }
+            NamedNodeMap attributes = node.getAttributes();
+            for (int x = 0; x < attributes.getLength(); x++)
+            {
+                writer.writeAttribute(attributes.item(x).getNodeName(), attributes.item(x).getNodeValue());
+            }
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+            {
+                writeNode(writer, child);
+            }
+            if (node.hasChildNodes())
+            {
+                writer.writeEndElement();
+            }
+            break;
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+            writer.writeCharacters(node.getNodeValue());
+            break;
+        default:
+            break;
+        }
+    }
+
     /**
      * Get a string representing the version of this object.
      */
@@ -529,6 +3375,7 @@ public abstract class MapBaseImpl implements MapBase, Serializable
     {
         setInput(input);
         train();
+        trainingStepCompleted();
     }
 
     public Metric getInputMetric()
@@ -544,11 +3391,13 @@ public abstract class MapBaseImpl implements MapBase, Serializable
     public void setInputMetric(Metric inputMetric)
     {
         this.inputMetric = inputMetric;
+        this.nodeIndex = null;
     }
 
     public void setOutputMetric(Metric outputMetric)
     {
         this.outputMetric = outputMetric;
+        this.neighbourhoodCache = null;
     }
 
     /**
@@ -572,6 +3421,7 @@ public abstract class MapBaseImpl implements MapBase, Serializable
     public void setNeighbourhoodFunction(NeighbourhoodFunction nhFunction)
     {
         this.nhFunction = nhFunction;
+        this.neighbourhoodCache = null;
     }
 
     /**
@@ -615,6 +3465,49 @@ public abstract class MapBaseImpl implements MapBase, Serializable
 	protected void setWeights(IterativeArray<double[]> weights)
 	{
 		this.weights = weights;
+		this.nodeIndex = null;
+		this.hashIndex = null;
+		computeNodeNorms();
+		final CheckpointLog log = this.checkpointLog;
+		if (log != null)
+		{
+			log.markAllDirty();
+		}
+	}
+
+	/**
+	 * @return the log that checkpoints this map, or null.
+	 * @see CheckpointLog
+	 */
+	public CheckpointLog getCheckpointLog()
+	{
+		return checkpointLog;
+	}
+
+	/**
+	 * Set by CheckpointLog when it starts and stops checkpointing this map.
+	 */
+	void setCheckpointLog(CheckpointLog checkpointLog)
+	{
+		this.checkpointLog = checkpointLog;
+	}
+
+	/**
+	 * Record that the weights of a node have changed, so that the next
+	 * checkpoint writes them. adaptWeights(...) does this, subclasses that
+	 * change the weights in another way call it from updateWeights().
+	 * 
+	 * @param offset
+	 *            the offset of the node.
+	 * @see CheckpointLog
+	 */
+	protected void markDirty(int offset)
+	{
+		final CheckpointLog log = this.checkpointLog;
+		if (log != null)
+		{
+			log.markDirty(offset);
+		}
 	}
 
 	/**
@@ -631,6 +3524,25 @@ public abstract class MapBaseImpl implements MapBase, Serializable
 	 */
 	public double[] getStateVector()
 	{
+		WeightMatrix matrix = getWeightMatrix();
+		if (matrix != null)
+		{
+			//the weights are already laid out as one vector
+			return matrix.getData().clone();
+		}
+		if (this.weights instanceof AbstractWeightMatrix)
+		{
+			//copy the rows one after the other
+			AbstractWeightMatrix rows = (AbstractWeightMatrix) this.weights;
+			int rowLength = rows.getRowLength();
+			double[] res = new double[rows.getCount() * rowLength];
+			double[] row = new double[rowLength];
+			for (int x = 0; x < rows.getCount(); x++)
+			{
+				System.arraycopy(rows.getRow(x, row), 0, res, x * rowLength, rowLength);
+			}
+			return res;
+		}
 		//find out how large the result vector will be
 		int nodes = this.weights.toArray().length;
 		if(nodes > 0)
@@ -0,0 +1,299 @@
+package org.plsomlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.plsomlib.metrics.Metric;
+import org.plsomlib.neighbourhood.NeighbourhoodFunction;
+import org.plsomlib.util.IterativeArray;
+import org.plsomlib.util.OffHeapWeightMatrix;
+
+/**
+ * Writes maps to a fixed binary layout that can be mapped into memory, so
+ * that a map can classify without parsing or loading its weights. Opening a
+ * file only reads its header, the weights are paged in by the operating
+ * system as the winner search reads them, and processes that open the same
+ * file share the pages.
+ * 
+ * The file starts with a header, all numbers little-endian:
+ * <ul>
+ * <li>the eight ASCII characters PLSOMMAP,</li>
+ * <li>the version of the layout and the length of the header in bytes, as
+ * ints,</li>
+ * <li>the input dimension, the number of output dimensions and the size of
+ * each output dimension, as ints,</li>
+ * <li>the class names of the map, the input metric, the output metric and the
+ * neighbourhood function, each as an int byte count followed by the name in
+ * UTF-8.</li>
+ * </ul>
+ * The header is padded with zeros to a multiple of 64 bytes, and followed by
+ * the weights as doubles, node by node in order of offset.
+ * 
+ * Only the weights and the classes above are stored. The map is created with
+ * its (int, int...) constructor, and the metrics and the neighbourhood
+ * function with their constructors without arguments, so parameters of the
+ * metrics and the training state of the map are not kept. Use
+ * MapBaseImpl.write(...) to store a map that will be trained further.
+ * 
+ * @author Erik Berglund
+ * @see OffHeapWeightMatrix#map(FileChannel, long, boolean, int, int...)
+ */
+public class MappedModel
+{
+	/**
+	 * The first bytes of every file.
+	 */
+	private static final byte[] MAGIC = "PLSOMMAP".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * The version of the layout written by this class.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The weights start at a multiple of this many bytes.
+	 */
+	private static final int ALIGNMENT = 64;
+
+	/**
+	 * The size of the buffer the weights are written through.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private MappedModel()
+	{
+	}
+
+	/**
+	 * Write a map to a file. The weights are written as they are read, so
+	 * writing does not use memory in proportion to the size of the map.
+	 * 
+	 * @param map
+	 *            the map to write.
+	 * @param file
+	 *            the file to write to, replaced if it exists.
+	 * @throws IOException
+	 *             if the file could not be written.
+	 */
+	public static void write(MapBaseImpl map, File file) throws IOException
+	{
+		IterativeArray<double[]> weights = map.getWeights();
+		int[] dimensions = weights.getDimensions();
+		byte[][] names = new byte[][] { name(map), name(map.getInputMetric()), name(map.getOutputMetric()), name(map.getNeighbourhoodFunction()) };
+		int length = MAGIC.length + Integer.BYTES * (4 + dimensions.length);
+		for (byte[] name : names)
+		{
+			length += Integer.BYTES + name.length;
+		}
+		int headerLength = (length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+		ByteBuffer header = ByteBuffer.allocate(headerLength).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(headerLength);
+		header.putInt(map.getInputDimension());
+		header.putInt(dimensions.length);
+		for (int size : dimensions)
+		{
+			header.putInt(size);
+		}
+		for (byte[] name : names)
+		{
+			header.putInt(name.length);
+			header.put(name);
+		}
+		header.clear();
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try
+		{
+			out.setLength(0);
+			FileChannel channel = out.getChannel();
+			writeFully(channel, header);
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			for (int x = 0; x < weights.getCount(); x++)
+			{
+				double[] row = weights.getValueFromOffset(x);
+				if (row.length != map.getInputDimension())
+				{
+					throw new IOException("Node " + x + " has " + row.length + " weights, expected " + map.getInputDimension() + ".");
+				}
+				for (double weight : row)
+				{
+					if (buffer.remaining() < Double.BYTES)
+					{
+						buffer.flip();
+						writeFully(channel, buffer);
+						buffer.clear();
+					}
+					buffer.putDouble(weight);
+				}
+			}
+			buffer.flip();
+			writeFully(channel, buffer);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Open a file written by write(...) for classification only. Changing the
+	 * weights, for instance by training, throws a ReadOnlyBufferException.
+	 * 
+	 * @param file
+	 *            the file to open.
+	 * @return the map, with its weights in an OffHeapWeightMatrix mapped to
+	 *         the file.
+	 * @throws IOException
+	 *             if the file could not be read or is not a valid model file.
+	 * @see #open(File, boolean)
+	 */
+	public static MapBaseImpl open(File file) throws IOException
+	{
+		return open(file, false);
+	}
+
+	/**
+	 * Open a file written by write(...). The weights are not read, they are
+	 * mapped into memory and read from there by the winner search. Call
+	 * releaseWeights() on the map to unmap the file, or setUseWeightMatrix(true)
+	 * to copy the weights to the heap and unmap it.
+	 * 
+	 * @param file
+	 *            the file to open.
+	 * @param writable
+	 *            true to write changes to the weights through to the file,
+	 *            false to open it read-only.
+	 * @return the map, with its weights in an OffHeapWeightMatrix mapped to
+	 *         the file.
+	 * @throws IOException
+	 *             if the file could not be read or is not a valid model file.
+	 * @see MapBaseImpl#releaseWeights()
+	 */
+	public static MapBaseImpl open(File file, boolean writable) throws IOException
+	{
+		RandomAccessFile in = new RandomAccessFile(file, writable ? "rw" : "r");
+		try
+		{
+			FileChannel channel = in.getChannel();
+			ByteBuffer start = ByteBuffer.allocate(MAGIC.length + 2 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, start, 0);
+			byte[] magic = new byte[MAGIC.length];
+			start.get(magic);
+			if (!Arrays.equals(magic, MAGIC))
+			{
+				throw new IOException(file + " is not a mapped model file.");
+			}
+			int version = start.getInt();
+			if (version != VERSION)
+			{
+				throw new IOException(file + " has version " + version + ", only version " + VERSION + " is supported.");
+			}
+			int headerLength = start.getInt();
+			if (headerLength < start.capacity() || headerLength > channel.size())
+			{
+				throw new IOException(file + " has an invalid header length.");
+			}
+			ByteBuffer header = ByteBuffer.allocate(headerLength).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, header, 0);
+			header.position(start.capacity());
+			int inputDimension = header.getInt();
+			int[] dimensions = new int[header.getInt()];
+			long count = 1;
+			for (int x = 0; x < dimensions.length; x++)
+			{
+				dimensions[x] = header.getInt();
+				count *= dimensions[x];
+			}
+			String mapClass = readName(header);
+			String inputMetric = readName(header);
+			String outputMetric = readName(header);
+			String nhFunction = readName(header);
+			if (channel.size() < headerLength + count * inputDimension * Double.BYTES)
+			{
+				throw new IOException(file + " is too short to hold the weights of the map.");
+			}
+			OffHeapWeightMatrix weights = OffHeapWeightMatrix.map(channel, headerLength, writable, inputDimension, dimensions);
+			try
+			{
+				MapBaseImpl res = MapBaseImpl.create(load(mapClass), inputDimension, dimensions, weights);
+				res.setInputMetric((Metric) load(inputMetric).getConstructor().newInstance());
+				res.setOutputMetric((Metric) load(outputMetric).getConstructor().newInstance());
+				res.setNeighbourhoodFunction((NeighbourhoodFunction) load(nhFunction).getConstructor().newInstance());
+				return res;
+			}
+			catch (ReflectiveOperationException e)
+			{
+				weights.close();
+				throw new IOException("Could not create the map stored in " + file + ".", e);
+			}
+			catch (RuntimeException e)
+			{
+				weights.close();
+				throw e;
+			}
+		}
+		finally
+		{
+			// the mapping stays valid after the file is closed
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the class name of an object, in UTF-8.
+	 */
+	private static byte[] name(Object o)
+	{
+		return o.getClass().getName().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Read a class name written by write(...).
+	 */
+	private static String readName(ByteBuffer header) throws IOException
+	{
+		int length = header.getInt();
+		if (length < 0 || length > header.remaining())
+		{
+			throw new IOException("Invalid class name length in the header.");
+		}
+		byte[] name = new byte[length];
+		header.get(name);
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Load a class named in a file, the same way read(...) does.
+	 */
+	private static Class<?> load(String className) throws ClassNotFoundException
+	{
+		return ClassLoader.getSystemClassLoader().loadClass(className);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer, position + buffer.position()) < 0)
+			{
+				throw new IOException("Unexpected end of file.");
+			}
+		}
+		buffer.flip();
+	}
+}
@@ -45,11 +45,12 @@ public class NormalizedExcitationPLSOM extends ExcitationPLSOM
     {
         double minDist = Double.POSITIVE_INFINITY;
         double maxDist = 0;
-        Object [] weights = getWeights().toArray();
+        int count = getWeights().getCount();
         int winner = 0;
-        for(int x = 0;x<weights.length;x++)
+        for(int x = 0;x<count;x++)
         {
-        	double dist  = getInputMetric().getDistance((double[])weights[x], getInput());
+        	double dist  = getNodeDistance(x, getInput());
+        	offerTopK(x, dist);
             if (dist < minDist)
             {
                 minDist = dist;
@@ -63,7 +64,7 @@ public class NormalizedExcitationPLSOM extends ExcitationPLSOM
         }
         double diff = maxDist-minDist;
         //renormalize excitations 
-        for(int x =0;x<weights.length;x++)
+        for(int x =0;x<count;x++)
         {
         	double tmp = getExcitations()[x]-minDist;
         	tmp/=diff;
@@ -1,7 +1,10 @@
 package org.plsomlib;
 
+import java.io.IOException;
+
 import org.plsomlib.metrics.Metric;
 import org.plsomlib.neighbourhood.NeighbourhoodFunction;
+import org.plsomlib.util.ParallelNodeLoop;
 import org.w3c.dom.*;
 
 /**
@@ -27,6 +30,11 @@ public class PLSOM extends MapBaseImpl
     
     private double epsilon;
 
+    /**
+     * Updates the weights of a node, created when first needed.
+     */
+    private transient ParallelNodeLoop.NodeAction weightUpdate;
+
     /**
      * The distance between the weight vector of the winning node and the input.
      */
@@ -134,24 +142,27 @@ public class PLSOM extends MapBaseImpl
     }
 
     /**
-     * Recursively update all weights given the current winner.
+     * Recursively update all weights given the current winner. The nodes are
+     * updated in parallel if parallel update is enabled.
      * 
+     * @see MapBaseImpl#setParallelUpdate(boolean)
      */
     protected void updateWeights()
     {
-        Object[] data = this.getWeights().toArray();
-        for (int x = 0; x < data.length; x++)
+        if (weightUpdate == null)
         {
-            // calculate the neighbourhood scaling, multiply by epsilon
-            double anhc = getLearningScale()*getEpsilon() * getNeighbourhoodScaling(getWeights().getPosition(x), getWinner(), getNeighbourhoodSize());
-            // get the weight vector
-            double[] weight = (double[]) data[x];
-            // update the weights
-            for (int wIndex = 0; wIndex < weight.length; wIndex++)
+            weightUpdate = new ParallelNodeLoop.NodeAction()
             {
-                weight[wIndex] += anhc * (getInput()[wIndex] - weight[wIndex]);
-            }
+                public void apply(int x, int[] position)
+                {
+                    // calculate the neighbourhood scaling, multiply by epsilon
+                    double anhc = getLearningScale()*getEpsilon() * getNeighbourhoodScaling(getWeights().getPosition(x, position), getWinner(), getNeighbourhoodSize());
+                    // update the weights
+                    adaptWeights(x, getInput(), anhc);
+                }
+            };
         }
+        updateNodes(weightUpdate, getNeighbourhoodSize());
     }
 
     /**
@@ -273,6 +284,38 @@ public class PLSOM extends MapBaseImpl
 	{
 		return learningScale;
 	}
-	
 
+    /**
+     * @see org.plsomlib.MapBaseImpl#writeBinaryHelper(org.plsomlib.BinaryModel.Output)
+     */
+    @Override
+    protected void writeBinaryHelper(BinaryModel.Output out) throws IOException
+    {
+        super.writeBinaryHelper(out);
+        BinaryModel.Section section = new BinaryModel.Section(PLSOM.class.getName());
+        section.putDouble(nhRange);
+        section.putDouble(rho);
+        section.putDouble(epsilon);
+        section.putDouble(lastError);
+        section.putDouble(learningScale);
+        out.writeSection(section);
+    }
+
+    /**
+     * @see org.plsomlib.MapBaseImpl#readBinaryHelper(org.plsomlib.BinaryModel.Input)
+     */
+    @Override
+    protected void readBinaryHelper(BinaryModel.Input in) throws IOException
+    {
+        super.readBinaryHelper(in);
+        BinaryModel.Section section = in.getSection(PLSOM.class.getName());
+        if (section != null)
+        {
+            nhRange = section.getDouble();
+            rho = section.getDouble();
+            epsilon = section.getDouble();
+            lastError = section.getDouble();
+            learningScale = section.getDouble();
+        }
+    }
 }
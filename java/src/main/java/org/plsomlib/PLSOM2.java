@@ -1,5 +1,7 @@
 package org.plsomlib;
 
+import java.io.IOException;
+
 import org.plsomlib.metrics.*;
 import org.plsomlib.neighbourhood.*;
 import org.plsomlib.util.DiameterBuffer;
@@ -84,4 +86,30 @@ public class PLSOM2 extends PLSOM
 		// calculate the new weights
 		updateWeights();
 	}
+
+	/**
+	 * @see org.plsomlib.PLSOM#writeBinaryHelper(org.plsomlib.BinaryModel.Output)
+	 */
+	@Override
+	protected void writeBinaryHelper(BinaryModel.Output out) throws IOException
+	{
+		super.writeBinaryHelper(out);
+		BinaryModel.Section section = new BinaryModel.Section(PLSOM2.class.getName());
+		section.putDiameterBuffer(diameterBuffer);
+		out.writeSection(section);
+	}
+
+	/**
+	 * @see org.plsomlib.PLSOM#readBinaryHelper(org.plsomlib.BinaryModel.Input)
+	 */
+	@Override
+	protected void readBinaryHelper(BinaryModel.Input in) throws IOException
+	{
+		super.readBinaryHelper(in);
+		BinaryModel.Section section = in.getSection(PLSOM2.class.getName());
+		if (section != null)
+		{
+			section.getDiameterBuffer(diameterBuffer);
+		}
+	}
 }
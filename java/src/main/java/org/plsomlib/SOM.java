@@ -1,7 +1,10 @@
 package org.plsomlib;
 
+import java.io.IOException;
+
 import org.plsomlib.metrics.Metric;
 import org.plsomlib.neighbourhood.NeighbourhoodFunction;
+import org.plsomlib.util.ParallelNodeLoop;
 import org.w3c.dom.*;
 
 /**
@@ -26,6 +29,11 @@ public class SOM extends MapBaseImpl
     private double neighbourhoodSize;
 	private SOMTrainer trainer;
 
+    /**
+     * Updates the weights of a node, created when first needed.
+     */
+    private transient ParallelNodeLoop.NodeAction weightUpdate;
+
     /**
      * Class constructor.
      * 
@@ -75,28 +83,27 @@ public class SOM extends MapBaseImpl
     }
 
     /**
-     * Update all weights given the winner.
+     * Update all weights given the winner. The nodes are updated in parallel
+     * if parallel update is enabled.
      * 
-     * @param w
-     *            the Vector containing a subtree of the weights tree.
-     * @param index
-     *            the level in the weights tree.
+     * @see MapBaseImpl#setParallelUpdate(boolean)
      */
     protected void updateWeights()
     {
-        Object[] data = this.getWeights().toArray();
-        for (int x = 0; x < data.length; x++)
+        if (weightUpdate == null)
         {
-            // calculate the neighbourhood scaling, multiply by learning rate
-            double anhc = this.learningRate * getNeighbourhoodScaling(getWeights().getPosition(x), getWinner(), this.neighbourhoodSize);
-            // get the weight vector
-            double[] weight = (double[]) data[x];
-            // update the weights
-            for (int wIndex = 0; wIndex < weight.length; wIndex++)
+            weightUpdate = new ParallelNodeLoop.NodeAction()
             {
-                weight[wIndex] += anhc * (getInput()[wIndex] - weight[wIndex]);
-            }
+                public void apply(int x, int[] position)
+                {
+                    // calculate the neighbourhood scaling, multiply by learning rate
+                    double anhc = learningRate * getNeighbourhoodScaling(getWeights().getPosition(x, position), getWinner(), neighbourhoodSize);
+                    // update the weights
+                    adaptWeights(x, getInput(), anhc);
+                }
+            };
         }
+        updateNodes(weightUpdate, this.neighbourhoodSize);
     }
 
     /**
@@ -116,6 +123,7 @@ public class SOM extends MapBaseImpl
         setNeighbourhoodSize(nhSize);
         setInput(input);
         train();
+        trainingStepCompleted();
     }
     
 	/**
@@ -205,5 +213,49 @@ public class SOM extends MapBaseImpl
 		return trainer;
 	}
 
+    /**
+     * @see org.plsomlib.MapBaseImpl#writeBinaryHelper(org.plsomlib.BinaryModel.Output)
+     */
+    @Override
+    protected void writeBinaryHelper(BinaryModel.Output out) throws IOException
+    {
+        super.writeBinaryHelper(out);
+        BinaryModel.Section section = new BinaryModel.Section(SOM.class.getName());
+        section.putDouble(learningRate);
+        section.putDouble(neighbourhoodSize);
+        section.putBoolean(trainer != null);
+        if (trainer != null)
+        {
+            section.putDouble(trainer.getNhDecayRate());
+            section.putDouble(trainer.getLrDecayRate());
+            section.putInt(trainer.getTrainingIterationCount());
+        }
+        out.writeSection(section);
+    }
 
+    /**
+     * @see org.plsomlib.MapBaseImpl#readBinaryHelper(org.plsomlib.BinaryModel.Input)
+     */
+    @Override
+    protected void readBinaryHelper(BinaryModel.Input in) throws IOException
+    {
+        super.readBinaryHelper(in);
+        BinaryModel.Section section = in.getSection(SOM.class.getName());
+        if (section != null)
+        {
+            learningRate = section.getDouble();
+            neighbourhoodSize = section.getDouble();
+            if (section.getBoolean())
+            {
+                trainer = new SOMTrainer(this);
+                trainer.setNhDecayRate(section.getDouble());
+                trainer.setLrDecayRate(section.getDouble());
+                trainer.setTrainingIterationCount(section.getInt());
+            }
+            else
+            {
+                trainer = null;
+            }
+        }
+    }
 }
@@ -45,6 +45,14 @@ public class SOMTrainer implements Serializable
 	{
 		this.nhDecayRate = nhDecayRate;
 	}
+
+	/**
+	 * @return the decay of the neighbourhood size.
+	 */
+	public double getNhDecayRate()
+	{
+		return nhDecayRate;
+	}
 	
 	/**
 	 * Decay of the learning rate. Range: 0-1.
@@ -56,6 +64,14 @@ public class SOMTrainer implements Serializable
 		this.lrDecayRate = lrDecayRate;
 	}
 
+	/**
+	 * @return the decay of the learning rate.
+	 */
+	public double getLrDecayRate()
+	{
+		return lrDecayRate;
+	}
+
 	/**
 	 * Get the number of weight updates this trainer has done on the SOM.
 	 */
@@ -64,6 +80,15 @@ public class SOMTrainer implements Serializable
 		return this.updateCount;
 	}
 
+	/**
+	 * Set the number of weight updates done, for instance when the SOM is
+	 * restored from a file.
+	 */
+	public void setTrainingIterationCount(int updateCount)
+	{
+		this.updateCount = updateCount;
+	}
+
 	/**
 	 * Train the SOM with this input.
 	 * The input is passed to the SOM along with the appropriate learning rate and neighbourhood size,
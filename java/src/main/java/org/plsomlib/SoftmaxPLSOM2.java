@@ -38,12 +38,13 @@ public class SoftmaxPLSOM2 extends ExcitationPLSOM2
     protected double findMinDist( int[] res)
     {
         double minDist = Double.POSITIVE_INFINITY;
-        Object [] weights = getWeights().toArray();
+        int count = getWeights().getCount();
         int winner = 0;
         double expSum = 0;
-        for(int x = 0;x<weights.length;x++)
+        for(int x = 0;x<count;x++)
         {
-        	double dist  = getInputMetric().getDistance((double[])weights[x], getInput());
+        	double dist  = getNodeDistance(x, getInput());
+        	offerTopK(x, dist);
             if (dist < minDist)
             {
                 minDist = dist;
@@ -54,7 +55,7 @@ public class SoftmaxPLSOM2 extends ExcitationPLSOM2
             expSum+=getExcitations()[x];
         }
         //renormalize excitations using softmax
-        for(int x =0;x<weights.length;x++)
+        for(int x =0;x<count;x++)
         {
         	getExcitations()[x]/=expSum;
         }
@@ -0,0 +1,155 @@
+package org.plsomlib;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.plsomlib.metrics.Metric;
+import org.plsomlib.util.IterativeArray;
+import org.plsomlib.util.WeightMatrix;
+
+/**
+ * A copy of the weights of a map, published by the training thread so that
+ * other threads can classify inputs while training continues. A snapshot is
+ * not changed while it is published or in use.
+ * 
+ * Readers get the latest snapshot with MapBaseImpl.acquireSnapshot() and
+ * must release() it when they are done. The map reuses the copy of a
+ * snapshot that has been replaced and released for a later publication, so
+ * publishing normally alternates between two buffers and does not allocate
+ * memory.
+ * 
+ * @author Erik Berglund
+ * @see MapBaseImpl#setSnapshotInterval(int)
+ * @see MapBaseImpl#setSnapshotPeriod(long)
+ */
+public class WeightSnapshot
+{
+	private final WeightMatrix weights;
+
+	/**
+	 * The number of readers that have acquired this snapshot and not yet
+	 * released it.
+	 */
+	private final AtomicInteger readers = new AtomicInteger();
+
+	private Metric metric;
+	private boolean earlyAbandon;
+	private long version;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param rowLength
+	 *            the number of weights per node.
+	 * @param dimensions
+	 *            the dimensions of the map.
+	 */
+	WeightSnapshot(int rowLength, int... dimensions)
+	{
+		this.weights = new WeightMatrix(rowLength, dimensions);
+	}
+
+	/**
+	 * Copy the weights of a map into this snapshot. Must only be called while
+	 * the snapshot is neither published nor in use.
+	 * 
+	 * @param source
+	 *            the weights to copy.
+	 * @param metric
+	 *            the input metric to classify with.
+	 * @param earlyAbandon
+	 *            true to abandon nodes as soon as they cannot win.
+	 * @param version
+	 *            the version number of the snapshot.
+	 */
+	void copyFrom(IterativeArray<double[]> source, Metric metric, boolean earlyAbandon, long version)
+	{
+		if (source instanceof WeightMatrix)
+		{
+			double[] data = ((WeightMatrix) source).getData();
+			System.arraycopy(data, 0, weights.getData(), 0, data.length);
+		}
+		else
+		{
+			for (int x = 0; x < weights.getCount(); x++)
+			{
+				weights.setValueAtOffset(source.getValueFromOffset(x), x);
+			}
+		}
+		this.metric = metric;
+		this.earlyAbandon = earlyAbandon;
+		this.version = version;
+	}
+
+	/**
+	 * Check whether this snapshot can hold the weights of a map.
+	 * 
+	 * @param rowLength
+	 *            the number of weights per node.
+	 * @param count
+	 *            the number of nodes.
+	 * @return true if the sizes match.
+	 */
+	boolean fits(int rowLength, int count)
+	{
+		return weights.getRowLength() == rowLength && weights.getCount() == count;
+	}
+
+	/**
+	 * Register a reader.
+	 */
+	void acquire()
+	{
+		readers.incrementAndGet();
+	}
+
+	/**
+	 * @return true if no reader holds this snapshot.
+	 */
+	boolean isUnused()
+	{
+		return readers.get() == 0;
+	}
+
+	/**
+	 * Release a snapshot acquired with MapBaseImpl.acquireSnapshot(). The
+	 * snapshot must not be used after it is released.
+	 */
+	public void release()
+	{
+		readers.decrementAndGet();
+	}
+
+	/**
+	 * @return the number of snapshots the map had published when this one was
+	 *         published, starting at 1.
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * @return the weights of the snapshot, which must not be changed.
+	 */
+	public WeightMatrix getWeights()
+	{
+		return weights;
+	}
+
+	/**
+	 * Classify an input against the weights of this snapshot, the same way
+	 * as MapBaseImpl.classify(double[], Classification). Any number of
+	 * threads can do this at once.
+	 * 
+	 * @param input
+	 *            the input vector.
+	 * @param result
+	 *            receives the winning node and its distance to the input.
+	 * @return result.
+	 */
+	public Classification classify(double[] input, Classification result)
+	{
+		MapBaseImpl.scanMatrix(metric, weights, input, null, earlyAbandon, result);
+		return result;
+	}
+}
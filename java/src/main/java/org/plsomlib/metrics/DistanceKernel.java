@@ -0,0 +1,589 @@
+package org.plsomlib.metrics;
+
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+
+/**
+ * The inner loops of the Euclidean metrics. The metrics delegate the
+ * per-element work to the kernel returned by getInstance(), so that a faster
+ * implementation can be selected at runtime without changing the metrics.
+ * 
+ * Two implementations are provided: ScalarDistanceKernel, which is always
+ * available, and VectorDistanceKernel, which uses the incubating Java Vector
+ * API (jdk.incubator.vector) to process several elements per instruction.
+ * VectorDistanceKernel lives in the separate src/vector source folder since it
+ * must be compiled and run with --add-modules jdk.incubator.vector. When that
+ * class or the module is missing, or the system property
+ * org.plsomlib.metrics.simd is set to false, the scalar kernel is used, and
+ * getVectorKernelFailure() tells why the SIMD kernel could not be loaded. If
+ * the property is set to required, a failure to load the SIMD kernel is
+ * thrown instead, when the kernel is first used.
+ * 
+ * The vector kernel adds the elements in a different order than the scalar
+ * kernel, so the results may differ in the last few bits.
+ * 
+ * The distance methods that take a float array compare the rows of a
+ * FloatWeightMatrix to double inputs. They read half as many bytes of weights
+ * but widen each weight and do the arithmetic in double precision.
+ * The methods that take a ByteBuffer read the rows of an OffHeapWeightMatrix
+ * in place, with absolute gets in the byte order of the buffer.
+ * 
+ * @author Erik Berglund
+ */
+public abstract class DistanceKernel
+{
+	/**
+	 * The name of the class implementing the SIMD kernel.
+	 */
+	private static final String VECTOR_KERNEL_CLASS = "org.plsomlib.metrics.VectorDistanceKernel";
+
+	/**
+	 * The system property that disables the SIMD kernel when set to false,
+	 * and makes it mandatory when set to required.
+	 */
+	public static final String SIMD_PROPERTY = "org.plsomlib.metrics.simd";
+
+	/**
+	 * The reason the SIMD kernel could not be loaded, or null.
+	 */
+	private static Throwable vectorKernelFailure;
+
+	private static final DistanceKernel INSTANCE = createInstance();
+
+	/**
+	 * Get the kernel selected for this JVM.
+	 * 
+	 * @return the SIMD kernel if it is available and enabled, the scalar
+	 *         kernel otherwise.
+	 */
+	public static DistanceKernel getInstance()
+	{
+		return INSTANCE;
+	}
+
+	/**
+	 * Tell why the SIMD kernel is not used.
+	 * 
+	 * @return the exception thrown while loading or creating the SIMD kernel,
+	 *         or null if it is used or was disabled by the system property.
+	 *         A ClassNotFoundException means that the kernel is not on the
+	 *         classpath, a LinkageError that the jdk.incubator.vector module
+	 *         is missing.
+	 */
+	public static Throwable getVectorKernelFailure()
+	{
+		return vectorKernelFailure;
+	}
+
+	/**
+	 * Select the kernel implementation.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the SIMD kernel is required but could not be loaded.
+	 */
+	private static DistanceKernel createInstance()
+	{
+		String simd = System.getProperty(SIMD_PROPERTY, "true");
+		if (simd.equalsIgnoreCase("false"))
+		{
+			return new ScalarDistanceKernel();
+		}
+		Throwable failure;
+		try
+		{
+			Class<?> kernelClass = Class.forName(VECTOR_KERNEL_CLASS);
+			return (DistanceKernel) kernelClass.getConstructor().newInstance();
+		}
+		catch (InvocationTargetException e)
+		{
+			// the constructor failed, typically for lack of SIMD support
+			failure = e.getCause();
+		}
+		catch (ReflectiveOperationException e)
+		{
+			failure = e;
+		}
+		catch (LinkageError e)
+		{
+			failure = e;
+		}
+		if (simd.equalsIgnoreCase("required"))
+		{
+			throw new IllegalStateException("The SIMD distance kernel is required but could not be loaded.", failure);
+		}
+		vectorKernelFailure = failure;
+		return new ScalarDistanceKernel();
+	}
+
+	/**
+	 * Calculate the sum of the squared differences between two slices of
+	 * double arrays.
+	 * 
+	 * @param a
+	 *            the array holding the first vector.
+	 * @param aOffset
+	 *            the index of the first element of the first vector.
+	 * @param b
+	 *            the array holding the second vector.
+	 * @param bOffset
+	 *            the index of the first element of the second vector.
+	 * @param length
+	 *            the number of elements in each vector.
+	 * @return the squared Euclidean distance.
+	 */
+	public abstract double squaredDistance(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+	/**
+	 * Calculate the weighted sum of the squared differences between two
+	 * slices of double arrays. The difference at element x is multiplied by
+	 * weights[x].
+	 * 
+	 * @param a
+	 *            the array holding the first vector.
+	 * @param aOffset
+	 *            the index of the first element of the first vector.
+	 * @param b
+	 *            the array holding the second vector.
+	 * @param bOffset
+	 *            the index of the first element of the second vector.
+	 * @param weights
+	 *            the weight of each element, at least length long.
+	 * @param length
+	 *            the number of elements in each vector.
+	 * @return the weighted squared Euclidean distance.
+	 */
+	public abstract double weightedSquaredDistance(double[] a, int aOffset, double[] b, int bOffset, double[] weights, int length);
+
+	/**
+	 * Calculate the dot product of two slices of double arrays.
+	 * 
+	 * @param a
+	 *            the array holding the first vector.
+	 * @param aOffset
+	 *            the index of the first element of the first vector.
+	 * @param b
+	 *            the array holding the second vector.
+	 * @param bOffset
+	 *            the index of the first element of the second vector.
+	 * @param length
+	 *            the number of elements in each vector.
+	 * @return the sum of the products of the elements.
+	 */
+	public abstract double dotProduct(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+	/**
+	 * Calculate the dot products of one slice with four slices of another
+	 * array. Each element of a is read once for all four products.
+	 * 
+	 * @param a
+	 *            the array holding the first vector.
+	 * @param aOffset
+	 *            the index of the first element of the first vector.
+	 * @param b
+	 *            the array holding the other four vectors.
+	 * @param bOffset
+	 *            the index of the first element of the first of the other
+	 *            vectors.
+	 * @param bStride
+	 *            the distance between the first elements of consecutive
+	 *            vectors in b.
+	 * @param length
+	 *            the number of elements in each vector.
+	 * @param res
+	 *            receives the four dot products, from index resOffset.
+	 * @param resOffset
+	 *            the index in res of the first product.
+	 */
+	public void dotProduct4(double[] a, int aOffset, double[] b, int bOffset, int bStride, int length, double[] res, int resOffset)
+	{
+		final int b1 = bOffset + bStride;
+		final int b2 = b1 + bStride;
+		final int b3 = b2 + bStride;
+		double dot0 = 0;
+		double dot1 = 0;
+		double dot2 = 0;
+		double dot3 = 0;
+		for (int x = 0; x < length; x++)
+		{
+			final double value = a[aOffset + x];
+			dot0 += value * b[bOffset + x];
+			dot1 += value * b[b1 + x];
+			dot2 += value * b[b2 + x];
+			dot3 += value * b[b3 + x];
+		}
+		res[resOffset] = dot0;
+		res[resOffset + 1] = dot1;
+		res[resOffset + 2] = dot2;
+		res[resOffset + 3] = dot3;
+	}
+
+	/**
+	 * Calculate the sum of the squared differences between two slices of
+	 * double arrays, giving up as soon as the partial sum exceeds bound.
+	 * 
+	 * @param a
+	 *            the array holding the first vector.
+	 * @param aOffset
+	 *            the index of the first element of the first vector.
+	 * @param b
+	 *            the array holding the second vector.
+	 * @param bOffset
+	 *            the index of the first element of the second vector.
+	 * @param length
+	 *            the number of elements in each vector.
+	 * @param order
+	 *            the elements to visit, relative to the start of each vector,
+	 *            in the order they should be visited, or null to visit them in
+	 *            their natural order.
+	 * @param bound
+	 *            the sum above which the calculation is abandoned.
+	 * @return the squared Euclidean distance, or a partial sum greater than
+	 *         bound.
+	 */
+	public double boundedSquaredDistance(double[] a, int aOffset, double[] b, int bOffset, int length, int[] order, double bound)
+	{
+		double res = 0;
+		for (int x = 0; x < length; x++)
+		{
+			final int index = order == null ? x : order[x];
+			final double diff = a[aOffset + index] - b[bOffset + index];
+			res += diff * diff;
+			if (res > bound)
+			{
+				break;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Calculate the weighted sum of the squared differences between two
+	 * slices of double arrays, giving up as soon as the partial sum exceeds
+	 * bound. The difference at element x is multiplied by weights[x].
+	 * 
+	 * @param a
+	 *            the array holding the first vector.
+	 * @param aOffset
+	 *            the index of the first element of the first vector.
+	 * @param b
+	 *            the array holding the second vector.
+	 * @param bOffset
+	 *            the index of the first element of the second vector.
+	 * @param weights
+	 *            the weight of each element, at least length long.
+	 * @param length
+	 *            the number of elements in each vector.
+	 * @param order
+	 *            the elements to visit, relative to the start of each vector,
+	 *            in the order they should be visited, or null to visit them in
+	 *            their natural order.
+	 * @param bound
+	 *            the sum above which the calculation is abandoned.
+	 * @return the weighted squared Euclidean distance, or a partial sum
+	 *         greater than bound.
+	 */
+	public double boundedWeightedSquaredDistance(double[] a, int aOffset, double[] b, int bOffset, double[] weights, int length, int[] order,
+			double bound)
+	{
+		double res = 0;
+		for (int x = 0; x < length; x++)
+		{
+			final int index = order == null ? x : order[x];
+			final double diff = a[aOffset + index] - b[bOffset + index];
+			res += diff * diff * weights[index];
+			if (res > bound)
+			{
+				break;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Calculate the sum of the squared differences between a slice of a float
+	 * array and a slice of a double array. Each float is widened to a double,
+	 * so the sum is as exact as between two double arrays holding the same
+	 * values.
+	 * 
+	 * @param a
+	 *            the array holding the first vector.
+	 * @param aOffset
+	 *            the index of the first element of the first vector.
+	 * @param b
+	 *            the array holding the second vector.
+	 * @param bOffset
+	 *            the index of the first element of the second vector.
+	 * @param length
+	 *            the number of elements in each vector.
+	 * @return the squared Euclidean distance.
+	 */
+	public double squaredDistance(float[] a, int aOffset, double[] b, int bOffset, int length)
+	{
+		double res = 0;
+		for (int x = 0; x < length; x++)
+		{
+			final double diff = a[aOffset + x] - b[bOffset + x];
+			res += diff * diff;
+		}
+		return res;
+	}
+
+	/**
+	 * Calculate the weighted sum of the squared differences between a slice
+	 * of a float array and a slice of a double array. The difference at
+	 * element x is multiplied by weights[x].
+	 * 
+	 * @param a
+	 *            the array holding the first vector.
+	 * @param aOffset
+	 *            the index of the first element of the first vector.
+	 * @param b
+	 *            the array holding the second vector.
+	 * @param bOffset
+	 *            the index of the first element of the second vector.
+	 * @param weights
+	 *            the weight of each element, at least length long.
+	 * @param length
+	 *            the number of elements in each vector.
+	 * @return the weighted squared Euclidean distance.
+	 */
+	public double weightedSquaredDistance(float[] a, int aOffset, double[] b, int bOffset, double[] weights, int length)
+	{
+		double res = 0;
+		for (int x = 0; x < length; x++)
+		{
+			final double diff = a[aOffset + x] - b[bOffset + x];
+			res += diff * diff * weights[x];
+		}
+		return res;
+	}
+
+	/**
+	 * Calculate the sum of the squared differences between a slice of a float
+	 * array and a slice of a double array, giving up as soon as the partial
+	 * sum exceeds bound.
+	 * 
+	 * @param a
+	 *            the array holding the first vector.
+	 * @param aOffset
+	 *            the index of the first element of the first vector.
+	 * @param b
+	 *            the array holding the second vector.
+	 * @param bOffset
+	 *            the index of the first element of the second vector.
+	 * @param length
+	 *            the number of elements in each vector.
+	 * @param order
+	 *            the elements to visit, relative to the start of each vector,
+	 *            in the order they should be visited, or null to visit them in
+	 *            their natural order.
+	 * @param bound
+	 *            the sum above which the calculation is abandoned.
+	 * @return the squared Euclidean distance, or a partial sum greater than
+	 *         bound.
+	 */
+	public double boundedSquaredDistance(float[] a, int aOffset, double[] b, int bOffset, int length, int[] order, double bound)
+	{
+		double res = 0;
+		for (int x = 0; x < length; x++)
+		{
+			final int index = order == null ? x : order[x];
+			final double diff = a[aOffset + index] - b[bOffset + index];
+			res += diff * diff;
+			if (res > bound)
+			{
+				break;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Calculate the weighted sum of the squared differences between a slice
+	 * of a float array and a slice of a double array, giving up as soon as the
+	 * partial sum exceeds bound. The difference at element x is multiplied by
+	 * weights[x].
+	 * 
+	 * @param a
+	 *            the array holding the first vector.
+	 * @param aOffset
+	 *            the index of the first element of the first vector.
+	 * @param b
+	 *            the array holding the second vector.
+	 * @param bOffset
+	 *            the index of the first element of the second vector.
+	 * @param weights
+	 *            the weight of each element, at least length long.
+	 * @param length
+	 *            the number of elements in each vector.
+	 * @param order
+	 *            the elements to visit, relative to the start of each vector,
+	 *            in the order they should be visited, or null to visit them in
+	 *            their natural order.
+	 * @param bound
+	 *            the sum above which the calculation is abandoned.
+	 * @return the weighted squared Euclidean distance, or a partial sum
+	 *         greater than bound.
+	 */
+	public double boundedWeightedSquaredDistance(float[] a, int aOffset, double[] b, int bOffset, double[] weights, int length, int[] order,
+			double bound)
+	{
+		double res = 0;
+		for (int x = 0; x < length; x++)
+		{
+			final int index = order == null ? x : order[x];
+			final double diff = a[aOffset + index] - b[bOffset + index];
+			res += diff * diff * weights[index];
+			if (res > bound)
+			{
+				break;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Calculate the sum of the squared differences between doubles stored in
+	 * a ByteBuffer and a slice of a double array.
+	 * 
+	 * @param a
+	 *            the buffer holding the first vector.
+	 * @param aOffset
+	 *            the index of the first element of the first vector, counted
+	 *            in doubles.
+	 * @param b
+	 *            the array holding the second vector.
+	 * @param bOffset
+	 *            the index of the first element of the second vector.
+	 * @param length
+	 *            the number of elements in each vector.
+	 * @return the squared Euclidean distance.
+	 */
+	public double squaredDistance(ByteBuffer a, int aOffset, double[] b, int bOffset, int length)
+	{
+		double res = 0;
+		for (int x = 0; x < length; x++)
+		{
+			final double diff = a.getDouble((aOffset + x) * Double.BYTES) - b[bOffset + x];
+			res += diff * diff;
+		}
+		return res;
+	}
+
+	/**
+	 * Calculate the weighted sum of the squared differences between doubles
+	 * stored in a ByteBuffer and a slice of a double array. The difference at
+	 * element x is multiplied by weights[x].
+	 * 
+	 * @param a
+	 *            the buffer holding the first vector.
+	 * @param aOffset
+	 *            the index of the first element of the first vector, counted
+	 *            in doubles.
+	 * @param b
+	 *            the array holding the second vector.
+	 * @param bOffset
+	 *            the index of the first element of the second vector.
+	 * @param weights
+	 *            the weight of each element, at least length long.
+	 * @param length
+	 *            the number of elements in each vector.
+	 * @return the weighted squared Euclidean distance.
+	 */
+	public double weightedSquaredDistance(ByteBuffer a, int aOffset, double[] b, int bOffset, double[] weights, int length)
+	{
+		double res = 0;
+		for (int x = 0; x < length; x++)
+		{
+			final double diff = a.getDouble((aOffset + x) * Double.BYTES) - b[bOffset + x];
+			res += diff * diff * weights[x];
+		}
+		return res;
+	}
+
+	/**
+	 * Calculate the sum of the squared differences between doubles stored in
+	 * a ByteBuffer and a slice of a double array, giving up as soon as the
+	 * partial sum exceeds bound.
+	 * 
+	 * @param a
+	 *            the buffer holding the first vector.
+	 * @param aOffset
+	 *            the index of the first element of the first vector, counted
+	 *            in doubles.
+	 * @param b
+	 *            the array holding the second vector.
+	 * @param bOffset
+	 *            the index of the first element of the second vector.
+	 * @param length
+	 *            the number of elements in each vector.
+	 * @param order
+	 *            the elements to visit, relative to the start of each vector,
+	 *            in the order they should be visited, or null to visit them in
+	 *            their natural order.
+	 * @param bound
+	 *            the sum above which the calculation is abandoned.
+	 * @return the squared Euclidean distance, or a partial sum greater than
+	 *         bound.
+	 */
+	public double boundedSquaredDistance(ByteBuffer a, int aOffset, double[] b, int bOffset, int length, int[] order, double bound)
+	{
+		double res = 0;
+		for (int x = 0; x < length; x++)
+		{
+			final int index = order == null ? x : order[x];
+			final double diff = a.getDouble((aOffset + index) * Double.BYTES) - b[bOffset + index];
+			res += diff * diff;
+			if (res > bound)
+			{
+				break;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Calculate the weighted sum of the squared differences between doubles
+	 * stored in a ByteBuffer and a slice of a double array, giving up as soon
+	 * as the partial sum exceeds bound. The difference at element x is
+	 * multiplied by weights[x].
+	 * 
+	 * @param a
+	 *            the buffer holding the first vector.
+	 * @param aOffset
+	 *            the index of the first element of the first vector, counted
+	 *            in doubles.
+	 * @param b
+	 *            the array holding the second vector.
+	 * @param bOffset
+	 *            the index of the first element of the second vector.
+	 * @param weights
+	 *            the weight of each element, at least length long.
+	 * @param length
+	 *            the number of elements in each vector.
+	 * @param order
+	 *            the elements to visit, relative to the start of each vector,
+	 *            in the order they should be visited, or null to visit them in
+	 *            their natural order.
+	 * @param bound
+	 *            the sum above which the calculation is abandoned.
+	 * @return the weighted squared Euclidean distance, or a partial sum
+	 *         greater than bound.
+	 */
+	public double boundedWeightedSquaredDistance(ByteBuffer a, int aOffset, double[] b, int bOffset, double[] weights, int length, int[] order,
+			double bound)
+	{
+		double res = 0;
+		for (int x = 0; x < length; x++)
+		{
+			final int index = order == null ? x : order[x];
+			final double diff = a.getDouble((aOffset + index) * Double.BYTES) - b[bOffset + index];
+			res += diff * diff * weights[index];
+			if (res > bound)
+			{
+				break;
+			}
+		}
+		return res;
+	}
+}
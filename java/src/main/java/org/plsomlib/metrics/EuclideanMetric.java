@@ -1,5 +1,6 @@
 package org.plsomlib.metrics;
 
+import java.nio.ByteBuffer;
 
 /**
  * Measures the distance in an euclidean space.
@@ -37,11 +38,120 @@ public class EuclideanMetric extends MetricImpl
      */
     public double getDistance(final double[] a,final double[] b)
     {
-        double res = 0;
-        for ( int x = 0;x < a.length;x++ )
-        {
-            res += (a[x]-b[x])*(a[x]-b[x]);
-        }
-        return Math.sqrt(res);
+        return getDistance(a, 0, b, 0, a.length);
+    }
+
+    /**
+     * Calculate the n-dimensional Euclidean distance between two slices of double arrays.
+     * The work is done by the DistanceKernel selected for this JVM.
+     * 
+     * @see org.plsomlib.metrics.Metric#getDistance(double[], int, double[], int, int)
+     */
+    public double getDistance(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length)
+    {
+        return Math.sqrt(DistanceKernel.getInstance().squaredDistance(a, aOffset, b, bOffset, length));
+    }
+
+    /**
+     * The comparable distance is the squared Euclidean distance, which saves a square root.
+     * 
+     * @see org.plsomlib.metrics.Metric#getComparableDistance(double[], int, double[], int, int)
+     */
+    public double getComparableDistance(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length)
+    {
+        return DistanceKernel.getInstance().squaredDistance(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * Accumulates the squared distance, stopping once it exceeds bound.
+     * 
+     * @see org.plsomlib.metrics.Metric#getBoundedDistance(double[], int, double[], int, int, int[], double)
+     */
+    public double getBoundedDistance(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length, final int[] order,
+            final double bound)
+    {
+        return DistanceKernel.getInstance().boundedSquaredDistance(a, aOffset, b, bOffset, length, order, bound);
+    }
+
+    /**
+     * Calculate the Euclidean distance between a slice of a float array and a slice of a double array.
+     * 
+     * @see org.plsomlib.metrics.Metric#getDistance(float[], int, double[], int, int)
+     */
+    public double getDistance(final float[] a, final int aOffset, final double[] b, final int bOffset, final int length)
+    {
+        return Math.sqrt(DistanceKernel.getInstance().squaredDistance(a, aOffset, b, bOffset, length));
+    }
+
+    /**
+     * @see org.plsomlib.metrics.Metric#getComparableDistance(float[], int, double[], int, int)
+     */
+    public double getComparableDistance(final float[] a, final int aOffset, final double[] b, final int bOffset, final int length)
+    {
+        return DistanceKernel.getInstance().squaredDistance(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * @see org.plsomlib.metrics.Metric#getBoundedDistance(float[], int, double[], int, int, int[], double)
+     */
+    public double getBoundedDistance(final float[] a, final int aOffset, final double[] b, final int bOffset, final int length, final int[] order,
+            final double bound)
+    {
+        return DistanceKernel.getInstance().boundedSquaredDistance(a, aOffset, b, bOffset, length, order, bound);
+    }
+
+    /**
+     * Calculate the Euclidean distance between a point in a ByteBuffer and a slice of a double array.
+     * 
+     * @see org.plsomlib.metrics.Metric#getDistance(ByteBuffer, int, double[], int, int)
+     */
+    public double getDistance(final ByteBuffer a, final int aOffset, final double[] b, final int bOffset, final int length)
+    {
+        return Math.sqrt(DistanceKernel.getInstance().squaredDistance(a, aOffset, b, bOffset, length));
+    }
+
+    /**
+     * @see org.plsomlib.metrics.Metric#getComparableDistance(ByteBuffer, int, double[], int, int)
+     */
+    public double getComparableDistance(final ByteBuffer a, final int aOffset, final double[] b, final int bOffset, final int length)
+    {
+        return DistanceKernel.getInstance().squaredDistance(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * @see org.plsomlib.metrics.Metric#getBoundedDistance(ByteBuffer, int, double[], int, int, int[], double)
+     */
+    public double getBoundedDistance(final ByteBuffer a, final int aOffset, final double[] b, final int bOffset, final int length, final int[] order,
+            final double bound)
+    {
+        return DistanceKernel.getInstance().boundedSquaredDistance(a, aOffset, b, bOffset, length, order, bound);
+    }
+
+    /**
+     * @return the square root of the comparable distance.
+     * @see org.plsomlib.metrics.Metric#toDistance(double)
+     */
+    public double toDistance(final double comparableDistance)
+    {
+        return Math.sqrt(comparableDistance);
+    }
+
+    /**
+     * No coordinate can differ by more than the Euclidean distance.
+     * 
+     * @see org.plsomlib.metrics.Metric#getCoordinateBound(double)
+     */
+    public double getCoordinateBound(final double distance)
+    {
+        return distance;
+    }
+
+    /**
+     * @return true, the Euclidean distance is a metric.
+     * @see org.plsomlib.metrics.Metric#obeysTriangleInequality()
+     */
+    public boolean obeysTriangleInequality()
+    {
+        return true;
     }
 }
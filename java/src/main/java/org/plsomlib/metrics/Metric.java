@@ -1,5 +1,8 @@
 package org.plsomlib.metrics;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import org.w3c.dom.*;
     
 /**
@@ -17,6 +20,259 @@ public interface Metric
      * @return the distance from a to b.
      */
     public double getDistance(final double [] a,final double [] b);
+
+    /**
+     * Calculates the distance between two points stored as slices of larger arrays,
+     * for instance rows of a WeightMatrix.
+     * This default implementation copies the slices and calls getDistance(double[],double[]),
+     * implementations should override it to read the arrays directly.
+     * @param a the array holding one point in the input space.
+     * @param aOffset the index of the first element of the point in a.
+     * @param b the array holding another point in the input space.
+     * @param bOffset the index of the first element of the point in b.
+     * @param length the number of elements in each point.
+     * @return the distance from a to b.
+     */
+    public default double getDistance(final double [] a, final int aOffset, final double [] b, final int bOffset, final int length)
+    {
+        return getDistance(Arrays.copyOfRange(a, aOffset, aOffset + length), Arrays.copyOfRange(b, bOffset, bOffset + length));
+    }
+
+    /**
+     * Calculates a value that orders pairs of points the same way as their distances do, i.e. if the
+     * distance from a to b is smaller than the distance from c to d, so is the comparable distance.
+     * It is used when searching for the closest node, where only the order matters.
+     * Metrics can override this to skip expensive steps such as a square root,
+     * and must then override toDistance(...) to match.
+     * This default implementation returns the distance itself.
+     * @param a the array holding one point in the input space.
+     * @param aOffset the index of the first element of the point in a.
+     * @param b the array holding another point in the input space.
+     * @param bOffset the index of the first element of the point in b.
+     * @param length the number of elements in each point.
+     * @return the comparable distance from a to b.
+     * @see #toDistance(double)
+     */
+    public default double getComparableDistance(final double [] a, final int aOffset, final double [] b, final int bOffset, final int length)
+    {
+        return getDistance(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * Calculates the comparable distance, but may give up as soon as it is
+     * clear that the result will be greater than bound. In that case any value
+     * greater than bound is returned. This lets a search for the closest point
+     * reject most candidates after looking at a few elements.
+     * The elements can be visited in a given order, so that the elements most
+     * likely to make the distance large are looked at first.
+     * This default implementation ignores bound and order and returns
+     * getComparableDistance(a, aOffset, b, bOffset, length).
+     * @param a the array holding one point in the input space.
+     * @param aOffset the index of the first element of the point in a.
+     * @param b the array holding another point in the input space.
+     * @param bOffset the index of the first element of the point in b.
+     * @param length the number of elements in each point.
+     * @param order the indexes, relative to the start of each point, of the elements in the order they should be visited,
+     * or null to visit them in their natural order.
+     * @param bound the comparable distance above which the calculation may be abandoned.
+     * @return the comparable distance from a to b, or any value greater than bound if the distance is greater than bound.
+     * @see #getComparableDistance(double[], int, double[], int, int)
+     */
+    public default double getBoundedDistance(final double [] a, final int aOffset, final double [] b, final int bOffset, final int length, final int [] order, final double bound)
+    {
+        return getComparableDistance(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * Calculates the distance between a point stored as a slice of a float array, for instance
+     * a row of a FloatWeightMatrix, and a point stored as a slice of a double array.
+     * This default implementation copies the float slice into a double array and calls
+     * getDistance(double[], int, double[], int, int), implementations should override it to
+     * read the float array directly.
+     * @param a the array holding one point in the input space.
+     * @param aOffset the index of the first element of the point in a.
+     * @param b the array holding another point in the input space.
+     * @param bOffset the index of the first element of the point in b.
+     * @param length the number of elements in each point.
+     * @return the distance from a to b.
+     * @see org.plsomlib.util.FloatWeightMatrix
+     */
+    public default double getDistance(final float [] a, final int aOffset, final double [] b, final int bOffset, final int length)
+    {
+        return getDistance(toDouble(a, aOffset, length), 0, b, bOffset, length);
+    }
+
+    /**
+     * Calculates the comparable distance between a point stored as a slice of a float array and
+     * a point stored as a slice of a double array.
+     * This default implementation copies the float slice into a double array and calls
+     * getComparableDistance(double[], int, double[], int, int).
+     * @param a the array holding one point in the input space.
+     * @param aOffset the index of the first element of the point in a.
+     * @param b the array holding another point in the input space.
+     * @param bOffset the index of the first element of the point in b.
+     * @param length the number of elements in each point.
+     * @return the comparable distance from a to b.
+     * @see #getComparableDistance(double[], int, double[], int, int)
+     */
+    public default double getComparableDistance(final float [] a, final int aOffset, final double [] b, final int bOffset, final int length)
+    {
+        return getComparableDistance(toDouble(a, aOffset, length), 0, b, bOffset, length);
+    }
+
+    /**
+     * Calculates the comparable distance between a point stored as a slice of a float array and
+     * a point stored as a slice of a double array, but may give up as soon as it is clear that
+     * the result will be greater than bound.
+     * This default implementation copies the float slice into a double array and calls
+     * getBoundedDistance(double[], int, double[], int, int, int[], double).
+     * @param a the array holding one point in the input space.
+     * @param aOffset the index of the first element of the point in a.
+     * @param b the array holding another point in the input space.
+     * @param bOffset the index of the first element of the point in b.
+     * @param length the number of elements in each point.
+     * @param order the indexes, relative to the start of each point, of the elements in the order they should be visited,
+     * or null to visit them in their natural order.
+     * @param bound the comparable distance above which the calculation may be abandoned.
+     * @return the comparable distance from a to b, or any value greater than bound if the distance is greater than bound.
+     * @see #getBoundedDistance(double[], int, double[], int, int, int[], double)
+     */
+    public default double getBoundedDistance(final float [] a, final int aOffset, final double [] b, final int bOffset, final int length, final int [] order, final double bound)
+    {
+        return getBoundedDistance(toDouble(a, aOffset, length), 0, b, bOffset, length, order, bound);
+    }
+
+    /**
+     * Copy a slice of a float array into a new double array.
+     * @param a the array holding the slice.
+     * @param aOffset the index of the first element of the slice.
+     * @param length the number of elements in the slice.
+     * @return the elements of the slice as doubles.
+     */
+    public static double [] toDouble(final float [] a, final int aOffset, final int length)
+    {
+        double [] res = new double[length];
+        for (int x = 0; x < length; x++)
+        {
+            res[x] = a[aOffset + x];
+        }
+        return res;
+    }
+
+    /**
+     * Calculates the distance between a point stored in a ByteBuffer, for instance a row of an
+     * OffHeapWeightMatrix, and a point stored as a slice of a double array.
+     * This default implementation copies the point from the buffer into a double array and calls
+     * getDistance(double[], int, double[], int, int), implementations should override it to
+     * read the buffer directly.
+     * @param a the buffer holding one point in the input space, read with absolute gets in its own byte order.
+     * @param aOffset the index of the first element of the point in a, counted in doubles.
+     * @param b the array holding another point in the input space.
+     * @param bOffset the index of the first element of the point in b.
+     * @param length the number of elements in each point.
+     * @return the distance from a to b.
+     * @see org.plsomlib.util.OffHeapWeightMatrix
+     */
+    public default double getDistance(final ByteBuffer a, final int aOffset, final double [] b, final int bOffset, final int length)
+    {
+        return getDistance(toDouble(a, aOffset, length), 0, b, bOffset, length);
+    }
+
+    /**
+     * Calculates the comparable distance between a point stored in a ByteBuffer and a point
+     * stored as a slice of a double array.
+     * This default implementation copies the point from the buffer into a double array and calls
+     * getComparableDistance(double[], int, double[], int, int).
+     * @param a the buffer holding one point in the input space, read with absolute gets in its own byte order.
+     * @param aOffset the index of the first element of the point in a, counted in doubles.
+     * @param b the array holding another point in the input space.
+     * @param bOffset the index of the first element of the point in b.
+     * @param length the number of elements in each point.
+     * @return the comparable distance from a to b.
+     * @see #getComparableDistance(double[], int, double[], int, int)
+     */
+    public default double getComparableDistance(final ByteBuffer a, final int aOffset, final double [] b, final int bOffset, final int length)
+    {
+        return getComparableDistance(toDouble(a, aOffset, length), 0, b, bOffset, length);
+    }
+
+    /**
+     * Calculates the comparable distance between a point stored in a ByteBuffer and a point
+     * stored as a slice of a double array, but may give up as soon as it is clear that the
+     * result will be greater than bound.
+     * This default implementation copies the point from the buffer into a double array and calls
+     * getBoundedDistance(double[], int, double[], int, int, int[], double).
+     * @param a the buffer holding one point in the input space, read with absolute gets in its own byte order.
+     * @param aOffset the index of the first element of the point in a, counted in doubles.
+     * @param b the array holding another point in the input space.
+     * @param bOffset the index of the first element of the point in b.
+     * @param length the number of elements in each point.
+     * @param order the indexes, relative to the start of each point, of the elements in the order they should be visited,
+     * or null to visit them in their natural order.
+     * @param bound the comparable distance above which the calculation may be abandoned.
+     * @return the comparable distance from a to b, or any value greater than bound if the distance is greater than bound.
+     * @see #getBoundedDistance(double[], int, double[], int, int, int[], double)
+     */
+    public default double getBoundedDistance(final ByteBuffer a, final int aOffset, final double [] b, final int bOffset, final int length, final int [] order, final double bound)
+    {
+        return getBoundedDistance(toDouble(a, aOffset, length), 0, b, bOffset, length, order, bound);
+    }
+
+    /**
+     * Copy doubles from a ByteBuffer into a new double array.
+     * @param a the buffer holding the doubles, read with absolute gets in its own byte order.
+     * @param aOffset the index of the first double to copy, counted in doubles.
+     * @param length the number of doubles to copy.
+     * @return the doubles.
+     */
+    public static double [] toDouble(final ByteBuffer a, final int aOffset, final int length)
+    {
+        double [] res = new double[length];
+        for (int x = 0; x < length; x++)
+        {
+            res[x] = a.getDouble((aOffset + x) * Double.BYTES);
+        }
+        return res;
+    }
+
+    /**
+     * Calculates how much a single coordinate can differ between two points
+     * that are at most a given distance apart. This is used to find the nodes
+     * within a distance of the winner in the output space, by searching a box
+     * around the winner instead of the whole map.
+     * This default implementation returns positive infinity, meaning that no
+     * bound is known.
+     * @param distance the distance between two points.
+     * @return the largest possible difference in any one coordinate.
+     */
+    public default double getCoordinateBound(final double distance)
+    {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Converts a value returned by getComparableDistance(...) into the distance between the same points.
+     * This default implementation returns the value unchanged.
+     * @param comparableDistance the comparable distance.
+     * @return the distance.
+     */
+    public default double toDistance(final double comparableDistance)
+    {
+        return comparableDistance;
+    }
+
+    /**
+     * Tells whether the distances between points in the input space obey the triangle inequality,
+     * so that the distance from a to c is never greater than the distance from a to b plus the
+     * distance from b to c. Search indexes such as VantagePointTree rely on this to skip nodes.
+     * This default implementation returns false, meaning that it is not known.
+     * @return true if getDistance(double[], double[]) is a true metric on the input space.
+     * @see org.plsomlib.util.VantagePointTree
+     */
+    public default boolean obeysTriangleInequality()
+    {
+        return false;
+    }
     
     /**
      * Calculates the distance betewen a and b according to this metric.
@@ -0,0 +1,58 @@
+package org.plsomlib.metrics;
+
+/**
+ * A DistanceKernel using plain loops. This is the fallback when the SIMD
+ * kernel is not available.
+ * 
+ * @author Erik Berglund
+ */
+public class ScalarDistanceKernel extends DistanceKernel
+{
+	/**
+	 * @see org.plsomlib.metrics.DistanceKernel#squaredDistance(double[], int,
+	 *      double[], int, int)
+	 */
+	@Override
+	public double squaredDistance(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length)
+	{
+		double res = 0;
+		for (int x = 0; x < length; x++)
+		{
+			final double diff = a[aOffset + x] - b[bOffset + x];
+			res += diff * diff;
+		}
+		return res;
+	}
+
+	/**
+	 * @see org.plsomlib.metrics.DistanceKernel#weightedSquaredDistance(double[],
+	 *      int, double[], int, double[], int)
+	 */
+	@Override
+	public double weightedSquaredDistance(final double[] a, final int aOffset, final double[] b, final int bOffset, final double[] weights,
+			final int length)
+	{
+		double res = 0;
+		for (int x = 0; x < length; x++)
+		{
+			final double diff = a[aOffset + x] - b[bOffset + x];
+			res += diff * diff * weights[x];
+		}
+		return res;
+	}
+
+	/**
+	 * @see org.plsomlib.metrics.DistanceKernel#dotProduct(double[], int,
+	 *      double[], int, int)
+	 */
+	@Override
+	public double dotProduct(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length)
+	{
+		double res = 0;
+		for (int x = 0; x < length; x++)
+		{
+			res += a[aOffset + x] * b[bOffset + x];
+		}
+		return res;
+	}
+}
@@ -3,6 +3,8 @@
  */
 package org.plsomlib.metrics;
 
+import java.nio.ByteBuffer;
+
 /**
  * Provides a distance measure between two double or int vectors of eaqual
  * length. The output of this metric is the same as squaring the output of
@@ -49,13 +51,103 @@ public class SquaredEuclideanMetric extends MetricImpl
      */
     public double getDistance(final double[] a, final double[] b)
     {
-        double res = 0;
-        for (int x = 0; x < a.length; x++)
-        {
-            res += (a[x] - b[x]) * (a[x] - b[x]);
-        }
-        return res;
+        return getDistance(a, 0, b, 0, a.length);
+    }
+
+    /**
+     * Calculate the squared n-dimensional Euclidean distance between two
+     * slices of double arrays. The work is done by the DistanceKernel selected
+     * for this JVM.
+     * 
+     * @see org.plsomlib.metrics.Metric#getDistance(double[], int, double[],
+     *      int, int)
+     */
+    public double getDistance(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length)
+    {
+        return DistanceKernel.getInstance().squaredDistance(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * Accumulates the squared distance, stopping once it exceeds bound.
+     * 
+     * @see org.plsomlib.metrics.Metric#getBoundedDistance(double[], int, double[], int, int, int[], double)
+     */
+    public double getBoundedDistance(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length, final int[] order,
+            final double bound)
+    {
+        return DistanceKernel.getInstance().boundedSquaredDistance(a, aOffset, b, bOffset, length, order, bound);
+    }
+
+    /**
+     * Calculate the squared Euclidean distance between a slice of a float
+     * array and a slice of a double array.
+     * 
+     * @see org.plsomlib.metrics.Metric#getDistance(float[], int, double[],
+     *      int, int)
+     */
+    public double getDistance(final float[] a, final int aOffset, final double[] b, final int bOffset, final int length)
+    {
+        return DistanceKernel.getInstance().squaredDistance(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * @see org.plsomlib.metrics.Metric#getComparableDistance(float[], int,
+     *      double[], int, int)
+     */
+    public double getComparableDistance(final float[] a, final int aOffset, final double[] b, final int bOffset, final int length)
+    {
+        return DistanceKernel.getInstance().squaredDistance(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * @see org.plsomlib.metrics.Metric#getBoundedDistance(float[], int,
+     *      double[], int, int, int[], double)
+     */
+    public double getBoundedDistance(final float[] a, final int aOffset, final double[] b, final int bOffset, final int length, final int[] order,
+            final double bound)
+    {
+        return DistanceKernel.getInstance().boundedSquaredDistance(a, aOffset, b, bOffset, length, order, bound);
+    }
+
+    /**
+     * Calculate the squared Euclidean distance between a point in a
+     * ByteBuffer and a slice of a double array.
+     * 
+     * @see org.plsomlib.metrics.Metric#getDistance(ByteBuffer, int, double[],
+     *      int, int)
+     */
+    public double getDistance(final ByteBuffer a, final int aOffset, final double[] b, final int bOffset, final int length)
+    {
+        return DistanceKernel.getInstance().squaredDistance(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * @see org.plsomlib.metrics.Metric#getComparableDistance(ByteBuffer, int,
+     *      double[], int, int)
+     */
+    public double getComparableDistance(final ByteBuffer a, final int aOffset, final double[] b, final int bOffset, final int length)
+    {
+        return DistanceKernel.getInstance().squaredDistance(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * @see org.plsomlib.metrics.Metric#getBoundedDistance(ByteBuffer, int,
+     *      double[], int, int, int[], double)
+     */
+    public double getBoundedDistance(final ByteBuffer a, final int aOffset, final double[] b, final int bOffset, final int length, final int[] order,
+            final double bound)
+    {
+        return DistanceKernel.getInstance().boundedSquaredDistance(a, aOffset, b, bOffset, length, order, bound);
     }
-    
 
+    /**
+     * No coordinate can differ by more than the square root of the squared
+     * distance.
+     * 
+     * @see org.plsomlib.metrics.Metric#getCoordinateBound(double)
+     */
+    public double getCoordinateBound(final double distance)
+    {
+        return Math.sqrt(distance);
+    }
 }
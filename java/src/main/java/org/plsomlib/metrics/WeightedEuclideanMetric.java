@@ -3,6 +3,8 @@
  */
 package org.plsomlib.metrics;
 
+import java.nio.ByteBuffer;
+
 /**
  * An euclidean distance implementation that weights its distance based on a
  * weight array.
@@ -28,12 +30,108 @@ public class WeightedEuclideanMetric extends EuclideanMetric
 	@Override
 	public double getDistance(final double[] a, final double[] b)
 	{
-		double res = 0;
-		for (int x = 0; x < a.length; x++)
-		{
-			res += (a[x] - b[x]) * (a[x] - b[x]) * weights[x];
-		}
-		return Math.sqrt(res);
+		return getDistance(a, 0, b, 0, a.length);
+	}
+
+	/**
+	 * The weights are indexed relative to the start of each slice. The work
+	 * is done by the DistanceKernel selected for this JVM.
+	 * 
+	 * @see org.plsomlib.metrics.EuclideanMetric#getDistance(double[], int,
+	 *      double[], int, int)
+	 */
+	@Override
+	public double getDistance(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length)
+	{
+		return Math.sqrt(DistanceKernel.getInstance().weightedSquaredDistance(a, aOffset, b, bOffset, weights, length));
+	}
+
+	/**
+	 * The comparable distance is the weighted squared distance.
+	 * 
+	 * @see org.plsomlib.metrics.EuclideanMetric#getComparableDistance(double[],
+	 *      int, double[], int, int)
+	 */
+	@Override
+	public double getComparableDistance(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length)
+	{
+		return DistanceKernel.getInstance().weightedSquaredDistance(a, aOffset, b, bOffset, weights, length);
+	}
+
+	/**
+	 * Accumulates the weighted squared distance, stopping once it exceeds
+	 * bound.
+	 * 
+	 * @see org.plsomlib.metrics.EuclideanMetric#getBoundedDistance(double[],
+	 *      int, double[], int, int, int[], double)
+	 */
+	@Override
+	public double getBoundedDistance(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length, final int[] order,
+			final double bound)
+	{
+		return DistanceKernel.getInstance().boundedWeightedSquaredDistance(a, aOffset, b, bOffset, weights, length, order, bound);
+	}
+
+	/**
+	 * @see org.plsomlib.metrics.EuclideanMetric#getDistance(float[], int,
+	 *      double[], int, int)
+	 */
+	@Override
+	public double getDistance(final float[] a, final int aOffset, final double[] b, final int bOffset, final int length)
+	{
+		return Math.sqrt(DistanceKernel.getInstance().weightedSquaredDistance(a, aOffset, b, bOffset, weights, length));
+	}
+
+	/**
+	 * @see org.plsomlib.metrics.EuclideanMetric#getComparableDistance(float[],
+	 *      int, double[], int, int)
+	 */
+	@Override
+	public double getComparableDistance(final float[] a, final int aOffset, final double[] b, final int bOffset, final int length)
+	{
+		return DistanceKernel.getInstance().weightedSquaredDistance(a, aOffset, b, bOffset, weights, length);
+	}
+
+	/**
+	 * @see org.plsomlib.metrics.EuclideanMetric#getBoundedDistance(float[],
+	 *      int, double[], int, int, int[], double)
+	 */
+	@Override
+	public double getBoundedDistance(final float[] a, final int aOffset, final double[] b, final int bOffset, final int length, final int[] order,
+			final double bound)
+	{
+		return DistanceKernel.getInstance().boundedWeightedSquaredDistance(a, aOffset, b, bOffset, weights, length, order, bound);
+	}
+
+	/**
+	 * @see org.plsomlib.metrics.EuclideanMetric#getDistance(ByteBuffer, int,
+	 *      double[], int, int)
+	 */
+	@Override
+	public double getDistance(final ByteBuffer a, final int aOffset, final double[] b, final int bOffset, final int length)
+	{
+		return Math.sqrt(DistanceKernel.getInstance().weightedSquaredDistance(a, aOffset, b, bOffset, weights, length));
+	}
+
+	/**
+	 * @see org.plsomlib.metrics.EuclideanMetric#getComparableDistance(ByteBuffer,
+	 *      int, double[], int, int)
+	 */
+	@Override
+	public double getComparableDistance(final ByteBuffer a, final int aOffset, final double[] b, final int bOffset, final int length)
+	{
+		return DistanceKernel.getInstance().weightedSquaredDistance(a, aOffset, b, bOffset, weights, length);
+	}
+
+	/**
+	 * @see org.plsomlib.metrics.EuclideanMetric#getBoundedDistance(ByteBuffer,
+	 *      int, double[], int, int, int[], double)
+	 */
+	@Override
+	public double getBoundedDistance(final ByteBuffer a, final int aOffset, final double[] b, final int bOffset, final int length, final int[] order,
+			final double bound)
+	{
+		return DistanceKernel.getInstance().boundedWeightedSquaredDistance(a, aOffset, b, bOffset, weights, length, order, bound);
 	}
 
 	@Override
@@ -47,4 +145,27 @@ public class WeightedEuclideanMetric extends EuclideanMetric
 		return Math.sqrt(res);
 	}
 
+	/**
+	 * Weights smaller than 1 let a coordinate differ by more than the
+	 * distance, so no bound is known.
+	 * 
+	 * @see org.plsomlib.metrics.EuclideanMetric#getCoordinateBound(double)
+	 */
+	@Override
+	public double getCoordinateBound(final double distance)
+	{
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * The weights may be negative, and may change after an index has been
+	 * built, so the triangle inequality cannot be relied on.
+	 * 
+	 * @see org.plsomlib.metrics.EuclideanMetric#obeysTriangleInequality()
+	 */
+	@Override
+	public boolean obeysTriangleInequality()
+	{
+		return false;
+	}
 }
@@ -26,4 +26,15 @@ public class BinaryNeighbourhoodFunction extends NeighbourhoodFunctionImpl
 		}
 	}
 
+	/**
+	 * The scaling is 0 where the distance is greater than the neighbourhood
+	 * size.
+	 * 
+	 * @see org.plsomlib.neighbourhood.NeighbourhoodFunction#getCutoffDistance(double,
+	 *      double)
+	 */
+	public double getCutoffDistance(double threshold, double neighbourhoodSize)
+	{
+		return neighbourhoodSize;
+	}
 }
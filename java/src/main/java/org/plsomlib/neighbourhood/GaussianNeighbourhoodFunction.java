@@ -42,4 +42,41 @@ public class GaussianNeighbourhoodFunction extends NeighbourhoodFunctionImpl
         }
         return Math.pow(Math.E,-(distance*distance)/(nhSquared));
     }
+
+    /**
+     * The Gaussian function is separable.
+     * 
+     * @see org.plsomlib.neighbourhood.NeighbourhoodFunction#isSeparable()
+     */
+    public boolean isSeparable()
+    {
+        return true;
+    }
+
+    /**
+     * The factor of a coordinate difference x is e^(-(x^2)/(N^2)).
+     * 
+     * @see org.plsomlib.neighbourhood.NeighbourhoodFunction#getFactor(double, double)
+     */
+    public double getFactor(final double difference, final double neighbourhoodSize)
+    {
+        final double nhSquared = neighbourhoodSize*neighbourhoodSize;
+        if(nhSquared==0.0)
+        {
+            //avoid NaN errors
+            return difference == 0.0 ? 1.0 : 0.0;
+        }
+        return Math.exp(-(difference*difference)/nhSquared);
+    }
+
+    /**
+     * The scaling is smaller than the threshold t where the distance is
+     * greater than N*sqrt(-ln(t)).
+     * 
+     * @see org.plsomlib.neighbourhood.NeighbourhoodFunction#getCutoffDistance(double, double)
+     */
+    public double getCutoffDistance(final double threshold, final double neighbourhoodSize)
+    {
+        return Math.abs(neighbourhoodSize) * Math.sqrt(-Math.log(threshold));
+    }
 }
@@ -0,0 +1,34 @@
+package org.plsomlib.neighbourhood;
+
+/**
+ * Speeds up the calculation of neighbourhood scalings during a weight update,
+ * by doing the work that is shared between nodes once per neighbourhood size.
+ * 
+ * The cache is prepared for a neighbourhood size before the update, after
+ * which getScaling(...) only reads it and can be called from several threads
+ * at once.
+ * 
+ * @author Erik Berglund
+ */
+public interface NeighbourhoodCache
+{
+    /**
+     * Prepare the cache for a neighbourhood size. This must not be called
+     * while other threads use the cache.
+     * 
+     * @param neighbourhoodSize the neighbourhood size of the coming update.
+     * @param maxSquaredDistance the largest squared grid distance from the winner that will be looked up.
+     */
+    public void prepare(double neighbourhoodSize, int maxSquaredDistance);
+
+    /**
+     * Get the neighbourhood scaling of a node. If the cache has not been prepared for
+     * the neighbourhood size the scaling is calculated directly.
+     * 
+     * @param loc the position of the node.
+     * @param winner the position of the winner.
+     * @param neighbourhoodSize the neighbourhood size.
+     * @return the neighbourhood scaling.
+     */
+    public double getScaling(int[] loc, int[] winner, double neighbourhoodSize);
+}
@@ -22,6 +22,50 @@ public interface NeighbourhoodFunction
      * @return a scaling variable which typically decreases with increased distance and increased neighbourhoodSize.
      */
     public double getScaling(double distance, double neighbourhoodSize);
+
+    /**
+     * Calculate the distance beyond which the scaling is smaller than a
+     * threshold. Nodes further than this from the winner can be skipped in the
+     * weight update, since their weights would barely change.
+     * This default implementation returns positive infinity, meaning that no
+     * node can be skipped.
+     * 
+     * @param threshold the scaling below which a node can be skipped, between 0 and 1.
+     * @param neighbourhoodSize the size of the neighbourhood.
+     * @return a distance such that getScaling(d, neighbourhoodSize) is smaller than
+     * threshold for all distances d greater than the returned value.
+     */
+    public default double getCutoffDistance(double threshold, double neighbourhoodSize)
+    {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * A function is separable if, for Euclidean distances, the scaling is the
+     * product of getFactor(...) of the coordinate differences in each
+     * dimension. This default implementation returns false.
+     * 
+     * @return true if this function is separable.
+     * @see #getFactor(double, double)
+     */
+    public default boolean isSeparable()
+    {
+        return false;
+    }
+
+    /**
+     * Calculate the factor of one coordinate difference, for separable functions.
+     * This default implementation throws UnsupportedOperationException.
+     * 
+     * @param difference the difference between the coordinates of two nodes in one dimension.
+     * @param neighbourhoodSize the size of the neighbourhood.
+     * @return the factor, such that the scaling is the product of the factors of all dimensions.
+     * @see #isSeparable()
+     */
+    public default double getFactor(double difference, double neighbourhoodSize)
+    {
+        throw new UnsupportedOperationException(getClass().getName() + " is not separable.");
+    }
     
     /**
      * Get an XML element describing this neighbourhood function.
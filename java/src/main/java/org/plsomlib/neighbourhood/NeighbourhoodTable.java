@@ -0,0 +1,232 @@
+package org.plsomlib.neighbourhood;
+
+import org.plsomlib.metrics.EuclideanMetric;
+import org.plsomlib.metrics.Metric;
+import org.plsomlib.metrics.SquaredEuclideanMetric;
+
+/**
+ * A cache of neighbourhood scalings for the nodes of a rectangular grid. On a
+ * grid the squared Euclidean distance between two nodes is an integer, and
+ * only a limited set of values occur. For a given neighbourhood size the
+ * scaling of every node is therefore one of a small number of values, which
+ * this class computes once and looks up by squared distance.
+ *
+ * The table must be prepared for a neighbourhood size before it is used. It
+ * is only filled again when the neighbourhood size changes. Looking up a
+ * scaling only reads the table, so once prepared it can be used from several
+ * threads at once. Lookups for another neighbourhood size, or for a distance
+ * beyond the prepared range, are computed directly and give the same result.
+ *
+ * The table is only available for the EuclideanMetric and
+ * SquaredEuclideanMetric output metrics, see isSupported(...).
+ *
+ * @author Erik Berglund
+ */
+public class NeighbourhoodTable implements NeighbourhoodCache
+{
+	/**
+	 * The table may have at most this many entries per node, or
+	 * MIN_TABLE_SIZE entries, whichever is greater.
+	 */
+	private static final int MAX_ENTRIES_PER_NODE = 16;
+
+	private static final int MIN_TABLE_SIZE = 1 << 20;
+
+	private final NeighbourhoodFunction function;
+
+	/**
+	 * True if the output metric returns squared distances.
+	 */
+	private final boolean squared;
+
+	/**
+	 * The scaling for each squared distance.
+	 */
+	private final double[] scalings;
+
+	/**
+	 * The squared distances that occur on the grid, in increasing order.
+	 */
+	private final int[] distances;
+
+	private double preparedSize = Double.NaN;
+
+	/**
+	 * The largest squared distance that has been prepared for preparedSize.
+	 */
+	private int preparedMax = -1;
+
+	/**
+	 * Check whether a table can be built for a map.
+	 *
+	 * @param outputMetric
+	 *            the output metric of the map.
+	 * @param dimensions
+	 *            the dimensions of the map.
+	 * @return true if the output metric measures Euclidean distances and the
+	 *         table would not be unreasonably large.
+	 */
+	public static boolean isSupported(Metric outputMetric, int... dimensions)
+	{
+		if (outputMetric.getClass() != EuclideanMetric.class && outputMetric.getClass() != SquaredEuclideanMetric.class)
+		{
+			return false;
+		}
+		long count = 1;
+		long maxDistance = 0;
+		for (int dimension : dimensions)
+		{
+			count *= dimension;
+			maxDistance += (long) (dimension - 1) * (dimension - 1);
+		}
+		return maxDistance < Integer.MAX_VALUE && maxDistance < Math.max(count * MAX_ENTRIES_PER_NODE, MIN_TABLE_SIZE);
+	}
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param function
+	 *            the neighbourhood function.
+	 * @param outputMetric
+	 *            the output metric, must be supported.
+	 * @param dimensions
+	 *            the dimensions of the map.
+	 * @throws IllegalArgumentException
+	 *             if the output metric or the dimensions are not supported.
+	 * @see #isSupported(Metric, int...)
+	 */
+	public NeighbourhoodTable(NeighbourhoodFunction function, Metric outputMetric, int... dimensions)
+	{
+		if (!isSupported(outputMetric, dimensions))
+		{
+			throw new IllegalArgumentException("No neighbourhood table for " + outputMetric.getClass().getName() + " on this grid.");
+		}
+		this.function = function;
+		this.squared = outputMetric.getClass() == SquaredEuclideanMetric.class;
+		int maxDistance = 0;
+		for (int dimension : dimensions)
+		{
+			maxDistance += (dimension - 1) * (dimension - 1);
+		}
+		this.scalings = new double[maxDistance + 1];
+		// find the squared distances that occur, by going through all
+		// combinations of coordinate differences
+		boolean[] occurs = new boolean[maxDistance + 1];
+		int[] difference = new int[dimensions.length];
+		int found = 0;
+		while (true)
+		{
+			int distance = 0;
+			for (int d = 0; d < difference.length; d++)
+			{
+				distance += difference[d] * difference[d];
+			}
+			if (!occurs[distance])
+			{
+				occurs[distance] = true;
+				found++;
+			}
+			// advance to the next combination
+			int d = 0;
+			while (d < difference.length && ++difference[d] == dimensions[d])
+			{
+				difference[d] = 0;
+				d++;
+			}
+			if (d == difference.length)
+			{
+				break;
+			}
+		}
+		this.distances = new int[found];
+		for (int x = 0, index = 0; x < occurs.length; x++)
+		{
+			if (occurs[x])
+			{
+				distances[index++] = x;
+			}
+		}
+	}
+
+	/**
+	 * @return the largest squared distance between two nodes of the grid.
+	 */
+	public int getMaxSquaredDistance()
+	{
+		return scalings.length - 1;
+	}
+
+	/**
+	 * Prepare the table for a neighbourhood size, for all distances on the
+	 * grid.
+	 *
+	 * @param neighbourhoodSize
+	 *            the neighbourhood size.
+	 */
+	public void prepare(double neighbourhoodSize)
+	{
+		prepare(neighbourhoodSize, getMaxSquaredDistance());
+	}
+
+	/**
+	 * Prepare the table for a neighbourhood size, for squared distances up to
+	 * a given value. Does nothing if the table is already prepared for this
+	 * size and range.
+	 *
+	 * @see org.plsomlib.neighbourhood.NeighbourhoodCache#prepare(double, int)
+	 */
+	public void prepare(double neighbourhoodSize, int maxSquaredDistance)
+	{
+		maxSquaredDistance = Math.min(maxSquaredDistance, getMaxSquaredDistance());
+		int start = 0;
+		if (neighbourhoodSize == preparedSize)
+		{
+			if (maxSquaredDistance <= preparedMax)
+			{
+				return;
+			}
+			// extend the prepared range
+			start = preparedMax + 1;
+		}
+		for (int x = 0; x < distances.length && distances[x] <= maxSquaredDistance; x++)
+		{
+			if (distances[x] >= start)
+			{
+				scalings[distances[x]] = computeScaling(distances[x], neighbourhoodSize);
+			}
+		}
+		preparedSize = neighbourhoodSize;
+		preparedMax = maxSquaredDistance;
+	}
+
+	/**
+	 * Returns the same value as the neighbourhood function gives for the
+	 * distance between loc and winner.
+	 *
+	 * @see org.plsomlib.neighbourhood.NeighbourhoodCache#getScaling(int[],
+	 *      int[], double)
+	 */
+	public double getScaling(final int[] loc, final int[] winner, final double neighbourhoodSize)
+	{
+		int distance = 0;
+		for (int d = 0; d < loc.length; d++)
+		{
+			distance += (loc[d] - winner[d]) * (loc[d] - winner[d]);
+		}
+		if (neighbourhoodSize == preparedSize && distance <= preparedMax)
+		{
+			return scalings[distance];
+		}
+		return computeScaling(distance, neighbourhoodSize);
+	}
+
+	/**
+	 * Calculate the scaling for a squared distance the same way as the
+	 * output metric and neighbourhood function would.
+	 */
+	private double computeScaling(int squaredDistance, double neighbourhoodSize)
+	{
+		double distance = squared ? squaredDistance : Math.sqrt(squaredDistance);
+		return function.getScaling(distance, neighbourhoodSize);
+	}
+}
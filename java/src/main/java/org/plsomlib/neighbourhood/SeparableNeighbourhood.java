@@ -0,0 +1,121 @@
+package org.plsomlib.neighbourhood;
+
+import org.plsomlib.metrics.EuclideanMetric;
+import org.plsomlib.metrics.Metric;
+
+/**
+ * A neighbourhood cache for separable neighbourhood functions on rectangular
+ * Euclidean grids. For such functions the scaling of a node is the product of
+ * one factor per output dimension, each depending only on the difference
+ * between the coordinates of the node and the winner in that dimension. The
+ * Gaussian function is separable: exp(-(dx*dx+dy*dy)/N*N) =
+ * exp(-dx*dx/N*N)*exp(-dy*dy/N*N).
+ * 
+ * When prepared for a neighbourhood size this class computes the factor of
+ * every coordinate difference that can occur, so that the scaling of a node
+ * is found with a few multiplications and no calls to transcendental
+ * functions. The scalings may differ from those calculated directly in the
+ * last few bits.
+ * 
+ * @author Erik Berglund
+ */
+public class SeparableNeighbourhood implements NeighbourhoodCache
+{
+	private final NeighbourhoodFunction function;
+
+	/**
+	 * The factor for each coordinate difference.
+	 */
+	private final double[] factors;
+
+	private double preparedSize = Double.NaN;
+
+	/**
+	 * Check whether the scalings of a map can be separated.
+	 * 
+	 * @param function
+	 *            the neighbourhood function of the map.
+	 * @param outputMetric
+	 *            the output metric of the map.
+	 * @return true if the function is separable and the output metric is the
+	 *         EuclideanMetric.
+	 */
+	public static boolean isSupported(NeighbourhoodFunction function, Metric outputMetric)
+	{
+		return function.isSeparable() && outputMetric.getClass() == EuclideanMetric.class;
+	}
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param function
+	 *            the neighbourhood function.
+	 * @param outputMetric
+	 *            the output metric, must be supported.
+	 * @param dimensions
+	 *            the dimensions of the map.
+	 * @throws IllegalArgumentException
+	 *             if the function or the output metric is not supported.
+	 * @see #isSupported(NeighbourhoodFunction, Metric)
+	 */
+	public SeparableNeighbourhood(NeighbourhoodFunction function, Metric outputMetric, int... dimensions)
+	{
+		if (!isSupported(function, outputMetric))
+		{
+			throw new IllegalArgumentException("The neighbourhood of " + function.getClass().getName() + " and "
+					+ outputMetric.getClass().getName() + " is not separable.");
+		}
+		this.function = function;
+		int maxDimension = 0;
+		for (int dimension : dimensions)
+		{
+			maxDimension = Math.max(maxDimension, dimension);
+		}
+		this.factors = new double[maxDimension];
+	}
+
+	/**
+	 * Computes the factor of each coordinate difference. Does nothing if the
+	 * cache is already prepared for this size.
+	 * 
+	 * @see org.plsomlib.neighbourhood.NeighbourhoodCache#prepare(double, int)
+	 */
+	public void prepare(double neighbourhoodSize, int maxSquaredDistance)
+	{
+		if (neighbourhoodSize == preparedSize)
+		{
+			return;
+		}
+		for (int x = 0; x < factors.length; x++)
+		{
+			factors[x] = function.getFactor(x, neighbourhoodSize);
+		}
+		preparedSize = neighbourhoodSize;
+	}
+
+	/**
+	 * Multiplies the factors of the coordinate differences.
+	 * 
+	 * @see org.plsomlib.neighbourhood.NeighbourhoodCache#getScaling(int[],
+	 *      int[], double)
+	 */
+	public double getScaling(final int[] loc, final int[] winner, final double neighbourhoodSize)
+	{
+		double res = 1;
+		if (neighbourhoodSize == preparedSize)
+		{
+			for (int d = 0; d < loc.length; d++)
+			{
+				res *= factors[Math.abs(loc[d] - winner[d])];
+			}
+		}
+		else
+		{
+			for (int d = 0; d < loc.length; d++)
+			{
+				res *= function.getFactor(loc[d] - winner[d], neighbourhoodSize);
+			}
+		}
+		return res;
+	}
+}
@@ -1,6 +1,10 @@
 package org.plsomlib.recursive;
 
+import java.io.IOException;
+
+import org.plsomlib.BinaryModel;
 import org.plsomlib.metrics.WeightedEuclideanMetric;
+import org.plsomlib.util.AbstractWeightMatrix;
 import org.plsomlib.util.IterativeArray;
 
 /**
@@ -22,6 +26,14 @@ public class IEStateLessRecursivePLSOM2 extends StateLessRecursivePLSOM2
 
 	private static final double DEFAULT_IMPORTANCE = 1;
 
+	/**
+	 * Class constructor. Used for reading from file.
+	 */
+	public IEStateLessRecursivePLSOM2(int inputSize, int... outputDimensions)
+	{
+		this(0, inputSize, outputDimensions);
+	}
+
 	/**
 	 * @param alpha
 	 * @param inputSize
@@ -104,6 +116,18 @@ public class IEStateLessRecursivePLSOM2 extends StateLessRecursivePLSOM2
 		}
 	}
 
+	/**
+	 * The importance scalings are copied into the shared input metric for
+	 * each node, so the nodes cannot be evaluated in parallel.
+	 * 
+	 * @see org.plsomlib.MapBaseImpl#canSearchInParallel()
+	 */
+	@Override
+	protected boolean canSearchInParallel()
+	{
+		return false;
+	}
+
 	@Override
 	protected double calculateRecursiveDistance(int x)
 	{
@@ -128,7 +152,6 @@ public class IEStateLessRecursivePLSOM2 extends StateLessRecursivePLSOM2
 		// distance
 		if (!this.isPredict())
 		{
-			Object[] weights = getWeights().toArray();
 			// copy the importance weights to the input metric
 			double[] importance = importanceScaleDirect.getValueFromOffset(x)
 					.clone();
@@ -141,9 +164,7 @@ public class IEStateLessRecursivePLSOM2 extends StateLessRecursivePLSOM2
 				}
 			}
 			((WeightedEuclideanMetric) getInputMetric()).setWeights(importance);
-			inputDistance = alpha
-					* this.getInputMetric().getDistance(getInput(),
-							(double[]) weights[x]);
+			inputDistance = alpha * getNodeDistance(x, getInput());
 		}
 		return inputDistance;
 	}
@@ -192,23 +213,38 @@ public class IEStateLessRecursivePLSOM2 extends StateLessRecursivePLSOM2
 	@Override
 	protected void updateWeights()
 	{
+		// weights stored in one block are updated in a copy that is stored
+		// back
+		AbstractWeightMatrix copied = null;
+		double[] row = null;
+		if (getWeights() instanceof AbstractWeightMatrix)
+		{
+			copied = (AbstractWeightMatrix) getWeights();
+			row = new double[copied.getRowLength()];
+		}
+		int[] position = new int[getWeights().getDimensions().length];
 		for (int x = 0; x < getWeights().getCount(); x++)
 		{
 			// calculate the neighbourhood scaling, multiply by epsilon
 			double nhScale = getNeighbourhoodScaling(getWeights()
-					.getPosition(x), getWinner(), getNeighbourhoodSize());
+					.getPosition(x, position), getWinner(), getNeighbourhoodSize());
 
 			// update the non-recursive weights, importance
 			if (!isPredict())
 			{
 				// get the weight vector
-				double[] weight = getWeights().getValueFromOffset(x);
+				double[] weight = copied != null ? copied.getRow(x, row) : getWeights().getValueFromOffset(x);
 				// get the scaling vectors
 				double[] scaling = this.importanceScaleDirect
 						.getValueFromOffset(x);
 				// update the weights
 				updateWeightsAndScaling(weight, scaling, range,
 						getInput(), nhScale);
+				if (copied != null)
+				{
+					copied.setValueAtOffset(weight, x);
+				}
+				markDirty(x);
 			}
 
 			// update the recursive weights, importance
@@ -316,4 +352,46 @@ public class IEStateLessRecursivePLSOM2 extends StateLessRecursivePLSOM2
 	{
 		return importanceScaleRecursive;
 	}
+
+	/**
+	 * @see org.plsomlib.recursive.RecursivePLSOM2#writeBinaryHelper(org.plsomlib.BinaryModel.Output)
+	 */
+	@Override
+	protected void writeBinaryHelper(BinaryModel.Output out) throws IOException
+	{
+		super.writeBinaryHelper(out);
+		BinaryModel.Section section = new BinaryModel.Section(IEStateLessRecursivePLSOM2.class.getName());
+		section.putRows(importanceScaleDirect);
+		section.putDoubles(minDirect);
+		section.putDoubles(maxDirect);
+		section.putDoubles(range);
+		section.putRows(importanceScaleRecursive);
+		section.putDoubles(minRecursive);
+		section.putDoubles(maxRecursive);
+		section.putDouble(importanceScaling);
+		section.putDoubles(recursiveRange);
+		out.writeSection(section);
+	}
+
+	/**
+	 * @see org.plsomlib.recursive.RecursivePLSOM2#readBinaryHelper(org.plsomlib.BinaryModel.Input)
+	 */
+	@Override
+	protected void readBinaryHelper(BinaryModel.Input in) throws IOException
+	{
+		super.readBinaryHelper(in);
+		BinaryModel.Section section = in.getSection(IEStateLessRecursivePLSOM2.class.getName());
+		if (section != null)
+		{
+			importanceScaleDirect = section.getRows();
+			minDirect = section.getDoubles();
+			maxDirect = section.getDoubles();
+			range = section.getDoubles();
+			importanceScaleRecursive = section.getRows();
+			minRecursive = section.getDoubles();
+			maxRecursive = section.getDoubles();
+			importanceScaling = section.getDouble();
+			recursiveRange = section.getDoubles();
+		}
+	}
 }
@@ -7,6 +7,7 @@ import org.plsomlib.metrics.Metric;
 import org.plsomlib.metrics.SquaredEuclideanMetric;
 import org.plsomlib.neighbourhood.GaussianNeighbourhoodFunction;
 import org.plsomlib.neighbourhood.NeighbourhoodFunction;
+import org.plsomlib.neighbourhood.NeighbourhoodTable;
 import org.plsomlib.util.DiameterBuffer;
 import org.plsomlib.util.IterativeArray;
 
@@ -47,6 +48,8 @@ public class MultilayerRecursivePLSOM2
     private double epsilon;
     private double neighbourhoodRange;
     private double neighbourhoodSize;
+    // cached neighbourhood scalings, null if not used
+    private NeighbourhoodTable neighbourhoodTable;
     
     
     
@@ -192,6 +195,10 @@ public class MultilayerRecursivePLSOM2
    
     protected void updateWeights()
     {
+        if(neighbourhoodTable != null)
+        {
+            neighbourhoodTable.prepare(getNeighbourhoodSize());
+        }
         Object[] data = directWeights.toArray();
         int winnerIndex = directWeights.getOffset(getWinner());
         for (int nodeIndex = 0; nodeIndex < data.length; nodeIndex++)
@@ -234,9 +241,14 @@ public class MultilayerRecursivePLSOM2
      *            the location of the winner.
      * @param nhSize
      *            the neighbourhood size.
+     * @see #setUseNeighbourhoodTable(boolean)
      */
     protected double getNeighbourhoodScaling(final int[] loc, final int[] winner, final double nhSize)
     {
+        if(neighbourhoodTable != null)
+        {
+            return neighbourhoodTable.getScaling(loc, winner, nhSize);
+        }
         double dist = this.outputMetric.getDistance(loc, winner);
         return this.nhFunction.getScaling(dist, nhSize);
     }
@@ -383,6 +395,27 @@ public class MultilayerRecursivePLSOM2
         predict = p;
     }
 
+    /**
+     * Select whether neighbourhood scalings are looked up in a table that is
+     * only filled again when the neighbourhood size changes. The scalings are
+     * the same as without the table.
+     * 
+     * @param useNeighbourhoodTable
+     *            true to look up scalings in a table.
+     * @see NeighbourhoodTable
+     */
+    public void setUseNeighbourhoodTable(boolean useNeighbourhoodTable)
+    {
+        if(useNeighbourhoodTable && NeighbourhoodTable.isSupported(outputMetric, outputDimensions))
+        {
+            neighbourhoodTable = new NeighbourhoodTable(nhFunction, outputMetric, outputDimensions);
+        }
+        else
+        {
+            neighbourhoodTable = null;
+        }
+    }
+
 
     private void setInput(double[] input)
     {
@@ -443,6 +476,7 @@ public class MultilayerRecursivePLSOM2
         res.predict = predict;
         res.selfDiameterBuffer = (DiameterBuffer) selfDiameterBuffer.clone();
         res.selfWeights = (IterativeArray<double[]>) selfWeights.clone();
+        res.setUseNeighbourhoodTable(neighbourhoodTable != null);
         if(winner != null)
         {
             res.winner = winner.clone();
@@ -1,9 +1,13 @@
 package org.plsomlib.recursive;
 
+import java.io.IOException;
+
 import org.plsomlib.*;
 import org.plsomlib.metrics.Metric;
 import org.plsomlib.neighbourhood.NeighbourhoodFunction;
 import org.plsomlib.util.IterativeArray;
+import org.plsomlib.util.ParallelNodeLoop;
+import org.plsomlib.util.ParallelWinnerSearch;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -41,6 +45,17 @@ public class RecursivePLSOM extends ExcitationPLSOM
 	 */
 	protected IterativeArray<double[]> recursiveWeights;
 
+	/**
+	 * Calculates the scaled excitation of a node for findMinDist, created
+	 * when first needed.
+	 */
+	private transient ParallelWinnerSearch.Evaluator excitationEvaluator;
+
+	/**
+	 * Updates the weights of a node, created when first needed.
+	 */
+	private transient ParallelNodeLoop.NodeAction recursiveWeightUpdate;
+
 	/**
 	 * Constructor.
 	 */
@@ -100,7 +115,7 @@ public class RecursivePLSOM extends ExcitationPLSOM
 	{
 		// calculate the number of nodes in the map
 
-		int nodeCount = this.getWeights().toArray().length;
+		int nodeCount = this.getWeights().getCount();
 
 		this.recovery = new double[nodeCount];
 		for (int x = 0; x < nodeCount; x++)
@@ -138,38 +153,50 @@ public class RecursivePLSOM extends ExcitationPLSOM
 	/**
 	 * Helper function for classify. Recursively compares all weight vectors to
 	 * the input. This method overrides findMinDist in MapBaseImpl so that it
-	 * also calculates and stores the excitation.
+	 * also calculates and stores the excitation. The nodes are searched in
+	 * parallel if parallel search is enabled.
+	 * 
+	 * @see org.plsomlib.MapBaseImpl#setParallelSearch(boolean)
 	 */
 	@Override
 	protected double findMinDist(int[] res)
 	{
-		double minDist = Double.POSITIVE_INFINITY;
+		if (excitationEvaluator == null)
+		{
+			excitationEvaluator = new ParallelWinnerSearch.Evaluator()
+			{
+				public double evaluate(int offset, double bound)
+				{
+					double distance = (1 - alpha)
+							* getInputMetric().getDistance(getExcitations(), (double[]) recursiveWeights.toArray()[offset]);
+					if (!isPredict())
+					{
+						distance += alpha * getNodeDistance(offset, getInput());
+					}
+
+					double scale = 1;
+					if (useRecovery)
+					{
+						scale = recovery[offset];
+					}
+					// calculate excitation
+					double excitation = Math.exp(-distance);
+					getNuExcitations()[offset] = excitation;
+					double value = 1 - excitation * scale;
+					offerTopK(offset, value);
+					return value;
+				}
+			};
+		}
+		int count = getWeights().getCount();
+		ParallelWinnerSearch search = getWinnerSearch();
+		int winner = search.findMin(count, excitationEvaluator, useParallelSearch(count));
+		double minDist = search.getMin();
 		double minExcitation = 1;
 		double maxExcitation = 0;
-		Object[] weight = getWeights().toArray();
-		int winner = 0;
-		for (int x = 0; x < weight.length; x++)
+		for (int x = 0; x < count; x++)
 		{
-			double distance = (1 - alpha)
-					* this.getInputMetric().getDistance(getExcitations(), (double[]) recursiveWeights.toArray()[x]);
-			if (!this.isPredict())
-			{
-				distance += alpha * this.getInputMetric().getDistance(getInput(), (double[]) weight[x]);
-			}
-
-			double scale = 1;
-			if (useRecovery)
-			{
-				scale = recovery[x];
-			}
-			// calculate excitation
-			double excitation = Math.exp( -distance);
-			this.getNuExcitations()[x] = excitation;
-			if ((1 - excitation * scale) < minDist)
-			{
-				minDist = (1 - Math.exp(-distance) * scale);
-				winner = x;
-			}
+			double excitation = getNuExcitations()[x];
 			if (excitation > maxExcitation)
 			{
 				maxExcitation = excitation;
@@ -207,36 +234,38 @@ public class RecursivePLSOM extends ExcitationPLSOM
 	}
 
 	/**
-	 * Update all weights given the current winner.
+	 * Update all weights given the current winner. The nodes are updated in
+	 * parallel if parallel update is enabled.
 	 * 
+	 * @see org.plsomlib.MapBaseImpl#setParallelUpdate(boolean)
 	 */
 	@Override
 	protected void updateWeights()
 	{
-		final double e = getEpsilon()*getLearningScale();
-		final double nh = getNeighbourhoodSize();
-		Object[] data = this.getWeights().toArray();
-		for (int x = 0; x < data.length; x++)
+		if (recursiveWeightUpdate == null)
 		{
-			// calculate the neighbourhood scaling, multiply by epsilon
-			double anhc = e * getNeighbourhoodScaling(getWeights().getPosition(x), getWinner(), nh);
-			// update the non-recursive weights
-			if (!isPredict())
+			recursiveWeightUpdate = new ParallelNodeLoop.NodeAction()
 			{
-				// get the weight vector
-				double[] weight = (double[]) data[x];
-				for (int wIndex = 0; wIndex < getInputDimension(); wIndex++)
+				public void apply(int x, int[] position)
 				{
-					weight[wIndex] += anhc * (getInput()[wIndex] - weight[wIndex]);
+					// calculate the neighbourhood scaling, multiply by epsilon
+					double anhc = getEpsilon() * getLearningScale() * getNeighbourhoodScaling(getWeights().getPosition(x, position), getWinner(),
+							getNeighbourhoodSize());
+					// update the non-recursive weights
+					if (!isPredict())
+					{
+						adaptWeights(x, getInput(), anhc);
+					}
+					// update the recursive weights
+					double[] recWeight = (double[]) recursiveWeights.toArray()[x];
+					for (int wIndex = 0; wIndex < recWeight.length; wIndex++)
+					{
+						recWeight[wIndex] += anhc * (getExcitations()[wIndex] - recWeight[wIndex]);
+					}
 				}
-			}
-			// update the recursive weights
-			double[] recWeight = (double[]) recursiveWeights.toArray()[x];
-			for (int wIndex = 0; wIndex < recWeight.length; wIndex++)
-			{
-				recWeight[wIndex] += anhc * (getExcitations()[wIndex] - recWeight[wIndex]);
-			}
+			};
 		}
+		updateNodes(recursiveWeightUpdate, getNeighbourhoodSize());
 	}
 
 	/**
@@ -435,4 +464,42 @@ public class RecursivePLSOM extends ExcitationPLSOM
 	{
 		return recursiveWeights;
 	}
+
+	/**
+	 * @see org.plsomlib.ExcitationPLSOM#writeBinaryHelper(org.plsomlib.BinaryModel.Output)
+	 */
+	@Override
+	protected void writeBinaryHelper(BinaryModel.Output out) throws IOException
+	{
+		super.writeBinaryHelper(out);
+		BinaryModel.Section section = new BinaryModel.Section(RecursivePLSOM.class.getName());
+		section.putDouble(alpha);
+		section.putBoolean(useRecovery);
+		section.putDouble(recoveryScaling);
+		section.putDoubles(recovery);
+		section.putDoubles(nuExcitations);
+		section.putBoolean(predict);
+		section.putRows(recursiveWeights);
+		out.writeSection(section);
+	}
+
+	/**
+	 * @see org.plsomlib.ExcitationPLSOM#readBinaryHelper(org.plsomlib.BinaryModel.Input)
+	 */
+	@Override
+	protected void readBinaryHelper(BinaryModel.Input in) throws IOException
+	{
+		super.readBinaryHelper(in);
+		BinaryModel.Section section = in.getSection(RecursivePLSOM.class.getName());
+		if (section != null)
+		{
+			alpha = section.getDouble();
+			useRecovery = section.getBoolean();
+			recoveryScaling = section.getDouble();
+			recovery = section.getDoubles();
+			nuExcitations = section.getDoubles();
+			predict = section.getBoolean();
+			recursiveWeights = section.getRows();
+		}
+	}
 }
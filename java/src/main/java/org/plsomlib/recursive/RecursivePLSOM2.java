@@ -1,9 +1,13 @@
 package org.plsomlib.recursive;
 
+import java.io.IOException;
+
+import org.plsomlib.BinaryModel;
 import org.plsomlib.metrics.Metric;
 import org.plsomlib.neighbourhood.NeighbourhoodFunction;
 import org.plsomlib.util.DiameterBuffer;
 import org.plsomlib.util.IterativeArray;
+import org.plsomlib.util.ParallelWinnerSearch;
 
 /**
  * 
@@ -21,6 +25,12 @@ public class RecursivePLSOM2 extends RecursivePLSOM
 	// Experimental: allows switching from normalized to softmax exitation
 	private boolean useSoftMax = false;
 
+	/**
+	 * Calculates the excitation of a node for findWinner(), created when
+	 * first needed.
+	 */
+	private transient ParallelWinnerSearch.Evaluator winnerEvaluator;
+
 	/**
 	 * @param inputMetric
 	 * @param outputMetric
@@ -44,6 +54,15 @@ public class RecursivePLSOM2 extends RecursivePLSOM
     {
         super(alpha, inputSize, outputDimensions);
     }
+
+    /**
+     * Class constructor. Used for reading from file.
+     */
+    public RecursivePLSOM2(int inputSize, int... outputDimensions)
+    {
+        super(inputSize, outputDimensions);
+    }
+
     /**
      * @param alpha
      * @param inputSize
@@ -127,43 +146,56 @@ public class RecursivePLSOM2 extends RecursivePLSOM
 	}
 
 	/**
-	 * Find the winning node.
+	 * Find the winning node. The nodes are searched in parallel if parallel
+	 * search is enabled.
 	 * 
 	 * @return
+	 * @see org.plsomlib.MapBaseImpl#setParallelSearch(boolean)
 	 */
 	public int[] findWinner()
 	{
 		int[] res = new int[getOutputDimensions().length];
-		double minDist = Double.POSITIVE_INFINITY;
+		if (winnerEvaluator == null)
+		{
+			winnerEvaluator = new ParallelWinnerSearch.Evaluator()
+			{
+				public double evaluate(int offset, double bound)
+				{
+					// calculate distances
+					double inputDistance = calculateInputDistance(offset);
+					// always calculate distance on recursive component
+					double recDistance = calculateRecursiveDistance(offset);
+					double distance = recDistance + inputDistance;
+
+					double scale = 1;
+					if (useRecovery)
+					{
+						scale = recovery[offset];
+					}
+					// calculate excitation
+					double excitation = Math.exp(-distance) * scale;
+					getNuExcitations()[offset] = excitation;
+					offerTopK(offset, 1 - excitation);
+					return 1 - excitation;
+				}
+			};
+		}
+		int count = getWeights().getCount();
+		ParallelWinnerSearch search = getWinnerSearch();
+		int winner = search.findMin(count, winnerEvaluator, useParallelSearch(count));
 		double minExcitation = 1;
 		double maxExcitation = 0;
 		double totalExpExitation = 0;
-		Object[] weights = getWeights().toArray();
-		int winner = 0;
-		for (int x = 0; x < weights.length; x++)
+		if (search.getMin() < Double.POSITIVE_INFINITY)
 		{
-			// calculate distances
-			double inputDistance = calculateInputDistance(x);
-			// always calculate distance on recursive component
-			double recDistance = calculateRecursiveDistance(x);
-			double distance = recDistance + inputDistance;
-
-			double scale = 1;
-			if (useRecovery)
-			{
-				scale = recovery[x];
-			}
-			// calculate excitation
-			double excitation = Math.exp(-distance) * scale;
-			this.getNuExcitations()[x] = excitation;
-			if ((1 - excitation) < minDist)
-			{
-				minDist = (1 - excitation);
-				this.setLastError(inputDistance);
-				this.setInternalLastError(recDistance);
-				winner = x;
-				maxExcitation = excitation;
-			}
+			// recalculate the distances of the winner
+			this.setLastError(calculateInputDistance(winner));
+			this.setInternalLastError(calculateRecursiveDistance(winner));
+			maxExcitation = getNuExcitations()[winner];
+		}
+		for (int x = 0; x < count; x++)
+		{
+			double excitation = getNuExcitations()[x];
 			if (excitation < minExcitation)
 			{
 				minExcitation = excitation;
@@ -226,8 +258,7 @@ public class RecursivePLSOM2 extends RecursivePLSOM
 		{
 			// if we have input (non-predict mode) calculate the input
 			// distance
-			Object[] weights = getWeights().toArray();
-			inputDistance = alpha * this.getInputMetric().getDistance(getInput(), (double[]) weights[x]);
+			inputDistance = alpha * getNodeDistance(x, getInput());
 		}
 		return inputDistance;
 	}
@@ -315,4 +346,35 @@ public class RecursivePLSOM2 extends RecursivePLSOM
 		return inputBuffer;
 	}
 
+	/**
+	 * @see org.plsomlib.recursive.RecursivePLSOM#writeBinaryHelper(org.plsomlib.BinaryModel.Output)
+	 */
+	@Override
+	protected void writeBinaryHelper(BinaryModel.Output out) throws IOException
+	{
+		super.writeBinaryHelper(out);
+		BinaryModel.Section section = new BinaryModel.Section(RecursivePLSOM2.class.getName());
+		section.putDiameterBuffer(inputBuffer);
+		section.putDiameterBuffer(excitationBuffer);
+		section.putDouble(internalLastError);
+		section.putBoolean(useSoftMax);
+		out.writeSection(section);
+	}
+
+	/**
+	 * @see org.plsomlib.recursive.RecursivePLSOM#readBinaryHelper(org.plsomlib.BinaryModel.Input)
+	 */
+	@Override
+	protected void readBinaryHelper(BinaryModel.Input in) throws IOException
+	{
+		super.readBinaryHelper(in);
+		BinaryModel.Section section = in.getSection(RecursivePLSOM2.class.getName());
+		if (section != null)
+		{
+			section.getDiameterBuffer(inputBuffer);
+			section.getDiameterBuffer(excitationBuffer);
+			internalLastError = section.getDouble();
+			useSoftMax = section.getBoolean();
+		}
+	}
 }
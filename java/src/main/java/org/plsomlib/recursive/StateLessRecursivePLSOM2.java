@@ -16,6 +16,14 @@ public class StateLessRecursivePLSOM2 extends RecursivePLSOM2
 		super(alpha, inputSize, outputDimensions);
 	}
 
+	/**
+	 * Class constructor. Used for reading from file.
+	 */
+	public StateLessRecursivePLSOM2(int inputSize, int... outputDimensions)
+	{
+		super(inputSize, outputDimensions);
+	}
+
 	@Override
 	public int[] classify()
 	{
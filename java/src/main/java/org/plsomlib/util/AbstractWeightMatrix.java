@@ -0,0 +1,262 @@
+package org.plsomlib.util;
+
+import org.plsomlib.metrics.Metric;
+
+/**
+ * Base class of the IterativeArrays of weight vectors that store the weights
+ * of all nodes in one block of memory instead of one array per node. Unlike
+ * an IterativeArray it keeps no array of values and no cache of positions,
+ * so the number of objects it holds does not grow with the number of nodes,
+ * and positions are calculated from offsets when they are asked for.
+ *
+ * Since the rows are not separate objects, the accessors inherited from
+ * IterativeArray copy values in and out of the matrix. Changes to an array
+ * returned by getValue(...) or getValueFromOffset(...) are not reflected in
+ * the matrix, use setValue(...) or setValueAtOffset(...) to store them.
+ *
+ * @author Erik Berglund
+ */
+public abstract class AbstractWeightMatrix extends IterativeArray<double[]>
+{
+	private static final long serialVersionUID = 3391262651452279385L;
+
+	/**
+	 * The number of weights per node.
+	 */
+	private final int rowLength;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param rowLength
+	 *            the number of weights per node.
+	 * @param dimensions
+	 *            the number of and size of the dimensions.
+	 */
+	protected AbstractWeightMatrix(int rowLength, int... dimensions)
+	{
+		super(dimensions, false);
+		this.rowLength = rowLength;
+	}
+
+	/**
+	 * @return the number of weights per node.
+	 */
+	public int getRowLength()
+	{
+		return rowLength;
+	}
+
+	/**
+	 * Copy the weights of a node into an existing array.
+	 *
+	 * @param offset
+	 *            the offset of the node.
+	 * @param destination
+	 *            the array to copy the weights into, must be at least
+	 *            getRowLength() long.
+	 * @return the destination array.
+	 */
+	public abstract double[] getRow(int offset, double[] destination);
+
+	/**
+	 * Copy the values into the matrix.
+	 *
+	 * @see org.plsomlib.util.IterativeArray#setValueAtOffset(java.lang.Object,
+	 *      int)
+	 */
+	@Override
+	public abstract void setValueAtOffset(double[] value, int offset);
+
+	/**
+	 * Calculate the distance from the weights of a node to a point, reading
+	 * the weights where they are stored.
+	 *
+	 * @param metric
+	 *            the metric to measure the distance with.
+	 * @param offset
+	 *            the offset of the node.
+	 * @param point
+	 *            the array holding the point.
+	 * @param pointOffset
+	 *            the index of the first element of the point.
+	 * @return the distance from the weights of the node to the point.
+	 * @see Metric#getDistance(double[], int, double[], int, int)
+	 */
+	public abstract double getDistance(Metric metric, int offset, double[] point, int pointOffset);
+
+	/**
+	 * Calculate the comparable distance from the weights of a node to a point,
+	 * reading the weights where they are stored.
+	 *
+	 * @param metric
+	 *            the metric to measure the distance with.
+	 * @param offset
+	 *            the offset of the node.
+	 * @param point
+	 *            the array holding the point.
+	 * @param pointOffset
+	 *            the index of the first element of the point.
+	 * @return the comparable distance from the weights of the node to the
+	 *         point.
+	 * @see Metric#getComparableDistance(double[], int, double[], int, int)
+	 */
+	public abstract double getComparableDistance(Metric metric, int offset, double[] point, int pointOffset);
+
+	/**
+	 * Calculate the comparable distance from the weights of a node to a point,
+	 * abandoning the calculation once it exceeds bound.
+	 *
+	 * @param metric
+	 *            the metric to measure the distance with.
+	 * @param offset
+	 *            the offset of the node.
+	 * @param point
+	 *            the array holding the point.
+	 * @param pointOffset
+	 *            the index of the first element of the point.
+	 * @param order
+	 *            the order in which to visit the elements, or null.
+	 * @param bound
+	 *            the comparable distance above which the calculation may be
+	 *            abandoned.
+	 * @return the comparable distance from the weights of the node to the
+	 *         point, or any value greater than bound.
+	 * @see Metric#getBoundedDistance(double[], int, double[], int, int, int[],
+	 *      double)
+	 */
+	public abstract double getBoundedDistance(Metric metric, int offset, double[] point, int pointOffset, int[] order, double bound);
+
+	/**
+	 * Move the weights of a node towards a target, so that each weight w
+	 * becomes w + rate * (target - w), in place.
+	 *
+	 * @param offset
+	 *            the offset of the node.
+	 * @param target
+	 *            the point to move towards, must be at least getRowLength()
+	 *            long.
+	 * @param rate
+	 *            the fraction of the distance to move.
+	 * @return the squared norm of the weights of the node after the change,
+	 *         as stored.
+	 */
+	public abstract double adaptRow(int offset, double[] target, double rate);
+
+	/**
+	 * Copy a set of rows into the matrix.
+	 *
+	 * @param rows
+	 *            the weight vectors to copy, with the dimensions of this
+	 *            matrix. Missing rows are skipped.
+	 */
+	protected void copyRows(IterativeArray<double[]> rows)
+	{
+		if (rows instanceof AbstractWeightMatrix)
+		{
+			// copy through one buffer instead of one new array per row
+			AbstractWeightMatrix matrix = (AbstractWeightMatrix) rows;
+			double[] row = new double[matrix.getRowLength()];
+			for (int x = 0; x < getCount(); x++)
+			{
+				setValueAtOffset(matrix.getRow(x, row), x);
+			}
+			return;
+		}
+		for (int x = 0; x < getCount(); x++)
+		{
+			double[] row = rows.getValueFromOffset(x);
+			if (row != null)
+			{
+				setValueAtOffset(row, x);
+			}
+		}
+	}
+
+	/**
+	 * Make sure a row to be stored has the right length.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if it does not.
+	 */
+	protected void checkRowLength(double[] value)
+	{
+		if (value.length != rowLength)
+		{
+			throw new IllegalArgumentException("Expected " + rowLength + " weights, got " + value.length + ".");
+		}
+	}
+
+	/**
+	 * Returns a copy of the weights at the given offset.
+	 *
+	 * @see org.plsomlib.util.IterativeArray#getValueFromOffset(int)
+	 */
+	@Override
+	public double[] getValueFromOffset(int offset)
+	{
+		return getRow(offset, new double[rowLength]);
+	}
+
+	/**
+	 * Returns a copy of the weights at the given position.
+	 *
+	 * @see org.plsomlib.util.IterativeArray#getValue(int[])
+	 */
+	@Override
+	public double[] getValue(int... position)
+	{
+		return getValueFromOffset(getOffset(position));
+	}
+
+	/**
+	 * Copies the values into the matrix.
+	 *
+	 * @see org.plsomlib.util.IterativeArray#setValue(java.lang.Object, int[])
+	 */
+	@Override
+	public void setValue(double[] value, int... position)
+	{
+		setValueAtOffset(value, getOffset(position));
+	}
+
+	/**
+	 * Returns a snapshot of the weights, one copied array per node.
+	 *
+	 * @see org.plsomlib.util.IterativeArray#toArray()
+	 */
+	@Override
+	public Object[] toArray()
+	{
+		Object[] res = new Object[getCount()];
+		for (int x = 0; x < res.length; x++)
+		{
+			res[x] = getValueFromOffset(x);
+		}
+		return res;
+	}
+
+	/**
+	 * Create an IterativeArray with one separate array per node, holding the
+	 * same values as this matrix.
+	 *
+	 * @return a new IterativeArray.
+	 */
+	public IterativeArray<double[]> toRows()
+	{
+		IterativeArray<double[]> res = new IterativeArray<double[]>(getDimensions());
+		for (int x = 0; x < getCount(); x++)
+		{
+			res.setValueAtOffset(getValueFromOffset(x), x);
+		}
+		return res;
+	}
+
+	/**
+	 * Gets a deep copy of this object.
+	 *
+	 * @see org.plsomlib.util.IterativeArray#clone()
+	 */
+	@Override
+	public abstract Object clone();
+}
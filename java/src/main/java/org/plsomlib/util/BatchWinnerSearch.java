@@ -0,0 +1,189 @@
+package org.plsomlib.util;
+
+import org.plsomlib.metrics.DistanceKernel;
+import org.plsomlib.metrics.EuclideanMetric;
+import org.plsomlib.metrics.Metric;
+import org.plsomlib.metrics.SquaredEuclideanMetric;
+
+/**
+ * Finds the winners of many inputs at once for maps with Euclidean input
+ * distances. The squared distance from a node w to an input x is expanded as
+ * ||w||^2 - 2w.x + ||x||^2, and since ||x||^2 is the same for all nodes the
+ * winner is the node with the smallest ||w||^2 - 2w.x. With the node norms
+ * known, each comparison is a single dot product.
+ * 
+ * The inputs and nodes are processed in tiles: a tile of nodes small enough
+ * to stay in the cache is compared with a tile of inputs before moving on to
+ * the next tile of nodes, so the weights are read from memory once per tile
+ * of inputs instead of once per input.
+ * 
+ * The expansion is subject to cancellation when the distance is small
+ * compared to the norms, so inputs that are almost equally close to two
+ * nodes may get a different winner than with a plain scan.
+ * 
+ * @author Erik Berglund
+ */
+public class BatchWinnerSearch
+{
+	/**
+	 * The number of inputs in a tile.
+	 */
+	public static final int INPUT_TILE = 16;
+
+	/**
+	 * The approximate number of weights in a tile of nodes, chosen so that a
+	 * tile fits in a typical level 1 or 2 cache.
+	 */
+	public static final int NODE_TILE_WEIGHTS = 4096;
+
+	private BatchWinnerSearch()
+	{
+	}
+
+	/**
+	 * Check whether the winners of a map can be found by dot products.
+	 * 
+	 * @param metric
+	 *            the input metric of the map.
+	 * @return true for the EuclideanMetric and SquaredEuclideanMetric.
+	 */
+	public static boolean isSupported(Metric metric)
+	{
+		return metric.getClass() == EuclideanMetric.class || metric.getClass() == SquaredEuclideanMetric.class;
+	}
+
+	/**
+	 * Calculate the squared norm of each row of a weight matrix.
+	 * 
+	 * @param weights
+	 *            the weights.
+	 * @param norms
+	 *            receives the squared norm of each row, must have at least one
+	 *            element per node.
+	 * @return norms.
+	 */
+	public static double[] computeNorms(WeightMatrix weights, double[] norms)
+	{
+		DistanceKernel kernel = DistanceKernel.getInstance();
+		double[] data = weights.getData();
+		int rowLength = weights.getRowLength();
+		for (int x = 0, row = 0; x < weights.getCount(); x++, row += rowLength)
+		{
+			norms[x] = kernel.dotProduct(data, row, data, row, rowLength);
+		}
+		return norms;
+	}
+
+	/**
+	 * Find the winner of one input, the node with the smallest ||w||^2 - 2w.x,
+	 * the lowest offset among equal values.
+	 * 
+	 * @param weights
+	 *            the weights of the map.
+	 * @param norms
+	 *            the squared norm of each row of weights.
+	 * @param input
+	 *            the array holding the input.
+	 * @param inputOffset
+	 *            the index of the first element of the input.
+	 * @return the offset of the winning node.
+	 */
+	public static int findWinner(WeightMatrix weights, double[] norms, double[] input, int inputOffset)
+	{
+		final DistanceKernel kernel = DistanceKernel.getInstance();
+		final double[] data = weights.getData();
+		final int rowLength = weights.getRowLength();
+		double best = Double.POSITIVE_INFINITY;
+		int winner = 0;
+		for (int x = 0, row = 0; x < weights.getCount(); x++, row += rowLength)
+		{
+			double score = norms[x] - 2 * kernel.dotProduct(data, row, input, inputOffset, rowLength);
+			if (score < best)
+			{
+				best = score;
+				winner = x;
+			}
+		}
+		return winner;
+	}
+
+	/**
+	 * Find the winner of each of a block of inputs. The result for an input is
+	 * the node with the smallest ||w||^2 - 2w.x, the lowest offset among
+	 * equal values.
+	 * 
+	 * @param weights
+	 *            the weights of the map.
+	 * @param norms
+	 *            the squared norm of each row of weights.
+	 * @param inputs
+	 *            the inputs, stored one after the other.
+	 * @param inputOffset
+	 *            the index of the first element of the first input.
+	 * @param count
+	 *            the number of inputs.
+	 * @param winners
+	 *            receives the offset of the winning node of each input.
+	 * @param winnersOffset
+	 *            the index in winners of the result of the first input.
+	 */
+	public static void findWinners(WeightMatrix weights, double[] norms, double[] inputs, int inputOffset, int count, int[] winners,
+			int winnersOffset)
+	{
+		final DistanceKernel kernel = DistanceKernel.getInstance();
+		final double[] data = weights.getData();
+		final int rowLength = weights.getRowLength();
+		final int nodeCount = weights.getCount();
+		final int nodeTile = Math.max(1, NODE_TILE_WEIGHTS / Math.max(1, rowLength));
+		final double[] best = new double[INPUT_TILE];
+		final int[] bestNode = new int[INPUT_TILE];
+		final double[] dots = new double[4];
+		for (int firstInput = 0; firstInput < count; firstInput += INPUT_TILE)
+		{
+			final int tileSize = Math.min(INPUT_TILE, count - firstInput);
+			for (int i = 0; i < tileSize; i++)
+			{
+				best[i] = Double.POSITIVE_INFINITY;
+				bestNode[i] = 0;
+			}
+			for (int firstNode = 0; firstNode < nodeCount; firstNode += nodeTile)
+			{
+				final int lastNode = Math.min(nodeCount, firstNode + nodeTile);
+				int i = 0;
+				// compare each node with four inputs at a time, so that each
+				// weight is loaded once for four independent sums
+				for (; i + 4 <= tileSize; i += 4)
+				{
+					final int input = inputOffset + (firstInput + i) * rowLength;
+					for (int x = firstNode, row = firstNode * rowLength; x < lastNode; x++, row += rowLength)
+					{
+						kernel.dotProduct4(data, row, inputs, input, rowLength, rowLength, dots, 0);
+						for (int j = 0; j < 4; j++)
+						{
+							double score = norms[x] - 2 * dots[j];
+							if (score < best[i + j])
+							{
+								best[i + j] = score;
+								bestNode[i + j] = x;
+							}
+						}
+					}
+				}
+				for (; i < tileSize; i++)
+				{
+					final int input = inputOffset + (firstInput + i) * rowLength;
+					for (int x = firstNode, row = firstNode * rowLength; x < lastNode; x++, row += rowLength)
+					{
+						double score = norms[x] - 2 * kernel.dotProduct(data, row, inputs, input, rowLength);
+						if (score < best[i])
+						{
+							best[i] = score;
+							bestNode[i] = x;
+						}
+					}
+				}
+			}
+			System.arraycopy(bestNode, 0, winners, winnersOffset + firstInput, tileSize);
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package org.plsomlib.util;
+
+/**
+ * Finds a node with a small value in two passes over the output grid. The
+ * coarse pass evaluates a shadow grid made of every stride-th node along each
+ * dimension, plus the last node of each dimension. The fine pass evaluates
+ * all nodes in a box around the best shadow node, reaching one stride plus a
+ * margin in each direction. On a topologically ordered map the winner lies
+ * close to the best shadow node, and the two passes together evaluate a
+ * fraction of about 1/stride^D of the D-dimensional grid.
+ *
+ * The result is the best node in the box, which is not necessarily the node
+ * with the smallest value on a map that is not well ordered. An instance must
+ * not be used by more than one thread at a time.
+ *
+ * @author Erik Berglund
+ */
+public class CoarseToFineSearch
+{
+	private final IterativeArray<?> grid;
+	private final int[] dimensions;
+	private final int stride;
+
+	/**
+	 * The offsets of the nodes of the shadow grid, in increasing order.
+	 */
+	private final int[] shadow;
+
+	/**
+	 * The bounds of the box of the fine pass, and the current position in
+	 * it.
+	 */
+	private final int[] low;
+	private final int[] high;
+	private final int[] position;
+
+	private double min;
+	private int evaluations;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param grid
+	 *            an array with the dimensions of the map, used to translate
+	 *            between offsets and positions.
+	 * @param stride
+	 *            the distance between the nodes of the shadow grid along each
+	 *            dimension.
+	 */
+	public CoarseToFineSearch(IterativeArray<?> grid, int stride)
+	{
+		if (stride < 1)
+		{
+			throw new IllegalArgumentException("The stride must be positive.");
+		}
+		this.grid = grid;
+		this.dimensions = grid.getDimensions().clone();
+		this.stride = stride;
+		this.low = new int[dimensions.length];
+		this.high = new int[dimensions.length];
+		this.position = new int[dimensions.length];
+		// the coordinates of the shadow grid along each dimension
+		int[][] coordinates = new int[dimensions.length][];
+		int count = 1;
+		for (int d = 0; d < dimensions.length; d++)
+		{
+			int last = dimensions[d] - 1;
+			coordinates[d] = new int[last / stride + (last % stride == 0 ? 1 : 2)];
+			for (int x = 0; x < coordinates[d].length; x++)
+			{
+				coordinates[d][x] = Math.min(x * stride, last);
+			}
+			count *= coordinates[d].length;
+		}
+		// the first dimension varies fastest, so the offsets increase
+		this.shadow = new int[count];
+		int[] index = new int[dimensions.length];
+		for (int x = 0; x < count; x++)
+		{
+			for (int d = 0; d < dimensions.length; d++)
+			{
+				position[d] = coordinates[d][index[d]];
+			}
+			shadow[x] = grid.getOffset(position);
+			for (int d = 0; d < dimensions.length && ++index[d] == coordinates[d].length; d++)
+			{
+				index[d] = 0;
+			}
+		}
+	}
+
+	/**
+	 * @return the distance between the nodes of the shadow grid.
+	 */
+	public int getStride()
+	{
+		return stride;
+	}
+
+	/**
+	 * @return the number of nodes in the shadow grid.
+	 */
+	public int getShadowCount()
+	{
+		return shadow.length;
+	}
+
+	/**
+	 * Find the best node near the best node of the shadow grid.
+	 *
+	 * @param evaluator
+	 *            the function to minimise. The bound passed to it is the
+	 *            smallest value found so far.
+	 * @param margin
+	 *            the number of nodes beyond one stride that the fine pass
+	 *            reaches in each direction.
+	 * @return the offset of the node with the smallest value in the box, the
+	 *         lowest offset among equal values.
+	 */
+	public int findMin(ParallelWinnerSearch.Evaluator evaluator, int margin)
+	{
+		double best = Double.POSITIVE_INFINITY;
+		int coarse = shadow[0];
+		for (int x = 0; x < shadow.length; x++)
+		{
+			double value = evaluator.evaluate(shadow[x], best);
+			if (value < best)
+			{
+				best = value;
+				coarse = shadow[x];
+			}
+		}
+		evaluations = shadow.length;
+		// scan the box around the coarse winner in order of offset
+		int[] center = grid.getPosition(coarse);
+		int reach = stride + margin;
+		for (int d = 0; d < dimensions.length; d++)
+		{
+			low[d] = Math.max(0, center[d] - reach);
+			high[d] = Math.min(dimensions[d] - 1, center[d] + reach);
+			position[d] = low[d];
+		}
+		best = Double.POSITIVE_INFINITY;
+		int winner = coarse;
+		while (true)
+		{
+			int offset = grid.getOffset(position);
+			double value = evaluator.evaluate(offset, best);
+			evaluations++;
+			if (value < best)
+			{
+				best = value;
+				winner = offset;
+			}
+			int d = 0;
+			while (d < position.length && ++position[d] > high[d])
+			{
+				position[d] = low[d];
+				d++;
+			}
+			if (d == position.length)
+			{
+				break;
+			}
+		}
+		min = best;
+		return winner;
+	}
+
+	/**
+	 * @return the value of the node found by the last search.
+	 */
+	public double getMin()
+	{
+		return min;
+	}
+
+	/**
+	 * @return the number of nodes evaluated by the last search.
+	 */
+	public int getEvaluations()
+	{
+		return evaluations;
+	}
+}
@@ -100,6 +100,40 @@ public class DiameterBuffer implements Serializable
 		return this.bufferMetric;
 	}
 
+	/**
+	 * Get the samples kept in the buffer.
+	 * 
+	 * @return copies of the samples, in the order they were added.
+	 */
+	public double[][] getSamples()
+	{
+		double[][] res = new double[buffer.size()][];
+		for (int x = 0; x < res.length; x++)
+		{
+			res[x] = buffer.get(x).clone();
+		}
+		return res;
+	}
+
+	/**
+	 * Replace the contents of the buffer, for instance with the samples and
+	 * diameter of a buffer that was stored.
+	 * 
+	 * @param samples
+	 *            the samples to keep, copied.
+	 * @param maxDiameter
+	 *            the diameter of the samples.
+	 */
+	public void setSamples(double[][] samples, double maxDiameter)
+	{
+		buffer.clear();
+		for (double[] d : samples)
+		{
+			buffer.add(d.clone());
+		}
+		this.maxDiameter = maxDiameter;
+	}
+
 	/**
 	 * @see java.lang.Object#clone()
 	 */
@@ -0,0 +1,128 @@
+package org.plsomlib.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A set of node offsets, for keeping track of the nodes whose weights have
+ * changed since some work was last done on them. Each node is flagged in an
+ * array, so marking a node that is already marked costs nothing, and the
+ * marked nodes are listed in the order they were marked, so going through
+ * them and clearing the set cost time in proportion to the number of marked
+ * nodes, not the size of the map.
+ *
+ * Nodes can be marked from several threads at once as long as each node is
+ * only marked by one thread at a time, for instance during a parallel weight
+ * update where each thread updates its own nodes. Reading and clearing the
+ * set must not overlap with marking.
+ *
+ * @author Erik Berglund
+ */
+public class DirtySet
+{
+	private final boolean[] marked;
+	private final int[] nodes;
+	private final AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * Class constructor. No nodes are initially marked.
+	 *
+	 * @param capacity
+	 *            the number of nodes, marked nodes must have offsets from 0 up
+	 *            to capacity-1.
+	 */
+	public DirtySet(int capacity)
+	{
+		this.marked = new boolean[capacity];
+		this.nodes = new int[capacity];
+	}
+
+	/**
+	 * Mark a node. Marking a marked node has no effect.
+	 *
+	 * @param offset
+	 *            the offset of the node.
+	 */
+	public void mark(int offset)
+	{
+		if (!marked[offset])
+		{
+			marked[offset] = true;
+			nodes[count.getAndIncrement()] = offset;
+		}
+	}
+
+	/**
+	 * Mark all nodes.
+	 */
+	public void markAll()
+	{
+		for (int x = 0; x < marked.length; x++)
+		{
+			mark(x);
+		}
+	}
+
+	/**
+	 * @param offset
+	 *            the offset of a node.
+	 * @return true if the node is marked.
+	 */
+	public boolean isMarked(int offset)
+	{
+		return marked[offset];
+	}
+
+	/**
+	 * @return the number of marked nodes.
+	 */
+	public int getCount()
+	{
+		return count.get();
+	}
+
+	/**
+	 * @return the number of nodes that can be marked.
+	 */
+	public int getCapacity()
+	{
+		return marked.length;
+	}
+
+	/**
+	 * Get a marked node.
+	 *
+	 * @param index
+	 *            the index of the node in the order the nodes were marked,
+	 *            from 0 up to getCount()-1.
+	 * @return the offset of the node.
+	 */
+	public int getNode(int index)
+	{
+		return nodes[index];
+	}
+
+	/**
+	 * @return the offsets of the marked nodes in increasing order, in a new
+	 *         array.
+	 */
+	public int[] toSortedArray()
+	{
+		int[] res = Arrays.copyOf(nodes, count.get());
+		Arrays.sort(res);
+		return res;
+	}
+
+	/**
+	 * Unmark all nodes.
+	 */
+	public void clear()
+	{
+		int size = count.get();
+		for (int x = 0; x < size; x++)
+		{
+			marked[nodes[x]] = false;
+		}
+		count.set(0);
+	}
+}
@@ -41,6 +41,23 @@ public class IterativeArray<V> implements Serializable, Iterable<V>
 	}
 
 	public IterativeArray(int... dimensions)
+	{
+		this(dimensions, true);
+	}
+
+	/**
+	 * Constructor for subclasses that store the values themselves and
+	 * override the methods that access them. If storeValues is false, no
+	 * array of values and no cache of positions is allocated, and
+	 * getPosition(...) calculates each position when it is asked for, so the
+	 * array holds no objects per entry.
+	 * 
+	 * @param dimensions
+	 *            the number of and size of the dimensions.
+	 * @param storeValues
+	 *            true to store the values in this class.
+	 */
+	protected IterativeArray(int[] dimensions, boolean storeValues)
 	{
 		this.dimensions = dimensions;
 		this.factors = new int[this.dimensions.length];
@@ -51,8 +68,8 @@ public class IterativeArray<V> implements Serializable, Iterable<V>
 			factors[x] = count;
 			count *= dimensions[x];
 		}
-		data = new Object[count];
-		positions = new int[count][];
+		data = storeValues ? new Object[count] : null;
+		positions = storeValues ? new int[count][] : null;
 	}
 
 	/**
@@ -88,21 +105,43 @@ public class IterativeArray<V> implements Serializable, Iterable<V>
 	 */
 	public int[] getPosition(int offset)
 	{
+		if (this.positions == null)
+		{
+			return getPosition(offset, new int[factors.length]);
+		}
 		int[] res = this.positions[offset];
 		if (res == null)
 		{
-			res = new int[factors.length];
+			res = getPosition(offset, new int[factors.length]);
+			// only publish the position once it is complete, so that other
+			// threads never see a partial position
 			this.positions[offset] = res;
-			for (int x = factors.length - 1; x > 0; x--)
-			{
-				res[x] = offset / factors[x];
-				offset -= res[x] * factors[x];
-			}
-			res[0] = offset / factors[0];
 		}
 		return res;
 	}
 
+	/**
+	 * Translates from an offset into the data to an n-dimensional position,
+	 * without allocating memory.
+	 * 
+	 * @param offset
+	 *            the offset.
+	 * @param destination
+	 *            receives the position, must have one element per dimension.
+	 * @return destination.
+	 */
+	public int[] getPosition(int offset, int[] destination)
+	{
+		int remainder = offset;
+		for (int x = factors.length - 1; x > 0; x--)
+		{
+			destination[x] = remainder / factors[x];
+			remainder -= destination[x] * factors[x];
+		}
+		destination[0] = remainder / factors[0];
+		return destination;
+	}
+
 	public int[] getDimensions()
 	{
 		return this.dimensions;
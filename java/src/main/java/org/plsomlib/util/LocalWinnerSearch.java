@@ -0,0 +1,149 @@
+package org.plsomlib.util;
+
+/**
+ * Finds a node with a locally minimal value by hill-climbing on the output
+ * grid. Starting from a given node, the search moves to the best of the
+ * neighbours of the current node, the nodes whose coordinates differ by at
+ * most one in each dimension, as long as that neighbour is better than the
+ * current node. When the inputs are temporally coherent the winner is usually
+ * close to the previous winner, and the search then evaluates a few
+ * neighbourhoods instead of the whole map.
+ * 
+ * The result is a local minimum, which is not necessarily the node with the
+ * smallest value. An instance must not be used by more than one thread at a
+ * time.
+ * 
+ * @author Erik Berglund
+ */
+public class LocalWinnerSearch
+{
+	private final IterativeArray<?> grid;
+	private final int[] dimensions;
+
+	/**
+	 * The difference in offset between neighbours along each dimension.
+	 */
+	private final int[] strides;
+
+	/**
+	 * The coordinate difference to the neighbour being evaluated, -1, 0 or 1
+	 * in each dimension.
+	 */
+	private final int[] delta;
+
+	private double min;
+	private int evaluations;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param grid
+	 *            an array with the dimensions of the map, used to translate
+	 *            between offsets and positions.
+	 */
+	public LocalWinnerSearch(IterativeArray<?> grid)
+	{
+		this.grid = grid;
+		this.dimensions = grid.getDimensions().clone();
+		this.strides = new int[dimensions.length];
+		int[] unit = new int[dimensions.length];
+		for (int d = 0; d < dimensions.length; d++)
+		{
+			if (dimensions[d] > 1)
+			{
+				unit[d] = 1;
+				strides[d] = grid.getOffset(unit);
+				unit[d] = 0;
+			}
+		}
+		this.delta = new int[dimensions.length];
+	}
+
+	/**
+	 * Climb from a node to a local minimum.
+	 * 
+	 * @param start
+	 *            the offset of the node to start from.
+	 * @param evaluator
+	 *            the function to minimise. The bound passed to it is the value
+	 *            of the current node.
+	 * @return the offset of the local minimum.
+	 */
+	public int findMin(int start, ParallelWinnerSearch.Evaluator evaluator)
+	{
+		int current = start;
+		double best = evaluator.evaluate(current, Double.POSITIVE_INFINITY);
+		evaluations = 1;
+		while (true)
+		{
+			final int[] position = grid.getPosition(current);
+			int next = current;
+			// go through all combinations of -1, 0 and 1 in each dimension
+			for (int d = 0; d < delta.length; d++)
+			{
+				delta[d] = -1;
+			}
+			while (true)
+			{
+				int offset = current;
+				boolean inside = false;
+				for (int d = 0; d < delta.length; d++)
+				{
+					int coordinate = position[d] + delta[d];
+					if (coordinate < 0 || coordinate >= dimensions[d])
+					{
+						inside = false;
+						offset = -1;
+						break;
+					}
+					offset += delta[d] * strides[d];
+					inside |= delta[d] != 0;
+				}
+				if (inside)
+				{
+					double value = evaluator.evaluate(offset, best);
+					evaluations++;
+					if (value < best)
+					{
+						best = value;
+						next = offset;
+					}
+				}
+				// advance to the next combination
+				int d = 0;
+				while (d < delta.length && ++delta[d] > 1)
+				{
+					delta[d] = -1;
+					d++;
+				}
+				if (d == delta.length)
+				{
+					break;
+				}
+			}
+			if (next == current)
+			{
+				break;
+			}
+			current = next;
+		}
+		min = best;
+		return current;
+	}
+
+	/**
+	 * @return the value of the node found by the last search.
+	 */
+	public double getMin()
+	{
+		return min;
+	}
+
+	/**
+	 * @return the number of nodes evaluated by the last search.
+	 */
+	public int getEvaluations()
+	{
+		return evaluations;
+	}
+}
@@ -0,0 +1,358 @@
+package org.plsomlib.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.plsomlib.metrics.Metric;
+
+/**
+ * An IterativeArray of weight vectors stored outside the Java heap, in direct
+ * ByteBuffers. The garbage collector neither scans nor moves the weights, so
+ * maps with millions of nodes do not lengthen collection pauses, and the
+ * distance calculations read the buffers directly through the Metric methods
+ * that take a ByteBuffer.
+ *
+ * The weights are laid out row by row like in a WeightMatrix, but split into
+ * chunks of whole rows, since a ByteBuffer holds at most 2GB. The weights of
+ * the node at offset n start at the double index getRowOffset(n) of
+ * getBuffer(n). The accessors inherited from IterativeArray copy values in
+ * and out of the buffers, and like the other subclasses of
+ * AbstractWeightMatrix it keeps no object per node.
+ *
+ * The weights can also be read from a file mapped into memory, see
+ * map(...), so that a map can classify without loading its weights.
+ *
+ * The memory is released when the matrix has been garbage collected, or at
+ * once by close(). Since close() frees memory that a buffer obtained from the
+ * matrix may still point to, it must only be called once no thread uses the
+ * matrix any more, after which the matrix must not be used. The matrix is
+ * serialised as a WeightMatrix.
+ *
+ * @author Erik Berglund
+ * @see WeightMatrix
+ */
+public class OffHeapWeightMatrix extends AbstractWeightMatrix implements Closeable
+{
+	private static final long serialVersionUID = -6404233964301577532L;
+
+	/**
+	 * The largest number of bytes in one chunk.
+	 */
+	private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+	/**
+	 * The number of rows in each chunk but the last.
+	 */
+	private final int rowsPerChunk;
+
+	/**
+	 * The weights of all nodes, row by row, or null once closed.
+	 */
+	private transient ByteBuffer[] chunks;
+
+	/**
+	 * Class constructor. All weights are initially zero.
+	 *
+	 * @param rowLength
+	 *            the number of weights per node.
+	 * @param dimensions
+	 *            the number of and size of the dimensions.
+	 */
+	public OffHeapWeightMatrix(int rowLength, int... dimensions)
+	{
+		this(dimensions, rowLength);
+		for (int x = 0; x < chunks.length; x++)
+		{
+			chunks[x] = ByteBuffer.allocateDirect(getChunkRows(x) * rowLength * Double.BYTES).order(ByteOrder.nativeOrder());
+		}
+	}
+
+	/**
+	 * Class constructor for the factory methods, creates the array of chunks
+	 * but not the chunks themselves.
+	 */
+	private OffHeapWeightMatrix(int[] dimensions, int rowLength)
+	{
+		super(rowLength, dimensions);
+		this.rowsPerChunk = Math.max(1, MAX_CHUNK_BYTES / Math.max(1, rowLength * Double.BYTES));
+		this.chunks = new ByteBuffer[(getCount() + rowsPerChunk - 1) / rowsPerChunk];
+	}
+
+	/**
+	 * Create a matrix backed by a region of a file mapped into memory. The
+	 * region holds the weights as little-endian doubles, node by node in
+	 * order of offset. Changes to the weights of a writable matrix are written
+	 * to the file. The channel can be closed once this method returns, the
+	 * mapping stays valid until the matrix is closed or garbage collected.
+	 *
+	 * @param channel
+	 *            the channel of the file.
+	 * @param position
+	 *            the position in the file of the first weight.
+	 * @param writable
+	 *            true to map the file for reading and writing, false to map it
+	 *            read-only, in which case changing a weight throws a
+	 *            ReadOnlyBufferException.
+	 * @param rowLength
+	 *            the number of weights per node.
+	 * @param dimensions
+	 *            the number of and size of the dimensions.
+	 * @return the new matrix.
+	 * @throws IOException
+	 *             if the file could not be mapped.
+	 */
+	public static OffHeapWeightMatrix map(FileChannel channel, long position, boolean writable, int rowLength, int... dimensions)
+			throws IOException
+	{
+		OffHeapWeightMatrix res = new OffHeapWeightMatrix(dimensions, rowLength);
+		MapMode mode = writable ? MapMode.READ_WRITE : MapMode.READ_ONLY;
+		long chunkBytes = (long) res.rowsPerChunk * rowLength * Double.BYTES;
+		for (int x = 0; x < res.chunks.length; x++)
+		{
+			res.chunks[x] = channel.map(mode, position + x * chunkBytes, res.getChunkRows(x) * rowLength * Double.BYTES).order(
+					ByteOrder.LITTLE_ENDIAN);
+		}
+		return res;
+	}
+
+	/**
+	 * @return the number of rows in a chunk.
+	 */
+	private int getChunkRows(int chunk)
+	{
+		return Math.min(rowsPerChunk, getCount() - chunk * rowsPerChunk);
+	}
+
+	/**
+	 * Class constructor. Creates a matrix with the same dimensions and
+	 * contents as an IterativeArray of weight vectors.
+	 *
+	 * @param rowLength
+	 *            the number of weights per node.
+	 * @param rows
+	 *            the weight vectors to copy.
+	 */
+	public OffHeapWeightMatrix(int rowLength, IterativeArray<double[]> rows)
+	{
+		this(rowLength, rows.getDimensions());
+		copyRows(rows);
+	}
+
+	/**
+	 * Returns the buffer holding the weights of a node. Changes to the buffer
+	 * are reflected in the matrix. Only absolute get and put methods may be
+	 * used, so that several threads can read the buffer at once.
+	 *
+	 * @param offset
+	 *            the offset of the node.
+	 * @return the buffer holding the weights of the node.
+	 * @throws IllegalStateException
+	 *             if the matrix has been closed.
+	 */
+	public ByteBuffer getBuffer(int offset)
+	{
+		ByteBuffer[] current = this.chunks;
+		if (current == null)
+		{
+			throw new IllegalStateException("The weights have been released.");
+		}
+		return current[offset / rowsPerChunk];
+	}
+
+	/**
+	 * Get the index of the first weight of a node in its buffer, counted in
+	 * doubles.
+	 *
+	 * @param offset
+	 *            the offset of the node.
+	 * @return the index of the first weight in the buffer returned by
+	 *         getBuffer(offset).
+	 */
+	public int getRowOffset(int offset)
+	{
+		return (offset % rowsPerChunk) * getRowLength();
+	}
+
+	/**
+	 * @see org.plsomlib.util.AbstractWeightMatrix#getRow(int, double[])
+	 */
+	@Override
+	public double[] getRow(int offset, double[] destination)
+	{
+		ByteBuffer buffer = getBuffer(offset);
+		int start = getRowOffset(offset) * Double.BYTES;
+		int rowLength = getRowLength();
+		for (int x = 0; x < rowLength; x++)
+		{
+			destination[x] = buffer.getDouble(start + x * Double.BYTES);
+		}
+		return destination;
+	}
+
+	/**
+	 * Copies the values into the matrix.
+	 *
+	 * @see org.plsomlib.util.IterativeArray#setValueAtOffset(java.lang.Object,
+	 *      int)
+	 */
+	@Override
+	public void setValueAtOffset(double[] value, int offset)
+	{
+		checkRowLength(value);
+		ByteBuffer buffer = getBuffer(offset);
+		int start = getRowOffset(offset) * Double.BYTES;
+		int rowLength = getRowLength();
+		for (int x = 0; x < rowLength; x++)
+		{
+			buffer.putDouble(start + x * Double.BYTES, value[x]);
+		}
+	}
+
+	/**
+	 * @see org.plsomlib.util.AbstractWeightMatrix#getDistance(Metric, int,
+	 *      double[], int)
+	 */
+	@Override
+	public double getDistance(Metric metric, int offset, double[] point, int pointOffset)
+	{
+		return metric.getDistance(getBuffer(offset), getRowOffset(offset), point, pointOffset, getRowLength());
+	}
+
+	/**
+	 * @see org.plsomlib.util.AbstractWeightMatrix#getComparableDistance(Metric,
+	 *      int, double[], int)
+	 */
+	@Override
+	public double getComparableDistance(Metric metric, int offset, double[] point, int pointOffset)
+	{
+		return metric.getComparableDistance(getBuffer(offset), getRowOffset(offset), point, pointOffset, getRowLength());
+	}
+
+	/**
+	 * @see org.plsomlib.util.AbstractWeightMatrix#getBoundedDistance(Metric,
+	 *      int, double[], int, int[], double)
+	 */
+	@Override
+	public double getBoundedDistance(Metric metric, int offset, double[] point, int pointOffset, int[] order, double bound)
+	{
+		return metric.getBoundedDistance(getBuffer(offset), getRowOffset(offset), point, pointOffset, getRowLength(), order, bound);
+	}
+
+	/**
+	 * Updates the weights in place, with byte indexes into the buffer.
+	 *
+	 * @see org.plsomlib.util.AbstractWeightMatrix#adaptRow(int, double[],
+	 *      double)
+	 */
+	@Override
+	public double adaptRow(int offset, double[] target, double rate)
+	{
+		ByteBuffer buffer = getBuffer(offset);
+		int index = getRowOffset(offset) * Double.BYTES;
+		int rowLength = getRowLength();
+		double norm = 0;
+		for (int x = 0; x < rowLength; x++, index += Double.BYTES)
+		{
+			double value = buffer.getDouble(index);
+			value += rate * (target[x] - value);
+			buffer.putDouble(index, value);
+			norm += value * value;
+		}
+		return norm;
+	}
+
+	/**
+	 * Gets a deep copy of this object, in newly allocated memory.
+	 *
+	 * @see org.plsomlib.util.IterativeArray#clone()
+	 */
+	@Override
+	public Object clone()
+	{
+		OffHeapWeightMatrix res = new OffHeapWeightMatrix(getRowLength(), getDimensions());
+		for (int x = 0; x < chunks.length; x++)
+		{
+			ByteBuffer source = getBuffer(x * rowsPerChunk);
+			ByteBuffer target = res.chunks[x];
+			if (source.order() == target.order())
+			{
+				// duplicates, so that the positions of the buffers are not moved
+				ByteBuffer bytes = source.duplicate();
+				bytes.clear();
+				target.duplicate().put(bytes);
+			}
+			else
+			{
+				// a mapped file in the other byte order
+				for (int index = 0; index < source.capacity(); index += Double.BYTES)
+				{
+					target.putDouble(index, source.getDouble(index));
+				}
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return true if the memory has been released.
+	 */
+	public boolean isClosed()
+	{
+		return chunks == null;
+	}
+
+	/**
+	 * Release the memory holding the weights at once, instead of when the
+	 * matrix is garbage collected. The matrix can not be used afterwards, and
+	 * no thread may still be reading it or a buffer obtained from it, since
+	 * the memory is freed under it. Closing a closed matrix has no effect.
+	 */
+	public void close()
+	{
+		ByteBuffer[] current = this.chunks;
+		this.chunks = null;
+		if (current != null)
+		{
+			for (ByteBuffer chunk : current)
+			{
+				release(chunk);
+			}
+		}
+	}
+
+	/**
+	 * Free the memory of a direct buffer at once, if the JVM allows it.
+	 * Otherwise it is freed when the buffer is garbage collected.
+	 */
+	private static void release(ByteBuffer buffer)
+	{
+		try
+		{
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			invokeCleaner.invoke(field.get(null), buffer);
+		}
+		catch (Exception e)
+		{
+			// not supported by this JVM, leave it to the garbage collector
+		}
+	}
+
+	/**
+	 * The buffers can not be serialised, write a WeightMatrix with the same
+	 * contents instead.
+	 */
+	private Object writeReplace() throws ObjectStreamException
+	{
+		return new WeightMatrix(getRowLength(), this);
+	}
+}
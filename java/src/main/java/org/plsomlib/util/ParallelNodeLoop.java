@@ -0,0 +1,161 @@
+package org.plsomlib.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Applies an action to every node of a map. The nodes are split into
+ * contiguous chunks of offsets that are processed in parallel in a
+ * ForkJoinPool, so that work which is independent for each node, such as the
+ * weight update, uses all the threads of the pool.
+ *
+ * The tasks are allocated once, so running the loop does not allocate any
+ * memory. Each chunk also owns a position buffer that it hands to the action,
+ * so that the action can find the position of a node without allocating an
+ * array for it. An instance must not be used by more than one thread at a
+ * time.
+ *
+ * @author Erik Berglund
+ */
+public class ParallelNodeLoop
+{
+	/**
+	 * The number of chunks per thread, which evens out chunks that finish
+	 * early.
+	 */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	/**
+	 * The work to do for each node.
+	 *
+	 * @author Erik Berglund
+	 */
+	public interface NodeAction
+	{
+		/**
+		 * Process one node. This is called from several threads at once, so
+		 * implementations must only change state that belongs to the node.
+		 *
+		 * @param offset
+		 *            the offset of the node.
+		 * @param position
+		 *            a buffer with one element per dimension of the map,
+		 *            owned by the calling thread for the duration of the call,
+		 *            for example for IterativeArray.getPosition(int, int[]).
+		 */
+		public void apply(int offset, int[] position);
+	}
+
+	private final ForkJoinPool pool;
+	private final Chunk[] chunks;
+	private final RecursiveAction root;
+	private final int[] position;
+
+	private NodeAction action;
+	private int count;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param pool
+	 *            the pool to run the chunks in.
+	 * @param dimensions
+	 *            the number of dimensions of the map, which is the length of
+	 *            the position buffers handed to the action.
+	 */
+	public ParallelNodeLoop(ForkJoinPool pool, int dimensions)
+	{
+		this.pool = pool;
+		this.position = new int[dimensions];
+		int chunkCount = Math.max(1, pool.getParallelism() * CHUNKS_PER_THREAD);
+		this.chunks = new Chunk[chunkCount];
+		for (int x = 0; x < chunkCount; x++)
+		{
+			chunks[x] = new Chunk(x, dimensions);
+		}
+		this.root = new RecursiveAction()
+		{
+			private static final long serialVersionUID = 7710529325367025096L;
+
+			@Override
+			protected void compute()
+			{
+				ForkJoinTask.invokeAll(chunks);
+			}
+		};
+	}
+
+	/**
+	 * @return the pool the chunks run in.
+	 */
+	public ForkJoinPool getPool()
+	{
+		return pool;
+	}
+
+	/**
+	 * Apply an action to all nodes.
+	 *
+	 * @param count
+	 *            the number of nodes, the nodes have offsets 0 to count-1.
+	 * @param action
+	 *            the action to apply to each node.
+	 * @param parallel
+	 *            true to process the nodes in the pool, false to process them
+	 *            in order in the calling thread.
+	 */
+	public void run(int count, NodeAction action, boolean parallel)
+	{
+		if (!parallel)
+		{
+			for (int x = 0; x < count; x++)
+			{
+				action.apply(x, position);
+			}
+			return;
+		}
+		this.count = count;
+		this.action = action;
+		try
+		{
+			for (Chunk chunk : chunks)
+			{
+				chunk.reinitialize();
+			}
+			root.reinitialize();
+			pool.invoke(root);
+		}
+		finally
+		{
+			this.action = null;
+		}
+	}
+
+	/**
+	 * Processes one contiguous range of offsets.
+	 */
+	private class Chunk extends RecursiveAction
+	{
+		private static final long serialVersionUID = -6133920486425731879L;
+		private final int index;
+		private final int[] position;
+
+		Chunk(int index, int dimensions)
+		{
+			this.index = index;
+			this.position = new int[dimensions];
+		}
+
+		@Override
+		protected void compute()
+		{
+			int from = (int) ((long) count * index / chunks.length);
+			int to = (int) ((long) count * (index + 1) / chunks.length);
+			for (int x = from; x < to; x++)
+			{
+				action.apply(x, position);
+			}
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package org.plsomlib.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the node with the smallest value of some function, typically the
+ * distance from the weights of the node to the input. The nodes are split
+ * into contiguous chunks of offsets that are evaluated in parallel in a
+ * ForkJoinPool, and the results of the chunks are then reduced in order.
+ *
+ * The result is the same as that of a sequential scan that keeps the first
+ * node with a value strictly smaller than all previous values: each chunk
+ * keeps its lowest offset among equal values, and a later chunk only wins if
+ * its value is strictly smaller. Nodes with a NaN value never win, and if no
+ * node has a value smaller than positive infinity the winner is offset 0.
+ *
+ * The tasks and the arrays holding the partial results are allocated once, so
+ * a search does not allocate any memory. An instance must not be used by more
+ * than one thread at a time.
+ *
+ * @author Erik Berglund
+ */
+public class ParallelWinnerSearch
+{
+	/**
+	 * The default number of nodes below which the search is sequential.
+	 */
+	public static final int DEFAULT_THRESHOLD = 10000;
+
+	/**
+	 * The number of chunks per thread, which evens out chunks that finish
+	 * early.
+	 */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	/**
+	 * The function to minimise.
+	 *
+	 * @author Erik Berglund
+	 */
+	public interface Evaluator
+	{
+		/**
+		 * Evaluate a node. This is called from several threads at once, so
+		 * implementations must not change any state shared between nodes.
+		 *
+		 * @param offset
+		 *            the offset of the node.
+		 * @param bound
+		 *            the smallest value found so far in the chunk this node
+		 *            belongs to. Implementations may return any value greater
+		 *            than bound as soon as they know the value of the node will
+		 *            be greater than bound.
+		 * @return the value of the node.
+		 */
+		public double evaluate(int offset, double bound);
+	}
+
+	private final ForkJoinPool pool;
+	private final Chunk[] chunks;
+	private final RecursiveAction root;
+	private final double[] chunkMin;
+	private final int[] chunkWinner;
+
+	private Evaluator evaluator;
+	private int count;
+	private double min;
+	private int winner;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param pool
+	 *            the pool to run the chunks in.
+	 */
+	public ParallelWinnerSearch(ForkJoinPool pool)
+	{
+		this.pool = pool;
+		int chunkCount = Math.max(1, pool.getParallelism() * CHUNKS_PER_THREAD);
+		this.chunks = new Chunk[chunkCount];
+		for (int x = 0; x < chunkCount; x++)
+		{
+			chunks[x] = new Chunk(x);
+		}
+		this.chunkMin = new double[chunkCount];
+		this.chunkWinner = new int[chunkCount];
+		this.root = new RecursiveAction()
+		{
+			private static final long serialVersionUID = -2947102764387839613L;
+
+			@Override
+			protected void compute()
+			{
+				ForkJoinTask.invokeAll(chunks);
+			}
+		};
+	}
+
+	/**
+	 * @return the pool the chunks run in.
+	 */
+	public ForkJoinPool getPool()
+	{
+		return pool;
+	}
+
+	/**
+	 * Find the node with the smallest value.
+	 *
+	 * @param count
+	 *            the number of nodes, the nodes have offsets 0 to count-1.
+	 * @param evaluator
+	 *            the function to minimise.
+	 * @param parallel
+	 *            true to evaluate the nodes in the pool, false to evaluate them
+	 *            sequentially in the calling thread.
+	 * @return the offset of the winning node.
+	 */
+	public int findMin(int count, Evaluator evaluator, boolean parallel)
+	{
+		if (!parallel)
+		{
+			min = Double.POSITIVE_INFINITY;
+			winner = 0;
+			for (int x = 0; x < count; x++)
+			{
+				double value = evaluator.evaluate(x, min);
+				if (value < min)
+				{
+					min = value;
+					winner = x;
+				}
+			}
+			return winner;
+		}
+		this.count = count;
+		this.evaluator = evaluator;
+		try
+		{
+			for (Chunk chunk : chunks)
+			{
+				chunk.reinitialize();
+			}
+			root.reinitialize();
+			pool.invoke(root);
+		}
+		finally
+		{
+			this.evaluator = null;
+		}
+		// reduce in order, so that ties go to the lowest offset
+		min = Double.POSITIVE_INFINITY;
+		winner = 0;
+		for (int x = 0; x < chunks.length; x++)
+		{
+			if (chunkMin[x] < min)
+			{
+				min = chunkMin[x];
+				winner = chunkWinner[x];
+			}
+		}
+		return winner;
+	}
+
+	/**
+	 * @return the value of the winner of the last search, or positive
+	 *         infinity if no node had a smaller value.
+	 */
+	public double getMin()
+	{
+		return min;
+	}
+
+	/**
+	 * @return the offset of the winner of the last search.
+	 */
+	public int getWinner()
+	{
+		return winner;
+	}
+
+	/**
+	 * Scans one contiguous range of offsets.
+	 */
+	private class Chunk extends RecursiveAction
+	{
+		private static final long serialVersionUID = 4530176384518452376L;
+		private final int index;
+
+		Chunk(int index)
+		{
+			this.index = index;
+		}
+
+		@Override
+		protected void compute()
+		{
+			int from = (int) ((long) count * index / chunks.length);
+			int to = (int) ((long) count * (index + 1) / chunks.length);
+			double best = Double.POSITIVE_INFINITY;
+			int bestOffset = from;
+			for (int x = from; x < to; x++)
+			{
+				double value = evaluator.evaluate(x, best);
+				if (value < best)
+				{
+					best = value;
+					bestOffset = x;
+				}
+			}
+			chunkMin[index] = best;
+			chunkWinner[index] = bestOffset;
+		}
+	}
+}
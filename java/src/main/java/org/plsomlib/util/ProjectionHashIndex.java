@@ -0,0 +1,479 @@
+package org.plsomlib.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Finds a node close to an input by locality-sensitive hashing of the node
+ * weights, comparing the input to a small set of candidate nodes instead of
+ * the whole map. Each of several hash tables projects a vector onto a few
+ * random Gaussian directions, cuts each projection into buckets of equal
+ * width, and uses the combination of bucket numbers as the key. Vectors that
+ * are close in Euclidean distance are likely to share a key in at least one
+ * table. A search compares the input to all nodes that share a key with it
+ * in any table.
+ *
+ * The result is approximate: the winner is only found if it shares a key with
+ * the input. More tables, or larger buckets, find the winner more often at
+ * the cost of more candidates per search. The buckets must be wide compared
+ * to the distance from a typical input to its winner, so the nodes are only
+ * hashed once the winners of some inputs have been found by other means and
+ * added as samples. The bucket width is then four times the mean distance of
+ * the samples to their winners, but at least wide enough that a bucket holds
+ * about the requested number of nodes on average.
+ *
+ * Nodes whose weights change can be marked as dirty, from several threads
+ * under the rules of DirtySet, and only the dirty nodes are rehashed before
+ * the next search. Otherwise an instance must not be used by more than one
+ * thread at a time.
+ *
+ * @author Erik Berglund
+ */
+public class ProjectionHashIndex
+{
+	/**
+	 * The number of random projections combined into the key of each table.
+	 * More projections give smaller buckets. This is independent of the input
+	 * dimension, since each projection adds a cut at a random angle.
+	 */
+	private static final int PROJECTIONS = 8;
+
+	/**
+	 * The maximum number of nodes used to estimate the spread of the weights.
+	 */
+	private static final int SAMPLE_SIZE = 1024;
+
+	/**
+	 * The number of inputs with known winners needed before the nodes are
+	 * hashed.
+	 */
+	public static final int CALIBRATION_SAMPLES = 32;
+
+	private final IterativeArray<double[]> weights;
+	private final int inputDimension;
+	private final int tables;
+	private final int projections;
+
+	/**
+	 * The projection directions, projections consecutive directions for
+	 * each table.
+	 */
+	private final double[] directions;
+
+	/**
+	 * The random shift of each projection, between 0 and width.
+	 */
+	private final double[] shifts;
+
+	private final int bucketSize;
+	private double width;
+
+	private int samples;
+	private double sampleDistance;
+
+	/**
+	 * The mask that turns a key into a slot of a table.
+	 */
+	private final int mask;
+
+	/**
+	 * The first node in each slot of each table, or -1.
+	 */
+	private final int[][] heads;
+
+	/**
+	 * The next node in the same slot of each table, or -1.
+	 */
+	private final int[][] next;
+
+	/**
+	 * The key of each node in each table.
+	 */
+	private final int[][] keys;
+
+	/**
+	 * The keys of the input being searched for.
+	 */
+	private final int[] inputKeys;
+
+	/**
+	 * The search each node was last evaluated in, so that nodes found in
+	 * several tables are only evaluated once.
+	 */
+	private final int[] visited;
+	private int search;
+
+	private final DirtySet dirty;
+
+	private double min;
+	private int candidates;
+
+	/**
+	 * Class constructor. The nodes are hashed once enough samples have been
+	 * added.
+	 *
+	 * @param weights
+	 *            the weights of the nodes, either one array per node or a
+	 *            WeightMatrix. The weights are not copied.
+	 * @param inputDimension
+	 *            the number of weights per node.
+	 * @param tables
+	 *            the number of hash tables.
+	 * @param bucketSize
+	 *            the average number of nodes per bucket the bucket width is
+	 *            chosen for.
+	 * @param seed
+	 *            the seed for the random projections.
+	 */
+	public ProjectionHashIndex(IterativeArray<double[]> weights, int inputDimension, int tables, int bucketSize, long seed)
+	{
+		if (tables < 1 || bucketSize < 1)
+		{
+			throw new IllegalArgumentException("The number of tables and the bucket size must be positive.");
+		}
+		this.weights = weights;
+		this.inputDimension = inputDimension;
+		this.tables = tables;
+		this.projections = PROJECTIONS;
+		int count = weights.getCount();
+		Random random = new Random(seed);
+		this.directions = new double[tables * projections * inputDimension];
+		for (int x = 0; x < directions.length; x++)
+		{
+			directions[x] = random.nextGaussian();
+		}
+		// the shifts are scaled by the width once it is known
+		this.shifts = new double[tables * projections];
+		for (int x = 0; x < shifts.length; x++)
+		{
+			shifts[x] = random.nextDouble();
+		}
+		this.bucketSize = bucketSize;
+		int slots = Integer.highestOneBit(Math.max(1, count - 1)) << 1;
+		this.mask = slots - 1;
+		this.heads = new int[tables][slots];
+		this.next = new int[tables][count];
+		this.keys = new int[tables][count];
+		this.inputKeys = new int[tables];
+		this.visited = new int[count];
+		this.dirty = new DirtySet(count);
+	}
+
+	/**
+	 * Add an input with a known winner, used to choose the bucket width.
+	 * Once CALIBRATION_SAMPLES samples have been added the nodes are hashed,
+	 * and further samples are ignored.
+	 *
+	 * @param input
+	 *            the input.
+	 * @param winner
+	 *            the offset of the node closest to the input.
+	 */
+	public void addSample(double[] input, int winner)
+	{
+		if (isBuilt())
+		{
+			return;
+		}
+		double[] data = getData(winner);
+		int start = getStart(winner);
+		double sum = 0;
+		for (int x = 0; x < inputDimension; x++)
+		{
+			double diff = data[start + x] - input[x];
+			sum += diff * diff;
+		}
+		sampleDistance += Math.sqrt(sum);
+		if (++samples == CALIBRATION_SAMPLES)
+		{
+			build();
+		}
+	}
+
+	/**
+	 * @return true if the nodes have been hashed and the index can be
+	 *         searched.
+	 */
+	public boolean isBuilt()
+	{
+		return width > 0;
+	}
+
+	/**
+	 * @return the number of hash tables.
+	 */
+	public int getTables()
+	{
+		return tables;
+	}
+
+	/**
+	 * @return the width of the buckets of each projection, or 0 if the nodes
+	 *         have not been hashed yet.
+	 */
+	public double getWidth()
+	{
+		return width;
+	}
+
+	/**
+	 * Mark a node whose weights have changed, so that it is rehashed before
+	 * the next search.
+	 *
+	 * @param offset
+	 *            the offset of the node.
+	 */
+	public void markDirty(int offset)
+	{
+		if (isBuilt())
+		{
+			dirty.mark(offset);
+		}
+	}
+
+	/**
+	 * @return the number of nodes waiting to be rehashed.
+	 */
+	public int getDirtyCount()
+	{
+		return dirty.getCount();
+	}
+
+	/**
+	 * Rehash the nodes that have been marked as dirty. Nodes whose keys did
+	 * not change stay where they are.
+	 */
+	public void rehashDirty()
+	{
+		int count = dirty.getCount();
+		for (int x = 0; x < count; x++)
+		{
+			int node = dirty.getNode(x);
+			computeKeys(getData(node), getStart(node), null, 0);
+			for (int t = 0; t < tables; t++)
+			{
+				if (inputKeys[t] != keys[t][node])
+				{
+					unlink(t, node);
+					keys[t][node] = inputKeys[t];
+					link(t, node);
+				}
+			}
+		}
+		dirty.clear();
+	}
+
+	/**
+	 * Find the best of the nodes that share a key with an input. Dirty nodes
+	 * are rehashed first. Must not be called before the index is built.
+	 *
+	 * @param input
+	 *            the input.
+	 * @param evaluator
+	 *            the function to minimise, typically the distance from the
+	 *            weights of a node to the input. The bound passed to it is the
+	 *            smallest value found so far.
+	 * @return the offset of the candidate with the smallest value, the lowest
+	 *         offset among equal values, or -1 if no node shares a key with
+	 *         the input.
+	 */
+	public int findMin(double[] input, ParallelWinnerSearch.Evaluator evaluator)
+	{
+		rehashDirty();
+		computeKeys(input, 0, null, 0);
+		if (++search == 0)
+		{
+			// the counter wrapped around, forget the old searches
+			Arrays.fill(visited, 0);
+			search = 1;
+		}
+		int winner = -1;
+		double best = Double.POSITIVE_INFINITY;
+		candidates = 0;
+		for (int t = 0; t < tables; t++)
+		{
+			int key = inputKeys[t];
+			for (int node = heads[t][key & mask]; node >= 0; node = next[t][node])
+			{
+				if (keys[t][node] == key && visited[node] != search)
+				{
+					visited[node] = search;
+					candidates++;
+					double value = evaluator.evaluate(node, best);
+					if (value < best || (value == best && node < winner))
+					{
+						best = value;
+						winner = node;
+					}
+				}
+			}
+		}
+		min = best;
+		return winner;
+	}
+
+	/**
+	 * @return the value of the node found by the last search, or positive
+	 *         infinity if there were no candidates.
+	 */
+	public double getMin()
+	{
+		return min;
+	}
+
+	/**
+	 * @return the number of nodes evaluated by the last search.
+	 */
+	public int getCandidates()
+	{
+		return candidates;
+	}
+
+	/**
+	 * Choose the bucket width and hash all nodes.
+	 */
+	private void build()
+	{
+		int count = weights.getCount();
+		double widthForSamples = 4 * sampleDistance / samples;
+		double widthForSpread = getSpreadWidth(count);
+		this.width = Math.max(widthForSamples, widthForSpread);
+		if (!(width > 0))
+		{
+			// all weights and inputs are equal, any width will do
+			this.width = 1;
+		}
+		for (int x = 0; x < shifts.length; x++)
+		{
+			shifts[x] *= width;
+		}
+		for (int t = 0; t < tables; t++)
+		{
+			Arrays.fill(heads[t], -1);
+		}
+		for (int x = 0; x < count; x++)
+		{
+			computeKeys(getData(x), getStart(x), keys, x);
+			for (int t = 0; t < tables; t++)
+			{
+				link(t, x);
+			}
+		}
+	}
+
+	/**
+	 * Calculate the bucket width for which the number of buckets a table
+	 * spreads the nodes over gives about bucketSize nodes per bucket. The
+	 * nodes span about four standard deviations along each projection,
+	 * estimated from a sample of the nodes.
+	 */
+	private double getSpreadWidth(int count)
+	{
+		int step = Math.max(1, count / SAMPLE_SIZE);
+		int sampled = 0;
+		double sum = 0;
+		double sumSquares = 0;
+		for (int x = 0; x < count; x += step, sampled++)
+		{
+			double[] data = getData(x);
+			int start = getStart(x);
+			for (int p = 0; p < tables * projections; p++)
+			{
+				double value = project(data, start, p);
+				sum += value;
+				sumSquares += value * value;
+			}
+		}
+		double n = (double) sampled * tables * projections;
+		double deviation = Math.sqrt(Math.max(0, sumSquares / n - (sum / n) * (sum / n)));
+		double bucketsPerProjection = Math.pow(Math.max(1.0, (double) count / bucketSize), 1.0 / projections);
+		return 4 * deviation / bucketsPerProjection;
+	}
+
+	/**
+	 * Calculate the key of a vector in each table.
+	 *
+	 * @param destination
+	 *            receives the key of each table at index node, or null to
+	 *            store the keys in inputKeys.
+	 */
+	private void computeKeys(double[] data, int start, int[][] destination, int node)
+	{
+		for (int t = 0; t < tables; t++)
+		{
+			int key = 0;
+			for (int p = t * projections; p < (t + 1) * projections; p++)
+			{
+				int bucket = (int) Math.floor((project(data, start, p) + shifts[p]) / width);
+				key = key * 0x9E3779B1 + bucket;
+			}
+			// spread the bits so that nearby bucket numbers use different slots
+			key ^= key >>> 16;
+			key *= 0x85EBCA6B;
+			key ^= key >>> 13;
+			if (destination == null)
+			{
+				inputKeys[t] = key;
+			}
+			else
+			{
+				destination[t][node] = key;
+			}
+		}
+	}
+
+	/**
+	 * @return the projection of a vector onto one of the directions.
+	 */
+	private double project(double[] data, int start, int projection)
+	{
+		double sum = 0;
+		int direction = projection * inputDimension;
+		for (int x = 0; x < inputDimension; x++)
+		{
+			sum += data[start + x] * directions[direction + x];
+		}
+		return sum;
+	}
+
+	private void link(int table, int node)
+	{
+		int slot = keys[table][node] & mask;
+		next[table][node] = heads[table][slot];
+		heads[table][slot] = node;
+	}
+
+	private void unlink(int table, int node)
+	{
+		int slot = keys[table][node] & mask;
+		int current = heads[table][slot];
+		if (current == node)
+		{
+			heads[table][slot] = next[table][node];
+			return;
+		}
+		while (next[table][current] != node)
+		{
+			current = next[table][current];
+		}
+		next[table][current] = next[table][node];
+	}
+
+	private double[] getData(int offset)
+	{
+		if (weights instanceof WeightMatrix)
+		{
+			return ((WeightMatrix) weights).getData();
+		}
+		return weights.getValueFromOffset(offset);
+	}
+
+	private int getStart(int offset)
+	{
+		if (weights instanceof WeightMatrix)
+		{
+			return ((WeightMatrix) weights).getRowOffset(offset);
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,156 @@
+package org.plsomlib.util;
+
+/**
+ * Keeps the k nodes with the smallest values out of all nodes offered to it,
+ * typically the k nodes closest to an input. The nodes are kept in a bounded
+ * max-heap stored in arrays supplied by the caller, so collecting does not
+ * allocate any memory, and each offer costs O(log k) at most. Nodes with
+ * equal values are ordered by offset, lowest first, and nodes with a NaN
+ * value are ignored, so the best node is the same one a sequential winner
+ * search would find.
+ *
+ * An instance must not be used by more than one thread at a time.
+ *
+ * @author Erik Berglund
+ */
+public class TopKCollector
+{
+	private int[] offsets;
+	private double[] values;
+	private int k;
+	private int size;
+
+	/**
+	 * Start collecting.
+	 *
+	 * @param k
+	 *            the number of nodes to keep.
+	 * @param offsets
+	 *            receives the offsets of the nodes, must have at least k
+	 *            elements.
+	 * @param values
+	 *            receives the values of the nodes, must have at least k
+	 *            elements.
+	 * @throws IllegalArgumentException
+	 *             if k is not positive or the arrays are too short.
+	 */
+	public void reset(int k, int[] offsets, double[] values)
+	{
+		if (k < 1 || offsets.length < k || values.length < k)
+		{
+			throw new IllegalArgumentException("k must be positive and the result arrays must hold k elements.");
+		}
+		this.k = k;
+		this.offsets = offsets;
+		this.values = values;
+		this.size = 0;
+	}
+
+	/**
+	 * @return the value a node must beat to be kept: the largest kept value
+	 *         once k nodes are kept, positive infinity before that.
+	 */
+	public double getBound()
+	{
+		return size < k ? Double.POSITIVE_INFINITY : values[0];
+	}
+
+	/**
+	 * Offer a node.
+	 *
+	 * @param offset
+	 *            the offset of the node.
+	 * @param value
+	 *            the value of the node.
+	 */
+	public void offer(int offset, double value)
+	{
+		if (Double.isNaN(value))
+		{
+			return;
+		}
+		if (size < k)
+		{
+			// add at the bottom and move up past better nodes
+			int child = size++;
+			while (child > 0)
+			{
+				int parent = (child - 1) >>> 1;
+				if (!isWorse(offset, value, offsets[parent], values[parent]))
+				{
+					break;
+				}
+				offsets[child] = offsets[parent];
+				values[child] = values[parent];
+				child = parent;
+			}
+			offsets[child] = offset;
+			values[child] = value;
+		}
+		else if (isWorse(offsets[0], values[0], offset, value))
+		{
+			siftDown(offset, value, size);
+		}
+	}
+
+	/**
+	 * Stop collecting and sort the kept nodes.
+	 *
+	 * @return the number of nodes kept, at most k. The first that many
+	 *         elements of the arrays hold the kept nodes, best first.
+	 */
+	public int finish()
+	{
+		// heap sort, moving the worst remaining node to the end each time
+		for (int end = size - 1; end > 0; end--)
+		{
+			int offset = offsets[end];
+			double value = values[end];
+			offsets[end] = offsets[0];
+			values[end] = values[0];
+			siftDown(offset, value, end);
+		}
+		int res = size;
+		this.offsets = null;
+		this.values = null;
+		return res;
+	}
+
+	/**
+	 * Put a node at the top of a heap of a given size and move it down past
+	 * worse nodes.
+	 */
+	private void siftDown(int offset, double value, int heapSize)
+	{
+		int parent = 0;
+		while (true)
+		{
+			int child = 2 * parent + 1;
+			if (child >= heapSize)
+			{
+				break;
+			}
+			if (child + 1 < heapSize && isWorse(offsets[child + 1], values[child + 1], offsets[child], values[child]))
+			{
+				child++;
+			}
+			if (!isWorse(offsets[child], values[child], offset, value))
+			{
+				break;
+			}
+			offsets[parent] = offsets[child];
+			values[parent] = values[child];
+			parent = child;
+		}
+		offsets[parent] = offset;
+		values[parent] = value;
+	}
+
+	/**
+	 * @return true if node a ranks after node b.
+	 */
+	private static boolean isWorse(int aOffset, double aValue, int bOffset, double bValue)
+	{
+		return aValue > bValue || (aValue == bValue && aOffset > bOffset);
+	}
+}
@@ -0,0 +1,292 @@
+package org.plsomlib.util;
+
+import java.util.Random;
+
+import org.plsomlib.metrics.Metric;
+
+/**
+ * An immutable vantage point tree over the weights of the nodes of a map,
+ * which finds the node closest to an input without comparing the input to
+ * every node. Each internal node of the tree picks one map node as its
+ * vantage point and splits the remaining nodes at the median of their
+ * distances to it, into those inside and those outside a ball around the
+ * vantage point. A search compares the input to the vantage point and can
+ * then skip a half whose nodes the triangle inequality proves are further
+ * away than the best node found so far. Small ranges of nodes are scanned.
+ *
+ * The tree works with any input metric that obeys the triangle inequality.
+ * The result is exact: the node with the smallest comparable distance, the
+ * lowest offset among equal distances, the same winner as a plain scan of
+ * all nodes. The bounds are widened slightly so that rounding cannot prune
+ * the winner.
+ *
+ * The tree is laid out in two arrays: the offsets of the map nodes in tree
+ * order and the radius of the ball of each internal node. The node covering
+ * a range of the arrays keeps its vantage point at the start of the range,
+ * followed by the inside and then the outside half, so no child references
+ * are stored. Once built the tree is only read, so it can be searched from
+ * several threads at once, as long as the weights do not change.
+ *
+ * @author Erik Berglund
+ * @see Metric#obeysTriangleInequality()
+ */
+public class VantagePointTree
+{
+	/**
+	 * Ranges with at most this many nodes are scanned instead of split.
+	 */
+	private static final int LEAF_SIZE = 8;
+
+	/**
+	 * The relative amount by which the bounds are widened to allow for
+	 * rounding.
+	 */
+	private static final double SLACK = 1e-9;
+
+	private final WeightMatrix weights;
+	private final Metric metric;
+
+	/**
+	 * The offsets of the map nodes, in tree order.
+	 */
+	private final int[] nodes;
+
+	/**
+	 * The radius of the ball around the vantage point at the same index of
+	 * nodes, for internal nodes of the tree.
+	 */
+	private final double[] radii;
+
+	/**
+	 * Check whether a tree can be built for a map.
+	 *
+	 * @param metric
+	 *            the input metric of the map.
+	 * @return true if the metric obeys the triangle inequality.
+	 */
+	public static boolean isSupported(Metric metric)
+	{
+		return metric.obeysTriangleInequality();
+	}
+
+	/**
+	 * Class constructor, builds the tree. The weights are not copied, and must
+	 * not change while the tree is used.
+	 *
+	 * @param weights
+	 *            the weights of the nodes.
+	 * @param metric
+	 *            the input metric, must be supported.
+	 * @throws IllegalArgumentException
+	 *             if the metric does not obey the triangle inequality.
+	 * @see #isSupported(Metric)
+	 */
+	public VantagePointTree(WeightMatrix weights, Metric metric)
+	{
+		if (!isSupported(metric))
+		{
+			throw new IllegalArgumentException(metric.getClass().getName() + " does not obey the triangle inequality.");
+		}
+		this.weights = weights;
+		this.metric = metric;
+		int count = weights.getCount();
+		this.nodes = new int[count];
+		this.radii = new double[count];
+		for (int x = 0; x < count; x++)
+		{
+			nodes[x] = x;
+		}
+		// the vantage points are picked at random, with a fixed seed so that
+		// the same weights always give the same tree
+		build(0, count, new double[count], new Random(0));
+	}
+
+	/**
+	 * @return the weights the tree was built from.
+	 */
+	public WeightMatrix getWeights()
+	{
+		return weights;
+	}
+
+	/**
+	 * @return the metric the tree was built for.
+	 */
+	public Metric getMetric()
+	{
+		return metric;
+	}
+
+	/**
+	 * Find the node closest to an input.
+	 *
+	 * @param input
+	 *            the array holding the input.
+	 * @param inputOffset
+	 *            the index of the first element of the input.
+	 * @return the offset of the node with the smallest comparable distance to
+	 *         the input, the lowest offset among equal distances.
+	 */
+	public int findNearest(double[] input, int inputOffset)
+	{
+		Nearest best = new Nearest();
+		search(input, inputOffset, 0, nodes.length, best);
+		return best.offset;
+	}
+
+	/**
+	 * Split a range of nodes, and then each half, until the ranges are small
+	 * enough to scan.
+	 */
+	private void build(int from, int to, double[] distances, Random random)
+	{
+		while (to - from > LEAF_SIZE)
+		{
+			// move a random vantage point to the start of the range
+			swap(from, from + random.nextInt(to - from), distances);
+			double[] data = weights.getData();
+			int rowLength = weights.getRowLength();
+			int vantage = weights.getRowOffset(nodes[from]);
+			for (int x = from + 1; x < to; x++)
+			{
+				distances[x] = metric.getDistance(data, vantage, data, weights.getRowOffset(nodes[x]), rowLength);
+			}
+			int middle = getMiddle(from, to);
+			select(from + 1, to, middle, distances);
+			radii[from] = distances[middle];
+			build(from + 1, middle, distances, random);
+			from = middle;
+		}
+	}
+
+	/**
+	 * @return the start of the outside half of the range, the inside half
+	 *         starts after the vantage point.
+	 */
+	private static int getMiddle(int from, int to)
+	{
+		return from + 1 + (to - from - 1) / 2;
+	}
+
+	/**
+	 * Rearrange a range so that the element at index k has the distance it
+	 * would have if the range was sorted by distance, with no greater
+	 * distances before it and no smaller distances after it.
+	 */
+	private void select(int from, int to, int k, double[] distances)
+	{
+		int left = from;
+		int right = to - 1;
+		while (left < right)
+		{
+			double pivot = distances[(left + right) >>> 1];
+			int x = left;
+			int y = right;
+			while (x <= y)
+			{
+				while (distances[x] < pivot)
+				{
+					x++;
+				}
+				while (distances[y] > pivot)
+				{
+					y--;
+				}
+				if (x <= y)
+				{
+					swap(x, y, distances);
+					x++;
+					y--;
+				}
+			}
+			if (k <= y)
+			{
+				right = y;
+			}
+			else if (k >= x)
+			{
+				left = x;
+			}
+			else
+			{
+				return;
+			}
+		}
+	}
+
+	private void swap(int x, int y, double[] distances)
+	{
+		int node = nodes[x];
+		nodes[x] = nodes[y];
+		nodes[y] = node;
+		double distance = distances[x];
+		distances[x] = distances[y];
+		distances[y] = distance;
+	}
+
+	/**
+	 * Search the subtree covering a range of nodes.
+	 */
+	private void search(double[] input, int inputOffset, int from, int to, Nearest best)
+	{
+		double[] data = weights.getData();
+		int rowLength = weights.getRowLength();
+		if (to - from <= LEAF_SIZE)
+		{
+			for (int x = from; x < to; x++)
+			{
+				double comparable = metric.getComparableDistance(data, weights.getRowOffset(nodes[x]), input, inputOffset, rowLength);
+				best.consider(nodes[x], comparable, metric);
+			}
+			return;
+		}
+		double comparable = metric.getComparableDistance(data, weights.getRowOffset(nodes[from]), input, inputOffset, rowLength);
+		best.consider(nodes[from], comparable, metric);
+		double distance = metric.toDistance(comparable);
+		double radius = radii[from];
+		int middle = getMiddle(from, to);
+		// search the half the input is in first, it is more likely to hold the
+		// winner and make the bound for the other half tighter
+		if (distance < radius)
+		{
+			search(input, inputOffset, from + 1, middle, best);
+			if (radius - distance <= best.distance + SLACK * (radius + distance + best.distance))
+			{
+				search(input, inputOffset, middle, to, best);
+			}
+		}
+		else
+		{
+			search(input, inputOffset, middle, to, best);
+			if (distance - radius <= best.distance + SLACK * (radius + distance + best.distance))
+			{
+				search(input, inputOffset, from + 1, middle, best);
+			}
+		}
+	}
+
+	/**
+	 * The best node found so far by a search.
+	 */
+	private static final class Nearest
+	{
+		private int offset;
+		private double comparable = Double.POSITIVE_INFINITY;
+		private double distance = Double.POSITIVE_INFINITY;
+
+		/**
+		 * Keep a node if it is closer than the best so far, or as close with a
+		 * lower offset. Like a scan, the result is offset 0 if no node is
+		 * closer than positive infinity.
+		 */
+		void consider(int node, double nodeComparable, Metric metric)
+		{
+			if (nodeComparable < comparable || (nodeComparable == comparable && node < offset))
+			{
+				offset = node;
+				comparable = nodeComparable;
+				distance = metric.toDistance(nodeComparable);
+			}
+		}
+	}
+}
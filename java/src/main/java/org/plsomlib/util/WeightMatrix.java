@@ -0,0 +1,163 @@
+package org.plsomlib.util;
+
+import org.plsomlib.metrics.Metric;
+
+/**
+ * An IterativeArray of weight vectors where all the vectors are stored in a
+ * single, contiguous double array in row-major order. The weights of the node
+ * at offset n occupy the elements from n*getRowLength() to
+ * (n+1)*getRowLength()-1 of the array returned by getData().
+ *
+ * Since the rows are not separate objects, the accessors inherited from
+ * IterativeArray copy values in and out of the matrix. Changes to an array
+ * returned by getValue(...) or getValueFromOffset(...) are not reflected in
+ * the matrix, use setValue(...) or setValueAtOffset(...) to store them.
+ *
+ * @author Erik Berglund
+ */
+public class WeightMatrix extends AbstractWeightMatrix
+{
+	private static final long serialVersionUID = -2284806117463227372L;
+
+	/**
+	 * The weights of all nodes, row by row.
+	 */
+	private final double[] data;
+
+	/**
+	 * Class constructor. All weights are initially zero.
+	 *
+	 * @param rowLength
+	 *            the number of weights per node.
+	 * @param dimensions
+	 *            the number of and size of the dimensions.
+	 */
+	public WeightMatrix(int rowLength, int... dimensions)
+	{
+		super(rowLength, dimensions);
+		this.data = new double[getCount() * rowLength];
+	}
+
+	/**
+	 * Class constructor. Creates a matrix with the same dimensions and
+	 * contents as an IterativeArray of weight vectors.
+	 *
+	 * @param rowLength
+	 *            the number of weights per node.
+	 * @param rows
+	 *            the weight vectors to copy.
+	 */
+	public WeightMatrix(int rowLength, IterativeArray<double[]> rows)
+	{
+		this(rowLength, rows.getDimensions());
+		copyRows(rows);
+	}
+
+	/**
+	 * Returns a reference to the backing array. Changes to the returned array
+	 * are reflected in the matrix.
+	 *
+	 * @return the weights of all nodes in row-major order.
+	 */
+	public double[] getData()
+	{
+		return data;
+	}
+
+	/**
+	 * Get the index of the first weight of a node in the backing array.
+	 *
+	 * @param offset
+	 *            the offset of the node.
+	 * @return the index into the array returned by getData().
+	 */
+	public int getRowOffset(int offset)
+	{
+		return offset * getRowLength();
+	}
+
+	/**
+	 * @see org.plsomlib.util.AbstractWeightMatrix#getRow(int, double[])
+	 */
+	@Override
+	public double[] getRow(int offset, double[] destination)
+	{
+		System.arraycopy(data, offset * getRowLength(), destination, 0, getRowLength());
+		return destination;
+	}
+
+	/**
+	 * Copies the values into the matrix.
+	 *
+	 * @see org.plsomlib.util.IterativeArray#setValueAtOffset(java.lang.Object,
+	 *      int)
+	 */
+	@Override
+	public void setValueAtOffset(double[] value, int offset)
+	{
+		checkRowLength(value);
+		System.arraycopy(value, 0, data, offset * getRowLength(), getRowLength());
+	}
+
+	/**
+	 * @see org.plsomlib.util.AbstractWeightMatrix#getDistance(Metric, int,
+	 *      double[], int)
+	 */
+	@Override
+	public double getDistance(Metric metric, int offset, double[] point, int pointOffset)
+	{
+		return metric.getDistance(data, offset * getRowLength(), point, pointOffset, getRowLength());
+	}
+
+	/**
+	 * @see org.plsomlib.util.AbstractWeightMatrix#getComparableDistance(Metric,
+	 *      int, double[], int)
+	 */
+	@Override
+	public double getComparableDistance(Metric metric, int offset, double[] point, int pointOffset)
+	{
+		return metric.getComparableDistance(data, offset * getRowLength(), point, pointOffset, getRowLength());
+	}
+
+	/**
+	 * @see org.plsomlib.util.AbstractWeightMatrix#getBoundedDistance(Metric,
+	 *      int, double[], int, int[], double)
+	 */
+	@Override
+	public double getBoundedDistance(Metric metric, int offset, double[] point, int pointOffset, int[] order, double bound)
+	{
+		return metric.getBoundedDistance(data, offset * getRowLength(), point, pointOffset, getRowLength(), order, bound);
+	}
+
+	/**
+	 * @see org.plsomlib.util.AbstractWeightMatrix#adaptRow(int, double[],
+	 *      double)
+	 */
+	@Override
+	public double adaptRow(int offset, double[] target, double rate)
+	{
+		int rowLength = getRowLength();
+		int start = offset * rowLength;
+		double norm = 0;
+		for (int x = 0; x < rowLength; x++)
+		{
+			double value = data[start + x] + rate * (target[x] - data[start + x]);
+			data[start + x] = value;
+			norm += value * value;
+		}
+		return norm;
+	}
+
+	/**
+	 * Gets a deep copy of this object.
+	 *
+	 * @see org.plsomlib.util.IterativeArray#clone()
+	 */
+	@Override
+	public Object clone()
+	{
+		WeightMatrix res = new WeightMatrix(getRowLength(), getDimensions());
+		System.arraycopy(data, 0, res.data, 0, data.length);
+		return res;
+	}
+}
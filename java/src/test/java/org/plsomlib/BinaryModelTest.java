@@ -0,0 +1,210 @@
+package org.plsomlib;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+import org.plsomlib.util.IterativeArray;
+import org.plsomlib.util.WeightMatrix;
+
+/**
+ * @author Erik Berglund
+ *
+ */
+public class BinaryModelTest
+{
+
+    /**
+     * A PLSOM2 whose output dimensions are not the ones it was created with,
+     * so that the weights read for it never fit.
+     */
+    public static class GrowingPLSOM2 extends PLSOM2
+    {
+        private static final long serialVersionUID = 1L;
+
+        public GrowingPLSOM2(int inputSize, int... outputDimensions)
+        {
+            super(inputSize, outputDimensions[0]+1, outputDimensions[1]);
+        }
+    }
+
+    /**
+     * Make sure a PLSOM2 written by BinaryModel is read back with its weights
+     * and its training state, including the diameter buffer, with each kind of
+     * compression and with float weights.
+     */
+    @Test
+    public void testReadWrite() throws Exception
+    {
+        PLSOM2 plsom = new PLSOM2(2,50,60);
+        plsom.setNeighbourhoodRange(12);
+        Random r = new Random(23);
+        for (int i = 0;i<200;i++)
+        {
+            plsom.train(new double[]{r.nextDouble(),r.nextDouble()});
+        }
+        int[] compressions = new int[]{BinaryModel.NONE,BinaryModel.DEFLATE,BinaryModel.GZIP};
+        for (int compression:compressions)
+        {
+            if (compression==BinaryModel.GZIP)
+            {
+                plsom.setUseFloatWeights(true);
+            }
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            BinaryModel.write(plsom,bos,compression);
+            PLSOM2 nusom = (PLSOM2)BinaryModel.read(new ByteArrayInputStream(bos.toByteArray()));
+            assertEquals(plsom.isUseFloatWeights(),nusom.isUseFloatWeights());
+            assertEquals(plsom.getNeighbourhoodRange(),nusom.getNeighbourhoodRange(),0);
+            assertSameState(plsom,nusom);
+            // epsilon depends on the diameter buffer, so the maps only train
+            // alike if it was restored
+            for (int i = 0;i<50;i++)
+            {
+                double[] tmp = new double[]{r.nextDouble()*2,r.nextDouble()*2};
+                plsom.train(tmp);
+                nusom.train(tmp);
+            }
+            assertSameState(plsom,nusom);
+        }
+    }
+
+    /**
+     * Weights larger than one section are split into several, and must be
+     * read back into the same kind of storage.
+     */
+    @Test
+    public void testChunkedWeights() throws Exception
+    {
+        // 2.9MB of doubles or 1.4MB of floats, more than one section each
+        for (int storage = 0;storage<4;storage++)
+        {
+            PLSOM2 plsom = new PLSOM2(100,60,60);
+            plsom.setRandomSeed(storage);
+            plsom.initWeights();
+            if (storage==1)
+            {
+                plsom.setUseWeightMatrix(true);
+            }
+            else if (storage==2)
+            {
+                plsom.setUseFloatWeights(true);
+            }
+            else if (storage==3)
+            {
+                plsom.setUseOffHeapWeights(true);
+            }
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            BinaryModel.write(plsom,bos,storage==0 ? BinaryModel.NONE : BinaryModel.DEFLATE);
+            MapBaseImpl nusom = BinaryModel.read(new ByteArrayInputStream(bos.toByteArray()));
+            assertEquals(plsom.isUseWeightMatrix(),nusom.isUseWeightMatrix());
+            assertEquals(plsom.isUseFloatWeights(),nusom.isUseFloatWeights());
+            assertEquals(plsom.isUseOffHeapWeights(),nusom.isUseOffHeapWeights());
+            assertSameState(plsom,nusom);
+            plsom.releaseWeights();
+            nusom.releaseWeights();
+        }
+    }
+
+    /**
+     * Weights that do not fit the map are rejected when the map is created,
+     * and a model holding such weights can not be read.
+     */
+    @Test
+    public void testDimensionMismatch() throws Exception
+    {
+        try
+        {
+            MapBaseImpl.create(PLSOM2.class,2,new int[]{4,5},new WeightMatrix(2,5,4));
+            fail("Weights with other dimensions were installed.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+        try
+        {
+            MapBaseImpl.create(PLSOM2.class,2,new int[]{4,5},new WeightMatrix(3,4,5));
+            fail("Weights with another input dimension were installed.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+        IterativeArray<double[]> rows = new IterativeArray<double[]>(4,5);
+        for (int x = 1;x<rows.getCount();x++)
+        {
+            rows.setValueAtOffset(new double[2],x);
+        }
+        try
+        {
+            MapBaseImpl.create(PLSOM2.class,2,new int[]{4,5},rows);
+            fail("Weights with a missing node were installed.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+        rows.setValueAtOffset(new double[2],0);
+        assertEquals(20,MapBaseImpl.create(PLSOM2.class,2,new int[]{4,5},rows).getWeights().getCount());
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        BinaryModel.write(new GrowingPLSOM2(2,3,3),bos);
+        try
+        {
+            BinaryModel.read(new ByteArrayInputStream(bos.toByteArray()));
+            fail("Weights with other dimensions were read.");
+        }
+        catch (IOException e)
+        {
+            assertEquals(IllegalArgumentException.class,e.getCause().getClass());
+        }
+    }
+
+    /**
+     * Streams that do not hold a model in a known version are rejected.
+     */
+    @Test
+    public void testInvalidStream() throws Exception
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        BinaryModel.write(new PLSOM2(2,3,3),bos);
+        byte[] bytes = bos.toByteArray();
+        bytes[0] = 'X';
+        try
+        {
+            BinaryModel.read(new ByteArrayInputStream(bytes));
+            fail("A stream without the magic bytes was read.");
+        }
+        catch (IOException e)
+        {
+            //expected
+        }
+        bytes = bos.toByteArray();
+        // the little-endian version follows the magic bytes
+        bytes[8] = BinaryModel.VERSION+1;
+        try
+        {
+            BinaryModel.read(new ByteArrayInputStream(bytes));
+            fail("A later version was read.");
+        }
+        catch (IOException e)
+        {
+            //expected
+        }
+    }
+
+    private static void assertSameState(MapBase expected, MapBase actual)
+    {
+        double[] a = expected.getStateVector();
+        double[] b = actual.getStateVector();
+        assertEquals(a.length,b.length);
+        for (int x = 0;x<a.length;x++)
+        {
+            assertEquals(a[x],b[x],0);
+        }
+    }
+
+}
@@ -0,0 +1,244 @@
+package org.plsomlib;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Erik Berglund
+ *
+ */
+public class CheckpointLogTest
+{
+    /**
+     * The length of the magic bytes and the generation at the start of the
+     * file of deltas.
+     */
+    private static final int HEADER = 16;
+
+    private File dir;
+    private PLSOM2 plsom;
+    private Random r;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception
+    {
+        dir = File.createTempFile("plsom", ".ckpt");
+        dir.delete();
+        plsom = new PLSOM2(2,50,60);
+        plsom.setNeighbourhoodRange(12);
+        // only update the nodes near the winner, so that the checkpoints
+        // are deltas rather than snapshots
+        plsom.setNeighbourhoodCutoff(1e-3);
+        r = new Random(29);
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @After
+    public void tearDown() throws Exception
+    {
+        new File(dir,CheckpointLog.SNAPSHOT).delete();
+        new File(dir,CheckpointLog.DELTAS).delete();
+        dir.delete();
+    }
+
+    /**
+     * Make sure a map recovered from the checkpoints is the same as the map,
+     * both before and after a compaction, and when the last delta record was
+     * only partly written.
+     */
+    @Test
+    public void testRecover() throws Exception
+    {
+        CheckpointLog log = new CheckpointLog(plsom,dir);
+        try
+        {
+            assertSame(log,plsom.getCheckpointLog());
+            log.setCompactionInterval(3);
+            for (int c = 0;c<5;c++)
+            {
+                train(20);
+                assertTrue(log.getDirtyCount()>0);
+                log.checkpoint();
+                assertEquals(0,log.getDirtyCount());
+                assertSameState(plsom.getStateVector(),CheckpointLog.recover(dir));
+            }
+            assertTrue(log.getDeltaCount()>0);
+            // a torn record at the end of the log is ignored
+            FileOutputStream fos = new FileOutputStream(new File(dir,CheckpointLog.DELTAS),true);
+            fos.write(new byte[]{100,0,0,0,1,2,3});
+            fos.close();
+            PLSOM2 nusom = (PLSOM2)CheckpointLog.recover(dir);
+            assertSameState(plsom.getStateVector(),nusom);
+            // the cutoff is a run time setting, it is not checkpointed
+            nusom.setNeighbourhoodCutoff(plsom.getNeighbourhoodCutoff());
+            // epsilon depends on the diameter buffer, so the maps only train
+            // alike if it was restored
+            for (int i = 0;i<50;i++)
+            {
+                double[] tmp = new double[]{r.nextDouble()*2,r.nextDouble()*2};
+                plsom.train(tmp);
+                nusom.train(tmp);
+            }
+            assertSameState(plsom.getStateVector(),nusom);
+        }
+        finally
+        {
+            log.close();
+            assertNull(plsom.getCheckpointLog());
+        }
+    }
+
+    /**
+     * Recovery stops at a broken delta, and the deltas after it are not
+     * applied either.
+     */
+    @Test
+    public void testTornDeltaInTheMiddle() throws Exception
+    {
+        // early steps with a large neighbourhood change most nodes, start
+        // checkpointing once they only change the nodes near the winner
+        train(100);
+        CheckpointLog log = new CheckpointLog(plsom,dir);
+        double[][] states = new double[4][];
+        try
+        {
+            for (int c = 0;c<states.length;c++)
+            {
+                train(20);
+                log.checkpoint();
+                states[c] = plsom.getStateVector();
+            }
+            assertEquals(states.length,log.getDeltaCount());
+        }
+        finally
+        {
+            log.close();
+        }
+        assertSameState(states[3],CheckpointLog.recover(dir));
+        // flip a byte in the payload of the third delta
+        RandomAccessFile raf = new RandomAccessFile(new File(dir,CheckpointLog.DELTAS),"rw");
+        try
+        {
+            long position = HEADER;
+            for (int x = 0;x<2;x++)
+            {
+                raf.seek(position);
+                position += 4+Integer.reverseBytes(raf.readInt())+8;
+            }
+            raf.seek(position+4+10);
+            int value = raf.read();
+            raf.seek(position+4+10);
+            raf.write(value^0xff);
+        }
+        finally
+        {
+            raf.close();
+        }
+        assertSameState(states[1],CheckpointLog.recover(dir));
+    }
+
+    /**
+     * Deltas left over from an older snapshot are not applied to a newer
+     * one.
+     */
+    @Test
+    public void testGenerationMismatch() throws Exception
+    {
+        CheckpointLog log = new CheckpointLog(plsom,dir);
+        File deltas = new File(dir,CheckpointLog.DELTAS);
+        byte[] old;
+        double[] compacted;
+        try
+        {
+            for (int c = 0;c<2;c++)
+            {
+                train(20);
+                log.checkpoint();
+            }
+            old = Files.readAllBytes(deltas.toPath());
+            train(20);
+            log.compact();
+            compacted = plsom.getStateVector();
+            train(20);
+            log.checkpoint();
+            assertEquals(1,log.getDeltaCount());
+        }
+        finally
+        {
+            log.close();
+        }
+        assertSameState(plsom.getStateVector(),CheckpointLog.recover(dir));
+        // as if the new file of deltas had not been started when the process died
+        Files.write(deltas.toPath(),old);
+        assertSameState(compacted,CheckpointLog.recover(dir));
+        // a missing file of deltas leaves the snapshot
+        deltas.delete();
+        assertSameState(compacted,CheckpointLog.recover(dir));
+    }
+
+    /**
+     * A map can only be checkpointed by one open log.
+     */
+    @Test
+    public void testClose() throws Exception
+    {
+        CheckpointLog log = new CheckpointLog(plsom,dir);
+        try
+        {
+            new CheckpointLog(plsom,dir);
+            fail("The map was checkpointed twice.");
+        }
+        catch (IllegalStateException e)
+        {
+            //expected
+        }
+        log.close();
+        try
+        {
+            log.checkpoint();
+            fail("A closed log wrote a checkpoint.");
+        }
+        catch (IllegalStateException e)
+        {
+            //expected
+        }
+        train(20);
+        // a new log starts a new generation in the same directory
+        log = new CheckpointLog(plsom,dir);
+        log.close();
+        assertSameState(plsom.getStateVector(),CheckpointLog.recover(dir));
+    }
+
+    private void train(int steps)
+    {
+        for (int i = 0;i<steps;i++)
+        {
+            plsom.train(new double[]{r.nextDouble(),r.nextDouble()});
+        }
+    }
+
+    private static void assertSameState(double[] expected, MapBase actual)
+    {
+        double[] b = actual.getStateVector();
+        assertEquals(expected.length,b.length);
+        for (int x = 0;x<expected.length;x++)
+        {
+            assertEquals(expected[x],b[x],0);
+        }
+    }
+
+}
@@ -54,4 +54,52 @@ public class ExcitationPLSOMTest
 			System.out.println(eplsom.getExcitations()[eplsom.getWeights().getOffset(eplsom.getWinner())]);
 		}
 	}
+
+	/**
+	 * Assert that the top k nodes collected during the distance pass of an
+	 * ExcitationPLSOM are the same as those found by a PLSOM.
+	 */
+	@Test
+	public void testClassifyTopK() throws Exception
+	{
+		int inputSize = 5;
+		PLSOM plsom = new PLSOM(inputSize,10,10);
+		ExcitationPLSOM eplsom = new ExcitationPLSOM(inputSize,10,10);
+		plsom.setRandomSeed(3);
+		eplsom.setRandomSeed(3);
+		plsom.initWeights();
+		eplsom.initWeights();
+		Random rand = new Random(7);
+		double [] input = new double[inputSize];
+		for(int x = 0; x<500;x++)
+		{
+			for(int i = 0;i<inputSize;i++)
+			{
+				input[i]=rand.nextDouble();
+			}
+			plsom.train(input);
+			eplsom.train(input);
+		}
+		int k = 5;
+		int [] expectedOffsets = new int[k];
+		double [] expectedDistances = new double[k];
+		int [] offsets = new int[k];
+		double [] distances = new double[k];
+		for(int x = 0; x<100;x++)
+		{
+			for(int i = 0;i<inputSize;i++)
+			{
+				input[i]=rand.nextDouble();
+			}
+			assertEquals(k,plsom.classifyTopK(input,k,expectedOffsets,expectedDistances));
+			assertEquals(k,eplsom.classifyTopK(input,k,offsets,distances));
+			// the ExcitationPLSOM classified the input as well
+			assertEquals(eplsom.getWeights().getOffset(eplsom.getWinner()),offsets[0]);
+			for(int i = 0;i<k;i++)
+			{
+				assertEquals(expectedOffsets[i],offsets[i]);
+				assertEquals(expectedDistances[i],distances[i],1e-12);
+			}
+		}
+	}
 }
@@ -2,6 +2,7 @@ package org.plsomlib;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectOutputStream;
 import java.util.Random;
@@ -171,4 +172,82 @@ public class IEPLSOM2Test
 			oldData = nuData;
 		}
 	}
+
+	/**
+	 * Abandoning nodes early must not change the winners.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testEarlyAbandon() throws Exception
+	{
+		IEPLSOM2 full = new IEPLSOM2(32, 10, 10);
+		IEPLSOM2 abandon = new IEPLSOM2(32, 10, 10);
+		full.setNeighbourhoodRange(15);
+		abandon.setNeighbourhoodRange(15);
+		full.setRandomSeed(3);
+		abandon.setRandomSeed(3);
+		full.initWeights();
+		abandon.initWeights();
+		abandon.setEarlyAbandon(true);
+		double[] testData = new double[32];
+		Random r = new Random(4);
+		for (int x = 0; x < 1000; x++)
+		{
+			// give each input element a different range
+			for (int d = 0; d < testData.length; d++)
+			{
+				testData[d] = r.nextDouble() * (d + 1) / testData.length;
+			}
+			full.train(testData);
+			abandon.train(testData);
+			assertEquals(full.getWeights().getOffset(full.getWinner()), abandon.getWeights().getOffset(abandon.getWinner()));
+		}
+		// the widest element must be visited first
+		assertEquals(31, abandon.getSearchOrder()[0]);
+	}
+
+	/**
+	 * Make sure the importance scalings and the input ranges survive being
+	 * written and read by BinaryModel, by training the original and the copy
+	 * alike.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBinaryModel() throws Exception
+	{
+		IEPLSOM2 plsom = new IEPLSOM2(4, 8, 8);
+		plsom.setNeighbourhoodRange(10);
+		double[] testData = new double[4];
+		Random r = new Random(8);
+		for (int x = 0; x < 500; x++)
+		{
+			for (int d = 0; d < testData.length; d++)
+			{
+				testData[d] = r.nextDouble() * (d + 1);
+			}
+			plsom.train(testData);
+		}
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		BinaryModel.write(plsom, bos, BinaryModel.DEFLATE);
+		IEPLSOM2 copy = (IEPLSOM2) BinaryModel.read(new ByteArrayInputStream(bos.toByteArray()));
+		for (int x = 0; x < 100; x++)
+		{
+			for (int d = 0; d < testData.length; d++)
+			{
+				testData[d] = r.nextDouble() * (d + 1);
+			}
+			plsom.train(testData);
+			copy.train(testData);
+			assertEquals(plsom.getWeights().getOffset(plsom.getWinner()), copy.getWeights().getOffset(copy.getWinner()));
+		}
+		double[] expected = plsom.getStateVector();
+		double[] actual = copy.getStateVector();
+		assertEquals(expected.length, actual.length);
+		for (int x = 0; x < expected.length; x++)
+		{
+			assertEquals(expected[x], actual[x], 0);
+		}
+	}
 }
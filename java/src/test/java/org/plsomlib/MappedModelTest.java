@@ -0,0 +1,155 @@
+package org.plsomlib;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ReadOnlyBufferException;
+import java.util.Random;
+
+import org.junit.Test;
+import org.plsomlib.metrics.EuclideanMetric;
+import org.plsomlib.metrics.SquaredEuclideanMetric;
+import org.plsomlib.neighbourhood.GaussianNeighbourhoodFunction;
+import org.plsomlib.util.IterativeArray;
+import org.plsomlib.util.OffHeapWeightMatrix;
+
+/**
+ * @author Erik Berglund
+ *
+ */
+public class MappedModelTest
+{
+
+    /**
+     * Records the weights the map has when its constructor initialises it.
+     */
+    public static class RecordingPLSOM2 extends PLSOM2
+    {
+        private static final long serialVersionUID = 1L;
+        private static IterativeArray<double[]> initialWeights;
+
+        public RecordingPLSOM2(int inputSize, int... outputDimensions)
+        {
+            super(inputSize, outputDimensions);
+        }
+
+        @Override
+        public void initWeights()
+        {
+            if (initialWeights == null)
+            {
+                initialWeights = getWeights();
+            }
+            super.initWeights();
+        }
+    }
+
+    /**
+     * A map written as a mapped model must classify like the original once opened.
+     */
+    @Test
+    public void testOpen() throws Exception
+    {
+        PLSOM2 plsom = new PLSOM2(new SquaredEuclideanMetric(),new EuclideanMetric(),new GaussianNeighbourhoodFunction(),3,50,60);
+        plsom.setNeighbourhoodRange(60);
+        plsom.setRandomSeed(7);
+        plsom.initWeights();
+        double [] tmp = new double[3];
+        Random r = new Random(1);
+        for ( int x = 0;x< 500;x++ )
+        {
+            for ( int i = 0;i<tmp.length;i++ )
+            {
+                tmp[i] = r.nextDouble()*2-1;
+            }
+            plsom.train(tmp);
+        }
+        File file = File.createTempFile("plsom", ".map");
+        try
+        {
+            MappedModel.write(plsom,file);
+            MapBaseImpl mapped = MappedModel.open(file);
+            assertEquals(PLSOM2.class,mapped.getClass());
+            assertEquals(SquaredEuclideanMetric.class,mapped.getInputMetric().getClass());
+            assertTrue(mapped.isUseOffHeapWeights());
+            double [] expected = plsom.getStateVector();
+            double [] actual = mapped.getStateVector();
+            assertEquals(expected.length,actual.length);
+            for ( int x = 0;x<expected.length;x++ )
+            {
+                assertEquals(expected[x],actual[x],0);
+            }
+            Classification expectedResult = new Classification(2);
+            Classification actualResult = new Classification(2);
+            for ( int x = 0;x< 200;x++ )
+            {
+                for ( int i = 0;i<tmp.length;i++ )
+                {
+                    tmp[i] = r.nextDouble()*2-1;
+                }
+                plsom.classify(tmp,expectedResult);
+                mapped.classify(tmp,actualResult);
+                assertEquals(expectedResult.getOffset(),actualResult.getOffset());
+                assertEquals(expectedResult.getDistance(),actualResult.getDistance(),0);
+            }
+            //a read-only model can not be trained
+            try
+            {
+                mapped.train(tmp);
+                fail("A read-only model was trained.");
+            }
+            catch (ReadOnlyBufferException e)
+            {
+                //expected
+            }
+            //but it can be copied to the heap and trained there
+            mapped.setUseWeightMatrix(true);
+            mapped.train(tmp);
+            mapped.releaseWeights();
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /**
+     * Opening a mapped model must not build default weights, with an array
+     * per node, before the mapped weights are installed.
+     */
+    @Test
+    public void testOpenKeepsMappedWeights() throws Exception
+    {
+        RecordingPLSOM2.initialWeights = null;
+        RecordingPLSOM2 plsom = new RecordingPLSOM2(3,20,30);
+        assertFalse(RecordingPLSOM2.initialWeights instanceof OffHeapWeightMatrix);
+        File file = File.createTempFile("plsom", ".map");
+        try
+        {
+            MappedModel.write(plsom,file);
+            RecordingPLSOM2.initialWeights = null;
+            MapBaseImpl mapped = MappedModel.open(file);
+            assertEquals(RecordingPLSOM2.class,mapped.getClass());
+            // the constructor already initialised the map with the mapped weights
+            assertSame(mapped.getWeights(),RecordingPLSOM2.initialWeights);
+            assertTrue(mapped.getWeights() instanceof OffHeapWeightMatrix);
+            double [] expected = plsom.getStateVector();
+            double [] actual = mapped.getStateVector();
+            for ( int x = 0;x<expected.length;x++ )
+            {
+                assertEquals(expected[x],actual[x],0);
+            }
+            // initialising the weights again replaces them as before
+            mapped.setUseWeightMatrix(true);
+            mapped.initWeights();
+            assertTrue(mapped.getWeights().getValueFromOffset(0)[0]!=expected[0]);
+            mapped.releaseWeights();
+        }
+        finally
+        {
+            file.delete();
+            RecordingPLSOM2.initialWeights = null;
+        }
+    }
+
+}
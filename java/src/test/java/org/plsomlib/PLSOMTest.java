@@ -1,10 +1,18 @@
 package org.plsomlib;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 
 import junit.framework.Assert;
 import junit.framework.TestCase;
@@ -79,6 +87,513 @@ public class PLSOMTest extends TestCase
     }
 
 
+    /**
+     * Test that a PLSOM storing its weights in a WeightMatrix behaves exactly like one storing an array per node.
+     */
+    public void testWeightMatrix() throws Exception
+    {
+        PLSOM2 rows = new PLSOM2(3,mapWidth,mapHeight);
+        PLSOM2 matrix = new PLSOM2(3,mapWidth,mapHeight);
+        rows.setNeighbourhoodRange(60);
+        matrix.setNeighbourhoodRange(60);
+        rows.setRandomSeed(7);
+        matrix.setRandomSeed(7);
+        rows.initWeights();
+        matrix.initWeights();
+        matrix.setUseWeightMatrix(true);
+        Assert.assertTrue(matrix.isUseWeightMatrix());
+        double [] tmp = new double[3];
+        Random r = new Random(1);
+        for ( int x = 0;x< 500;x++ )
+        {
+            for ( int i = 0;i<tmp.length;i++ )
+            {
+                tmp[i] = r.nextDouble()*2-1;
+            }
+            rows.train(tmp);
+            matrix.train(tmp);
+            Assert.assertEquals(rows.getWeights().getOffset(rows.getWinner()),matrix.getWeights().getOffset(matrix.getWinner()));
+        }
+        double [] expected = rows.getStateVector();
+        double [] actual = matrix.getStateVector();
+        Assert.assertEquals(expected.length,actual.length);
+        for ( int x = 0;x<expected.length;x++ )
+        {
+            Assert.assertEquals(expected[x],actual[x],0);
+        }
+        //the nodes have no arrays of their own, getWeights(...) returns a copy
+        Assert.assertEquals(expected[0],matrix.getWeights(0,0)[0],0);
+        matrix.getWeights(0,0)[0] = 2;
+        Assert.assertEquals(expected[0],matrix.getWeights(0,0)[0],0);
+        Assert.assertEquals(expected[0],matrix.copyWeights(0,0)[0],0);
+        //the weights must survive switching back, and the arrays are the nodes' own again
+        matrix.setUseWeightMatrix(false);
+        Assert.assertEquals(expected[0],matrix.getWeights(0,0)[0],0);
+        matrix.getWeights(0,0)[0] = 2;
+        Assert.assertEquals(2,matrix.copyWeights(0,0)[0],0);
+    }
+
+    /**
+     * Abandoning nodes early must give the same winners as the full search.
+     */
+    public void testEarlyAbandon() throws Exception
+    {
+        PLSOM2 full = new PLSOM2(64,20,20);
+        PLSOM2 abandon = new PLSOM2(64,20,20);
+        full.setRandomSeed(5);
+        abandon.setRandomSeed(5);
+        full.initWeights();
+        abandon.initWeights();
+        abandon.setUseWeightMatrix(true);
+        abandon.setEarlyAbandon(true);
+        double [] tmp = new double[64];
+        Random r = new Random(2);
+        for ( int x = 0;x< 500;x++ )
+        {
+            for ( int i = 0;i<tmp.length;i++ )
+            {
+                tmp[i] = r.nextDouble()*2-1;
+            }
+            full.train(tmp);
+            abandon.train(tmp);
+            Assert.assertEquals(full.getWeights().getOffset(full.getWinner()),abandon.getWeights().getOffset(abandon.getWinner()));
+        }
+    }
+
+    /**
+     * The parallel winner search and weight update must give the same results as the sequential ones.
+     */
+    public void testParallel() throws Exception
+    {
+        PLSOM2 sequential = new PLSOM2(3,mapWidth,mapHeight);
+        PLSOM2 parallel = new PLSOM2(3,mapWidth,mapHeight);
+        sequential.setRandomSeed(9);
+        parallel.setRandomSeed(9);
+        sequential.initWeights();
+        parallel.initWeights();
+        parallel.setParallelSearch(true);
+        parallel.setParallelUpdate(true);
+        parallel.setParallelThreshold(0);
+        parallel.setParallelism(3);
+        double [] tmp = new double[3];
+        Random r = new Random(3);
+        for ( int x = 0;x< 500;x++ )
+        {
+            for ( int i = 0;i<tmp.length;i++ )
+            {
+                tmp[i] = r.nextDouble()*2-1;
+            }
+            sequential.train(tmp);
+            parallel.train(tmp);
+            Assert.assertEquals(sequential.getWeights().getOffset(sequential.getWinner()),parallel.getWeights().getOffset(parallel.getWinner()));
+        }
+        double [] expected = sequential.getStateVector();
+        double [] actual = parallel.getStateVector();
+        for ( int x = 0;x<expected.length;x++ )
+        {
+            Assert.assertEquals(expected[x],actual[x],0);
+        }
+        //all nodes are equally distant from the input, the first must win
+        PLSOM2 flat = new PLSOM2(3,mapWidth,mapHeight);
+        flat.setParallelSearch(true);
+        flat.setParallelThreshold(0);
+        for ( int x = 0;x<flat.getWeights().getCount();x++ )
+        {
+            flat.getWeights().setValueAtOffset(new double[3],x);
+        }
+        Assert.assertEquals(0,flat.getWeights().getOffset(flat.classify(tmp)));
+    }
+
+    /**
+     * Skipping the nodes outside the neighbourhood cutoff must only ignore negligible updates.
+     */
+    public void testNeighbourhoodCutoff() throws Exception
+    {
+        PLSOM2 full = new PLSOM2(3,mapWidth,mapHeight);
+        PLSOM2 cutoff = new PLSOM2(3,mapWidth,mapHeight);
+        full.setNeighbourhoodRange(5);
+        cutoff.setNeighbourhoodRange(5);
+        full.setRandomSeed(11);
+        cutoff.setRandomSeed(11);
+        full.initWeights();
+        cutoff.initWeights();
+        cutoff.setNeighbourhoodCutoff(1e-6);
+        double [] tmp = new double[3];
+        Random r = new Random(4);
+        for ( int x = 0;x< 200;x++ )
+        {
+            for ( int i = 0;i<tmp.length;i++ )
+            {
+                tmp[i] = r.nextDouble()*2-1;
+            }
+            full.train(tmp);
+            cutoff.train(tmp);
+            Assert.assertEquals(full.getWeights().getOffset(full.getWinner()),cutoff.getWeights().getOffset(cutoff.getWinner()));
+        }
+        double [] expected = full.getStateVector();
+        double [] actual = cutoff.getStateVector();
+        for ( int x = 0;x<expected.length;x++ )
+        {
+            Assert.assertEquals(expected[x],actual[x],1e-4);
+        }
+    }
+
+    /**
+     * Looking up the neighbourhood scalings in a table must not change the result.
+     */
+    public void testNeighbourhoodTable() throws Exception
+    {
+        PLSOM2 direct = new PLSOM2(3,mapWidth,mapHeight);
+        PLSOM2 table = new PLSOM2(3,mapWidth,mapHeight);
+        direct.setNeighbourhoodRange(30);
+        table.setNeighbourhoodRange(30);
+        direct.setRandomSeed(13);
+        table.setRandomSeed(13);
+        direct.initWeights();
+        table.initWeights();
+        table.setUseNeighbourhoodTable(true);
+        double [] tmp = new double[3];
+        Random r = new Random(5);
+        for ( int x = 0;x< 300;x++ )
+        {
+            for ( int i = 0;i<tmp.length;i++ )
+            {
+                tmp[i] = r.nextDouble()*2-1;
+            }
+            direct.train(tmp);
+            table.train(tmp);
+        }
+        double [] expected = direct.getStateVector();
+        double [] actual = table.getStateVector();
+        for ( int x = 0;x<expected.length;x++ )
+        {
+            Assert.assertEquals(expected[x],actual[x],0);
+        }
+    }
+
+    /**
+     * Multiplying separable neighbourhood factors must give the same result as calculating the
+     * scalings directly, to within rounding.
+     */
+    public void testSeparableNeighbourhood() throws Exception
+    {
+        PLSOM2 direct = new PLSOM2(3,10,10,10);
+        PLSOM2 separable = new PLSOM2(3,10,10,10);
+        direct.setNeighbourhoodRange(10);
+        separable.setNeighbourhoodRange(10);
+        direct.setRandomSeed(13);
+        separable.setRandomSeed(13);
+        direct.initWeights();
+        separable.initWeights();
+        separable.setUseSeparableNeighbourhood(true);
+        double [] tmp = new double[3];
+        Random r = new Random(5);
+        for ( int x = 0;x< 300;x++ )
+        {
+            for ( int i = 0;i<tmp.length;i++ )
+            {
+                tmp[i] = r.nextDouble()*2-1;
+            }
+            direct.train(tmp);
+            separable.train(tmp);
+            Assert.assertEquals(direct.getWeights().getOffset(direct.getWinner()),separable.getWeights().getOffset(separable.getWinner()));
+        }
+        double [] expected = direct.getStateVector();
+        double [] actual = separable.getStateVector();
+        for ( int x = 0;x<expected.length;x++ )
+        {
+            Assert.assertEquals(expected[x],actual[x],1e-9);
+        }
+    }
+
+    /**
+     * Classifying with a result holder from several threads at once must give the same
+     * winners and distances as classify(double[]), without changing the map.
+     */
+    public void testReentrantClassify() throws Exception
+    {
+        final PLSOM2 plsom = new PLSOM2(3,mapWidth,mapHeight);
+        plsom.setNeighbourhoodRange(30);
+        plsom.setRandomSeed(13);
+        plsom.initWeights();
+        Random r = new Random(5);
+        for ( int x = 0;x< 300;x++ )
+        {
+            plsom.train(new double[]{r.nextDouble()*2-1,r.nextDouble()*2-1,r.nextDouble()*2-1});
+        }
+        final double [][] inputs = new double[200][3];
+        final int [] expectedWinners = new int[inputs.length];
+        final double [] expectedDistances = new double[inputs.length];
+        for ( int x = 0;x<inputs.length;x++ )
+        {
+            for ( int i = 0;i<3;i++ )
+            {
+                inputs[x][i] = r.nextDouble()*2-1;
+            }
+            expectedWinners[x] = plsom.getWeights().getOffset(plsom.classify(inputs[x]));
+            expectedDistances[x] = plsom.getLastError();
+        }
+        final double [] state = plsom.getStateVector();
+        final int [][] actualWinners = new int[4][inputs.length];
+        final double [][] actualDistances = new double[4][inputs.length];
+        Thread [] threads = new Thread[4];
+        for ( int t = 0;t<threads.length;t++ )
+        {
+            final int thread = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    Classification result = new Classification(2);
+                    for ( int x = 0;x<inputs.length;x++ )
+                    {
+                        plsom.classify(inputs[x],result);
+                        Assert.assertEquals(result.getOffset(),plsom.getWeights().getOffset(result.getPosition()));
+                        actualWinners[thread][x] = result.getOffset();
+                        actualDistances[thread][x] = result.getDistance();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        for ( int t = 0;t<threads.length;t++ )
+        {
+            for ( int x = 0;x<inputs.length;x++ )
+            {
+                Assert.assertEquals(expectedWinners[x],actualWinners[t][x]);
+                Assert.assertEquals(expectedDistances[x],actualDistances[t][x],0);
+            }
+        }
+        double [] after = plsom.getStateVector();
+        for ( int x = 0;x<state.length;x++ )
+        {
+            Assert.assertEquals(state[x],after[x],0);
+        }
+    }
+
+    /**
+     * Readers classifying against snapshots while the map is trained must always see
+     * complete snapshots, and the snapshot copies must be reused.
+     */
+    public void testSnapshot() throws Exception
+    {
+        final PLSOM2 plsom = new PLSOM2(3,20,20);
+        plsom.setNeighbourhoodRange(30);
+        plsom.setRandomSeed(13);
+        plsom.initWeights();
+        plsom.setSnapshotInterval(5);
+        final Random r = new Random(5);
+        plsom.train(new double[]{r.nextDouble(),r.nextDouble(),r.nextDouble()});
+        plsom.publishSnapshot();
+        final AtomicBoolean done = new AtomicBoolean();
+        final String [] failure = new String[1];
+        Thread [] readers = new Thread[2];
+        for ( int t = 0;t<readers.length;t++ )
+        {
+            readers[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    Random local = new Random(getId());
+                    Classification result = new Classification(2);
+                    double [] input = new double[3];
+                    while (!done.get())
+                    {
+                        for ( int i = 0;i<input.length;i++ )
+                        {
+                            input[i] = local.nextDouble()*2-1;
+                        }
+                        WeightSnapshot snapshot = plsom.acquireSnapshot();
+                        try
+                        {
+                            snapshot.classify(input,result);
+                            // the winner must be the closest node of this snapshot
+                            double min = Double.POSITIVE_INFINITY;
+                            for ( int x = 0;x<snapshot.getWeights().getCount();x++ )
+                            {
+                                min = Math.min(min,plsom.getInputMetric().getDistance(snapshot.getWeights().getValueFromOffset(x),input));
+                            }
+                            if (Math.abs(min-result.getDistance())>1e-12)
+                            {
+                                failure[0] = "expected "+min+" but was "+result.getDistance();
+                            }
+                        }
+                        finally
+                        {
+                            snapshot.release();
+                        }
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        for ( int x = 0;x< 500;x++ )
+        {
+            plsom.train(new double[]{r.nextDouble()*2-1,r.nextDouble()*2-1,r.nextDouble()*2-1});
+        }
+        done.set(true);
+        for ( Thread reader : readers )
+        {
+            reader.join();
+        }
+        Assert.assertNull(failure[0],failure[0]);
+        // without readers, publishing alternates between two copies
+        plsom.publishSnapshot();
+        WeightSnapshot first = plsom.acquireSnapshot();
+        long version = first.getVersion();
+        first.release();
+        plsom.publishSnapshot();
+        plsom.publishSnapshot();
+        WeightSnapshot third = plsom.acquireSnapshot();
+        third.release();
+        Assert.assertSame(first,third);
+        Assert.assertEquals(version+2,third.getVersion());
+        // the latest snapshot gives the same result as the map itself
+        double [] input = {0.1,0.2,0.3};
+        Classification expected = plsom.classify(input,new Classification(2));
+        Classification actual = plsom.classifySnapshot(input,new Classification(2));
+        Assert.assertEquals(expected.getOffset(),actual.getOffset());
+        Assert.assertEquals(expected.getDistance(),actual.getDistance(),0);
+    }
+
+    /**
+     * Classifying a batch of inputs must find the closest node of each input, with
+     * the weights stored as rows and as a matrix.
+     */
+    public void testClassifyBatch() throws Exception
+    {
+        PLSOM2 plsom = new PLSOM2(5,mapWidth,mapHeight);
+        plsom.setNeighbourhoodRange(30);
+        plsom.setRandomSeed(13);
+        plsom.initWeights();
+        Random r = new Random(5);
+        double [][] inputs = new double[1000][5];
+        for ( int x = 0;x<inputs.length;x++ )
+        {
+            for ( int i = 0;i<5;i++ )
+            {
+                inputs[x][i] = r.nextDouble()*2-1;
+            }
+            if (x<300)
+            {
+                plsom.train(inputs[x]);
+            }
+        }
+        double [] flat = new double[inputs.length*5];
+        for ( int x = 0;x<inputs.length;x++ )
+        {
+            System.arraycopy(inputs[x],0,flat,x*5,5);
+        }
+        for ( int pass = 0;pass<2;pass++ )
+        {
+            int [] winners = new int[inputs.length];
+            double [] distances = new double[inputs.length];
+            int [] flatWinners = new int[inputs.length];
+            plsom.classifyBatch(inputs,winners,distances);
+            plsom.classifyBatch(flat,inputs.length,flatWinners,null);
+            Classification result = new Classification(2);
+            for ( int x = 0;x<inputs.length;x++ )
+            {
+                plsom.classify(inputs[x],result);
+                Assert.assertEquals(winners[x],flatWinners[x]);
+                Assert.assertEquals(result.getDistance(),distances[x],1e-9);
+                Assert.assertEquals(plsom.getInputMetric().getDistance(plsom.getWeights().getValueFromOffset(winners[x]),inputs[x]),distances[x],1e-12);
+            }
+            plsom.setUseWeightMatrix(true);
+        }
+    }
+
+    /**
+     * Searching for the winner by dot products with the node norms must find the same
+     * winners, and the norms must be kept up to date during training.
+     */
+    public void testNodeNorms() throws Exception
+    {
+        PLSOM2 direct = new PLSOM2(5,mapWidth,mapHeight);
+        PLSOM2 norms = new PLSOM2(5,mapWidth,mapHeight);
+        direct.setNeighbourhoodRange(30);
+        norms.setNeighbourhoodRange(30);
+        direct.setRandomSeed(13);
+        norms.setRandomSeed(13);
+        direct.initWeights();
+        norms.initWeights();
+        direct.setUseWeightMatrix(true);
+        norms.setUseWeightMatrix(true);
+        norms.setUseNodeNorms(true);
+        norms.setNeighbourhoodCutoff(1e-6);
+        direct.setNeighbourhoodCutoff(1e-6);
+        double [] tmp = new double[5];
+        Random r = new Random(5);
+        for ( int x = 0;x< 300;x++ )
+        {
+            for ( int i = 0;i<tmp.length;i++ )
+            {
+                tmp[i] = r.nextDouble()*2-1;
+            }
+            direct.train(tmp);
+            norms.train(tmp);
+            Assert.assertEquals(direct.getWeights().getOffset(direct.getWinner()),norms.getWeights().getOffset(norms.getWinner()));
+            Assert.assertEquals(direct.getLastError(),norms.getLastError(),1e-9);
+        }
+        double [] kept = norms.getNodeNorms();
+        for ( int x = 0;x<kept.length;x++ )
+        {
+            double [] w = norms.getWeights().getValueFromOffset(x);
+            double expected = 0;
+            for ( double value : w )
+            {
+                expected += value*value;
+            }
+            Assert.assertEquals(expected,kept[x],1e-12);
+        }
+    }
+
+    /**
+     * Make sure files written from the document built by createDocument(), as
+     * earlier versions of write(...) did, can still be read.
+     */
+    public void testReadDocumentPLSOM() throws Exception
+    {
+        PLSOM plsom = new PLSOM(2,mapWidth,mapHeight);
+        plsom.setNeighbourhoodRange(12);
+        Random r = new Random(17);
+        double [] tmp = new double[2];
+        for (int i = 0;i<100;i++)
+        {
+            tmp[0] = r.nextDouble();
+            tmp[1] = r.nextDouble();
+            plsom.train(tmp);
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Transformer t = TransformerFactory.newInstance().newTransformer();
+        t.transform(new DOMSource(plsom.createDocument()), new StreamResult(bos));
+        PLSOM nusom = (PLSOM)PLSOM.read(new ByteArrayInputStream(bos.toByteArray()));
+        Assert.assertEquals(plsom.getNeighbourhoodRange(),nusom.getNeighbourhoodRange());
+        Assert.assertEquals(plsom.getRho(),nusom.getRho());
+        Assert.assertEquals(plsom.getEpsilon(),nusom.getEpsilon());
+        Assert.assertEquals(plsom.getLastError(),nusom.getLastError());
+        int[] loc = new int[2];
+        for (loc[0] = 0;loc[0]<mapWidth;loc[0]++)
+        {
+            for (loc[1] = 0;loc[1]<mapHeight;loc[1]++)
+            {
+                double[] a = plsom.getWeights(loc);
+                double[] b = nusom.getWeights(loc);
+                Assert.assertEquals(a.length,b.length);
+                for (int x = 0;x<a.length;x++)
+                {
+                    Assert.assertEquals(a[x],b[x]);
+                }
+            }
+        }
+    }
+
     /**
      * Test the read/write capabilities of the PLSOM class.
      */
@@ -80,6 +80,60 @@ public class SOMTest extends TestCase
         System.err.println("Test mean query time is: " + meanTestTime + " microseconds.");
     }
     
+    /**
+     * A SOM storing its weights in float precision must find nearly the same winners as one storing doubles.
+     */
+    public void testFloatWeights() throws Exception
+    {
+        SOM doubles = new SOM(2,mapWidth,mapHeight);
+        SOM floats = new SOM(2,mapWidth,mapHeight);
+        doubles.setLearningRate(0.8);
+        floats.setLearningRate(0.8);
+        doubles.setNeighbourhoodSize(60);
+        floats.setNeighbourhoodSize(60);
+        doubles.setRandomSeed(3);
+        floats.setRandomSeed(3);
+        doubles.initWeights();
+        floats.initWeights();
+        floats.setUseFloatWeights(true);
+        double [] tmp = new double[2];
+        Random r = new Random(1);
+        int count = 2000;
+        for ( int x = 0;x< count;x++ )
+        {
+            tmp[0] = r.nextDouble()*2-1;
+            tmp[1] = r.nextDouble()*2-1;
+            doubles.train(tmp);
+            floats.train(tmp);
+        }
+        //classify the same grid as testSOM, allowing a few ties to be broken differently
+        int sqrtCount = (int)Math.sqrt(count);
+        int same = 0;
+        for ( int x = 0;x< sqrtCount;x++ )
+        {
+            for ( int y = 0;y<sqrtCount;y++ )
+            {
+                tmp[0] = (x/(double)sqrtCount)*2-1;
+                tmp[1] = (y/(double)sqrtCount)*2-1;
+                doubles.setInput(tmp);
+                floats.setInput(tmp);
+                doubles.classify();
+                floats.classify();
+                if (doubles.getWeights().getOffset(doubles.getWinner()) == floats.getWeights().getOffset(floats.getWinner()))
+                {
+                    same++;
+                }
+            }
+        }
+        Assert.assertTrue("Only " + same + " equal winners.", same >= 0.99 * sqrtCount * sqrtCount);
+        double [] expected = doubles.getStateVector();
+        double [] actual = floats.getStateVector();
+        for ( int x = 0;x<expected.length;x++ )
+        {
+            Assert.assertEquals(expected[x],actual[x],1e-4);
+        }
+    }
+
     /**
      * Test the read/write capabilities of the SOM class.
      */
@@ -82,4 +82,40 @@ public class RecursivePLSOM2Test
 		}
 	}
 
+
+	/**
+	 * Searching and updating the nodes in parallel must not change the state of the map.
+	 * @throws Exception 
+	 */
+	@Test
+	public void testParallelSearch() throws Exception
+	{
+		RecursivePLSOM2 sequential = new RecursivePLSOM2(0.9,1,10,10);
+		RecursivePLSOM2 parallel = new RecursivePLSOM2(0.9,1,10,10);
+		sequential.setNeighbourhoodRange(20);
+		parallel.setNeighbourhoodRange(20);
+		sequential.setRandomSeed(1);
+		parallel.setRandomSeed(1);
+		sequential.initWeights();
+		parallel.initWeights();
+		parallel.setParallelSearch(true);
+		parallel.setParallelUpdate(true);
+		parallel.setParallelThreshold(0);
+		parallel.setParallelism(2);
+		Random rand = new Random(2);
+		for(int x = 0;x<1000;x++)
+		{
+			double [] input = new double[]{rand.nextDouble()};
+			sequential.train(input);
+			parallel.train(input);
+			assertEquals(sequential.getWeights().getOffset(sequential.getWinner()),parallel.getWeights().getOffset(parallel.getWinner()));
+		}
+		double [] expected = sequential.getStateVector();
+		double [] actual = parallel.getStateVector();
+		assertEquals(expected.length,actual.length);
+		for(int x = 0;x<expected.length;x++)
+		{
+			assertEquals(expected[x],actual[x],0);
+		}
+	}
 }
@@ -0,0 +1,183 @@
+package org.plsomlib.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.plsomlib.PLSOM2;
+
+/**
+ * @author Erik Berglund
+ *
+ */
+public class CoarseToFineSearchTest
+{
+
+    /**
+     * Test method for {@link org.plsomlib.util.CoarseToFineSearch#getShadowCount()}.
+     * The shadow grid holds every stride-th node and the last node of each
+     * dimension.
+     */
+    @Test
+    public void testShadowCount()
+    {
+        IterativeArray<Object> grid = new IterativeArray<Object>(10,7);
+        // 0, 4, 8 and 9 by 0, 4 and 6
+        assertEquals(12,new CoarseToFineSearch(grid,4).getShadowCount());
+        // 0, 3, 6 and 9 by 0, 3 and 6
+        assertEquals(12,new CoarseToFineSearch(grid,3).getShadowCount());
+        assertEquals(grid.getCount(),new CoarseToFineSearch(grid,1).getShadowCount());
+        assertEquals(4,new CoarseToFineSearch(grid,20).getShadowCount());
+        try
+        {
+            new CoarseToFineSearch(grid,0);
+            fail("A stride of 0 was accepted.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+    }
+
+    /**
+     * Test method for {@link org.plsomlib.util.CoarseToFineSearch#findMin(ParallelWinnerSearch.Evaluator, int)}.
+     * On a function with a single minimum the winner is always in the box
+     * around the best shadow node.
+     */
+    @Test
+    public void testFindMin()
+    {
+        IterativeArray<Object> grid = new IterativeArray<Object>(23,17);
+        CoarseToFineSearch search = new CoarseToFineSearch(grid,4);
+        for(int offset = 0;offset<grid.getCount();offset++)
+        {
+            int [] target = grid.getPosition(offset);
+            assertEquals(offset,search.findMin(bowl(grid,target),0));
+            assertEquals(0,search.getMin(),0);
+            assertTrue(search.getEvaluations()<grid.getCount());
+        }
+    }
+
+    /**
+     * Among nodes with equal values the lowest offset wins.
+     */
+    @Test
+    public void testTies()
+    {
+        final IterativeArray<Object> grid = new IterativeArray<Object>(9,9);
+        CoarseToFineSearch search = new CoarseToFineSearch(grid,2);
+        ParallelWinnerSearch.Evaluator flat = new ParallelWinnerSearch.Evaluator()
+        {
+            public double evaluate(int offset, double bound)
+            {
+                return 1;
+            }
+        };
+        assertEquals(0,search.findMin(flat,0));
+        // a row of equal minima across the grid
+        ParallelWinnerSearch.Evaluator valley = new ParallelWinnerSearch.Evaluator()
+        {
+            public double evaluate(int offset, double bound)
+            {
+                return Math.abs(grid.getPosition(offset)[1]-5);
+            }
+        };
+        assertEquals(grid.getOffset(0,5),search.findMin(valley,0));
+    }
+
+    /**
+     * The coarse-to-fine search of a well ordered map must find nearly all
+     * winners, and all of them when every search is a full scan.
+     */
+    @Test
+    public void testCoarseSearch() throws Exception
+    {
+        // a small, well ordered map
+        PLSOM2 direct = new PLSOM2(2,20,20);
+        PLSOM2 coarse = new PLSOM2(2,20,20);
+        direct.setNeighbourhoodRange(20);
+        coarse.setNeighbourhoodRange(20);
+        direct.setRandomSeed(13);
+        coarse.setRandomSeed(13);
+        direct.initWeights();
+        coarse.initWeights();
+        Random r = new Random(5);
+        double [] tmp = new double[2];
+        for ( int x = 0;x< 5000;x++ )
+        {
+            tmp[0] = r.nextDouble()*2-1;
+            tmp[1] = r.nextDouble()*2-1;
+            direct.train(tmp);
+            coarse.train(tmp);
+        }
+        coarse.setCoarseSearchStride(4);
+        // only one search mode can be enabled
+        try
+        {
+            coarse.setLocalSearch(true);
+            fail("Local search was enabled along with coarse-to-fine search.");
+        }
+        catch (IllegalStateException e)
+        {
+            //expected
+        }
+        try
+        {
+            coarse.setApproximateSearch(true);
+            fail("Approximate search was enabled along with coarse-to-fine search.");
+        }
+        catch (IllegalStateException e)
+        {
+            //expected
+        }
+        coarse.setFullScanInterval(0);
+        coarse.setErrorJumpRatio(0);
+        int agree = 0;
+        int count = 1000;
+        for ( int x = 0;x<count;x++ )
+        {
+            tmp[0] = r.nextDouble()*2-1;
+            tmp[1] = r.nextDouble()*2-1;
+            if (direct.getWeights().getOffset(direct.classify(tmp))==coarse.getWeights().getOffset(coarse.classify(tmp)))
+            {
+                agree++;
+            }
+        }
+        assertTrue("Only "+agree+" of "+count+" winners found",agree>=count*95/100);
+        // with a full scan every search the winners are exact, and mismatches
+        // widen the search
+        coarse.setCoarseSearchMargin(0);
+        coarse.setFullScanInterval(1);
+        for ( int x = 0;x<100;x++ )
+        {
+            tmp[0] = r.nextDouble()*2-1;
+            tmp[1] = r.nextDouble()*2-1;
+            assertEquals(direct.getWeights().getOffset(direct.classify(tmp)),coarse.getWeights().getOffset(coarse.classify(tmp)));
+        }
+        // the widening is not part of the margin that was set
+        assertEquals(0,coarse.getCoarseSearchMargin());
+    }
+
+    /**
+     * @return the squared distance on the grid from each node to a target
+     *         position.
+     */
+    private static ParallelWinnerSearch.Evaluator bowl(final IterativeArray<?> grid, final int... target)
+    {
+        return new ParallelWinnerSearch.Evaluator()
+        {
+            public double evaluate(int offset, double bound)
+            {
+                int [] position = grid.getPosition(offset);
+                double sum = 0;
+                for(int d = 0;d<position.length;d++)
+                {
+                    sum += (position[d]-target[d])*(position[d]-target[d]);
+                }
+                return sum;
+            }
+        };
+    }
+
+}
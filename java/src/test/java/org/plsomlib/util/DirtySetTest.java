@@ -0,0 +1,77 @@
+package org.plsomlib.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author Erik Berglund
+ *
+ */
+public class DirtySetTest
+{
+
+    /**
+     * Test method for {@link org.plsomlib.util.DirtySet#mark(int)}.
+     * Each node is listed once, in the order it was first marked.
+     */
+    @Test
+    public void testMark()
+    {
+        DirtySet set = new DirtySet(10);
+        assertEquals(10,set.getCapacity());
+        set.mark(7);
+        set.mark(2);
+        set.mark(7);
+        set.mark(9);
+        assertEquals(3,set.getCount());
+        assertEquals(7,set.getNode(0));
+        assertEquals(2,set.getNode(1));
+        assertEquals(9,set.getNode(2));
+        assertTrue(set.isMarked(2));
+        assertFalse(set.isMarked(3));
+        int [] sorted = set.toSortedArray();
+        assertEquals(3,sorted.length);
+        assertEquals(2,sorted[0]);
+        assertEquals(7,sorted[1]);
+        assertEquals(9,sorted[2]);
+    }
+
+    /**
+     * Test method for {@link org.plsomlib.util.DirtySet#clear()}.
+     * Cleared nodes can be marked again.
+     */
+    @Test
+    public void testClear()
+    {
+        DirtySet set = new DirtySet(5);
+        set.mark(4);
+        set.mark(1);
+        set.clear();
+        assertEquals(0,set.getCount());
+        assertFalse(set.isMarked(4));
+        assertEquals(0,set.toSortedArray().length);
+        set.mark(4);
+        assertEquals(1,set.getCount());
+        assertEquals(4,set.getNode(0));
+    }
+
+    /**
+     * Test method for {@link org.plsomlib.util.DirtySet#markAll()}.
+     */
+    @Test
+    public void testMarkAll()
+    {
+        DirtySet set = new DirtySet(6);
+        set.mark(3);
+        set.markAll();
+        assertEquals(6,set.getCount());
+        int [] sorted = set.toSortedArray();
+        for(int x = 0;x<sorted.length;x++)
+        {
+            assertEquals(x,sorted[x]);
+            assertTrue(set.isMarked(x));
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package org.plsomlib.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.plsomlib.PLSOM2;
+
+/**
+ * @author Erik Berglund
+ *
+ */
+public class FloatWeightMatrixTest
+{
+
+    /**
+     * Test method for {@link org.plsomlib.util.FloatWeightMatrix#setValueAtOffset(double[], int)}.
+     * The weights are rounded to the nearest float.
+     */
+    @Test
+    public void testSetValueAtOffset()
+    {
+        FloatWeightMatrix matrix = new FloatWeightMatrix(2,3,3);
+        matrix.setValueAtOffset(new double[]{0.1,1e300},4);
+        assertEquals((float)0.1,matrix.getData()[matrix.getRowOffset(4)],0);
+        assertEquals((double)(float)0.1,matrix.getValueFromOffset(4)[0],0);
+        assertEquals(Double.POSITIVE_INFINITY,matrix.getValueFromOffset(4)[1],0);
+        try
+        {
+            matrix.setValueAtOffset(new double[3],0);
+            fail("A row of the wrong length was stored.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+    }
+
+    /**
+     * Test method for {@link org.plsomlib.util.FloatWeightMatrix#FloatWeightMatrix(int, IterativeArray)}.
+     */
+    @Test
+    public void testCopy()
+    {
+        WeightMatrix source = new WeightMatrix(2,4,2);
+        source.setValueAtOffset(new double[]{0.5,-0.25},6);
+        FloatWeightMatrix matrix = new FloatWeightMatrix(2,source);
+        assertEquals(-0.25,matrix.getValueFromOffset(6)[1],0);
+        FloatWeightMatrix copy = (FloatWeightMatrix)matrix.clone();
+        matrix.setValueAtOffset(new double[]{1,1},6);
+        assertEquals(0.5,copy.getValueFromOffset(6)[0],0);
+    }
+
+    /**
+     * A PLSOM2 storing its weights in float precision must find nearly the same winners as one storing doubles.
+     */
+    @Test
+    public void testFloatWeights() throws Exception
+    {
+        PLSOM2 doubles = new PLSOM2(2,50,60);
+        PLSOM2 floats = new PLSOM2(2,50,60);
+        doubles.setNeighbourhoodRange(60);
+        floats.setNeighbourhoodRange(60);
+        doubles.setRandomSeed(3);
+        floats.setRandomSeed(3);
+        doubles.initWeights();
+        floats.initWeights();
+        floats.setUseFloatWeights(true);
+        assertTrue(floats.isUseFloatWeights());
+        assertFalse(floats.isUseWeightMatrix());
+        double [] tmp = new double[2];
+        Random r = new Random(1);
+        int count = 2000;
+        for ( int x = 0;x< count;x++ )
+        {
+            tmp[0] = r.nextDouble()*2-1;
+            tmp[1] = r.nextDouble()*2-1;
+            doubles.train(tmp);
+            floats.train(tmp);
+        }
+        //classify a grid of inputs, allowing a few ties to be broken differently
+        int sqrtCount = (int)Math.sqrt(count);
+        int same = 0;
+        for ( int x = 0;x< sqrtCount;x++ )
+        {
+            for ( int y = 0;y<sqrtCount;y++ )
+            {
+                tmp[0] = (x/(double)sqrtCount)*2-1;
+                tmp[1] = (y/(double)sqrtCount)*2-1;
+                doubles.setInput(tmp);
+                floats.setInput(tmp);
+                doubles.classify();
+                floats.classify();
+                if (doubles.getWeights().getOffset(doubles.getWinner()) == floats.getWeights().getOffset(floats.getWinner()))
+                {
+                    same++;
+                }
+            }
+        }
+        assertTrue("Only " + same + " equal winners.", same >= 0.99 * sqrtCount * sqrtCount);
+        double [] expected = doubles.getStateVector();
+        double [] actual = floats.getStateVector();
+        assertEquals(expected.length,actual.length);
+        for ( int x = 0;x<expected.length;x++ )
+        {
+            assertEquals(expected[x],actual[x],1e-4);
+        }
+        //the weights must survive switching back
+        floats.setUseFloatWeights(false);
+        assertTrue(floats.isUseWeightMatrix());
+        assertEquals(actual[0],floats.copyWeights(0,0)[0],0);
+    }
+
+}
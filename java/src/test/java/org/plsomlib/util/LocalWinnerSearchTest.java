@@ -0,0 +1,146 @@
+package org.plsomlib.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.plsomlib.PLSOM2;
+
+/**
+ * @author Erik Berglund
+ *
+ */
+public class LocalWinnerSearchTest
+{
+
+    /**
+     * Test method for {@link org.plsomlib.util.LocalWinnerSearch#findMin(int, ParallelWinnerSearch.Evaluator)}.
+     * On a function with a single minimum the search must find it from every
+     * node, diagonal steps included.
+     */
+    @Test
+    public void testFindMin()
+    {
+        IterativeArray<Object> grid = new IterativeArray<Object>(15,12);
+        LocalWinnerSearch search = new LocalWinnerSearch(grid);
+        int target = grid.getOffset(9,4);
+        ParallelWinnerSearch.Evaluator evaluator = bowl(grid,9,4);
+        for(int start = 0;start<grid.getCount();start++)
+        {
+            assertEquals(target,search.findMin(start,evaluator));
+            assertEquals(0,search.getMin(),0);
+        }
+        // starting next to the minimum only evaluates a few neighbourhoods
+        search.findMin(grid.getOffset(10,5),evaluator);
+        assertTrue(search.getEvaluations()+" evaluations",search.getEvaluations()<grid.getCount()/4);
+    }
+
+    /**
+     * The search stops at the first local minimum it reaches, which need not
+     * be the global one.
+     */
+    @Test
+    public void testLocalMinimum()
+    {
+        final IterativeArray<Object> grid = new IterativeArray<Object>(15,12);
+        LocalWinnerSearch search = new LocalWinnerSearch(grid);
+        final ParallelWinnerSearch.Evaluator global = bowl(grid,2,2);
+        final ParallelWinnerSearch.Evaluator local = bowl(grid,12,9);
+        ParallelWinnerSearch.Evaluator evaluator = new ParallelWinnerSearch.Evaluator()
+        {
+            public double evaluate(int offset, double bound)
+            {
+                return Math.min(global.evaluate(offset,bound),local.evaluate(offset,bound)+1);
+            }
+        };
+        assertEquals(grid.getOffset(2,2),search.findMin(grid.getOffset(0,0),evaluator));
+        assertEquals(0,search.getMin(),0);
+        assertEquals(grid.getOffset(12,9),search.findMin(grid.getOffset(14,11),evaluator));
+        assertEquals(1,search.getMin(),0);
+    }
+
+    /**
+     * Dimensions of size one have no neighbours to step to.
+     */
+    @Test
+    public void testFlatDimension()
+    {
+        IterativeArray<Object> grid = new IterativeArray<Object>(1,20);
+        LocalWinnerSearch search = new LocalWinnerSearch(grid);
+        assertEquals(grid.getOffset(0,13),search.findMin(0,bowl(grid,0,13)));
+    }
+
+    /**
+     * Local search from the previous winner must find the true winner of a slowly
+     * moving input nearly always, and always when every search is a full scan.
+     */
+    @Test
+    public void testLocalSearch() throws Exception
+    {
+        // a small, well ordered map, where the winner moves smoothly
+        PLSOM2 direct = new PLSOM2(2,20,20);
+        PLSOM2 local = new PLSOM2(2,20,20);
+        direct.setNeighbourhoodRange(20);
+        local.setNeighbourhoodRange(20);
+        direct.setRandomSeed(13);
+        local.setRandomSeed(13);
+        direct.initWeights();
+        local.initWeights();
+        Random r = new Random(5);
+        double [] tmp = new double[2];
+        for ( int x = 0;x< 5000;x++ )
+        {
+            tmp[0] = r.nextDouble()*2-1;
+            tmp[1] = r.nextDouble()*2-1;
+            direct.train(tmp);
+            local.train(tmp);
+        }
+        local.setLocalSearch(true);
+        local.setFullScanInterval(50);
+        int agree = 0;
+        int count = 1000;
+        double [] walk = {0,0};
+        for ( int x = 0;x<count;x++ )
+        {
+            walk[0] = Math.max(-1,Math.min(1,walk[0]+(r.nextDouble()-0.5)*0.02));
+            walk[1] = Math.max(-1,Math.min(1,walk[1]+(r.nextDouble()-0.5)*0.02));
+            int [] expected = direct.classify(walk.clone());
+            int [] actual = local.classify(walk.clone());
+            if (direct.getWeights().getOffset(expected)==local.getWeights().getOffset(actual))
+            {
+                agree++;
+            }
+        }
+        assertTrue("Only "+agree+" of "+count+" winners found",agree>=count*95/100);
+        local.setFullScanInterval(1);
+        for ( int x = 0;x<100;x++ )
+        {
+            tmp[0] = r.nextDouble()*2-1;
+            tmp[1] = r.nextDouble()*2-1;
+            assertEquals(direct.getWeights().getOffset(direct.classify(tmp)),local.getWeights().getOffset(local.classify(tmp)));
+        }
+    }
+
+    /**
+     * @return the squared distance on the grid from each node to a target
+     *         position.
+     */
+    private static ParallelWinnerSearch.Evaluator bowl(final IterativeArray<?> grid, final int... target)
+    {
+        return new ParallelWinnerSearch.Evaluator()
+        {
+            public double evaluate(int offset, double bound)
+            {
+                int [] position = grid.getPosition(offset);
+                double sum = 0;
+                for(int d = 0;d<position.length;d++)
+                {
+                    sum += (position[d]-target[d])*(position[d]-target[d]);
+                }
+                return sum;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,255 @@
+package org.plsomlib.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import org.junit.Test;
+import org.plsomlib.PLSOM2;
+
+/**
+ * @author Erik Berglund
+ *
+ */
+public class OffHeapWeightMatrixTest
+{
+
+    /**
+     * Test method for {@link org.plsomlib.util.OffHeapWeightMatrix#setValueAtOffset(double[], int)}.
+     * The weights must be stored where getBuffer(...) and getRowOffset(...)
+     * say they are.
+     */
+    @Test
+    public void testSetValueAtOffset()
+    {
+        OffHeapWeightMatrix matrix = new OffHeapWeightMatrix(3,4,5);
+        Random r = new Random(2);
+        double [][] rows = new double[matrix.getCount()][3];
+        for(int x = 0;x<rows.length;x++)
+        {
+            for(int i = 0;i<3;i++)
+            {
+                rows[x][i] = r.nextDouble();
+            }
+            matrix.setValueAtOffset(rows[x],x);
+        }
+        double [] row = new double[3];
+        for(int x = 0;x<rows.length;x++)
+        {
+            ByteBuffer buffer = matrix.getBuffer(x);
+            matrix.getRow(x,row);
+            for(int i = 0;i<3;i++)
+            {
+                assertEquals(rows[x][i],buffer.getDouble((matrix.getRowOffset(x)+i)*Double.BYTES),0);
+                assertEquals(rows[x][i],row[i],0);
+            }
+        }
+        assertEquals(rows[7][2],matrix.getValue(matrix.getPosition(7))[2],0);
+        // the returned arrays are copies
+        matrix.getValueFromOffset(7)[2] = -1;
+        assertEquals(rows[7][2],matrix.getValueFromOffset(7)[2],0);
+        try
+        {
+            matrix.setValueAtOffset(new double[2],0);
+            fail("A row of the wrong length was stored.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+        matrix.close();
+    }
+
+    /**
+     * Test method for {@link org.plsomlib.util.OffHeapWeightMatrix#clone()}.
+     */
+    @Test
+    public void testClone()
+    {
+        OffHeapWeightMatrix matrix = new OffHeapWeightMatrix(2,3,3);
+        matrix.setValueAtOffset(new double[]{1,2},4);
+        OffHeapWeightMatrix copy = (OffHeapWeightMatrix)matrix.clone();
+        matrix.setValueAtOffset(new double[]{3,4},4);
+        assertEquals(2,copy.getValueFromOffset(4)[1],0);
+        matrix.close();
+        assertFalse(copy.isClosed());
+        assertEquals(1,copy.getValueFromOffset(4)[0],0);
+        copy.close();
+    }
+
+    /**
+     * Test method for {@link org.plsomlib.util.OffHeapWeightMatrix#close()}.
+     */
+    @Test
+    public void testClose()
+    {
+        OffHeapWeightMatrix matrix = new OffHeapWeightMatrix(2,3,3);
+        assertFalse(matrix.isClosed());
+        matrix.close();
+        assertTrue(matrix.isClosed());
+        try
+        {
+            matrix.getBuffer(0);
+            fail("Released weights were read.");
+        }
+        catch (IllegalStateException e)
+        {
+            //expected
+        }
+        // closing twice has no effect
+        matrix.close();
+        assertTrue(matrix.isClosed());
+    }
+
+    /**
+     * Test method for {@link org.plsomlib.util.OffHeapWeightMatrix#map(FileChannel, long, boolean, int, int[])}.
+     * A mapped file holds little-endian weights after the given position,
+     * and only a writable mapping can be changed.
+     */
+    @Test
+    public void testMap() throws Exception
+    {
+        File file = File.createTempFile("plsom", ".weights");
+        try
+        {
+            int header = 16;
+            ByteBuffer bytes = ByteBuffer.allocate(header+6*2*Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for(int x = 0;x<12;x++)
+            {
+                bytes.putDouble(header+x*Double.BYTES,x*0.5);
+            }
+            RandomAccessFile raf = new RandomAccessFile(file,"rw");
+            try
+            {
+                raf.write(bytes.array());
+            }
+            finally
+            {
+                raf.close();
+            }
+            raf = new RandomAccessFile(file,"r");
+            OffHeapWeightMatrix readOnly;
+            try
+            {
+                readOnly = OffHeapWeightMatrix.map(raf.getChannel(),header,false,2,3,2);
+            }
+            finally
+            {
+                raf.close();
+            }
+            assertEquals(2.5,readOnly.getValueFromOffset(2)[1],0);
+            try
+            {
+                readOnly.setValueAtOffset(new double[]{1,1},0);
+                fail("A read-only mapping was changed.");
+            }
+            catch (ReadOnlyBufferException e)
+            {
+                //expected
+            }
+            // a copy is in memory and can be changed
+            OffHeapWeightMatrix copy = (OffHeapWeightMatrix)readOnly.clone();
+            copy.setValueAtOffset(new double[]{1,1},0);
+            assertEquals(5.5,copy.getValueFromOffset(5)[1],0);
+            copy.close();
+            readOnly.close();
+            raf = new RandomAccessFile(file,"rw");
+            try
+            {
+                OffHeapWeightMatrix writable = OffHeapWeightMatrix.map(raf.getChannel(),header,true,2,3,2);
+                writable.setValueAtOffset(new double[]{-1,-2},5);
+                writable.close();
+                raf.seek(header+11*Double.BYTES);
+                assertEquals(-2,Double.longBitsToDouble(Long.reverseBytes(raf.readLong())),0);
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /**
+     * The matrix is serialised as a WeightMatrix with the same weights.
+     */
+    @Test
+    public void testSerialization() throws Exception
+    {
+        OffHeapWeightMatrix matrix = new OffHeapWeightMatrix(2,3,4);
+        matrix.setValueAtOffset(new double[]{7,8},11);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bos);
+        out.writeObject(matrix);
+        out.close();
+        Object res = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+        assertEquals(WeightMatrix.class,res.getClass());
+        WeightMatrix copy = (WeightMatrix)res;
+        assertEquals(2,copy.getRowLength());
+        assertEquals(8,copy.getValueFromOffset(11)[1],0);
+        matrix.close();
+    }
+
+    /**
+     * A PLSOM2 storing its weights off the heap must behave exactly like one storing an array per node.
+     */
+    @Test
+    public void testOffHeapWeights() throws Exception
+    {
+        PLSOM2 rows = new PLSOM2(3,50,60);
+        PLSOM2 offHeap = new PLSOM2(3,50,60);
+        rows.setNeighbourhoodRange(60);
+        offHeap.setNeighbourhoodRange(60);
+        rows.setRandomSeed(7);
+        offHeap.setRandomSeed(7);
+        rows.initWeights();
+        offHeap.initWeights();
+        offHeap.setUseOffHeapWeights(true);
+        assertTrue(offHeap.isUseOffHeapWeights());
+        double [] tmp = new double[3];
+        Random r = new Random(1);
+        for ( int x = 0;x< 500;x++ )
+        {
+            for ( int i = 0;i<tmp.length;i++ )
+            {
+                tmp[i] = r.nextDouble()*2-1;
+            }
+            rows.train(tmp);
+            offHeap.train(tmp);
+            assertEquals(rows.getWeights().getOffset(rows.getWinner()),offHeap.getWeights().getOffset(offHeap.getWinner()));
+        }
+        double [] expected = rows.getStateVector();
+        double [] actual = offHeap.getStateVector();
+        assertEquals(expected.length,actual.length);
+        for ( int x = 0;x<expected.length;x++ )
+        {
+            assertEquals(expected[x],actual[x],0);
+        }
+        //the weights must survive moving back to the heap, which leaves the old memory to the garbage collector
+        OffHeapWeightMatrix matrix = offHeap.getOffHeapWeightMatrix();
+        offHeap.setUseOffHeapWeights(false);
+        assertFalse(matrix.isClosed());
+        assertEquals(expected[0],matrix.getValueFromOffset(0)[0],0);
+        assertTrue(offHeap.isUseWeightMatrix());
+        assertEquals(expected[0],offHeap.copyWeights(0,0)[0],0);
+        //released weights can not be read
+        offHeap.setUseOffHeapWeights(true);
+        matrix = offHeap.getOffHeapWeightMatrix();
+        offHeap.releaseWeights();
+        assertTrue(matrix.isClosed());
+    }
+
+}
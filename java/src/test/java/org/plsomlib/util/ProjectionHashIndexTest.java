@@ -0,0 +1,221 @@
+package org.plsomlib.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.plsomlib.PLSOM2;
+
+/**
+ * @author Erik Berglund
+ *
+ */
+public class ProjectionHashIndexTest
+{
+
+    /**
+     * Test method for {@link org.plsomlib.util.ProjectionHashIndex#addSample(double[], int)}.
+     * The nodes are hashed once enough samples have been added, and nodes
+     * marked before that are not tracked.
+     */
+    @Test
+    public void testAddSample()
+    {
+        Random r = new Random(7);
+        WeightMatrix weights = randomWeights(r,3,30,30);
+        ProjectionHashIndex index = new ProjectionHashIndex(weights,3,4,8,1);
+        for(int x = 0;x<ProjectionHashIndex.CALIBRATION_SAMPLES;x++)
+        {
+            assertFalse(index.isBuilt());
+            assertEquals(0,index.getWidth(),0);
+            index.markDirty(x);
+            assertEquals(0,index.getDirtyCount());
+            index.addSample(weights.getValueFromOffset(x),x);
+        }
+        assertTrue(index.isBuilt());
+        assertTrue(index.getWidth()>0);
+        assertEquals(4,index.getTables());
+    }
+
+    /**
+     * Test method for {@link org.plsomlib.util.ProjectionHashIndex#findMin(double[], ParallelWinnerSearch.Evaluator)}.
+     * An input equal to the weights of a node shares every key with it, so
+     * the node is always found.
+     */
+    @Test
+    public void testFindMin()
+    {
+        Random r = new Random(7);
+        WeightMatrix weights = randomWeights(r,3,30,30);
+        ProjectionHashIndex index = build(weights,r);
+        for(int x = 0;x<weights.getCount();x++)
+        {
+            double [] input = weights.getValueFromOffset(x);
+            assertEquals(x,index.findMin(input,distance(weights,input)));
+            assertEquals(0,index.getMin(),0);
+            assertTrue(index.getCandidates()>=1);
+            assertTrue(index.getCandidates()<weights.getCount());
+        }
+    }
+
+    /**
+     * Test method for {@link org.plsomlib.util.ProjectionHashIndex#markDirty(int)}.
+     * A node that moves is only found at its new weights after it has been
+     * marked and rehashed.
+     */
+    @Test
+    public void testRehashAfterMarkDirty()
+    {
+        Random r = new Random(7);
+        WeightMatrix weights = randomWeights(r,3,30,30);
+        ProjectionHashIndex index = build(weights,r);
+        // move two nodes far away from all others
+        double [] first = {5,5,5};
+        double [] second = {-5,5,-5};
+        weights.setValueAtOffset(first,100);
+        weights.setValueAtOffset(second,200);
+        index.markDirty(100);
+        index.markDirty(100);
+        assertEquals(1,index.getDirtyCount());
+        assertEquals(100,index.findMin(first,distance(weights,first)));
+        assertEquals(0,index.getMin(),0);
+        assertEquals(0,index.getDirtyCount());
+        // the unmarked node is still hashed at its old weights
+        assertTrue(index.findMin(second,distance(weights,second))!=200);
+        index.markDirty(200);
+        index.rehashDirty();
+        assertEquals(0,index.getDirtyCount());
+        assertEquals(200,index.findMin(second,distance(weights,second)));
+        // moving a node back puts it in its old buckets again
+        double [] old = weights.getValueFromOffset(300);
+        weights.setValueAtOffset(old,100);
+        index.markDirty(100);
+        assertEquals(100,index.findMin(old,distance(weights,old)));
+    }
+
+    /**
+     * Test method for {@link org.plsomlib.util.ProjectionHashIndex#ProjectionHashIndex(IterativeArray, int, int, int, long)}.
+     */
+    @Test
+    public void testConstructor()
+    {
+        WeightMatrix weights = new WeightMatrix(2,4,4);
+        try
+        {
+            new ProjectionHashIndex(weights,2,0,8,1);
+            fail("No tables were accepted.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+        try
+        {
+            new ProjectionHashIndex(weights,2,4,0,1);
+            fail("A bucket size of 0 was accepted.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+    }
+
+    /**
+     * The approximate search must agree with the full search on nearly all
+     * winners, also after training moved the nodes.
+     */
+    @Test
+    public void testApproximateSearch() throws Exception
+    {
+        PLSOM2 plsom = new PLSOM2(2,20,20);
+        plsom.setNeighbourhoodRange(20);
+        plsom.setRandomSeed(13);
+        plsom.initWeights();
+        Random r = new Random(5);
+        double [] tmp = new double[2];
+        for ( int x = 0;x< 3000;x++ )
+        {
+            tmp[0] = r.nextDouble()*2-1;
+            tmp[1] = r.nextDouble()*2-1;
+            plsom.train(tmp);
+        }
+        plsom.setApproximateSearch(true);
+        plsom.setApproximateCheckInterval(1);
+        int count = 500;
+        for ( int x = 0;x<count;x++ )
+        {
+            tmp[0] = r.nextDouble()*2-1;
+            tmp[1] = r.nextDouble()*2-1;
+            plsom.classify(tmp);
+        }
+        // the first searches set the bucket width and are not checked
+        assertEquals((long)(count-ProjectionHashIndex.CALIBRATION_SAMPLES),plsom.getApproximateChecks());
+        assertTrue("Agreement "+plsom.getApproximateAgreement(),plsom.getApproximateAgreement()>=0.9);
+        // keep training, the nodes that move are rehashed
+        plsom.setApproximateCheckInterval(0);
+        for ( int x = 0;x< 1000;x++ )
+        {
+            tmp[0] = r.nextDouble()*2-1;
+            tmp[1] = r.nextDouble()*2-1;
+            plsom.train(tmp);
+        }
+        plsom.setApproximateCheckInterval(1);
+        long checks = plsom.getApproximateChecks();
+        double agreement = plsom.getApproximateAgreement();
+        for ( int x = 0;x<count;x++ )
+        {
+            tmp[0] = r.nextDouble()*2-1;
+            tmp[1] = r.nextDouble()*2-1;
+            plsom.classify(tmp);
+        }
+        assertEquals(checks+count,plsom.getApproximateChecks());
+        double agreementAfterTraining = (plsom.getApproximateAgreement()*plsom.getApproximateChecks()-agreement*checks)/count;
+        assertTrue("Agreement "+agreementAfterTraining,agreementAfterTraining>=0.9);
+    }
+
+    private static WeightMatrix randomWeights(Random r, int rowLength, int... dimensions)
+    {
+        WeightMatrix res = new WeightMatrix(rowLength,dimensions);
+        for(int x = 0;x<res.getData().length;x++)
+        {
+            res.getData()[x] = r.nextDouble()*2-1;
+        }
+        return res;
+    }
+
+    /**
+     * Hash the nodes, using the nodes themselves as samples.
+     */
+    private static ProjectionHashIndex build(WeightMatrix weights, Random r)
+    {
+        ProjectionHashIndex index = new ProjectionHashIndex(weights,weights.getRowLength(),4,8,1);
+        while (!index.isBuilt())
+        {
+            int node = r.nextInt(weights.getCount());
+            index.addSample(weights.getValueFromOffset(node),node);
+        }
+        return index;
+    }
+
+    /**
+     * @return the squared distance from each node to the input.
+     */
+    private static ParallelWinnerSearch.Evaluator distance(final WeightMatrix weights, final double [] input)
+    {
+        return new ParallelWinnerSearch.Evaluator()
+        {
+            public double evaluate(int offset, double bound)
+            {
+                double sum = 0;
+                for(int x = 0;x<input.length;x++)
+                {
+                    double diff = weights.getData()[weights.getRowOffset(offset)+x]-input[x];
+                    sum += diff*diff;
+                }
+                return sum;
+            }
+        };
+    }
+
+}
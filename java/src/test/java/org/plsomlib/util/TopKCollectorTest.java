@@ -0,0 +1,198 @@
+package org.plsomlib.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.plsomlib.PLSOM2;
+
+/**
+ * @author Erik Berglund
+ *
+ */
+public class TopKCollectorTest
+{
+
+    /**
+     * Test method for {@link org.plsomlib.util.TopKCollector#finish()}.
+     * The kept nodes must be the k best of those offered, best first, with
+     * ties going to the lowest offset and NaN values ignored.
+     */
+    @Test
+    public void testFinish()
+    {
+        Random r = new Random(3);
+        TopKCollector collector = new TopKCollector();
+        int count = 200;
+        double [] all = new double[count];
+        for(int k = 1;k<=12;k++)
+        {
+            for(int x = 0;x<count;x++)
+            {
+                // few distinct values, so that there are many ties
+                all[x] = x%17==0 ? Double.NaN : r.nextInt(10);
+            }
+            int [] offsets = new int[k+1];
+            double [] values = new double[k+1];
+            collector.reset(k,offsets,values);
+            // offer the nodes out of order
+            for(int x = 0;x<count;x++)
+            {
+                int offset = (x*37)%count;
+                collector.offer(offset,all[offset]);
+            }
+            assertEquals(k,collector.finish());
+            // the reference: repeatedly the best node not taken yet
+            boolean [] taken = new boolean[count];
+            for(int i = 0;i<k;i++)
+            {
+                int best = -1;
+                for(int x = 0;x<count;x++)
+                {
+                    if (!taken[x] && !Double.isNaN(all[x]) && (best<0 || all[x]<all[best]))
+                    {
+                        best = x;
+                    }
+                }
+                taken[best] = true;
+                assertEquals(best,offsets[i]);
+                assertEquals(all[best],values[i],0);
+            }
+        }
+    }
+
+    /**
+     * Test method for {@link org.plsomlib.util.TopKCollector#getBound()}.
+     */
+    @Test
+    public void testGetBound()
+    {
+        TopKCollector collector = new TopKCollector();
+        int [] offsets = new int[3];
+        double [] values = new double[3];
+        collector.reset(3,offsets,values);
+        collector.offer(0,5);
+        collector.offer(1,2);
+        assertEquals(Double.POSITIVE_INFINITY,collector.getBound(),0);
+        collector.offer(2,7);
+        assertEquals(7,collector.getBound(),0);
+        collector.offer(3,1);
+        assertEquals(5,collector.getBound(),0);
+        // an equal value with a higher offset is not better
+        collector.offer(4,5);
+        assertEquals(5,collector.getBound(),0);
+        assertEquals(3,collector.finish());
+        assertEquals(3,offsets[0]);
+        assertEquals(1,offsets[1]);
+        assertEquals(0,offsets[2]);
+    }
+
+    /**
+     * Fewer nodes than k are all kept.
+     */
+    @Test
+    public void testFewerThanK()
+    {
+        TopKCollector collector = new TopKCollector();
+        int [] offsets = new int[5];
+        double [] values = new double[5];
+        collector.reset(5,offsets,values);
+        collector.offer(8,3);
+        collector.offer(2,3);
+        collector.offer(5,Double.NaN);
+        assertEquals(2,collector.finish());
+        assertEquals(2,offsets[0]);
+        assertEquals(8,offsets[1]);
+        collector.reset(5,offsets,values);
+        assertEquals(0,collector.finish());
+    }
+
+    /**
+     * Test method for {@link org.plsomlib.util.TopKCollector#reset(int, int[], double[])}.
+     */
+    @Test
+    public void testReset()
+    {
+        TopKCollector collector = new TopKCollector();
+        try
+        {
+            collector.reset(0,new int[1],new double[1]);
+            fail("k=0 was accepted.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+        try
+        {
+            collector.reset(3,new int[3],new double[2]);
+            fail("Too short arrays were accepted.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+    }
+
+    /**
+     * The k nodes found by classifyTopK must be the k nodes closest to the
+     * input, with and without early abandoning.
+     */
+    @Test
+    public void testClassifyTopK() throws Exception
+    {
+        PLSOM2 plsom = new PLSOM2(3,50,60);
+        plsom.setNeighbourhoodRange(30);
+        plsom.setRandomSeed(13);
+        plsom.initWeights();
+        Random r = new Random(5);
+        double [] tmp = new double[3];
+        for ( int x = 0;x< 300;x++ )
+        {
+            for ( int i = 0;i<tmp.length;i++ )
+            {
+                tmp[i] = r.nextDouble()*2-1;
+            }
+            plsom.train(tmp);
+        }
+        int k = 10;
+        int [] offsets = new int[k];
+        double [] distances = new double[k];
+        int count = plsom.getWeights().getCount();
+        for ( int x = 0;x<50;x++ )
+        {
+            for ( int i = 0;i<tmp.length;i++ )
+            {
+                tmp[i] = r.nextDouble()*2-1;
+            }
+            plsom.setEarlyAbandon(x%2==0);
+            assertEquals(k,plsom.classifyTopK(tmp,k,offsets,distances));
+            assertEquals(plsom.getWeights().getOffset(plsom.classify(tmp)),offsets[0]);
+            // each node is at least as far as the one before, and no node
+            // outside the result is closer than the last one
+            boolean [] found = new boolean[count];
+            for ( int i = 0;i<k;i++ )
+            {
+                found[offsets[i]] = true;
+                assertEquals(plsom.getInputMetric().getDistance(plsom.getWeights().getValueFromOffset(offsets[i]),tmp),distances[i],1e-12);
+                if (i>0)
+                {
+                    assertTrue(distances[i]>=distances[i-1]);
+                }
+            }
+            for ( int node = 0;node<count;node++ )
+            {
+                if (!found[node])
+                {
+                    assertTrue(plsom.getInputMetric().getDistance(plsom.getWeights().getValueFromOffset(node),tmp)>=distances[k-1]);
+                }
+            }
+        }
+        // a small map has fewer nodes than requested
+        PLSOM2 small = new PLSOM2(3,2,2);
+        small.initWeights();
+        assertEquals(4,small.classifyTopK(tmp,k,offsets,distances));
+    }
+
+}
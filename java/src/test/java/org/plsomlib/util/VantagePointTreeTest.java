@@ -0,0 +1,189 @@
+package org.plsomlib.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.plsomlib.Classification;
+import org.plsomlib.PLSOM2;
+import org.plsomlib.metrics.EuclideanMetric;
+import org.plsomlib.metrics.Metric;
+import org.plsomlib.metrics.SquaredEuclideanMetric;
+
+/**
+ * @author Erik Berglund
+ *
+ */
+public class VantagePointTreeTest
+{
+
+    /**
+     * Test method for {@link org.plsomlib.util.VantagePointTree#findNearest(double[], int)}.
+     * The tree must find the same node as a scan of all nodes.
+     */
+    @Test
+    public void testFindNearest()
+    {
+        Random r = new Random(11);
+        WeightMatrix weights = new WeightMatrix(3,20,15);
+        for(int x = 0;x<weights.getData().length;x++)
+        {
+            weights.getData()[x] = r.nextDouble()*2-1;
+        }
+        Metric metric = new EuclideanMetric();
+        VantagePointTree tree = new VantagePointTree(weights,metric);
+        double [] input = new double[4];
+        for(int x = 0;x<1000;x++)
+        {
+            for(int i = 0;i<input.length;i++)
+            {
+                input[i] = r.nextDouble()*3-1.5;
+            }
+            assertEquals(scan(weights,metric,input,1),tree.findNearest(input,1));
+        }
+    }
+
+    /**
+     * Nodes with the same weights, and inputs halfway between nodes, must
+     * give the lowest offset among the nodes at the smallest distance.
+     */
+    @Test
+    public void testTiesAndDuplicates()
+    {
+        // 300 nodes at only 6 distinct points
+        WeightMatrix weights = new WeightMatrix(3,20,15);
+        for(int x = 0;x<weights.getCount();x++)
+        {
+            weights.setValueAtOffset(new double[]{x%3,(x/3)%2,0},x);
+        }
+        Metric metric = new EuclideanMetric();
+        VantagePointTree tree = new VantagePointTree(weights,metric);
+        double [] input = new double[3];
+        for(int x = -1;x<=5;x++)
+        {
+            for(int y = -1;y<=3;y++)
+            {
+                input[0] = x/2.0;
+                input[1] = y/2.0;
+                assertEquals(scan(weights,metric,input,0),tree.findNearest(input,0));
+            }
+        }
+        input[0] = 2;
+        input[1] = 1;
+        assertEquals(5,tree.findNearest(input,0));
+        // halfway between the nodes at offsets 0 and 1
+        input[0] = 0.5;
+        input[1] = 0;
+        assertEquals(0,tree.findNearest(input,0));
+        // all nodes equal
+        WeightMatrix same = new WeightMatrix(2,7,9);
+        for(int x = 0;x<same.getCount();x++)
+        {
+            same.setValueAtOffset(new double[]{0.25,-1},x);
+        }
+        assertEquals(0,new VantagePointTree(same,metric).findNearest(new double[]{3,3},0));
+    }
+
+    /**
+     * Test method for {@link org.plsomlib.util.VantagePointTree#VantagePointTree(WeightMatrix, Metric)}.
+     */
+    @Test
+    public void testUnsupportedMetric()
+    {
+        assertFalse(VantagePointTree.isSupported(new SquaredEuclideanMetric()));
+        try
+        {
+            new VantagePointTree(new WeightMatrix(2,3,3),new SquaredEuclideanMetric());
+            fail("The squared Euclidean distance does not obey the triangle inequality.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    /**
+     * A frozen map must find the same winners as a full scan, the lowest
+     * offset among nodes with equal weights, until the weights change.
+     */
+    @Test
+    public void testFreeze() throws Exception
+    {
+        PLSOM2 plsom = new PLSOM2(3,50,60);
+        plsom.setNeighbourhoodRange(30);
+        plsom.setRandomSeed(13);
+        plsom.initWeights();
+        Random r = new Random(5);
+        double [] tmp = new double[3];
+        for ( int x = 0;x< 1000;x++ )
+        {
+            for ( int i = 0;i<tmp.length;i++ )
+            {
+                tmp[i] = r.nextDouble()*2-1;
+            }
+            plsom.train(tmp);
+        }
+        // give two nodes the same weights, the lowest offset must win
+        plsom.setWeights(plsom.getWeights(7,3).clone(),40,50);
+        double [][] inputs = new double[500][];
+        int [] expected = new int[inputs.length];
+        Classification result = new Classification(2);
+        for ( int x = 0;x<inputs.length;x++ )
+        {
+            inputs[x] = new double[3];
+            for ( int i = 0;i<3;i++ )
+            {
+                inputs[x][i] = r.nextDouble()*2-1;
+            }
+            if (x==0)
+            {
+                inputs[x] = plsom.getWeights(7,3).clone();
+            }
+            expected[x] = plsom.classify(inputs[x],result).getOffset();
+        }
+        plsom.freeze();
+        assertTrue(plsom.isFrozen());
+        for ( int x = 0;x<inputs.length;x++ )
+        {
+            assertEquals(expected[x],plsom.classify(inputs[x],result).getOffset());
+            assertEquals(expected[x],plsom.getWeights().getOffset(plsom.classify(inputs[x])));
+        }
+        assertEquals(plsom.getWeights().getOffset(new int[]{7,3}),plsom.classify(inputs[0],result).getOffset());
+        assertEquals(0,result.getDistance(),0);
+        // training changes the weights, which unfreezes the map
+        plsom.train(tmp);
+        assertFalse(plsom.isFrozen());
+        plsom.setInputMetric(new SquaredEuclideanMetric());
+        try
+        {
+            plsom.freeze();
+            fail("The squared Euclidean distance does not obey the triangle inequality.");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // expected
+        }
+    }
+
+    /**
+     * @return the offset of the node closest to the input, the lowest offset
+     *         among equal distances.
+     */
+    private static int scan(WeightMatrix weights, Metric metric, double [] input, int inputOffset)
+    {
+        int best = -1;
+        double min = Double.POSITIVE_INFINITY;
+        for(int x = 0;x<weights.getCount();x++)
+        {
+            double distance = metric.getComparableDistance(weights.getData(),weights.getRowOffset(x),input,inputOffset,weights.getRowLength());
+            if (distance<min)
+            {
+                min = distance;
+                best = x;
+            }
+        }
+        return best;
+    }
+
+}
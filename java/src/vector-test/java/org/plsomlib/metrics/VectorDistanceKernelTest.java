@@ -0,0 +1,247 @@
+package org.plsomlib.metrics;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares VectorDistanceKernel with ScalarDistanceKernel. Built and run by
+ * the vector profile of the benchmarks module, with --add-modules
+ * jdk.incubator.vector. The lengths cover vectors that do not fill a whole
+ * number of SIMD registers, and the slices start at offsets that are not
+ * aligned to a register.
+ *
+ * @author Erik Berglund
+ */
+public class VectorDistanceKernelTest
+{
+    /**
+     * Longer than several blocks of the bounded loops on any platform.
+     */
+    private static final int MAX_LENGTH = 67;
+    private static final int MAX_OFFSET = 3;
+
+    private ScalarDistanceKernel scalar;
+    private VectorDistanceKernel vector;
+    private Random random;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        scalar = new ScalarDistanceKernel();
+        vector = new VectorDistanceKernel();
+        random = new Random(17);
+    }
+
+    /**
+     * With the module present, the SIMD kernel must be selected, or the
+     * reason it was not must be known.
+     */
+    @Test
+    public void testGetInstance()
+    {
+        assertTrue(String.valueOf(DistanceKernel.getVectorKernelFailure()), DistanceKernel.getInstance() instanceof VectorDistanceKernel);
+        assertNull(DistanceKernel.getVectorKernelFailure());
+    }
+
+    @Test
+    public void testSquaredDistance()
+    {
+        for (int length = 0; length <= MAX_LENGTH; length++)
+        {
+            for (int offset = 0; offset <= MAX_OFFSET; offset++)
+            {
+                double[] a = randomArray(offset + length);
+                double[] b = randomArray(length + 1);
+                assertClose(scalar.squaredDistance(a, offset, b, 1, length), vector.squaredDistance(a, offset, b, 1, length));
+            }
+        }
+    }
+
+    @Test
+    public void testWeightedSquaredDistance()
+    {
+        for (int length = 0; length <= MAX_LENGTH; length++)
+        {
+            for (int offset = 0; offset <= MAX_OFFSET; offset++)
+            {
+                double[] a = randomArray(offset + length);
+                double[] b = randomArray(length);
+                double[] weights = randomWeights(length);
+                assertClose(scalar.weightedSquaredDistance(a, offset, b, 0, weights, length), vector.weightedSquaredDistance(a, offset, b,
+                        0, weights, length));
+            }
+        }
+    }
+
+    @Test
+    public void testDotProduct()
+    {
+        for (int length = 0; length <= MAX_LENGTH; length++)
+        {
+            for (int offset = 0; offset <= MAX_OFFSET; offset++)
+            {
+                double[] a = randomArray(offset + length);
+                double[] b = randomArray(length + 2);
+                assertClose(scalar.dotProduct(a, offset, b, 2, length), vector.dotProduct(a, offset, b, 2, length));
+            }
+        }
+    }
+
+    @Test
+    public void testDotProduct4()
+    {
+        for (int length = 0; length <= MAX_LENGTH; length++)
+        {
+            for (int offset = 0; offset <= MAX_OFFSET; offset++)
+            {
+                // rows with some padding between them, as in a matrix with
+                // longer rows
+                int stride = length + offset;
+                double[] a = randomArray(length);
+                double[] b = randomArray(offset + 4 * stride);
+                double[] expected = new double[5];
+                double[] actual = new double[5];
+                scalar.dotProduct4(a, 0, b, offset, stride, length, expected, 1);
+                vector.dotProduct4(a, 0, b, offset, stride, length, actual, 1);
+                assertEquals(0, actual[0], 0);
+                for (int x = 1; x < expected.length; x++)
+                {
+                    assertClose(expected[x], actual[x]);
+                }
+            }
+        }
+    }
+
+    /**
+     * A bound above the distance must give the distance, a bound below it a
+     * partial sum above the bound, which may stop at another element than the
+     * scalar loop.
+     */
+    @Test
+    public void testBoundedSquaredDistance()
+    {
+        for (int length = 1; length <= MAX_LENGTH; length++)
+        {
+            for (int offset = 0; offset <= MAX_OFFSET; offset++)
+            {
+                double[] a = randomArray(offset + length);
+                double[] b = randomArray(length);
+                double[] weights = randomWeights(length);
+                double full = scalar.squaredDistance(a, offset, b, 0, length);
+                assertClose(full, vector.boundedSquaredDistance(a, offset, b, 0, length, null, full * 2));
+                assertTrue(vector.boundedSquaredDistance(a, offset, b, 0, length, null, full / 4) > full / 4);
+                double weighted = scalar.weightedSquaredDistance(a, offset, b, 0, weights, length);
+                assertClose(weighted, vector.boundedWeightedSquaredDistance(a, offset, b, 0, weights, length, null, weighted * 2));
+                assertTrue(vector.boundedWeightedSquaredDistance(a, offset, b, 0, weights, length, null, weighted / 4) > weighted / 4);
+                // a visiting order makes the vector kernel use the scalar loop
+                int[] order = reversed(length);
+                assertClose(scalar.boundedSquaredDistance(a, offset, b, 0, length, order, full / 4), vector.boundedSquaredDistance(a,
+                        offset, b, 0, length, order, full / 4));
+            }
+        }
+    }
+
+    /**
+     * The float weights are widened to doubles, the results must match the
+     * scalar kernel, which widens each weight on its own.
+     */
+    @Test
+    public void testFloatDistances()
+    {
+        for (int length = 1; length <= MAX_LENGTH; length++)
+        {
+            for (int offset = 0; offset <= MAX_OFFSET; offset++)
+            {
+                float[] a = new float[offset + length];
+                for (int x = 0; x < a.length; x++)
+                {
+                    a[x] = (float) (random.nextDouble() * 2 - 1);
+                }
+                double[] b = randomArray(length);
+                double[] weights = randomWeights(length);
+                double full = scalar.squaredDistance(a, offset, b, 0, length);
+                assertClose(full, vector.squaredDistance(a, offset, b, 0, length));
+                assertClose(scalar.weightedSquaredDistance(a, offset, b, 0, weights, length), vector.weightedSquaredDistance(a, offset, b,
+                        0, weights, length));
+                assertClose(full, vector.boundedSquaredDistance(a, offset, b, 0, length, null, full * 2));
+                assertTrue(vector.boundedSquaredDistance(a, offset, b, 0, length, null, full / 4) > full / 4);
+            }
+        }
+    }
+
+    /**
+     * Off-heap weights are read in the byte order of their buffer, native for
+     * allocated buffers and little-endian for mapped files.
+     */
+    @Test
+    public void testByteBufferDistances()
+    {
+        ByteOrder[] orders = new ByteOrder[]{ByteOrder.nativeOrder(), ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN};
+        for (ByteOrder byteOrder : orders)
+        {
+            for (int length = 1; length <= MAX_LENGTH; length++)
+            {
+                for (int offset = 0; offset <= MAX_OFFSET; offset++)
+                {
+                    ByteBuffer a = ByteBuffer.allocateDirect((offset + length) * Double.BYTES).order(byteOrder);
+                    for (int x = 0; x < offset + length; x++)
+                    {
+                        a.putDouble(x * Double.BYTES, random.nextDouble() * 2 - 1);
+                    }
+                    double[] b = randomArray(length);
+                    double[] weights = randomWeights(length);
+                    double full = scalar.squaredDistance(a, offset, b, 0, length);
+                    assertClose(full, vector.squaredDistance(a, offset, b, 0, length));
+                    assertClose(scalar.weightedSquaredDistance(a, offset, b, 0, weights, length), vector.weightedSquaredDistance(a, offset,
+                            b, 0, weights, length));
+                    assertClose(full, vector.boundedSquaredDistance(a, offset, b, 0, length, null, full * 2));
+                    assertTrue(vector.boundedSquaredDistance(a, offset, b, 0, length, null, full / 4) > full / 4);
+                }
+            }
+        }
+    }
+
+    private double[] randomArray(int length)
+    {
+        double[] res = new double[length];
+        for (int x = 0; x < length; x++)
+        {
+            res[x] = random.nextDouble() * 2 - 1;
+        }
+        return res;
+    }
+
+    private double[] randomWeights(int length)
+    {
+        double[] res = new double[length];
+        for (int x = 0; x < length; x++)
+        {
+            res[x] = random.nextDouble();
+        }
+        return res;
+    }
+
+    private static int[] reversed(int length)
+    {
+        int[] res = new int[length];
+        for (int x = 0; x < length; x++)
+        {
+            res[x] = length - 1 - x;
+        }
+        return res;
+    }
+
+    /**
+     * The vector kernel adds in another order, so allow for rounding.
+     */
+    private static void assertClose(double expected, double actual)
+    {
+        assertEquals(expected, actual, 1e-12 * Math.max(1, Math.abs(expected)));
+    }
+}
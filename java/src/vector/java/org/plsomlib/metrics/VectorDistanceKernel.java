@@ -0,0 +1,378 @@
+package org.plsomlib.metrics;
+
+import java.nio.ByteBuffer;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A DistanceKernel using the Java Vector API, so that the distance loops are
+ * executed with SIMD instructions. The elements that do not fill a whole
+ * vector are handled by a scalar loop.
+ * 
+ * This class must be compiled and run with --add-modules
+ * jdk.incubator.vector. DistanceKernel.getInstance() selects it automatically
+ * when it is on the classpath and the module is present.
+ * 
+ * @author Erik Berglund
+ */
+public class VectorDistanceKernel extends DistanceKernel
+{
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	/**
+	 * The float vectors with as many lanes as SPECIES, so that a vector of
+	 * floats read from a FloatWeightMatrix widens to exactly one vector of
+	 * doubles.
+	 */
+	private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED.withShape(VectorShape.forBitSize(SPECIES
+			.vectorBitSize() / 2));
+
+	/**
+	 * The number of vectors accumulated between each comparison with the
+	 * bound in the bounded distance calculations.
+	 */
+	private static final int BOUND_CHECK_INTERVAL = 4;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             if the platform has no SIMD registers wider than one double.
+	 */
+	public VectorDistanceKernel()
+	{
+		if (SPECIES.length() < 2)
+		{
+			throw new UnsupportedOperationException("No SIMD support for doubles on this platform.");
+		}
+	}
+
+	/**
+	 * @see org.plsomlib.metrics.DistanceKernel#squaredDistance(double[], int,
+	 *      double[], int, int)
+	 */
+	@Override
+	public double squaredDistance(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length)
+	{
+		int x = 0;
+		final int bound = SPECIES.loopBound(length);
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+		for (; x < bound; x += SPECIES.length())
+		{
+			DoubleVector diff = DoubleVector.fromArray(SPECIES, a, aOffset + x).sub(DoubleVector.fromArray(SPECIES, b, bOffset + x));
+			sum = diff.fma(diff, sum);
+		}
+		double res = sum.reduceLanes(VectorOperators.ADD);
+		for (; x < length; x++)
+		{
+			final double diff = a[aOffset + x] - b[bOffset + x];
+			res += diff * diff;
+		}
+		return res;
+	}
+
+	/**
+	 * @see org.plsomlib.metrics.DistanceKernel#weightedSquaredDistance(double[],
+	 *      int, double[], int, double[], int)
+	 */
+	@Override
+	public double weightedSquaredDistance(final double[] a, final int aOffset, final double[] b, final int bOffset, final double[] weights,
+			final int length)
+	{
+		int x = 0;
+		final int bound = SPECIES.loopBound(length);
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+		for (; x < bound; x += SPECIES.length())
+		{
+			DoubleVector diff = DoubleVector.fromArray(SPECIES, a, aOffset + x).sub(DoubleVector.fromArray(SPECIES, b, bOffset + x));
+			sum = diff.mul(diff).fma(DoubleVector.fromArray(SPECIES, weights, x), sum);
+		}
+		double res = sum.reduceLanes(VectorOperators.ADD);
+		for (; x < length; x++)
+		{
+			final double diff = a[aOffset + x] - b[bOffset + x];
+			res += diff * diff * weights[x];
+		}
+		return res;
+	}
+
+	/**
+	 * @see org.plsomlib.metrics.DistanceKernel#dotProduct(double[], int,
+	 *      double[], int, int)
+	 */
+	@Override
+	public double dotProduct(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length)
+	{
+		int x = 0;
+		final int bound = SPECIES.loopBound(length);
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+		for (; x < bound; x += SPECIES.length())
+		{
+			sum = DoubleVector.fromArray(SPECIES, a, aOffset + x).fma(DoubleVector.fromArray(SPECIES, b, bOffset + x), sum);
+		}
+		double res = sum.reduceLanes(VectorOperators.ADD);
+		for (; x < length; x++)
+		{
+			res += a[aOffset + x] * b[bOffset + x];
+		}
+		return res;
+	}
+
+	/**
+	 * @see org.plsomlib.metrics.DistanceKernel#dotProduct4(double[], int,
+	 *      double[], int, int, int, double[], int)
+	 */
+	@Override
+	public void dotProduct4(final double[] a, final int aOffset, final double[] b, final int bOffset, final int bStride, final int length,
+			final double[] res, final int resOffset)
+	{
+		final int b1 = bOffset + bStride;
+		final int b2 = b1 + bStride;
+		final int b3 = b2 + bStride;
+		int x = 0;
+		final int bound = SPECIES.loopBound(length);
+		DoubleVector sum0 = DoubleVector.zero(SPECIES);
+		DoubleVector sum1 = DoubleVector.zero(SPECIES);
+		DoubleVector sum2 = DoubleVector.zero(SPECIES);
+		DoubleVector sum3 = DoubleVector.zero(SPECIES);
+		for (; x < bound; x += SPECIES.length())
+		{
+			DoubleVector value = DoubleVector.fromArray(SPECIES, a, aOffset + x);
+			sum0 = value.fma(DoubleVector.fromArray(SPECIES, b, bOffset + x), sum0);
+			sum1 = value.fma(DoubleVector.fromArray(SPECIES, b, b1 + x), sum1);
+			sum2 = value.fma(DoubleVector.fromArray(SPECIES, b, b2 + x), sum2);
+			sum3 = value.fma(DoubleVector.fromArray(SPECIES, b, b3 + x), sum3);
+		}
+		double dot0 = sum0.reduceLanes(VectorOperators.ADD);
+		double dot1 = sum1.reduceLanes(VectorOperators.ADD);
+		double dot2 = sum2.reduceLanes(VectorOperators.ADD);
+		double dot3 = sum3.reduceLanes(VectorOperators.ADD);
+		for (; x < length; x++)
+		{
+			final double value = a[aOffset + x];
+			dot0 += value * b[bOffset + x];
+			dot1 += value * b[b1 + x];
+			dot2 += value * b[b2 + x];
+			dot3 += value * b[b3 + x];
+		}
+		res[resOffset] = dot0;
+		res[resOffset + 1] = dot1;
+		res[resOffset + 2] = dot2;
+		res[resOffset + 3] = dot3;
+	}
+
+	/**
+	 * Visits the elements in blocks of several vectors and compares the
+	 * partial sum with the bound after each block. When an order is given the
+	 * elements are not contiguous, and the scalar implementation is used.
+	 * 
+	 * @see org.plsomlib.metrics.DistanceKernel#boundedSquaredDistance(double[],
+	 *      int, double[], int, int, int[], double)
+	 */
+	@Override
+	public double boundedSquaredDistance(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length,
+			final int[] order, final double bound)
+	{
+		if (order != null)
+		{
+			return super.boundedSquaredDistance(a, aOffset, b, bOffset, length, order, bound);
+		}
+		final int step = SPECIES.length() * BOUND_CHECK_INTERVAL;
+		double res = 0;
+		int x = 0;
+		while (x + step <= length)
+		{
+			DoubleVector sum = DoubleVector.zero(SPECIES);
+			for (int end = x + step; x < end; x += SPECIES.length())
+			{
+				DoubleVector diff = DoubleVector.fromArray(SPECIES, a, aOffset + x).sub(DoubleVector.fromArray(SPECIES, b, bOffset + x));
+				sum = diff.fma(diff, sum);
+			}
+			res += sum.reduceLanes(VectorOperators.ADD);
+			if (res > bound)
+			{
+				return res;
+			}
+		}
+		return res + squaredDistance(a, aOffset + x, b, bOffset + x, length - x);
+	}
+
+	/**
+	 * Visits the elements in blocks of several vectors and compares the
+	 * partial sum with the bound after each block. When an order is given the
+	 * elements are not contiguous, and the scalar implementation is used.
+	 * 
+	 * @see org.plsomlib.metrics.DistanceKernel#boundedWeightedSquaredDistance(double[],
+	 *      int, double[], int, double[], int, int[], double)
+	 */
+	@Override
+	public double boundedWeightedSquaredDistance(final double[] a, final int aOffset, final double[] b, final int bOffset, final double[] weights,
+			final int length, final int[] order, final double bound)
+	{
+		if (order != null)
+		{
+			return super.boundedWeightedSquaredDistance(a, aOffset, b, bOffset, weights, length, order, bound);
+		}
+		final int step = SPECIES.length() * BOUND_CHECK_INTERVAL;
+		double res = 0;
+		int x = 0;
+		while (x + step <= length)
+		{
+			DoubleVector sum = DoubleVector.zero(SPECIES);
+			for (int end = x + step; x < end; x += SPECIES.length())
+			{
+				DoubleVector diff = DoubleVector.fromArray(SPECIES, a, aOffset + x).sub(DoubleVector.fromArray(SPECIES, b, bOffset + x));
+				sum = diff.mul(diff).fma(DoubleVector.fromArray(SPECIES, weights, x), sum);
+			}
+			res += sum.reduceLanes(VectorOperators.ADD);
+			if (res > bound)
+			{
+				return res;
+			}
+		}
+		for (; x < length; x++)
+		{
+			final double diff = a[aOffset + x] - b[bOffset + x];
+			res += diff * diff * weights[x];
+		}
+		return res;
+	}
+
+	/**
+	 * Reads the floats half a register at a time and widens them to doubles.
+	 * 
+	 * @see org.plsomlib.metrics.DistanceKernel#squaredDistance(float[], int,
+	 *      double[], int, int)
+	 */
+	@Override
+	public double squaredDistance(final float[] a, final int aOffset, final double[] b, final int bOffset, final int length)
+	{
+		int x = 0;
+		final int bound = SPECIES.loopBound(length);
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+		for (; x < bound; x += SPECIES.length())
+		{
+			DoubleVector diff = widen(a, aOffset + x).sub(DoubleVector.fromArray(SPECIES, b, bOffset + x));
+			sum = diff.fma(diff, sum);
+		}
+		double res = sum.reduceLanes(VectorOperators.ADD);
+		for (; x < length; x++)
+		{
+			final double diff = a[aOffset + x] - b[bOffset + x];
+			res += diff * diff;
+		}
+		return res;
+	}
+
+	/**
+	 * Visits the elements in blocks of several vectors and compares the
+	 * partial sum with the bound after each block. When an order is given the
+	 * elements are not contiguous, and the scalar implementation is used.
+	 * 
+	 * @see org.plsomlib.metrics.DistanceKernel#boundedSquaredDistance(float[],
+	 *      int, double[], int, int, int[], double)
+	 */
+	@Override
+	public double boundedSquaredDistance(final float[] a, final int aOffset, final double[] b, final int bOffset, final int length,
+			final int[] order, final double bound)
+	{
+		if (order != null)
+		{
+			return super.boundedSquaredDistance(a, aOffset, b, bOffset, length, order, bound);
+		}
+		final int step = SPECIES.length() * BOUND_CHECK_INTERVAL;
+		double res = 0;
+		int x = 0;
+		while (x + step <= length)
+		{
+			DoubleVector sum = DoubleVector.zero(SPECIES);
+			for (int end = x + step; x < end; x += SPECIES.length())
+			{
+				DoubleVector diff = widen(a, aOffset + x).sub(DoubleVector.fromArray(SPECIES, b, bOffset + x));
+				sum = diff.fma(diff, sum);
+			}
+			res += sum.reduceLanes(VectorOperators.ADD);
+			if (res > bound)
+			{
+				return res;
+			}
+		}
+		return res + squaredDistance(a, aOffset + x, b, bOffset + x, length - x);
+	}
+
+	/**
+	 * Reads the doubles straight from the buffer, in its byte order.
+	 * 
+	 * @see org.plsomlib.metrics.DistanceKernel#squaredDistance(ByteBuffer,
+	 *      int, double[], int, int)
+	 */
+	@Override
+	public double squaredDistance(final ByteBuffer a, final int aOffset, final double[] b, final int bOffset, final int length)
+	{
+		int x = 0;
+		final int bound = SPECIES.loopBound(length);
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+		for (; x < bound; x += SPECIES.length())
+		{
+			DoubleVector diff = DoubleVector.fromByteBuffer(SPECIES, a, (aOffset + x) * Double.BYTES, a.order()).sub(
+					DoubleVector.fromArray(SPECIES, b, bOffset + x));
+			sum = diff.fma(diff, sum);
+		}
+		double res = sum.reduceLanes(VectorOperators.ADD);
+		for (; x < length; x++)
+		{
+			final double diff = a.getDouble((aOffset + x) * Double.BYTES) - b[bOffset + x];
+			res += diff * diff;
+		}
+		return res;
+	}
+
+	/**
+	 * Visits the elements in blocks of several vectors and compares the
+	 * partial sum with the bound after each block. When an order is given the
+	 * elements are not contiguous, and the scalar implementation is used.
+	 * 
+	 * @see org.plsomlib.metrics.DistanceKernel#boundedSquaredDistance(ByteBuffer,
+	 *      int, double[], int, int, int[], double)
+	 */
+	@Override
+	public double boundedSquaredDistance(final ByteBuffer a, final int aOffset, final double[] b, final int bOffset, final int length,
+			final int[] order, final double bound)
+	{
+		if (order != null)
+		{
+			return super.boundedSquaredDistance(a, aOffset, b, bOffset, length, order, bound);
+		}
+		final int step = SPECIES.length() * BOUND_CHECK_INTERVAL;
+		double res = 0;
+		int x = 0;
+		while (x + step <= length)
+		{
+			DoubleVector sum = DoubleVector.zero(SPECIES);
+			for (int end = x + step; x < end; x += SPECIES.length())
+			{
+				DoubleVector diff = DoubleVector.fromByteBuffer(SPECIES, a, (aOffset + x) * Double.BYTES, a.order()).sub(
+						DoubleVector.fromArray(SPECIES, b, bOffset + x));
+				sum = diff.fma(diff, sum);
+			}
+			res += sum.reduceLanes(VectorOperators.ADD);
+			if (res > bound)
+			{
+				return res;
+			}
+		}
+		return res + squaredDistance(a, aOffset + x, b, bOffset + x, length - x);
+	}
+
+	/**
+	 * Read one vector of floats and widen it to a vector of doubles.
+	 */
+	private static DoubleVector widen(final float[] a, final int offset)
+	{
+		return (DoubleVector) FloatVector.fromArray(FLOAT_SPECIES, a, offset).convertShape(VectorOperators.F2D, SPECIES, 0);
+	}
+}